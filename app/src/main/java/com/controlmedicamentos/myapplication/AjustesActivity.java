@@ -17,15 +17,20 @@ import com.google.android.material.button.MaterialButton;
 import com.google.android.material.textfield.TextInputEditText;
 import com.google.android.material.textfield.TextInputLayout;
 import com.controlmedicamentos.myapplication.R;
+import com.controlmedicamentos.myapplication.services.ArchivoTomas;
+import com.controlmedicamentos.myapplication.services.CopiaSeguridad;
+import com.controlmedicamentos.myapplication.services.Dependencias;
+import com.controlmedicamentos.myapplication.services.MetricasFirebase;
 
 public class AjustesActivity extends AppCompatActivity {
 
     private TextInputEditText etNombre, etEmail, etTelefono, etEdad;
     private TextInputLayout tilNombre, tilEmail, tilTelefono, tilEdad;
-    private Switch switchNotificaciones, switchVibracion, switchSonido;
+    private Switch switchNotificaciones, switchVibracion, switchSonido, switchArchivoTomas;
     private SeekBar seekBarVolumen, seekBarRepeticiones;
     private TextView tvVolumen, tvRepeticiones, tvDiasAntelacion;
     private MaterialButton btnGuardar, btnDiasAntelacion, btnLogout, btnEliminarCuenta;
+    private MaterialButton btnCrearCopia, btnRestaurarCopia, btnDiagnostico;
     private MaterialButton btnNavHome, btnNavNuevaMedicina, btnNavBotiquin, btnNavAjustes;
     
     // Google Calendar
@@ -53,14 +58,23 @@ public class AjustesActivity extends AppCompatActivity {
 
         // Inicializar servicios primero
         authService = new com.controlmedicamentos.myapplication.services.AuthService();
-        firebaseService = new com.controlmedicamentos.myapplication.services.FirebaseService();
         googleCalendarAuthService = new com.controlmedicamentos.myapplication.services.GoogleCalendarAuthService(this);
 
         inicializarVistas();
-        cargarDatosUsuario(); // Cargar desde Firebase
         cargarPreferencias(); // Cargar configuraciones locales
         verificarConexionGoogleCalendar(); // Verificar si Google Calendar está conectado
         configurarListeners();
+
+        // Firestore se prepara en segundo plano: hasta que esté listo no se puede guardar
+        btnGuardar.setEnabled(false);
+        Dependencias.de(this).obtenerServicios((servicioFirebase, servicioTomas) -> {
+            if (isFinishing() || isDestroyed()) {
+                return;
+            }
+            firebaseService = servicioFirebase;
+            btnGuardar.setEnabled(true);
+            cargarDatosUsuario(); // Cargar desde Firebase
+        });
     }
 
     private void inicializarVistas() {
@@ -78,6 +92,7 @@ public class AjustesActivity extends AppCompatActivity {
         switchNotificaciones = findViewById(R.id.switchNotificaciones);
         switchVibracion = findViewById(R.id.switchVibracion);
         switchSonido = findViewById(R.id.switchSonido);
+        switchArchivoTomas = findViewById(R.id.switchArchivoTomas);
 
         // SeekBars
         seekBarVolumen = findViewById(R.id.seekBarVolumen);
@@ -93,6 +108,9 @@ public class AjustesActivity extends AppCompatActivity {
         btnDiasAntelacion = findViewById(R.id.btnDiasAntelacion);
         btnLogout = findViewById(R.id.btnLogout);
         btnEliminarCuenta = findViewById(R.id.btnEliminarCuenta);
+        btnCrearCopia = findViewById(R.id.btnCrearCopia);
+        btnRestaurarCopia = findViewById(R.id.btnRestaurarCopia);
+        btnDiagnostico = findViewById(R.id.btnDiagnostico);
         
         // Botones de navegación
         btnNavHome = findViewById(R.id.btnNavHome);
@@ -213,6 +231,7 @@ public class AjustesActivity extends AppCompatActivity {
         switchNotificaciones.setChecked(preferences.getBoolean("notificaciones", true));
         switchVibracion.setChecked(preferences.getBoolean("vibracion", true));
         switchSonido.setChecked(preferences.getBoolean("sonido", true));
+        switchArchivoTomas.setChecked(new ArchivoTomas(this).isActivado());
 
         // Cargar configuraciones de volumen y repeticiones
         int volumen = preferences.getInt("volumen", 70);
@@ -295,6 +314,19 @@ public class AjustesActivity extends AppCompatActivity {
             }
         });
 
+        // Se guarda al instante: activarlo borra datos, así que pide confirmación
+        switchArchivoTomas.setOnCheckedChangeListener((boton, activado) -> {
+            if (activado) {
+                confirmarArchivoTomas();
+            } else {
+                new ArchivoTomas(this).setActivado(false);
+            }
+        });
+
+        btnCrearCopia.setOnClickListener(v -> elegirDestinoCopia());
+        btnRestaurarCopia.setOnClickListener(v -> elegirCopiaParaRestaurar());
+        btnDiagnostico.setOnClickListener(v -> mostrarDiagnostico());
+
         // Google Calendar listeners
         btnConectarGoogleCalendar.setOnClickListener(new View.OnClickListener() {
             @Override
@@ -397,6 +429,23 @@ public class AjustesActivity extends AppCompatActivity {
         });
     }
 
+    /**
+     * Advierte que la web deja de ver las tomas archivadas; si el usuario cancela, el switch vuelve a apagarse
+     */
+    private void confirmarArchivoTomas() {
+        ArchivoTomas archivoTomas = new ArchivoTomas(this);
+        if (archivoTomas.isActivado()) {
+            return;
+        }
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.archivar_tomas_titulo)
+                .setMessage(getString(R.string.archivar_tomas_advertencia, archivoTomas.getHorizonteDias()))
+                .setPositiveButton(R.string.archivar_tomas_activar, (dialog, which) -> archivoTomas.setActivado(true))
+                .setNegativeButton("Cancelar", (dialog, which) -> switchArchivoTomas.setChecked(false))
+                .setOnCancelListener(dialog -> switchArchivoTomas.setChecked(false))
+                .show();
+    }
+
     private void mostrarDialogoDiasAntelacion() {
         String[] opciones = {"1 día", "2 días", "3 días", "5 días", "7 días"};
         int[] valores = {1, 2, 3, 5, 7};
@@ -522,6 +571,133 @@ public class AjustesActivity extends AppCompatActivity {
             .show();
     }
     
+    // ==================== COPIA DE SEGURIDAD ====================
+    
+    private void elegirDestinoCopia() {
+        Intent intent = new Intent(Intent.ACTION_CREATE_DOCUMENT);
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+        intent.setType(CopiaSeguridad.TIPO_MIME);
+        intent.putExtra(Intent.EXTRA_TITLE, "control_medicamentos_" + java.time.LocalDate.now() + ".json.gz");
+        startActivityForResult(intent, RC_CREAR_COPIA);
+    }
+    
+    private void elegirCopiaParaRestaurar() {
+        Intent intent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+        // No todos los proveedores reconocen el tipo gzip
+        intent.setType("*/*");
+        startActivityForResult(intent, RC_RESTAURAR_COPIA);
+    }
+    
+    private void crearCopia(android.net.Uri destino) {
+        AlertDialog progressDialog = mostrarProgresoCopia("Creando copia de seguridad...");
+        new CopiaSeguridad(this).crear(destino,
+            documentos -> progressDialog.setMessage(documentos + " registros copiados"),
+            new com.controlmedicamentos.myapplication.services.FirebaseService.FirestoreCallback() {
+                @Override
+                public void onSuccess(Object result) {
+                    progressDialog.dismiss();
+                    Toast.makeText(AjustesActivity.this,
+                        "Copia de seguridad creada (" + result + " registros)", Toast.LENGTH_LONG).show();
+                }
+                
+                @Override
+                public void onError(Exception exception) {
+                    progressDialog.dismiss();
+                    Toast.makeText(AjustesActivity.this,
+                        "Error al crear la copia: " +
+                        (exception != null ? exception.getMessage() : "Error desconocido"),
+                        Toast.LENGTH_LONG).show();
+                }
+            });
+    }
+    
+    private void confirmarRestauracion(android.net.Uri origen) {
+        new AlertDialog.Builder(this)
+            .setTitle("Restaurar copia de seguridad")
+            .setMessage("Los medicamentos y tomas de la copia se agregarán a tu cuenta, y reemplazarán " +
+                "a los que tengan el mismo origen. También se restaurarán tus ajustes.")
+            .setPositiveButton("Restaurar", (dialog, which) -> restaurarCopia(origen))
+            .setNegativeButton("Cancelar", null)
+            .show();
+    }
+    
+    private void restaurarCopia(android.net.Uri origen) {
+        AlertDialog progressDialog = mostrarProgresoCopia("Restaurando copia de seguridad...");
+        new CopiaSeguridad(this).restaurar(origen,
+            documentos -> progressDialog.setMessage(documentos + " registros restaurados"),
+            new com.controlmedicamentos.myapplication.services.FirebaseService.FirestoreCallback() {
+                @Override
+                public void onSuccess(Object result) {
+                    progressDialog.dismiss();
+                    cargarPreferencias();
+                    Toast.makeText(AjustesActivity.this,
+                        "Copia restaurada (" + result + " registros)", Toast.LENGTH_LONG).show();
+                }
+                
+                @Override
+                public void onError(Exception exception) {
+                    progressDialog.dismiss();
+                    Toast.makeText(AjustesActivity.this,
+                        "Error al restaurar la copia: " +
+                        (exception != null ? exception.getMessage() : "Error desconocido") +
+                        ". Puedes volver a intentarlo para continuar.",
+                        Toast.LENGTH_LONG).show();
+                }
+            });
+    }
+    
+    private AlertDialog mostrarProgresoCopia(String titulo) {
+        android.widget.ProgressBar progressBar = new android.widget.ProgressBar(this);
+        progressBar.setIndeterminate(true);
+        return new AlertDialog.Builder(this)
+            .setTitle(titulo)
+            .setMessage("Por favor espera...")
+            .setView(progressBar)
+            .setCancelable(false)
+            .show();
+    }
+    
+    /**
+     * Métricas de las operaciones de Firestore de esta sesión (latencias, errores y documentos)
+     */
+    private void mostrarDiagnostico() {
+        TextView tvMetricas = new TextView(this);
+        tvMetricas.setTypeface(android.graphics.Typeface.MONOSPACE);
+        tvMetricas.setTextSize(12);
+        int padding = getResources().getDimensionPixelSize(R.dimen.margin_medium);
+        tvMetricas.setPadding(padding, padding, padding, padding);
+        tvMetricas.setText(MetricasFirebase.getInstance().getResumen());
+        android.widget.ScrollView scrollView = new android.widget.ScrollView(this);
+        scrollView.addView(tvMetricas);
+
+        new AlertDialog.Builder(this)
+            .setTitle("Diagnóstico de Firestore")
+            .setView(scrollView)
+            .setPositiveButton("Exportar", (dialog, which) -> exportarMetricas())
+            .setNeutralButton("Reiniciar", (dialog, which) -> {
+                MetricasFirebase.getInstance().reiniciar();
+                Toast.makeText(this, "Métricas reiniciadas", Toast.LENGTH_SHORT).show();
+            })
+            .setNegativeButton("Cerrar", null)
+            .show();
+    }
+
+    private void exportarMetricas() {
+        try {
+            android.net.Uri uri = MetricasFirebase.getInstance().exportar(this);
+            Intent intent = new Intent(Intent.ACTION_SEND);
+            intent.setType("application/json");
+            intent.putExtra(Intent.EXTRA_STREAM, uri);
+            intent.putExtra(Intent.EXTRA_SUBJECT, "Métricas de Firestore");
+            intent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+            startActivity(Intent.createChooser(intent, "Compartir métricas"));
+        } catch (java.io.IOException e) {
+            android.util.Log.e("AjustesActivity", "Error al exportar métricas", e);
+            Toast.makeText(this, "No se pudieron exportar las métricas", Toast.LENGTH_LONG).show();
+        }
+    }
+    
     private void procesarEliminacionCuenta(String email, String password, boolean esGoogle) {
         // Mostrar progreso
         android.widget.ProgressBar progressBar = new android.widget.ProgressBar(this);
@@ -537,40 +713,29 @@ public class AjustesActivity extends AppCompatActivity {
         reautenticarUsuario(email, password, esGoogle, new com.controlmedicamentos.myapplication.services.AuthService.AuthCallback() {
             @Override
             public void onSuccess(com.google.firebase.auth.FirebaseUser user) {
-                // Paso 2: Eliminar todos los medicamentos
-                firebaseService.eliminarTodosLosMedicamentos(new com.controlmedicamentos.myapplication.services.FirebaseService.FirestoreCallback() {
+                // Paso 2: Eliminar todos los medicamentos y tomas (en paralelo, por lotes)
+                new com.controlmedicamentos.myapplication.services.EliminacionMasiva(AjustesActivity.this)
+                    .eliminarDatosUsuario(
+                        eliminados -> progressDialog.setMessage(
+                            "Por favor espera mientras eliminamos todos tus datos.\n\n" +
+                            eliminados + " registros eliminados"),
+                        new com.controlmedicamentos.myapplication.services.FirebaseService.FirestoreCallback() {
                     @Override
                     public void onSuccess(Object result) {
-                        // Paso 3: Eliminar todas las tomas
-                        firebaseService.eliminarTodasLasTomas(new com.controlmedicamentos.myapplication.services.FirebaseService.FirestoreCallback() {
+                        // Paso 3: Eliminar documento de usuario en Firestore
+                        firebaseService.eliminarUsuario(new com.controlmedicamentos.myapplication.services.FirebaseService.FirestoreCallback() {
                             @Override
                             public void onSuccess(Object result) {
-                                // Paso 4: Eliminar documento de usuario en Firestore
-                                firebaseService.eliminarUsuario(new com.controlmedicamentos.myapplication.services.FirebaseService.FirestoreCallback() {
-                                    @Override
-                                    public void onSuccess(Object result) {
-                                        // Paso 5: Eliminar usuario de Firebase Auth
-                                        eliminarUsuarioFirebaseAuth(progressDialog);
-                                    }
-                                    
-                                    @Override
-                                    public void onError(Exception exception) {
-                                        progressDialog.dismiss();
-                                        android.util.Log.e("AjustesActivity", "Error al eliminar usuario de Firestore", exception);
-                                        Toast.makeText(AjustesActivity.this, 
-                                            "Error al eliminar datos del usuario: " + 
-                                            (exception != null ? exception.getMessage() : "Error desconocido"), 
-                                            Toast.LENGTH_LONG).show();
-                                    }
-                                });
+                                // Paso 4: Eliminar usuario de Firebase Auth
+                                eliminarUsuarioFirebaseAuth(progressDialog);
                             }
                             
                             @Override
                             public void onError(Exception exception) {
                                 progressDialog.dismiss();
-                                android.util.Log.e("AjustesActivity", "Error al eliminar tomas", exception);
+                                android.util.Log.e("AjustesActivity", "Error al eliminar usuario de Firestore", exception);
                                 Toast.makeText(AjustesActivity.this, 
-                                    "Error al eliminar tomas: " + 
+                                    "Error al eliminar datos del usuario: " + 
                                     (exception != null ? exception.getMessage() : "Error desconocido"), 
                                     Toast.LENGTH_LONG).show();
                             }
@@ -580,10 +745,11 @@ public class AjustesActivity extends AppCompatActivity {
                     @Override
                     public void onError(Exception exception) {
                         progressDialog.dismiss();
-                        android.util.Log.e("AjustesActivity", "Error al eliminar medicamentos", exception);
+                        android.util.Log.e("AjustesActivity", "Error al eliminar medicamentos y tomas", exception);
                         Toast.makeText(AjustesActivity.this, 
-                            "Error al eliminar medicamentos: " + 
-                            (exception != null ? exception.getMessage() : "Error desconocido"), 
+                            "Error al eliminar tus datos: " + 
+                            (exception != null ? exception.getMessage() : "Error desconocido") +
+                            ". Puedes volver a intentarlo para continuar.", 
                             Toast.LENGTH_LONG).show();
                     }
                 });
@@ -750,11 +916,24 @@ public class AjustesActivity extends AppCompatActivity {
     }
     
     private static final int RC_GOOGLE_CALENDAR_SIGN_IN = 9002;
+    private static final int RC_CREAR_COPIA = 9003;
+    private static final int RC_RESTAURAR_COPIA = 9004;
     
     @Override
     protected void onActivityResult(int requestCode, int resultCode, Intent data) {
         super.onActivityResult(requestCode, resultCode, data);
         
+        if (requestCode == RC_CREAR_COPIA || requestCode == RC_RESTAURAR_COPIA) {
+            if (resultCode == RESULT_OK && data != null && data.getData() != null) {
+                if (requestCode == RC_CREAR_COPIA) {
+                    crearCopia(data.getData());
+                } else {
+                    confirmarRestauracion(data.getData());
+                }
+            }
+            return;
+        }
+        
         if (requestCode == RC_GOOGLE_CALENDAR_SIGN_IN) {
             com.google.android.gms.tasks.Task<com.google.android.gms.auth.api.signin.GoogleSignInAccount> task = 
                 com.google.android.gms.auth.api.signin.GoogleSignIn.getSignedInAccountFromIntent(data);
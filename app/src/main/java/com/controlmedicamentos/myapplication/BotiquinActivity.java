@@ -9,19 +9,26 @@ import android.view.View;
 import android.widget.TextView;
 import android.widget.Toast;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.lifecycle.Lifecycle;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 import com.google.android.material.button.MaterialButton;
+import com.google.firebase.firestore.ListenerRegistration;
 import com.controlmedicamentos.myapplication.adapters.BotiquinAdapter;
 import com.controlmedicamentos.myapplication.models.Medicamento;
+import com.controlmedicamentos.myapplication.models.PronosticoStock;
 import com.controlmedicamentos.myapplication.models.Toma;
 import com.controlmedicamentos.myapplication.services.AuthService;
+import com.controlmedicamentos.myapplication.services.ColaTomasPendientes;
+import com.controlmedicamentos.myapplication.services.Dependencias;
 import com.controlmedicamentos.myapplication.services.FirebaseService;
 import com.controlmedicamentos.myapplication.utils.NetworkUtils;
 import com.controlmedicamentos.myapplication.utils.AlarmScheduler;
+import com.controlmedicamentos.myapplication.utils.PronosticadorStock;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
 public class BotiquinActivity extends AppCompatActivity implements BotiquinAdapter.OnMedicamentoClickListener {
 
@@ -49,6 +56,9 @@ public class BotiquinActivity extends AppCompatActivity implements BotiquinAdapt
     
     private AuthService authService;
     private FirebaseService firebaseService;
+    private ColaTomasPendientes colaTomas;
+    private ListenerRegistration medicamentosListener;
+    private boolean medicamentosRecibidos;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -61,8 +71,8 @@ public class BotiquinActivity extends AppCompatActivity implements BotiquinAdapt
         }
 
         // Inicializar servicios
-        authService = new AuthService();
-        firebaseService = new FirebaseService();
+        authService = Dependencias.de(this).getAuthService();
+        colaTomas = ColaTomasPendientes.getInstance(this);
 
         // Verificar autenticación
         if (!authService.isUserLoggedIn()) {
@@ -72,8 +82,18 @@ public class BotiquinActivity extends AppCompatActivity implements BotiquinAdapt
 
         inicializarVistas();
         configurarRecyclerViews();
-        cargarMedicamentos();
         configurarNavegacion();
+
+        // Firestore y la base local se preparan en segundo plano; los medicamentos se cargan cuando están listos
+        Dependencias.de(this).obtenerServicios((servicioFirebase, servicioTomas) -> {
+            if (isFinishing() || isDestroyed()) {
+                return;
+            }
+            firebaseService = servicioFirebase;
+            if (getLifecycle().getCurrentState().isAtLeast(Lifecycle.State.STARTED)) {
+                cargarMedicamentos();
+            }
+        });
     }
 
     private void inicializarVistas() {
@@ -127,25 +147,34 @@ public class BotiquinActivity extends AppCompatActivity implements BotiquinAdapt
         });
     }
 
+    /**
+     * Se suscribe al listener compartido de medicamentos: si otra pantalla ya lo tiene abierto,
+     * los datos llegan al instante sin volver a leerlos, y después llega cada cambio
+     */
     private void cargarMedicamentos() {
-        // Verificar conexión a internet
-        if (!NetworkUtils.isNetworkAvailable(this)) {
-            Toast.makeText(this, "No hay conexión a internet", Toast.LENGTH_LONG).show();
+        if (medicamentosListener != null) {
             return;
         }
 
-        // Cargar todos los medicamentos desde Firebase
-        firebaseService.obtenerMedicamentos(new FirebaseService.FirestoreListCallback() {
+        medicamentosListener = firebaseService.agregarListenerMedicamentos(new FirebaseService.FirestoreListCallback() {
             @Override
             public void onSuccess(List<?> result) {
                 List<Medicamento> todosLosMedicamentos = new ArrayList<>();
                 if (result != null) {
                     todosLosMedicamentos = (List<Medicamento>) result;
                 }
+                // Descontar las dosis registradas que todavía no llegaron a Firestore
+                todosLosMedicamentos = colaTomas.aplicarPendientes(todosLosMedicamentos);
                 
                 // Separar medicamentos por tipo
                 separarMedicamentos(todosLosMedicamentos);
                 
+                // Pronóstico de agotamiento de todos los medicamentos en una pasada
+                Map<String, PronosticoStock> pronosticos =
+                    PronosticadorStock.getInstance().pronosticar(todosLosMedicamentos);
+                adapterTratamiento.setPronosticos(pronosticos);
+                adapterOcasionales.setPronosticos(pronosticos);
+                
                 // Actualizar adapters
                 adapterTratamiento.actualizarMedicamentos(medicamentosTratamiento);
                 adapterOcasionales.actualizarMedicamentos(medicamentosOcasionales);
@@ -156,9 +185,10 @@ public class BotiquinActivity extends AppCompatActivity implements BotiquinAdapt
                 Log.d(TAG, "Medicamentos cargados: " + medicamentosTratamiento.size() + " con tratamiento, " + 
                       medicamentosOcasionales.size() + " ocasionales");
                 
-                if (todosLosMedicamentos.isEmpty()) {
+                if (todosLosMedicamentos.isEmpty() && !medicamentosRecibidos) {
                     Toast.makeText(BotiquinActivity.this, "No tienes medicamentos registrados", Toast.LENGTH_SHORT).show();
                 }
+                medicamentosRecibidos = true;
             }
 
             @Override
@@ -227,14 +257,14 @@ public class BotiquinActivity extends AppCompatActivity implements BotiquinAdapt
                         }
 
                         // Cancelar alarmas antes de eliminar
-                        AlarmScheduler alarmScheduler = new AlarmScheduler(BotiquinActivity.this);
+                        AlarmScheduler alarmScheduler = Dependencias.de(BotiquinActivity.this).getAlarmScheduler();
                         alarmScheduler.cancelarAlarmasMedicamento(medicamento);
                         
                         firebaseService.eliminarMedicamento(medicamento.getId(), new FirebaseService.FirestoreCallback() {
                             @Override
                             public void onSuccess(Object result) {
+                                // El listener de medicamentos actualiza la lista
                                 Toast.makeText(BotiquinActivity.this, "Medicamento eliminado", Toast.LENGTH_SHORT).show();
-                                cargarMedicamentos();
                             }
 
                             @Override
@@ -267,20 +297,11 @@ public class BotiquinActivity extends AppCompatActivity implements BotiquinAdapt
             return;
         }
 
-        if (!NetworkUtils.isNetworkAvailable(this)) {
-            Toast.makeText(this, "No hay conexión a internet", Toast.LENGTH_LONG).show();
-            return;
-        }
-
         if (medicamento.getId() == null || medicamento.getId().isEmpty()) {
             Toast.makeText(this, "Medicamento sin identificador válido", Toast.LENGTH_SHORT).show();
             return;
         }
 
-        final int stockAnterior = medicamento.getStockActual();
-        final int diasRestantesAnteriores = medicamento.getDiasRestantesDuracion();
-        final boolean estabaPausado = medicamento.isPausado();
-
         medicamento.consumirDosis();
         final boolean tratamientoCompletado = medicamento.estaAgotado();
         if (tratamientoCompletado) {
@@ -296,55 +317,35 @@ public class BotiquinActivity extends AppCompatActivity implements BotiquinAdapt
         toma.setEstado(Toma.EstadoToma.TOMADA);
         toma.setObservaciones("Registrada manualmente desde el botiquín");
 
-        firebaseService.guardarToma(toma, new FirebaseService.FirestoreCallback() {
-            @Override
-            public void onSuccess(Object result) {
-                firebaseService.actualizarMedicamento(medicamento, new FirebaseService.FirestoreCallback() {
-                    @Override
-                    public void onSuccess(Object updateResult) {
-                        Toast.makeText(BotiquinActivity.this,
-                                "Toma registrada. Stock actualizado.",
-                                Toast.LENGTH_SHORT).show();
-                        if (tratamientoCompletado) {
-                            Toast.makeText(BotiquinActivity.this,
-                                    "Tratamiento de " + medicamento.getNombre() + " completado.",
-                                    Toast.LENGTH_LONG).show();
-                        }
-                        cargarMedicamentos();
-                    }
-
-                    @Override
-                    public void onError(Exception exception) {
-                        revertirCambiosMedicamento(medicamento, stockAnterior, diasRestantesAnteriores, estabaPausado);
-                        Toast.makeText(BotiquinActivity.this,
-                                "Error al actualizar el medicamento",
-                                Toast.LENGTH_LONG).show();
-                    }
-                });
-            }
+        // La dosis se guarda en el dispositivo y se envía a Firestore en segundo plano:
+        // la UI se actualiza sin esperar a la red
+        colaTomas.encolar(toma, medicamento);
+        adapterOcasionales.notificarStockCambiado(medicamento);
 
-            @Override
-            public void onError(Exception exception) {
-                revertirCambiosMedicamento(medicamento, stockAnterior, diasRestantesAnteriores, estabaPausado);
-                Toast.makeText(BotiquinActivity.this,
-                        "Error al registrar la toma",
-                        Toast.LENGTH_LONG).show();
-            }
-        });
+        Toast.makeText(this,
+                "Toma registrada. Stock actualizado.",
+                Toast.LENGTH_SHORT).show();
+        if (tratamientoCompletado) {
+            Toast.makeText(this,
+                    "Tratamiento de " + medicamento.getNombre() + " completado.",
+                    Toast.LENGTH_LONG).show();
+        }
     }
 
-    private void revertirCambiosMedicamento(Medicamento medicamento,
-                                            int stockAnterior,
-                                            int diasRestantesAnteriores,
-                                            boolean estabaPausado) {
-        medicamento.setStockActual(stockAnterior);
-        medicamento.setDiasRestantesDuracion(diasRestantesAnteriores);
-        medicamento.setPausado(estabaPausado);
+    @Override
+    protected void onStart() {
+        super.onStart();
+        if (firebaseService != null) {
+            cargarMedicamentos();
+        }
     }
 
     @Override
-    protected void onResume() {
-        super.onResume();
-        cargarMedicamentos();
+    protected void onStop() {
+        super.onStop();
+        if (medicamentosListener != null) {
+            medicamentosListener.remove();
+            medicamentosListener = null;
+        }
     }
 }
@@ -0,0 +1,33 @@
+package com.controlmedicamentos.myapplication;
+
+import android.app.Application;
+import android.os.Looper;
+import android.os.Trace;
+import com.controlmedicamentos.myapplication.services.Dependencias;
+
+/**
+ * Aplicación: crea el contenedor de servicios compartidos y deja la inicialización pesada para
+ * cuando el hilo principal queda libre después de mostrar la primera pantalla.
+ */
+public class ControlMedicamentosApp extends Application {
+    private Dependencias dependencias;
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        Trace.beginSection("ControlMedicamentosApp.onCreate");
+        try {
+            dependencias = new Dependencias(this);
+            Looper.myQueue().addIdleHandler(() -> {
+                dependencias.precargar();
+                return false;
+            });
+        } finally {
+            Trace.endSection();
+        }
+    }
+
+    public Dependencias getDependencias() {
+        return dependencias;
+    }
+}
@@ -16,12 +16,16 @@ import com.github.mikephil.charting.data.BarDataSet;
 import com.github.mikephil.charting.data.BarEntry;
 import com.github.mikephil.charting.formatter.IndexAxisValueFormatter;
 import com.google.android.material.button.MaterialButton;
+import com.google.firebase.firestore.ListenerRegistration;
 import com.controlmedicamentos.myapplication.adapters.TomaAdapter;
 import com.controlmedicamentos.myapplication.models.AdherenciaIntervalo;
 import com.controlmedicamentos.myapplication.models.AdherenciaResumen;
+import com.controlmedicamentos.myapplication.models.CambioToma;
 import com.controlmedicamentos.myapplication.models.Medicamento;
+import com.controlmedicamentos.myapplication.models.ResumenMensualTomas;
 import com.controlmedicamentos.myapplication.models.Toma;
 import com.controlmedicamentos.myapplication.services.AuthService;
+import com.controlmedicamentos.myapplication.services.Dependencias;
 import com.controlmedicamentos.myapplication.services.FirebaseService;
 import com.controlmedicamentos.myapplication.utils.AdherenciaCalculator;
 import com.controlmedicamentos.myapplication.utils.NetworkUtils;
@@ -56,9 +60,13 @@ public class DetallesMedicamentoActivity extends AppCompatActivity {
     
     private Medicamento medicamento;
     private List<Toma> tomasMedicamento;
+    private List<ResumenMensualTomas> resumenesMedicamento = new ArrayList<>();
     private TomaAdapter tomaAdapter;
     private AuthService authService;
     private FirebaseService firebaseService;
+    private ListenerRegistration tomasListener;
+    private ListenerRegistration resumenesListener;
+    private boolean tomasCargadas;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -71,8 +79,7 @@ public class DetallesMedicamentoActivity extends AppCompatActivity {
         setContentView(R.layout.activity_detalles_medicamento);
         
         // Inicializar servicios
-        authService = new AuthService();
-        firebaseService = new FirebaseService();
+        authService = Dependencias.de(this).getAuthService();
         
         // Verificar autenticación
         if (!authService.isUserLoggedIn()) {
@@ -93,8 +100,25 @@ public class DetallesMedicamentoActivity extends AppCompatActivity {
         configurarGrafico();
         configurarListeners();
         
-        // Cargar datos del medicamento
-        cargarMedicamento(medicamentoId);
+        // Cargar datos del medicamento cuando Firestore esté listo (se prepara en segundo plano)
+        Dependencias.de(this).obtenerServicios((servicioFirebase, servicioTomas) -> {
+            if (isFinishing() || isDestroyed()) {
+                return;
+            }
+            firebaseService = servicioFirebase;
+            cargarMedicamento(medicamentoId);
+        });
+    }
+    
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (tomasListener != null) {
+            tomasListener.remove();
+        }
+        if (resumenesListener != null) {
+            resumenesListener.remove();
+        }
     }
     
     private void inicializarVistas() {
@@ -220,27 +244,75 @@ public class DetallesMedicamentoActivity extends AppCompatActivity {
         }
     }
     
+    /**
+     * Escucha las tomas del medicamento: la primera entrega trae el historial completo y después
+     * solo llegan las tomas nuevas, modificadas o eliminadas
+     */
     private void cargarTomasMedicamento() {
-        if (medicamento == null || medicamento.getId() == null) {
+        if (medicamento == null || medicamento.getId() == null || tomasListener != null) {
             return;
         }
         
-        firebaseService.obtenerTomasPorMedicamento(medicamento.getId(), 
+        tomasListener = firebaseService.agregarListenerTomasMedicamento(medicamento.getId(),
             new FirebaseService.FirestoreListCallback() {
                 @Override
                 public void onSuccess(List<?> result) {
-                    tomasMedicamento = result != null ? (List<Toma>) result : new ArrayList<>();
-                    actualizarHistorial();
-                    calcularYMostrarAdherencia();
+                    aplicarCambiosTomas((List<CambioToma>) result);
                 }
                 
                 @Override
                 public void onError(Exception exception) {
-                    Log.e(TAG, "Error al cargar tomas del medicamento", exception);
-                    tomasMedicamento = new ArrayList<>();
+                    Log.e(TAG, "Error al escuchar tomas del medicamento", exception);
                     actualizarHistorial();
                 }
             });
+        
+        // Las tomas archivadas solo entran en el resumen general (los gráficos usan días recientes)
+        resumenesListener = firebaseService.agregarListenerResumenesMensuales(
+            new FirebaseService.FirestoreListCallback() {
+                @Override
+                public void onSuccess(List<?> result) {
+                    resumenesMedicamento = AdherenciaCalculator.filtrarResumenesPorMedicamento(
+                        (List<ResumenMensualTomas>) result, medicamento.getId());
+                    if (tomasCargadas) {
+                        mostrarResumenAdherencia();
+                    }
+                }
+                
+                @Override
+                public void onError(Exception exception) {
+                    Log.w(TAG, "Error al escuchar resúmenes de tomas archivadas", exception);
+                }
+            });
+    }
+    
+    /**
+     * Aplica los cambios en sus posiciones de la lista ordenada. El gráfico semanal solo se
+     * recalcula si algún cambio cae dentro de los últimos 7 días.
+     */
+    private void aplicarCambiosTomas(List<CambioToma> cambios) {
+        boolean primeraCarga = !tomasCargadas;
+        tomasCargadas = true;
+        Date inicioSemana = AdherenciaCalculator.inicioSemanaActual();
+        boolean afectaSemana = false;
+        
+        List<Toma> tomas = new ArrayList<>(tomasMedicamento);
+        for (CambioToma cambio : cambios) {
+            Toma toma = cambio.getToma();
+            Toma anterior = cambio.getIndiceAnterior() >= 0 ? tomas.remove(cambio.getIndiceAnterior()) : null;
+            if (cambio.getIndiceNuevo() >= 0) {
+                tomas.add(cambio.getIndiceNuevo(), toma);
+            }
+            afectaSemana |= AdherenciaCalculator.cuentaDesde(toma, inicioSemana)
+                || AdherenciaCalculator.cuentaDesde(anterior, inicioSemana);
+        }
+        tomasMedicamento = tomas;
+        
+        actualizarHistorial();
+        mostrarResumenAdherencia();
+        if (primeraCarga || afectaSemana) {
+            actualizarChartSemanal(AdherenciaCalculator.calcularAdherenciaSemanal(medicamento, tomasMedicamento));
+        }
     }
     
     private void actualizarHistorial() {
@@ -254,25 +326,18 @@ public class DetallesMedicamentoActivity extends AppCompatActivity {
         }
     }
     
-    private void calcularYMostrarAdherencia() {
+    private void mostrarResumenAdherencia() {
         if (medicamento == null) {
             return;
         }
         
-        // Calcular resumen de adherencia
         AdherenciaResumen resumen = AdherenciaCalculator.calcularResumenGeneral(
-            medicamento, tomasMedicamento);
+            medicamento, tomasMedicamento, resumenesMedicamento);
         
         int porcentaje = Math.round(resumen.getPorcentaje());
         tvResumenAdherencia.setText(getString(R.string.adherence_percentage, porcentaje));
         tvTomasRealizadas.setText(getString(R.string.takes_summary, 
             resumen.getTomasRealizadas(), resumen.getTomasEsperadas()));
-        
-        // Calcular y mostrar gráfico semanal
-        List<AdherenciaIntervalo> datosSemanales = AdherenciaCalculator.calcularAdherenciaSemanal(
-            medicamento, tomasMedicamento);
-        
-        actualizarChartSemanal(datosSemanales);
     }
     
     private void actualizarChartSemanal(List<AdherenciaIntervalo> datos) {
@@ -7,6 +7,7 @@ import android.util.Log;
 import android.widget.Toast;
 import androidx.appcompat.app.AppCompatActivity;
 import com.controlmedicamentos.myapplication.services.AuthService;
+import com.controlmedicamentos.myapplication.services.Dependencias;
 import com.controlmedicamentos.myapplication.services.GoogleCalendarAuthService;
 import com.google.firebase.auth.FirebaseUser;
 
@@ -36,7 +37,7 @@ public class GoogleCalendarCallbackActivity extends AppCompatActivity {
             getSupportActionBar().hide();
         }
         
-        authService = new AuthService();
+        authService = Dependencias.de(this).getAuthService();
         googleCalendarAuthService = new GoogleCalendarAuthService(this);
         
         // Procesar el callback OAuth
@@ -1,24 +1,33 @@
 package com.controlmedicamentos.myapplication;
 
+import android.app.AlertDialog;
 import android.content.Intent;
+import android.net.Uri;
 import android.os.Bundle;
+import android.util.Log;
 import android.view.View;
 import android.widget.ArrayAdapter;
 import android.widget.AutoCompleteTextView;
 import android.widget.LinearLayout;
+import android.widget.ProgressBar;
 import android.widget.TextView;
+import android.widget.Toast;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.lifecycle.Lifecycle;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 import com.controlmedicamentos.myapplication.adapters.HistorialAdapter;
 import com.controlmedicamentos.myapplication.models.AdherenciaIntervalo;
 import com.controlmedicamentos.myapplication.models.AdherenciaResumen;
 import com.controlmedicamentos.myapplication.models.Medicamento;
+import com.controlmedicamentos.myapplication.models.ResumenMensualTomas;
 import com.controlmedicamentos.myapplication.models.Toma;
 import com.controlmedicamentos.myapplication.services.AuthService;
+import com.controlmedicamentos.myapplication.services.ExportacionHistorial;
+import com.controlmedicamentos.myapplication.services.InformeAdherenciaPdf;
+import com.controlmedicamentos.myapplication.services.Dependencias;
 import com.controlmedicamentos.myapplication.services.FirebaseService;
 import com.controlmedicamentos.myapplication.utils.AdherenciaCalculator;
-import com.controlmedicamentos.myapplication.utils.NetworkUtils;
 import com.github.mikephil.charting.charts.BarChart;
 import com.github.mikephil.charting.components.XAxis;
 import com.github.mikephil.charting.data.BarData;
@@ -27,6 +36,7 @@ import com.github.mikephil.charting.data.BarEntry;
 import com.github.mikephil.charting.formatter.IndexAxisValueFormatter;
 import com.google.android.material.button.MaterialButton;
 import com.google.android.material.textfield.TextInputLayout;
+import com.google.firebase.firestore.ListenerRegistration;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
@@ -34,19 +44,28 @@ import java.util.List;
 import java.util.Locale;
 
 public class HistorialActivity extends AppCompatActivity {
+    private static final String TAG = "HistorialActivity";
 
     private BarChart chartAdherencia;
     private RecyclerView rvTratamientosConcluidos;
     private TextView tvEstadisticasGenerales;
     private MaterialButton btnVolver;
+    private MaterialButton btnExportar;
     // Botones de navegación
     private MaterialButton btnNavHome, btnNavNuevaMedicina, btnNavBotiquin, btnNavAjustes;
     private HistorialAdapter adapter;
     private List<Medicamento> tratamientosConcluidos = new ArrayList<>();
     private List<Medicamento> todosLosMedicamentos = new ArrayList<>();
     private List<Toma> tomasUsuario = new ArrayList<>();
+    private List<ResumenMensualTomas> resumenesMensuales = new ArrayList<>();
     private AuthService authService;
     private FirebaseService firebaseService;
+    private ListenerRegistration medicamentosListener;
+    private ListenerRegistration tomasListener;
+    private ListenerRegistration resumenesListener;
+    private boolean medicamentosRecibidos;
+    private boolean tomasRecibidas;
+    private boolean resumenesRecibidos;
 
     // Plan de adherencia
     private TextInputLayout tilMedicamentosAdherencia;
@@ -72,8 +91,7 @@ public class HistorialActivity extends AppCompatActivity {
         setContentView(R.layout.activity_historial);
 
         // Inicializar servicios
-        authService = new AuthService();
-        firebaseService = new FirebaseService();
+        authService = Dependencias.de(this).getAuthService();
 
         // Verificar autenticación
         if (!authService.isUserLoggedIn()) {
@@ -84,9 +102,19 @@ public class HistorialActivity extends AppCompatActivity {
         inicializarVistas();
         configurarGraficos();
         configurarRecyclerView();
-        cargarDatos();
         configurarListeners();
         configurarNavegacion();
+
+        // Firestore y la base local se preparan en segundo plano; los datos se cargan cuando están listos
+        Dependencias.de(this).obtenerServicios((servicioFirebase, servicioTomas) -> {
+            if (isFinishing() || isDestroyed()) {
+                return;
+            }
+            firebaseService = servicioFirebase;
+            if (getLifecycle().getCurrentState().isAtLeast(Lifecycle.State.STARTED)) {
+                cargarDatos();
+            }
+        });
     }
 
     private void inicializarVistas() {
@@ -94,6 +122,7 @@ public class HistorialActivity extends AppCompatActivity {
         rvTratamientosConcluidos = findViewById(R.id.rvTratamientosConcluidos);
         tvEstadisticasGenerales = findViewById(R.id.tvEstadisticasGenerales);
         btnVolver = findViewById(R.id.btnVolver);
+        btnExportar = findViewById(R.id.btnExportar);
         
         // Botones de navegación
         btnNavHome = findViewById(R.id.btnNavHome);
@@ -145,43 +174,70 @@ public class HistorialActivity extends AppCompatActivity {
         rvTratamientosConcluidos.setAdapter(adapter);
     }
 
+    /**
+     * Se suscribe a los listeners compartidos de medicamentos, tomas y resúmenes de tomas archivadas:
+     * si otra pantalla ya los tiene abiertos, los datos llegan sin volver a leerlos.
+     * Se procesa cuando llegaron los tres y en cada cambio.
+     */
     private void cargarDatos() {
-        // Verificar conexión a internet
-        if (!NetworkUtils.isNetworkAvailable(this)) {
-            tvEstadisticasGenerales.setText("No hay conexión a internet");
-            return;
+        if (medicamentosListener == null) {
+            medicamentosListener = firebaseService.agregarListenerMedicamentos(new FirebaseService.FirestoreListCallback() {
+                @Override
+                public void onSuccess(List<?> result) {
+                    todosLosMedicamentos = result != null
+                        ? (List<Medicamento>) result
+                        : new ArrayList<>();
+                    medicamentosRecibidos = true;
+                    procesarSiEstaCompleto();
+                }
+
+                @Override
+                public void onError(Exception exception) {
+                    tvEstadisticasGenerales.setText("Error al cargar datos");
+                }
+            });
         }
 
-        // Cargar todos los medicamentos desde Firebase
-        firebaseService.obtenerMedicamentos(new FirebaseService.FirestoreListCallback() {
-            @Override
-            public void onSuccess(List<?> result) {
-                todosLosMedicamentos = result != null
-                    ? (List<Medicamento>) result
-                    : new ArrayList<>();
-                cargarTomasUsuario();
-            }
+        if (tomasListener == null) {
+            tomasListener = firebaseService.agregarListenerTodasLasTomas(new FirebaseService.FirestoreListCallback() {
+                @Override
+                public void onSuccess(List<?> result) {
+                    tomasUsuario = result != null ? (List<Toma>) result : new ArrayList<>();
+                    tomasRecibidas = true;
+                    procesarSiEstaCompleto();
+                }
 
-            @Override
-            public void onError(Exception exception) {
-                tvEstadisticasGenerales.setText("Error al cargar datos");
-            }
-        });
-    }
+                @Override
+                public void onError(Exception exception) {
+                    tvEstadisticasGenerales.setText("Error al obtener tomas del usuario");
+                }
+            });
+        }
 
-    private void cargarTomasUsuario() {
-        firebaseService.obtenerTomasUsuario(new FirebaseService.FirestoreListCallback() {
-            @Override
-            public void onSuccess(List<?> result) {
-                tomasUsuario = result != null ? (List<Toma>) result : new ArrayList<>();
-                procesarInformacion();
-            }
+        if (resumenesListener == null) {
+            resumenesListener = firebaseService.agregarListenerResumenesMensuales(new FirebaseService.FirestoreListCallback() {
+                @Override
+                public void onSuccess(List<?> result) {
+                    resumenesMensuales = result != null ? (List<ResumenMensualTomas>) result : new ArrayList<>();
+                    resumenesRecibidos = true;
+                    procesarSiEstaCompleto();
+                }
 
-            @Override
-            public void onError(Exception exception) {
-                tvEstadisticasGenerales.setText("Error al obtener tomas del usuario");
-            }
-        });
+                @Override
+                public void onError(Exception exception) {
+                    // Sin resúmenes se muestran solo las tomas recientes
+                    Log.w(TAG, "Error al obtener resúmenes de tomas archivadas", exception);
+                    resumenesRecibidos = true;
+                    procesarSiEstaCompleto();
+                }
+            });
+        }
+    }
+
+    private void procesarSiEstaCompleto() {
+        if (medicamentosRecibidos && tomasRecibidas && resumenesRecibidos) {
+            procesarInformacion();
+        }
     }
 
     private void procesarInformacion() {
@@ -218,12 +274,15 @@ public class HistorialActivity extends AppCompatActivity {
             List<Toma> tomasMedicamento = AdherenciaCalculator.filtrarTomasPorMedicamento(
                 tomasUsuario,
                 medicamento.getId());
+            List<ResumenMensualTomas> archivadas = AdherenciaCalculator.filtrarResumenesPorMedicamento(
+                resumenesMensuales,
+                medicamento.getId());
             boolean esOcasional = medicamento.getTomasDiarias() == 0;
-            if (esOcasional && tomasMedicamento.isEmpty()) {
+            if (esOcasional && tomasMedicamento.isEmpty() && archivadas.isEmpty()) {
                 continue; // Ocasionales solo aparecen si tuvieron tomas
             }
 
-            resumenes.add(AdherenciaCalculator.calcularResumenGeneral(medicamento, tomasMedicamento));
+            resumenes.add(AdherenciaCalculator.calcularResumenGeneral(medicamento, tomasMedicamento, archivadas));
 
             if (medicamento.isPausado()) {
                 tratamientosConcluidos.add(medicamento);
@@ -310,8 +369,11 @@ public class HistorialActivity extends AppCompatActivity {
         List<Toma> tomasMedicamento = AdherenciaCalculator.filtrarTomasPorMedicamento(
             tomasUsuario,
             medicamento.getId());
+        List<ResumenMensualTomas> archivadas = AdherenciaCalculator.filtrarResumenesPorMedicamento(
+            resumenesMensuales,
+            medicamento.getId());
 
-        AdherenciaResumen resumen = AdherenciaCalculator.calcularResumenGeneral(medicamento, tomasMedicamento);
+        AdherenciaResumen resumen = AdherenciaCalculator.calcularResumenGeneral(medicamento, tomasMedicamento, archivadas);
         int porcentaje = Math.round(resumen.getPorcentaje());
         tvResumenPlanAdherencia.setText(getString(
             R.string.adherence_plan_summary,
@@ -320,8 +382,8 @@ public class HistorialActivity extends AppCompatActivity {
             resumen.getTomasEsperadas()
         ));
 
-        List<AdherenciaIntervalo> datosSemanales = AdherenciaCalculator.calcularAdherenciaSemanal(medicamento, tomasMedicamento);
-        List<AdherenciaIntervalo> datosMensuales = AdherenciaCalculator.calcularAdherenciaMensual(medicamento, tomasMedicamento);
+        List<AdherenciaIntervalo> datosSemanales = AdherenciaCalculator.calcularAdherenciaSemanal(medicamento, tomasMedicamento, archivadas);
+        List<AdherenciaIntervalo> datosMensuales = AdherenciaCalculator.calcularAdherenciaMensual(medicamento, tomasMedicamento, archivadas);
 
         boolean sinDatos = datosSemanales.isEmpty() && datosMensuales.isEmpty();
         tvEmptyPlanAdherencia.setVisibility(sinDatos ? View.VISIBLE : View.GONE);
@@ -369,6 +431,95 @@ public class HistorialActivity extends AppCompatActivity {
                 }
             });
         }
+        if (btnExportar != null) {
+            btnExportar.setOnClickListener(v -> elegirFormatoExportacion());
+        }
+    }
+
+    private void elegirFormatoExportacion() {
+        String[] formatos = {"CSV (planilla)", "JSON", "PDF (informe)"};
+        new AlertDialog.Builder(this)
+            .setTitle(R.string.export_history_title)
+            .setItems(formatos, (dialog, which) -> {
+                if (which == 2) {
+                    generarInformePdf();
+                } else {
+                    exportarHistorial(which == 0 ? ExportacionHistorial.Formato.CSV : ExportacionHistorial.Formato.JSON);
+                }
+            })
+            .setNegativeButton("Cancelar", null)
+            .show();
+    }
+
+    /**
+     * Genera el archivo en segundo plano mostrando el avance y lo ofrece para compartir
+     */
+    private void exportarHistorial(ExportacionHistorial.Formato formato) {
+        AlertDialog progressDialog = mostrarProgresoExportacion(R.string.export_history_progress);
+        new ExportacionHistorial(this).exportar(formato,
+            tomas -> progressDialog.setMessage(getString(R.string.export_history_progress, tomas)),
+            new ResultadoExportacion(progressDialog, formato.getTipoMime()));
+    }
+
+    /**
+     * Arma el informe de adherencia en PDF en segundo plano y lo ofrece para compartir
+     */
+    private void generarInformePdf() {
+        AlertDialog progressDialog = mostrarProgresoExportacion(R.string.export_report_progress);
+        new InformeAdherenciaPdf(this).generar(
+            tomas -> progressDialog.setMessage(getString(R.string.export_report_progress, tomas)),
+            new ResultadoExportacion(progressDialog, InformeAdherenciaPdf.TIPO_MIME));
+    }
+
+    private AlertDialog mostrarProgresoExportacion(int mensajeRes) {
+        ProgressBar progressBar = new ProgressBar(this);
+        progressBar.setIndeterminate(true);
+        AlertDialog progressDialog = new AlertDialog.Builder(this)
+            .setTitle(R.string.export_history_title)
+            .setMessage(getString(mensajeRes, 0))
+            .setView(progressBar)
+            .setCancelable(false)
+            .show();
+        btnExportar.setEnabled(false);
+        return progressDialog;
+    }
+
+    /**
+     * Cierra el diálogo de avance y comparte el archivo generado (o avisa del error)
+     */
+    private class ResultadoExportacion implements FirebaseService.FirestoreCallback {
+        private final AlertDialog progressDialog;
+        private final String tipoMime;
+
+        ResultadoExportacion(AlertDialog progressDialog, String tipoMime) {
+            this.progressDialog = progressDialog;
+            this.tipoMime = tipoMime;
+        }
+
+        @Override
+        public void onSuccess(Object result) {
+            btnExportar.setEnabled(true);
+            if (isFinishing() || isDestroyed()) {
+                return;
+            }
+            progressDialog.dismiss();
+            Intent intent = new Intent(Intent.ACTION_SEND);
+            intent.setType(tipoMime);
+            intent.putExtra(Intent.EXTRA_STREAM, (Uri) result);
+            intent.putExtra(Intent.EXTRA_SUBJECT, getString(R.string.export_history_title));
+            intent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+            startActivity(Intent.createChooser(intent, getString(R.string.export_history_share)));
+        }
+
+        @Override
+        public void onError(Exception exception) {
+            btnExportar.setEnabled(true);
+            if (isFinishing() || isDestroyed()) {
+                return;
+            }
+            progressDialog.dismiss();
+            Toast.makeText(HistorialActivity.this, R.string.export_history_error, Toast.LENGTH_LONG).show();
+        }
     }
     
     private void configurarNavegacion() {
@@ -406,8 +557,27 @@ public class HistorialActivity extends AppCompatActivity {
     }
 
     @Override
-    protected void onResume() {
-        super.onResume();
-        cargarDatos(); // Recargar datos al volver
+    protected void onStart() {
+        super.onStart();
+        if (firebaseService != null) {
+            cargarDatos();
+        }
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        if (medicamentosListener != null) {
+            medicamentosListener.remove();
+            medicamentosListener = null;
+        }
+        if (tomasListener != null) {
+            tomasListener.remove();
+            tomasListener = null;
+        }
+        if (resumenesListener != null) {
+            resumenesListener.remove();
+            resumenesListener = null;
+        }
     }
 }
\ No newline at end of file
@@ -2,6 +2,8 @@ package com.controlmedicamentos.myapplication;
 
 import android.content.Intent;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 import android.content.ComponentName;
 import android.view.View;
@@ -12,14 +14,21 @@ import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 import com.google.android.material.button.MaterialButton;
 import com.controlmedicamentos.myapplication.adapters.MedicamentoAdapter;
+import com.controlmedicamentos.myapplication.models.HorarioDiario;
 import com.controlmedicamentos.myapplication.models.Medicamento;
 import com.controlmedicamentos.myapplication.models.Toma;
 import com.controlmedicamentos.myapplication.models.TomaProgramada;
+import com.controlmedicamentos.myapplication.services.ArchivoTomas;
 import com.controlmedicamentos.myapplication.services.AuthService;
+import com.controlmedicamentos.myapplication.services.ColaTomasPendientes;
+import com.controlmedicamentos.myapplication.services.Dependencias;
 import com.controlmedicamentos.myapplication.services.FirebaseService;
+import com.controlmedicamentos.myapplication.services.MigracionTomasRealizadas;
 import com.controlmedicamentos.myapplication.services.TomaStateCheckerService;
 import com.controlmedicamentos.myapplication.services.TomaTrackingService;
 import com.controlmedicamentos.myapplication.utils.NetworkUtils;
+import com.controlmedicamentos.myapplication.utils.OrdenDashboard;
+import com.controlmedicamentos.myapplication.utils.PronosticadorStock;
 import com.controlmedicamentos.myapplication.utils.StockAlertUtils;
 import com.google.firebase.firestore.ListenerRegistration;
 import java.util.ArrayList;
@@ -39,7 +48,10 @@ public class MainActivity extends AppCompatActivity implements MedicamentoAdapte
     private AuthService authService;
     private FirebaseService firebaseService;
     private TomaTrackingService tomaTrackingService;
+    private ColaTomasPendientes colaTomas;
     private ListenerRegistration medicamentosListener;
+    private OrdenDashboard ordenDashboard;
+    private final Handler handlerOrden = new Handler(Looper.getMainLooper());
     private boolean listenerYaActualizo = false; // Flag para evitar que la carga inicial sobrescriba los datos del listener
 
     @Override
@@ -55,9 +67,8 @@ public class MainActivity extends AppCompatActivity implements MedicamentoAdapte
             setContentView(R.layout.activity_main);
 
             // Inicializar servicios
-            authService = new AuthService();
-            firebaseService = new FirebaseService();
-            tomaTrackingService = new TomaTrackingService(this);
+            Dependencias dependencias = Dependencias.de(this);
+            authService = dependencias.getAuthService();
 
             // Verificar autenticación
             if (!authService.isUserLoggedIn()) {
@@ -71,18 +82,35 @@ public class MainActivity extends AppCompatActivity implements MedicamentoAdapte
         // Inicializar vistas
         inicializarVistas();
 
-        // Configurar RecyclerView
-        configurarRecyclerView();
-
-            // Cargar datos desde Firebase
-            cargarDatosDesdeFirebase();
-
         // Configurar navegación
         configurarNavegacion();
-        
-        // Iniciar servicio de verificación de estados de tomas
-        iniciarServicioVerificacionTomas();
-            
+
+            // Firestore, la base local y las tomas del día se preparan en segundo plano;
+            // la lista se configura y carga cuando están listos
+            dependencias.obtenerServicios((servicioFirebase, servicioTomas) -> {
+                if (isFinishing() || isDestroyed()) {
+                    return;
+                }
+                firebaseService = servicioFirebase;
+                tomaTrackingService = servicioTomas;
+                colaTomas = ColaTomasPendientes.getInstance(MainActivity.this);
+                ordenDashboard = new OrdenDashboard(tomaTrackingService);
+
+                // Configurar RecyclerView
+                configurarRecyclerView();
+
+                // Cargar datos desde Firebase
+                cargarDatosDesdeFirebase();
+
+                // Iniciar servicio de verificación de estados de tomas cuando la pantalla ya se mostró
+                Looper.myQueue().addIdleHandler(() -> {
+                    if (!isFinishing()) {
+                        iniciarServicioVerificacionTomas();
+                    }
+                    return false;
+                });
+            });
+
             Log.d(TAG, "MainActivity inicializada correctamente");
         } catch (Exception e) {
             Log.e(TAG, "Error crítico en onCreate", e);
@@ -97,6 +125,22 @@ public class MainActivity extends AppCompatActivity implements MedicamentoAdapte
         }
     }
 
+    @Override
+    protected void onResume() {
+        super.onResume();
+        if (colaTomas != null) {
+            colaTomas.enviarPendientes();
+        }
+        handlerOrden.removeCallbacks(tickOrden);
+        programarTickOrden();
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        handlerOrden.removeCallbacks(tickOrden);
+    }
+
     @Override
     protected void onDestroy() {
         super.onDestroy();
@@ -145,12 +189,28 @@ public class MainActivity extends AppCompatActivity implements MedicamentoAdapte
         medicamentos = new ArrayList<>();
         adapter = new MedicamentoAdapter(this, medicamentos);
         adapter.setOnMedicamentoClickListener(this);
+        adapter.setTomaTrackingService(tomaTrackingService);
 
         rvMedicamentos.setLayoutManager(new LinearLayoutManager(this));
         rvMedicamentos.setAdapter(adapter);
     }
 
     private void cargarDatosDesdeFirebase() {
+        // Cargar el historial de consumo reciente para el pronóstico de stock. También sin conexión:
+        // sale de la caché de Firestore o de la base local, y se combina con lo ya registrado
+        firebaseService.obtenerTomasUsuarioDesde(PronosticadorStock.inicioVentana(),
+            new FirebaseService.FirestoreListCallback() {
+                @Override
+                public void onSuccess(List<?> result) {
+                    PronosticadorStock.getInstance().cargarTomas((List<Toma>) result);
+                }
+
+                @Override
+                public void onError(Exception exception) {
+                    Log.w(TAG, "No se pudo cargar el historial de consumo", exception);
+                }
+            });
+
         // Verificar conexión a internet
         if (!NetworkUtils.isNetworkAvailable(this)) {
             Toast.makeText(this, "No hay conexión a internet", Toast.LENGTH_LONG).show();
@@ -160,6 +220,12 @@ public class MainActivity extends AppCompatActivity implements MedicamentoAdapte
             return;
         }
 
+        // La primera vez, copiar las tomas del usuario a la base local (después no hace nada)
+        firebaseService.hidratarAlmacenLocal(null);
+
+        // Si el usuario lo activó, una vez por día resumir por mes las tomas más antiguas que el horizonte
+        new ArchivoTomas(this).archivarSiCorresponde();
+
         // Cargar medicamentos activos desde Firebase
         Log.d(TAG, "Iniciando carga de medicamentos desde Firebase");
         firebaseService.obtenerMedicamentosActivos(new FirebaseService.FirestoreListCallback() {
@@ -176,6 +242,8 @@ public class MainActivity extends AppCompatActivity implements MedicamentoAdapte
                     } else {
                         medicamentos = new ArrayList<>();
                     }
+                    // Descontar las dosis registradas que todavía no llegaron a Firestore
+                    medicamentos = colaTomas.aplicarPendientes(medicamentos);
                     
                     // Inicializar tomas del día para cada medicamento
                     for (Medicamento med : medicamentos) {
@@ -268,6 +336,11 @@ public class MainActivity extends AppCompatActivity implements MedicamentoAdapte
                             if (result != null) {
                                 todosLosMedicamentos = (List<Medicamento>) result;
                             }
+                            // Descontar las dosis registradas que todavía no llegaron a Firestore
+                            todosLosMedicamentos = colaTomas.aplicarPendientes(todosLosMedicamentos);
+                            // Mover a la colección de tomas las que la web agregó al array (una vez por medicamento)
+                            MigracionTomasRealizadas.getInstance(MainActivity.this)
+                                .migrarMedicamentos(todosLosMedicamentos);
                             
                             // Filtrar medicamentos activos: solo activos y no pausados
                             List<Medicamento> medicamentosActivos = new ArrayList<>();
@@ -354,94 +427,33 @@ public class MainActivity extends AppCompatActivity implements MedicamentoAdapte
      * Ordena los medicamentos por la próxima toma programada.
      * Los medicamentos con la toma más próxima aparecen primero.
      * Los medicamentos con tomas omitidas van al final.
+     * @return true si el orden cambió
      */
-    private void ordenarMedicamentosPorHorario() {
-        if (medicamentos == null || medicamentos.isEmpty()) {
-            return;
-        }
-
-        // Obtener hora actual
-        Calendar cal = Calendar.getInstance();
-        int horaActual = cal.get(Calendar.HOUR_OF_DAY);
-        int minutoActual = cal.get(Calendar.MINUTE);
-        int minutosActuales = horaActual * 60 + minutoActual;
-
-        // Ordenar usando un comparador personalizado
-        medicamentos.sort((med1, med2) -> {
-            // Verificar si tienen tomas omitidas
-            boolean tieneOmitidas1 = tomaTrackingService.tieneTomasOmitidas(med1.getId());
-            boolean tieneOmitidas2 = tomaTrackingService.tieneTomasOmitidas(med2.getId());
-            
-            // Si uno tiene omitidas y el otro no, el que tiene omitidas va al final
-            if (tieneOmitidas1 && !tieneOmitidas2) {
-                return 1; // med1 va después
-            }
-            if (!tieneOmitidas1 && tieneOmitidas2) {
-                return -1; // med2 va después
-            }
-            
-            // Si ambos tienen o no tienen omitidas, ordenar por próxima toma
-            long proximaToma1 = calcularMinutosHastaProximaToma(med1, minutosActuales);
-            long proximaToma2 = calcularMinutosHastaProximaToma(med2, minutosActuales);
-            return Long.compare(proximaToma1, proximaToma2);
-        });
+    private boolean ordenarMedicamentosPorHorario() {
+        return ordenDashboard.ordenar(medicamentos);
     }
 
     /**
-     * Calcula los minutos hasta la próxima toma de un medicamento.
-     * @param medicamento El medicamento a evaluar
-     * @param minutosActuales Minutos transcurridos desde medianoche (0-1439)
-     * @return Minutos hasta la próxima toma (0 si es la próxima hora, o minutos hasta mañana)
+     * Cada minuto se recalculan las claves de orden; la lista solo se reenvía al adapter si el orden cambió
      */
-    private long calcularMinutosHastaProximaToma(Medicamento medicamento, int minutosActuales) {
-        if (medicamento == null || medicamento.getHorariosTomas() == null || 
-            medicamento.getHorariosTomas().isEmpty()) {
-            // Si no tiene horarios, ponerlo al final
-            return Long.MAX_VALUE;
-        }
-
-        List<String> horarios = medicamento.getHorariosTomas();
-        long minutosMinimos = Long.MAX_VALUE;
-
-        // Buscar el próximo horario de hoy
-        for (String horario : horarios) {
-            if (horario == null || horario.isEmpty()) {
-                continue;
-            }
-
-            try {
-                String[] partes = horario.split(":");
-                if (partes.length < 2) {
-                    continue;
+    private final Runnable tickOrden = new Runnable() {
+        @Override
+        public void run() {
+            if (adapter != null && medicamentos != null) {
+                adapter.notificarEstadosCambiados();
+                if (ordenarMedicamentosPorHorario()) {
+                    adapter.actualizarMedicamentos(medicamentos);
                 }
-
-                int hora = Integer.parseInt(partes[0]);
-                int minuto = Integer.parseInt(partes[1]);
-                int minutosHorario = hora * 60 + minuto;
-
-                if (minutosHorario >= minutosActuales) {
-                    // Este horario es hoy
-                    long diferencia = minutosHorario - minutosActuales;
-                    if (diferencia < minutosMinimos) {
-                        minutosMinimos = diferencia;
-                    }
-                } else {
-                    // Este horario ya pasó hoy, será mañana
-                    long minutosHastaMedianoche = (24 * 60) - minutosActuales;
-                    long minutosDesdeMedianoche = minutosHorario;
-                    long diferencia = minutosHastaMedianoche + minutosDesdeMedianoche;
-                    if (diferencia < minutosMinimos) {
-                        minutosMinimos = diferencia;
-                    }
-                }
-            } catch (NumberFormatException e) {
-                // Ignorar horarios con formato inválido
-                continue;
             }
+            programarTickOrden();
         }
+    };
 
-        // Si no se encontró ningún horario válido, ponerlo al final
-        return minutosMinimos == Long.MAX_VALUE ? Long.MAX_VALUE : minutosMinimos;
+    private void programarTickOrden() {
+        // Alinear el tick con el cambio de minuto
+        long ahora = System.currentTimeMillis();
+        long hastaProximoMinuto = 60_000L - (ahora % 60_000L);
+        handlerOrden.postDelayed(tickOrden, hastaProximoMinuto);
     }
 
     private void configurarNavegacion() {
@@ -486,20 +498,11 @@ public class MainActivity extends AppCompatActivity implements MedicamentoAdapte
             return;
         }
 
-        if (!NetworkUtils.isNetworkAvailable(this)) {
-            Toast.makeText(this, "No hay conexión a internet", Toast.LENGTH_LONG).show();
-            return;
-        }
-
         if (medicamento.getId() == null || medicamento.getId().isEmpty()) {
             Toast.makeText(this, "Medicamento sin identificador válido", Toast.LENGTH_SHORT).show();
             return;
         }
 
-        final int stockAnterior = medicamento.getStockActual();
-        final int diasRestantesAnteriores = medicamento.getDiasRestantesDuracion();
-        final boolean estabaPausado = medicamento.isPausado();
-
         medicamento.consumirDosis();
         final boolean tratamientoCompletado = medicamento.estaAgotado();
         if (tratamientoCompletado) {
@@ -518,106 +521,48 @@ public class MainActivity extends AppCompatActivity implements MedicamentoAdapte
         toma.setEstado(Toma.EstadoToma.TOMADA);
         toma.setObservaciones("Registrada desde el panel principal");
 
-        firebaseService.guardarToma(toma, new FirebaseService.FirestoreCallback() {
-            @Override
-            public void onSuccess(Object result) {
-                // Marcar la toma como tomada en el tracking service
-                if (horarioToma != null) {
-                    tomaTrackingService.marcarTomaComoTomada(medicamento.getId(), horarioToma);
-                }
-                
-                firebaseService.actualizarMedicamento(medicamento, new FirebaseService.FirestoreCallback() {
-                    @Override
-                    public void onSuccess(Object updateResult) {
-                        // Reordenar medicamentos después de marcar como tomada
-                        ordenarMedicamentosPorHorario();
-                        adapter.notifyDataSetChanged();
-                        Toast.makeText(MainActivity.this,
-                                "✓ " + medicamento.getNombre() + " marcado como tomado",
-                                Toast.LENGTH_SHORT).show();
-                        if (tratamientoCompletado) {
-                            Toast.makeText(MainActivity.this,
-                                    "¡Tratamiento de " + medicamento.getNombre() + " completado!",
-                                    Toast.LENGTH_LONG).show();
-                        }
-                    }
+        // La dosis se guarda en el dispositivo y se envía a Firestore en segundo plano:
+        // la UI se actualiza sin esperar a la red
+        colaTomas.encolar(toma, medicamento);
 
-                    @Override
-                    public void onError(Exception exception) {
-                        revertirCambiosMedicamento(medicamento, stockAnterior, diasRestantesAnteriores, estabaPausado);
-                        Toast.makeText(MainActivity.this,
-                                "Error al actualizar medicamento",
-                                Toast.LENGTH_SHORT).show();
-                    }
-                });
-            }
+        // Marcar la toma como tomada en el tracking service
+        if (horarioToma != null) {
+            tomaTrackingService.marcarTomaComoTomada(medicamento.getId(), horarioToma);
+        }
 
-            @Override
-            public void onError(Exception exception) {
-                revertirCambiosMedicamento(medicamento, stockAnterior, diasRestantesAnteriores, estabaPausado);
-                Toast.makeText(MainActivity.this,
-                        "Error al registrar la toma. Intenta nuevamente.",
-                        Toast.LENGTH_SHORT).show();
-            }
-        });
+        // Reordenar medicamentos después de marcar como tomada
+        // El medicamento se modificó en el lugar: avisar el cambio de stock y del estado de la toma
+        adapter.notificarStockCambiado(medicamento);
+        adapter.notificarEstadosCambiados();
+        if (ordenarMedicamentosPorHorario()) {
+            adapter.actualizarMedicamentos(medicamentos);
+        }
+        Toast.makeText(this,
+                "✓ " + medicamento.getNombre() + " marcado como tomado",
+                Toast.LENGTH_SHORT).show();
+        if (tratamientoCompletado) {
+            Toast.makeText(this,
+                    "¡Tratamiento de " + medicamento.getNombre() + " completado!",
+                    Toast.LENGTH_LONG).show();
+        }
     }
 
     /**
      * Obtiene el horario de la toma más próxima del medicamento
      */
     private String obtenerHorarioTomaProxima(Medicamento medicamento) {
-        if (medicamento == null || medicamento.getHorariosTomas() == null || 
-            medicamento.getHorariosTomas().isEmpty()) {
+        if (medicamento == null) {
             return null;
         }
         
         Calendar ahora = Calendar.getInstance();
-        int horaActual = ahora.get(Calendar.HOUR_OF_DAY);
-        int minutoActual = ahora.get(Calendar.MINUTE);
-        int minutosActuales = horaActual * 60 + minutoActual;
-        
-        String horarioProximo = null;
-        long minutosMinimos = Long.MAX_VALUE;
-        
-        for (String horario : medicamento.getHorariosTomas()) {
-            try {
-                String[] partes = horario.split(":");
-                if (partes.length != 2) {
-                    continue;
-                }
-                
-                int hora = Integer.parseInt(partes[0]);
-                int minuto = Integer.parseInt(partes[1]);
-                int minutosHorario = hora * 60 + minuto;
-                
-                long diferencia;
-                if (minutosHorario >= minutosActuales) {
-                    diferencia = minutosHorario - minutosActuales;
-                } else {
-                    diferencia = (24 * 60) - minutosActuales + minutosHorario;
-                }
-                
-                if (diferencia < minutosMinimos) {
-                    minutosMinimos = diferencia;
-                    horarioProximo = horario;
-                }
-            } catch (NumberFormatException e) {
-                continue;
-            }
-        }
+        int minutosActuales = ahora.get(Calendar.HOUR_OF_DAY) * 60 + ahora.get(Calendar.MINUTE);
         
-        return horarioProximo;
+        HorarioDiario horarios = medicamento.getHorarioDiario();
+        int indice = horarios.indiceProxima(minutosActuales);
+        return indice != HorarioDiario.INVALIDO ? horarios.textoEn(indice) : null;
     }
     
-    private void revertirCambiosMedicamento(Medicamento medicamento,
-                                            int stockAnterior,
-                                            int diasRestantesAnteriores,
-                                            boolean estabaPausado) {
-        medicamento.setStockActual(stockAnterior);
-        medicamento.setDiasRestantesDuracion(diasRestantesAnteriores);
-        medicamento.setPausado(estabaPausado);
-    }
-
     @Override
     public void onMedicamentoClick(Medicamento medicamento) {
         if (medicamento == null || medicamento.getId() == null) {
@@ -652,15 +597,19 @@ public class MainActivity extends AppCompatActivity implements MedicamentoAdapte
                     " posposiciones disponibles", Toast.LENGTH_LONG).show();
             
             // Reordenar y actualizar la lista
-            ordenarMedicamentosPorHorario();
-            adapter.notifyDataSetChanged();
+            adapter.notificarEstadosCambiados();
+            if (ordenarMedicamentosPorHorario()) {
+                adapter.actualizarMedicamentos(medicamentos);
+            }
         } else {
             Toast.makeText(this, "No se puede posponer más. Máximo 3 posposiciones alcanzado. La toma se considera omitida.", 
                     Toast.LENGTH_LONG).show();
             
             // Reordenar y actualizar la lista (el medicamento irá al final)
-            ordenarMedicamentosPorHorario();
-            adapter.notifyDataSetChanged();
+            adapter.notificarEstadosCambiados();
+            if (ordenarMedicamentosPorHorario()) {
+                adapter.actualizarMedicamentos(medicamentos);
+            }
         }
     }
     
@@ -714,7 +663,7 @@ public class MainActivity extends AppCompatActivity implements MedicamentoAdapte
         android.content.SharedPreferences prefs = getSharedPreferences("ControlMedicamentos", MODE_PRIVATE);
         int diasAntesAlerta = prefs.getInt("dias_antelacion_stock", 7);
         
-        StockAlertUtils.verificarStock(todosLosMedicamentos, new StockAlertUtils.StockAlertListener() {
+        StockAlertUtils.verificarStock(this, todosLosMedicamentos, new StockAlertUtils.StockAlertListener() {
             @Override
             public void onStockAgotado(Medicamento medicamento) {
                 runOnUiThread(() -> {
@@ -17,14 +17,15 @@ import com.google.android.material.button.MaterialButton;
 import com.google.android.material.textfield.TextInputEditText;
 import com.google.android.material.textfield.TextInputLayout;
 import com.controlmedicamentos.myapplication.R;
+import com.controlmedicamentos.myapplication.models.HorarioDiario;
 import com.controlmedicamentos.myapplication.models.Medicamento;
 import com.controlmedicamentos.myapplication.services.AuthService;
+import com.controlmedicamentos.myapplication.services.Dependencias;
 import com.controlmedicamentos.myapplication.services.FirebaseService;
 import com.controlmedicamentos.myapplication.utils.NetworkUtils;
 import com.controlmedicamentos.myapplication.utils.ColorUtils;
 import com.controlmedicamentos.myapplication.utils.AlarmScheduler;
 import java.util.Calendar;
-import java.util.List;
 
 public class NuevaMedicinaActivity extends AppCompatActivity {
 
@@ -58,8 +59,7 @@ public class NuevaMedicinaActivity extends AppCompatActivity {
         setContentView(R.layout.activity_nueva_medicina);
 
         // Inicializar servicios
-        authService = new AuthService();
-        firebaseService = new FirebaseService();
+        authService = Dependencias.de(this).getAuthService();
 
         // Verificar autenticación
         if (!authService.isUserLoggedIn()) {
@@ -74,12 +74,22 @@ public class NuevaMedicinaActivity extends AppCompatActivity {
         
         // Verificar si se está editando un medicamento
         String medicamentoId = getIntent().getStringExtra("medicamento_id");
-        if (medicamentoId != null && !medicamentoId.isEmpty()) {
-            esEdicion = true;
-            cargarMedicamentoParaEditar(medicamentoId);
-        } else {
-            cargarCantidadMedicamentosParaColor();
-        }
+        esEdicion = medicamentoId != null && !medicamentoId.isEmpty();
+
+        // Firestore se prepara en segundo plano: hasta que esté listo no se puede guardar
+        btnGuardar.setEnabled(false);
+        Dependencias.de(this).obtenerServicios((servicioFirebase, servicioTomas) -> {
+            if (isFinishing() || isDestroyed()) {
+                return;
+            }
+            firebaseService = servicioFirebase;
+            btnGuardar.setEnabled(true);
+            if (esEdicion) {
+                cargarMedicamentoParaEditar(medicamentoId);
+            } else {
+                cargarCantidadMedicamentosParaColor();
+            }
+        });
     }
 
     private void inicializarVistas() {
@@ -241,36 +251,32 @@ public class NuevaMedicinaActivity extends AppCompatActivity {
             Medicamento medicamento = crearMedicamento();
 
             if (esEdicion && medicamentoEditar != null) {
-                // Actualizar medicamento existente
-                medicamento.setId(medicamentoEditar.getId());
+                // Actualizar medicamento existente: los datos del formulario se vuelcan sobre
+                // el medicamento cargado, así solo se envían a Firestore los campos que cambiaron
+                int nuevoStockInicial = medicamento.getStockInicial();
+                int stockInicialAnterior = medicamentoEditar.getStockInicial();
+                int stockActualAnterior = medicamentoEditar.getStockActual();
+                medicamentoEditar.copiarDatosEditables(medicamento);
+                // Guardar la edición reactiva el medicamento (como cuando se reescribía completo)
+                medicamentoEditar.reanudarMedicamento();
                 
                 // En edición, si el usuario cambió el stock (campo Stock Inicial),
                 // mantener el stockActual como está si no se cambió explícitamente
                 // Pero si se cambió stockInicial, actualizar stockActual al nuevo valor
                 // (lógica de React: si se actualiza stockInicial y stockActual no está definido, usar stockInicial)
-                int nuevoStockInicial = medicamento.getStockInicial();
-                int stockInicialAnterior = medicamentoEditar.getStockInicial();
-                
-                if (nuevoStockInicial != stockInicialAnterior) {
-                    // Si se cambió stockInicial, y el stockActual es el mismo que antes,
-                    // significa que no se actualizó explícitamente, mantener el stockActual actual
-                    if (medicamento.getStockActual() == medicamentoEditar.getStockActual()) {
-                        // Mantener el stockActual como está (no actualizar al nuevo stockInicial)
-                        medicamento.setStockActual(medicamentoEditar.getStockActual());
-                    }
-                    // Si stockActual cambió, usar el nuevo valor
-                } else {
-                    // Si no se cambió stockInicial, mantener stockActual igual
-                    medicamento.setStockActual(medicamentoEditar.getStockActual());
+                // Si no se cambió stockInicial, el stockActual queda igual
+                if (nuevoStockInicial != stockInicialAnterior
+                    && medicamento.getStockActual() != stockActualAnterior) {
+                    medicamentoEditar.setStockActual(medicamento.getStockActual());
                 }
                 
-                firebaseService.actualizarMedicamento(medicamento, new FirebaseService.FirestoreCallback() {
+                firebaseService.actualizarMedicamento(medicamentoEditar, new FirebaseService.FirestoreCallback() {
                     @Override
                     public void onSuccess(Object result) {
                         // Programar alarmas para el medicamento actualizado
                         if (result instanceof Medicamento) {
                             Medicamento medicamentoActualizado = (Medicamento) result;
-                            AlarmScheduler alarmScheduler = new AlarmScheduler(NuevaMedicinaActivity.this);
+                            AlarmScheduler alarmScheduler = Dependencias.de(NuevaMedicinaActivity.this).getAlarmScheduler();
                             alarmScheduler.programarAlarmasMedicamento(medicamentoActualizado);
                         }
                         Toast.makeText(NuevaMedicinaActivity.this, "Medicamento actualizado exitosamente", Toast.LENGTH_SHORT).show();
@@ -293,7 +299,7 @@ public class NuevaMedicinaActivity extends AppCompatActivity {
                         // Programar alarmas para el nuevo medicamento
                         if (result instanceof Medicamento) {
                             Medicamento medicamentoGuardado = (Medicamento) result;
-                            AlarmScheduler alarmScheduler = new AlarmScheduler(NuevaMedicinaActivity.this);
+                            AlarmScheduler alarmScheduler = Dependencias.de(NuevaMedicinaActivity.this).getAlarmScheduler();
                             alarmScheduler.programarAlarmasMedicamento(medicamentoGuardado);
                         }
                         Toast.makeText(NuevaMedicinaActivity.this, "Medicamento guardado exitosamente", Toast.LENGTH_SHORT).show();
@@ -434,6 +440,11 @@ public class NuevaMedicinaActivity extends AppCompatActivity {
             }
         }
 
+        if (tomasDiarias > HorarioDiario.MAXIMO_TOMAS_DIARIAS) {
+            tilTomasDiarias.setError("Máximo " + HorarioDiario.MAXIMO_TOMAS_DIARIAS + " tomas diarias");
+            valido = false;
+        }
+
         if (tomasDiarias > 0) {
             // Si tiene tomas diarias, requiere horario
             if (TextUtils.isEmpty(btnSeleccionarHora.getText()) || 
@@ -513,10 +524,11 @@ public class NuevaMedicinaActivity extends AppCompatActivity {
      * Consistente con React: obtenerColorPorIndice(medicamentos.length)
      */
     private void cargarCantidadMedicamentosParaColor() {
-        firebaseService.obtenerMedicamentos(new FirebaseService.FirestoreListCallback() {
+        // Solo se necesita la cantidad: se cuenta en el servidor sin descargar los medicamentos
+        firebaseService.contarMedicamentos(new FirebaseService.FirestoreCallback() {
             @Override
-            public void onSuccess(List<?> result) {
-                int cantidadMedicamentos = result != null ? result.size() : 0;
+            public void onSuccess(Object result) {
+                int cantidadMedicamentos = result instanceof Integer ? (Integer) result : 0;
                 // Asignar color automáticamente según la cantidad de medicamentos
                 colorSeleccionadoHex = ColorUtils.obtenerColorPorIndice(cantidadMedicamentos);
                 // Actualizar el botón de color
@@ -559,15 +571,18 @@ public class NuevaMedicinaActivity extends AppCompatActivity {
     }
 
     private void mostrarSelectorHora() {
-        String[] partes = horaSeleccionada.split(":");
-        int hora = Integer.parseInt(partes[0]);
-        int minuto = Integer.parseInt(partes[1]);
+        int minutosDelDia = HorarioDiario.parsear(horaSeleccionada);
+        if (minutosDelDia == HorarioDiario.INVALIDO) {
+            minutosDelDia = 8 * 60;
+        }
+        int hora = minutosDelDia / 60;
+        int minuto = minutosDelDia % 60;
 
         TimePickerDialog timePickerDialog = new TimePickerDialog(this,
                 new TimePickerDialog.OnTimeSetListener() {
                     @Override
                     public void onTimeSet(TimePicker view, int hourOfDay, int minute) {
-                        horaSeleccionada = String.format("%02d:%02d", hourOfDay, minute);
+                        horaSeleccionada = HorarioDiario.formatear(hourOfDay * 60 + minute);
                         btnSeleccionarHora.setText(horaSeleccionada);
                     }
                 }, hora, minuto, true);
@@ -8,20 +8,27 @@ import android.view.ViewGroup;
 import android.widget.ImageView;
 import android.widget.TextView;
 import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.AsyncListDiffer;
 import androidx.recyclerview.widget.RecyclerView;
 import com.google.android.material.button.MaterialButton;
 import com.google.android.material.card.MaterialCardView;
 import com.controlmedicamentos.myapplication.R;
 import com.controlmedicamentos.myapplication.models.Medicamento;
+import com.controlmedicamentos.myapplication.models.PronosticoStock;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 
 public class BotiquinAdapter extends RecyclerView.Adapter<BotiquinAdapter.BotiquinViewHolder> {
 
     private Context context;
-    private List<Medicamento> medicamentos;
+    private final AsyncListDiffer<Medicamento> differ;
     private OnMedicamentoClickListener listener;
+    private final SimpleDateFormat dateFormat = new SimpleDateFormat("dd/MM/yyyy", Locale.getDefault());
+    private Map<String, PronosticoStock> pronosticos = new HashMap<>();
 
     public interface OnMedicamentoClickListener {
         void onEditarClick(Medicamento medicamento);
@@ -31,13 +38,23 @@ public class BotiquinAdapter extends RecyclerView.Adapter<BotiquinAdapter.Botiqu
 
     public BotiquinAdapter(Context context, List<Medicamento> medicamentos) {
         this.context = context;
-        this.medicamentos = medicamentos != null ? medicamentos : new java.util.ArrayList<>();
+        this.differ = new AsyncListDiffer<>(this, DiffCallbacks.MEDICAMENTO);
+        setHasStableIds(true);
+        actualizarMedicamentos(medicamentos);
     }
 
     public void setOnMedicamentoClickListener(OnMedicamentoClickListener listener) {
         this.listener = listener;
     }
 
+    /**
+     * Pronósticos de agotamiento de stock, para mostrar la fecha estimada en cada fila
+     */
+    public void setPronosticos(Map<String, PronosticoStock> pronosticos) {
+        this.pronosticos = pronosticos != null ? pronosticos : new HashMap<>();
+        notifyItemRangeChanged(0, getItemCount(), DiffCallbacks.PAYLOAD_STOCK);
+    }
+
     @NonNull
     @Override
     public BotiquinViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
@@ -47,20 +64,55 @@ public class BotiquinAdapter extends RecyclerView.Adapter<BotiquinAdapter.Botiqu
 
     @Override
     public void onBindViewHolder(@NonNull BotiquinViewHolder holder, int position) {
-        if (medicamentos != null && position < medicamentos.size()) {
-            Medicamento medicamento = medicamentos.get(position);
-            holder.bind(medicamento);
+        List<Medicamento> medicamentos = differ.getCurrentList();
+        if (position < medicamentos.size()) {
+            holder.bind(medicamentos.get(position));
+        }
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull BotiquinViewHolder holder, int position,
+                                 @NonNull List<Object> payloads) {
+        List<Medicamento> medicamentos = differ.getCurrentList();
+        if (payloads.contains(DiffCallbacks.PAYLOAD_STOCK) && position < medicamentos.size()) {
+            // Bind parcial: solo stock, estado y botones que dependen del stock
+            holder.bindStock(medicamentos.get(position));
+        } else {
+            onBindViewHolder(holder, position);
         }
     }
 
     @Override
     public int getItemCount() {
-        return medicamentos != null ? medicamentos.size() : 0;
+        return differ.getCurrentList().size();
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return DiffCallbacks.idEstable(differ.getCurrentList().get(position).getId());
     }
 
+    /**
+     * Reemplaza la lista. El diff se calcula en segundo plano y solo se re-enlazan las filas que cambiaron.
+     */
     public void actualizarMedicamentos(List<Medicamento> nuevosMedicamentos) {
-        this.medicamentos = nuevosMedicamentos != null ? nuevosMedicamentos : new java.util.ArrayList<>();
-        notifyDataSetChanged();
+        differ.submitList(nuevosMedicamentos != null ? new ArrayList<>(nuevosMedicamentos) : new ArrayList<>());
+    }
+
+    /**
+     * Notifica que cambió el stock de un medicamento modificado en memoria (bind parcial)
+     */
+    public void notificarStockCambiado(Medicamento medicamento) {
+        if (medicamento == null || medicamento.getId() == null) {
+            return;
+        }
+        List<Medicamento> actuales = differ.getCurrentList();
+        for (int i = 0; i < actuales.size(); i++) {
+            if (medicamento.getId().equals(actuales.get(i).getId())) {
+                notifyItemChanged(i, DiffCallbacks.PAYLOAD_STOCK);
+                return;
+            }
+        }
     }
 
     class BotiquinViewHolder extends RecyclerView.ViewHolder {
@@ -87,6 +139,36 @@ public class BotiquinAdapter extends RecyclerView.Adapter<BotiquinAdapter.Botiqu
             btnTomeUna = itemView.findViewById(R.id.btnTomeUna);
             btnEditar = itemView.findViewById(R.id.btnEditar);
             btnEliminar = itemView.findViewById(R.id.btnEliminar);
+
+            // Configurar listeners una sola vez; usan el medicamento actual de la fila
+            btnTomeUna.setOnClickListener(v -> {
+                Medicamento medicamento = obtenerMedicamentoActual();
+                if (listener != null && medicamento != null) {
+                    listener.onTomeUnaClick(medicamento);
+                }
+            });
+
+            btnEditar.setOnClickListener(v -> {
+                Medicamento medicamento = obtenerMedicamentoActual();
+                if (listener != null && medicamento != null) {
+                    listener.onEditarClick(medicamento);
+                }
+            });
+
+            btnEliminar.setOnClickListener(v -> {
+                Medicamento medicamento = obtenerMedicamentoActual();
+                if (listener != null && medicamento != null) {
+                    listener.onEliminarClick(medicamento);
+                }
+            });
+        }
+
+        private Medicamento obtenerMedicamentoActual() {
+            int posicion = getBindingAdapterPosition();
+            if (posicion == RecyclerView.NO_POSITION || posicion >= getItemCount()) {
+                return null;
+            }
+            return differ.getCurrentList().get(posicion);
         }
 
         public void bind(Medicamento medicamento) {
@@ -99,12 +181,23 @@ public class BotiquinAdapter extends RecyclerView.Adapter<BotiquinAdapter.Botiqu
             // Configurar presentación
             tvPresentacion.setText(medicamento.getPresentacion());
 
+            bindStock(medicamento);
+
+            // Configurar color de fondo
+            cardMedicamento.setCardBackgroundColor(medicamento.getColor());
+        }
+
+        public void bindStock(Medicamento medicamento) {
             // Configurar stock (solo si tiene stock y no está vencido)
             if (medicamento.getStockActual() > 0 && !medicamento.estaVencido()) {
                 String stockText = "Stock: " + medicamento.getStockActual();
                 if (medicamento.getStockInicial() > 0) {
                     stockText += "/" + medicamento.getStockInicial();
                 }
+                PronosticoStock pronostico = pronosticos.get(medicamento.getId());
+                if (pronostico != null && pronostico.getFechaAgotamiento() != null) {
+                    stockText += " • se agota aprox. " + dateFormat.format(pronostico.getFechaAgotamiento());
+                }
                 tvStock.setText(stockText);
                 tvStock.setVisibility(TextView.VISIBLE);
             } else {
@@ -129,7 +222,6 @@ public class BotiquinAdapter extends RecyclerView.Adapter<BotiquinAdapter.Botiqu
                     
                     // Mostrar fecha de vencimiento si existe
                     if (medicamento.getFechaVencimiento() != null) {
-                        SimpleDateFormat dateFormat = new SimpleDateFormat("dd/MM/yyyy", Locale.getDefault());
                         String fechaVencimiento = dateFormat.format(medicamento.getFechaVencimiento());
                         tvFechaVencimiento.setText("Vence: " + fechaVencimiento);
                         tvFechaVencimiento.setVisibility(TextView.VISIBLE);
@@ -156,28 +248,6 @@ public class BotiquinAdapter extends RecyclerView.Adapter<BotiquinAdapter.Botiqu
                     btnEliminar.setVisibility(View.VISIBLE);
                 }
             }
-
-            // Configurar color de fondo
-            cardMedicamento.setCardBackgroundColor(medicamento.getColor());
-
-            // Configurar listeners
-            btnTomeUna.setOnClickListener(v -> {
-                if (listener != null) {
-                    listener.onTomeUnaClick(medicamento);
-                }
-            });
-
-            btnEditar.setOnClickListener(v -> {
-                if (listener != null) {
-                    listener.onEditarClick(medicamento);
-                }
-            });
-
-            btnEliminar.setOnClickListener(v -> {
-                if (listener != null) {
-                    listener.onEliminarClick(medicamento);
-                }
-            });
         }
     }
 }
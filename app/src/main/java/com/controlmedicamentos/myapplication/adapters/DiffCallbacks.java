@@ -0,0 +1,109 @@
+package com.controlmedicamentos.myapplication.adapters;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.recyclerview.widget.DiffUtil;
+import com.controlmedicamentos.myapplication.models.Medicamento;
+import com.controlmedicamentos.myapplication.models.Toma;
+import java.util.Objects;
+
+/**
+ * Callbacks de DiffUtil compartidos por los adapters.
+ * Los diffs se calculan en segundo plano con AsyncListDiffer y solo se re-enlazan las filas
+ * que cambiaron; si lo único que cambió es el stock o el estado se envía un payload
+ * para hacer un bind parcial.
+ */
+final class DiffCallbacks {
+
+    /** Payload: solo cambiaron los campos de stock del medicamento */
+    static final String PAYLOAD_STOCK = "payload_stock";
+    /** Payload: solo cambió el estado (de la toma o de las tomas programadas) */
+    static final String PAYLOAD_ESTADO = "payload_estado";
+
+    private DiffCallbacks() {
+    }
+
+    /**
+     * Convierte un ID de Firestore en un ID estable para RecyclerView (hash FNV-1a de 64 bits)
+     */
+    static long idEstable(String id) {
+        if (id == null) {
+            return androidx.recyclerview.widget.RecyclerView.NO_ID;
+        }
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < id.length(); i++) {
+            hash ^= id.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    static final DiffUtil.ItemCallback<Medicamento> MEDICAMENTO = new DiffUtil.ItemCallback<Medicamento>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull Medicamento oldItem, @NonNull Medicamento newItem) {
+            return Objects.equals(oldItem.getId(), newItem.getId());
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull Medicamento oldItem, @NonNull Medicamento newItem) {
+            return mismosDatosGenerales(oldItem, newItem) && mismoStock(oldItem, newItem);
+        }
+
+        @Nullable
+        @Override
+        public Object getChangePayload(@NonNull Medicamento oldItem, @NonNull Medicamento newItem) {
+            if (mismosDatosGenerales(oldItem, newItem)) {
+                return PAYLOAD_STOCK;
+            }
+            return null;
+        }
+    };
+
+    static final DiffUtil.ItemCallback<Toma> TOMA = new DiffUtil.ItemCallback<Toma>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull Toma oldItem, @NonNull Toma newItem) {
+            return Objects.equals(oldItem.getId(), newItem.getId());
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull Toma oldItem, @NonNull Toma newItem) {
+            return oldItem.getEstado() == newItem.getEstado() && mismaFechaYObservaciones(oldItem, newItem);
+        }
+
+        @Nullable
+        @Override
+        public Object getChangePayload(@NonNull Toma oldItem, @NonNull Toma newItem) {
+            if (mismaFechaYObservaciones(oldItem, newItem)) {
+                return PAYLOAD_ESTADO;
+            }
+            return null;
+        }
+    };
+
+    private static boolean mismosDatosGenerales(Medicamento a, Medicamento b) {
+        return Objects.equals(a.getNombre(), b.getNombre())
+            && Objects.equals(a.getPresentacion(), b.getPresentacion())
+            && a.getTomasDiarias() == b.getTomasDiarias()
+            && a.getHorarioDiario().equals(b.getHorarioDiario())
+            && a.getColor() == b.getColor()
+            && a.getDiasTratamiento() == b.getDiasTratamiento()
+            && a.isActivo() == b.isActivo()
+            && a.isPausado() == b.isPausado()
+            && Objects.equals(a.getFechaVencimiento(), b.getFechaVencimiento())
+            && Objects.equals(a.getFechaInicioTratamiento(), b.getFechaInicioTratamiento());
+    }
+
+    private static boolean mismoStock(Medicamento a, Medicamento b) {
+        return a.getStockActual() == b.getStockActual()
+            && a.getStockInicial() == b.getStockInicial()
+            && a.getDiasRestantesDuracion() == b.getDiasRestantesDuracion()
+            && a.getDiasEstimadosDuracion() == b.getDiasEstimadosDuracion()
+            && a.getTipoStock() == b.getTipoStock();
+    }
+
+    private static boolean mismaFechaYObservaciones(Toma a, Toma b) {
+        return Objects.equals(a.getFechaHoraTomada(), b.getFechaHoraTomada())
+            && Objects.equals(a.getFechaHoraProgramada(), b.getFechaHoraProgramada())
+            && Objects.equals(a.getObservaciones(), b.getObservaciones());
+    }
+}
@@ -0,0 +1,137 @@
+package com.controlmedicamentos.myapplication.adapters;
+
+import com.controlmedicamentos.myapplication.models.HorarioDiario;
+import com.controlmedicamentos.myapplication.models.Medicamento;
+import com.controlmedicamentos.myapplication.models.TomaProgramada;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+
+/**
+ * Estados de las tomas del día de cada fila (ordinales de EstadoTomaProgramada, en el orden de los
+ * horarios). Se calculan una vez por lista o por tick, fuera de onBindViewHolder, y el bind solo los lee.
+ *
+ * Cada medicamento tiene dos buffers que se reutilizan mientras no cambie la cantidad de tomas: el
+ * calculado y el que muestra la fila. Así el tick por minuto compara sin reservar memoria.
+ */
+final class EstadosFilas {
+    private static final int[] SIN_TOMAS = new int[0];
+
+    private static final class Fila {
+        int[] actuales = SIN_TOMAS;
+        int[] mostrados; // null: la fila todavía no se enlazó
+        boolean vigente;
+    }
+
+    private final Map<String, Fila> filas = new HashMap<>();
+
+    /**
+     * Recalcula los estados de los medicamentos de la lista
+     * @param tomasDe tomas programadas del día de un medicamento (por ID)
+     */
+    void calcular(List<Medicamento> lista, Function<String, List<TomaProgramada>> tomasDe) {
+        for (int i = 0; i < lista.size(); i++) {
+            Medicamento medicamento = lista.get(i);
+            if (medicamento.getId() == null) {
+                continue;
+            }
+            Fila fila = filas.get(medicamento.getId());
+            if (fila == null) {
+                fila = new Fila();
+                filas.put(medicamento.getId(), fila);
+            }
+            calcularFila(fila, medicamento, tomasDe.apply(medicamento.getId()));
+        }
+    }
+
+    /**
+     * Descarta los estados de los medicamentos que ya no están en la lista mostrada
+     */
+    void descartarOtros(List<Medicamento> lista) {
+        for (Fila fila : filas.values()) {
+            fila.vigente = false;
+        }
+        for (int i = 0; i < lista.size(); i++) {
+            Fila fila = filas.get(lista.get(i).getId());
+            if (fila != null) {
+                fila.vigente = true;
+            }
+        }
+        for (Iterator<Fila> it = filas.values().iterator(); it.hasNext(); ) {
+            if (!it.next().vigente) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Estados calculados para la fila; el array es del buffer, no se debe modificar
+     */
+    int[] actuales(String medicamentoId) {
+        Fila fila = medicamentoId != null ? filas.get(medicamentoId) : null;
+        return fila != null ? fila.actuales : SIN_TOMAS;
+    }
+
+    /**
+     * Registra que la fila acaba de mostrar sus estados calculados
+     */
+    void mostrados(String medicamentoId) {
+        Fila fila = medicamentoId != null ? filas.get(medicamentoId) : null;
+        if (fila == null) {
+            return;
+        }
+        if (fila.mostrados == null || fila.mostrados.length != fila.actuales.length) {
+            fila.mostrados = new int[fila.actuales.length];
+        }
+        System.arraycopy(fila.actuales, 0, fila.mostrados, 0, fila.actuales.length);
+    }
+
+    /**
+     * Avisa las posiciones cuyos estados calculados son distintos de los que muestran. Las filas que
+     * todavía no se enlazaron se saltean: cuando aparezcan se enlazarán completas.
+     * @return cantidad de filas que cambiaron
+     */
+    int buscarCambios(List<Medicamento> lista, IntConsumer cambiada) {
+        int cambios = 0;
+        for (int i = 0; i < lista.size(); i++) {
+            String id = lista.get(i).getId();
+            Fila fila = id != null ? filas.get(id) : null;
+            if (fila != null && fila.mostrados != null && !Arrays.equals(fila.actuales, fila.mostrados)) {
+                cambios++;
+                cambiada.accept(i);
+            }
+        }
+        return cambios;
+    }
+
+    private static void calcularFila(Fila fila, Medicamento medicamento, List<TomaProgramada> tomas) {
+        HorarioDiario horarios = medicamento.getHorarioDiario();
+        int cantidad = Math.min(medicamento.getTomasDiarias(), horarios.cantidad());
+        if (cantidad < 0) {
+            cantidad = 0;
+        }
+        if (fila.actuales.length != cantidad) {
+            fila.actuales = cantidad > 0 ? new int[cantidad] : SIN_TOMAS;
+        }
+        int[] estados = fila.actuales;
+        Arrays.fill(estados, TomaProgramada.EstadoTomaProgramada.PENDIENTE.ordinal());
+        if (tomas == null) {
+            return;
+        }
+
+        // De atrás hacia adelante: si dos tomas tienen el mismo horario, gana la primera
+        for (int j = tomas.size() - 1; j >= 0; j--) {
+            TomaProgramada toma = tomas.get(j);
+            int minutos = toma.getMinutosHorario();
+            for (int i = 0; i < estados.length; i++) {
+                if (horarios.minutosEn(i) == minutos) {
+                    estados[i] = toma.getEstado().ordinal();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.controlmedicamentos.myapplication.adapters;
+
+import com.controlmedicamentos.myapplication.models.Medicamento;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+
+/**
+ * Recuerda lo último que mostró cada fila (por ID del medicamento) para re-enlazar solo las filas
+ * cuyo contenido cambió. Sirve también cuando el medicamento se modificó en el lugar: ahí el diff
+ * compara el objeto consigo mismo y no detecta el cambio.
+ *
+ * @param <T> lo que muestra la fila (se compara con Objects.deepEquals, así admite arrays)
+ */
+final class FilasMostradas<T> {
+    private final Map<String, T> mostrado = new HashMap<>();
+
+    /**
+     * Registra lo que se acaba de enlazar en la fila del medicamento
+     */
+    void registrar(String medicamentoId, T valor) {
+        if (medicamentoId != null) {
+            mostrado.put(medicamentoId, valor);
+        }
+    }
+
+    /**
+     * Avisa las posiciones cuyo valor actual es distinto del último mostrado. Las filas que todavía
+     * no se enlazaron se saltean: cuando aparezcan se enlazarán completas.
+     * @return cantidad de filas que cambiaron
+     */
+    int buscarCambios(List<Medicamento> filas, Function<Medicamento, T> valorActual, IntConsumer cambiada) {
+        int cambios = 0;
+        for (int i = 0; i < filas.size(); i++) {
+            Medicamento medicamento = filas.get(i);
+            if (!mostrado.containsKey(medicamento.getId())) {
+                continue;
+            }
+            if (!Objects.deepEquals(mostrado.get(medicamento.getId()), valorActual.apply(medicamento))) {
+                cambios++;
+                cambiada.accept(i);
+            }
+        }
+        return cambios;
+    }
+}
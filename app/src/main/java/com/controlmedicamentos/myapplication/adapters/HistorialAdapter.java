@@ -7,24 +7,28 @@ import android.view.ViewGroup;
 import android.widget.ImageView;
 import android.widget.TextView;
 import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.AsyncListDiffer;
 import androidx.recyclerview.widget.RecyclerView;
 import com.google.android.material.card.MaterialCardView;
 import com.controlmedicamentos.myapplication.R;
 import com.controlmedicamentos.myapplication.models.Medicamento;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
 
 public class HistorialAdapter extends RecyclerView.Adapter<HistorialAdapter.HistorialViewHolder> {
 
     private Context context;
-    private List<Medicamento> medicamentos;
+    private final AsyncListDiffer<Medicamento> differ;
     private SimpleDateFormat dateFormat;
 
     public HistorialAdapter(Context context, List<Medicamento> medicamentos) {
         this.context = context;
-        this.medicamentos = medicamentos;
+        this.differ = new AsyncListDiffer<>(this, DiffCallbacks.MEDICAMENTO);
         this.dateFormat = new SimpleDateFormat("dd/MM/yyyy", Locale.getDefault());
+        setHasStableIds(true);
+        actualizarMedicamentos(medicamentos);
     }
 
     @NonNull
@@ -36,18 +40,35 @@ public class HistorialAdapter extends RecyclerView.Adapter<HistorialAdapter.Hist
 
     @Override
     public void onBindViewHolder(@NonNull HistorialViewHolder holder, int position) {
-        Medicamento medicamento = medicamentos.get(position);
+        Medicamento medicamento = differ.getCurrentList().get(position);
         holder.bind(medicamento);
     }
 
+    @Override
+    public void onBindViewHolder(@NonNull HistorialViewHolder holder, int position,
+                                 @NonNull List<Object> payloads) {
+        if (payloads.contains(DiffCallbacks.PAYLOAD_STOCK)) {
+            return; // Nada visible cambió
+        }
+        onBindViewHolder(holder, position);
+    }
+
     @Override
     public int getItemCount() {
-        return medicamentos != null ? medicamentos.size() : 0;
+        return differ.getCurrentList().size();
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return DiffCallbacks.idEstable(differ.getCurrentList().get(position).getId());
     }
 
+    /**
+     * Reemplaza la lista. El diff se calcula en segundo plano y solo se re-enlazan las filas que cambiaron.
+     * El stock no se muestra en esta lista, así que los payloads de stock no requieren bind.
+     */
     public void actualizarMedicamentos(List<Medicamento> nuevosMedicamentos) {
-        this.medicamentos = nuevosMedicamentos != null ? nuevosMedicamentos : new java.util.ArrayList<>();
-        notifyDataSetChanged();
+        differ.submitList(nuevosMedicamentos != null ? new ArrayList<>(nuevosMedicamentos) : new ArrayList<>());
     }
 
     class HistorialViewHolder extends RecyclerView.ViewHolder {
@@ -1,29 +1,48 @@
 package com.controlmedicamentos.myapplication.adapters;
 
 import android.content.Context;
-import android.os.Handler;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.ImageView;
-import android.widget.LinearLayout;
-import android.widget.ProgressBar;
 import android.widget.TextView;
 import androidx.annotation.NonNull;
 import androidx.core.content.ContextCompat;
+import androidx.recyclerview.widget.AsyncListDiffer;
 import androidx.recyclerview.widget.RecyclerView;
 import com.google.android.material.button.MaterialButton;
 import com.controlmedicamentos.myapplication.R;
 import com.controlmedicamentos.myapplication.models.Medicamento;
 import com.controlmedicamentos.myapplication.models.TomaProgramada;
+import com.controlmedicamentos.myapplication.services.Dependencias;
 import com.controlmedicamentos.myapplication.services.TomaTrackingService;
+import com.controlmedicamentos.myapplication.views.BarraTomasView;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
 
 public class MedicamentoAdapter extends RecyclerView.Adapter<MedicamentoAdapter.MedicamentoViewHolder> {
 
+    private static final TomaProgramada.EstadoTomaProgramada[] ESTADOS = TomaProgramada.EstadoTomaProgramada.values();
+
     private Context context;
-    private List<Medicamento> medicamentos;
+    private final AsyncListDiffer<Medicamento> differ;
     private OnMedicamentoClickListener listener;
+    private TomaTrackingService trackingService;
+
+    // Colores de las barras resueltos una sola vez
+    private final int colorPendiente;
+    private final int colorAlertaAmarilla;
+    private final int colorAlertaRoja;
+    private final int colorOmitida;
+
+    // Lo que muestra cada fila: el tick de estados y el stock modificado en el lugar solo re-enlazan las que cambiaron
+    private final EstadosFilas estadosFilas = new EstadosFilas();
+    private final FilasMostradas<String> stockMostrado = new FilasMostradas<>();
+    private final Function<String, List<TomaProgramada>> tomasDelDia =
+        medicamentoId -> obtenerTrackingService().obtenerTomasMedicamento(medicamentoId);
+    private final IntConsumer notificarEstado = posicion -> notifyItemChanged(posicion, DiffCallbacks.PAYLOAD_ESTADO);
 
     // Interface para manejar clicks
     public interface OnMedicamentoClickListener {
@@ -34,13 +53,34 @@ public class MedicamentoAdapter extends RecyclerView.Adapter<MedicamentoAdapter.
 
     public MedicamentoAdapter(Context context, List<Medicamento> medicamentos) {
         this.context = context;
-        this.medicamentos = medicamentos;
+        this.differ = new AsyncListDiffer<>(this, DiffCallbacks.MEDICAMENTO);
+        this.colorPendiente = ContextCompat.getColor(context, R.color.barra_pendiente);
+        this.colorAlertaAmarilla = ContextCompat.getColor(context, R.color.barra_alerta_amarilla);
+        this.colorAlertaRoja = ContextCompat.getColor(context, R.color.barra_alerta_roja);
+        this.colorOmitida = ContextCompat.getColor(context, R.color.barra_omitida);
+        setHasStableIds(true);
+        actualizarMedicamentos(medicamentos);
     }
 
     public void setOnMedicamentoClickListener(OnMedicamentoClickListener listener) {
         this.listener = listener;
     }
 
+    /**
+     * Usa el servicio de tracking de la pantalla. Las tomas del día las inicializa la pantalla al
+     * cargar los medicamentos; el adapter solo lee sus estados.
+     */
+    public void setTomaTrackingService(TomaTrackingService trackingService) {
+        this.trackingService = trackingService;
+    }
+
+    private TomaTrackingService obtenerTrackingService() {
+        if (trackingService == null) {
+            trackingService = Dependencias.de(context).getTomaTrackingService();
+        }
+        return trackingService;
+    }
+
     @NonNull
     @Override
     public MedicamentoViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
@@ -50,25 +90,93 @@ public class MedicamentoAdapter extends RecyclerView.Adapter<MedicamentoAdapter.
 
     @Override
     public void onBindViewHolder(@NonNull MedicamentoViewHolder holder, int position) {
-        Medicamento medicamento = medicamentos.get(position);
+        Medicamento medicamento = differ.getCurrentList().get(position);
         holder.bind(medicamento);
     }
 
+    @Override
+    public void onBindViewHolder(@NonNull MedicamentoViewHolder holder, int position,
+                                 @NonNull List<Object> payloads) {
+        if (payloads.isEmpty()) {
+            onBindViewHolder(holder, position);
+            return;
+        }
+        // Bind parcial: solo se actualiza lo que indica el payload
+        Medicamento medicamento = differ.getCurrentList().get(position);
+        if (payloads.contains(DiffCallbacks.PAYLOAD_STOCK)) {
+            holder.bindStock(medicamento);
+        }
+        if (payloads.contains(DiffCallbacks.PAYLOAD_ESTADO)) {
+            holder.bindEstadoTomas(medicamento);
+        }
+    }
+
     @Override
     public int getItemCount() {
-        return medicamentos.size();
+        return differ.getCurrentList().size();
     }
 
+    @Override
+    public long getItemId(int position) {
+        return DiffCallbacks.idEstable(differ.getCurrentList().get(position).getId());
+    }
+
+    /**
+     * Reemplaza la lista. El diff se calcula en segundo plano y solo se re-enlazan las filas que cambiaron.
+     * Se guarda una copia para que los cambios posteriores de la lista original no afecten al adapter.
+     * Los medicamentos modificados en el lugar no los detecta el diff: al aplicarlo se revisa el stock mostrado.
+     * Los estados de las tomas se calculan acá, una vez por lista, y los binds solo los leen.
+     */
     public void actualizarMedicamentos(List<Medicamento> nuevosMedicamentos) {
-        this.medicamentos = nuevosMedicamentos;
-        notifyDataSetChanged();
+        List<Medicamento> lista = nuevosMedicamentos != null ? new ArrayList<>(nuevosMedicamentos) : new ArrayList<>();
+        estadosFilas.calcular(lista, tomasDelDia);
+        differ.submitList(lista, this::listaAplicada);
+    }
+
+    /**
+     * Notifica que cambió el stock de un medicamento modificado en memoria (bind parcial)
+     */
+    public void notificarStockCambiado(Medicamento medicamento) {
+        int posicion = obtenerPosicion(medicamento);
+        if (posicion >= 0) {
+            notifyItemChanged(posicion, DiffCallbacks.PAYLOAD_STOCK);
+        }
+    }
+
+    /**
+     * Notifica que pudieron cambiar los estados de las tomas programadas (tick por minuto): se
+     * recalculan una vez para toda la lista y solo se re-enlazan las barras de las filas que cambiaron
+     */
+    public void notificarEstadosCambiados() {
+        List<Medicamento> actuales = differ.getCurrentList();
+        estadosFilas.calcular(actuales, tomasDelDia);
+        estadosFilas.buscarCambios(actuales, notificarEstado);
+    }
+
+    private void listaAplicada() {
+        estadosFilas.descartarOtros(differ.getCurrentList());
+        stockMostrado.buscarCambios(differ.getCurrentList(), Medicamento::getInfoStock,
+            posicion -> notifyItemChanged(posicion, DiffCallbacks.PAYLOAD_STOCK));
+    }
+
+    private int obtenerPosicion(Medicamento medicamento) {
+        if (medicamento == null || medicamento.getId() == null) {
+            return -1;
+        }
+        List<Medicamento> actuales = differ.getCurrentList();
+        for (int i = 0; i < actuales.size(); i++) {
+            if (medicamento.getId().equals(actuales.get(i).getId())) {
+                return i;
+            }
+        }
+        return -1;
     }
 
     class MedicamentoViewHolder extends RecyclerView.ViewHolder {
         private ImageView ivIconoMedicamento;
         private TextView tvNombreMedicamento;
         private TextView tvInfoMedicamento;
-        private LinearLayout llBarrasTomas;
+        private BarraTomasView barraTomas;
         private TextView tvStockInfo;
         private MaterialButton btnTomado;
         private MaterialButton btnPosponer;
@@ -78,10 +186,45 @@ public class MedicamentoAdapter extends RecyclerView.Adapter<MedicamentoAdapter.
             ivIconoMedicamento = itemView.findViewById(R.id.ivIconoMedicamento);
             tvNombreMedicamento = itemView.findViewById(R.id.tvNombreMedicamento);
             tvInfoMedicamento = itemView.findViewById(R.id.tvInfoMedicamento);
-            llBarrasTomas = itemView.findViewById(R.id.llBarrasTomas);
+            barraTomas = itemView.findViewById(R.id.barraTomas);
             tvStockInfo = itemView.findViewById(R.id.tvStockInfo);
             btnTomado = itemView.findViewById(R.id.btnTomado);
             btnPosponer = itemView.findViewById(R.id.btnPosponer);
+
+            // Los listeners se configuran una sola vez y buscan el medicamento actual de la fila,
+            // así siguen siendo válidos después de un bind parcial
+            if (btnPosponer != null) {
+                btnPosponer.setOnClickListener(v -> {
+                    Medicamento medicamento = obtenerMedicamentoActual();
+                    if (listener != null && medicamento != null) {
+                        listener.onPosponerClick(medicamento);
+                    }
+                });
+            }
+
+            // Configurar botón Tomado
+            btnTomado.setOnClickListener(v -> {
+                Medicamento medicamento = obtenerMedicamentoActual();
+                if (listener != null && medicamento != null) {
+                    listener.onTomadoClick(medicamento);
+                }
+            });
+
+            // Configurar click en el item completo
+            itemView.setOnClickListener(v -> {
+                Medicamento medicamento = obtenerMedicamentoActual();
+                if (listener != null && medicamento != null) {
+                    listener.onMedicamentoClick(medicamento);
+                }
+            });
+        }
+
+        private Medicamento obtenerMedicamentoActual() {
+            int posicion = getBindingAdapterPosition();
+            if (posicion == RecyclerView.NO_POSITION || posicion >= getItemCount()) {
+                return null;
+            }
+            return differ.getCurrentList().get(posicion);
         }
 
         public void bind(Medicamento medicamento) {
@@ -89,110 +232,55 @@ public class MedicamentoAdapter extends RecyclerView.Adapter<MedicamentoAdapter.
             tvNombreMedicamento.setText(medicamento.getNombre());
             tvInfoMedicamento.setText(medicamento.getPresentacion() + " • " +
                     medicamento.getTomasDiarias() + " tomas diarias");
-            tvStockInfo.setText("Stock: " + medicamento.getInfoStock());
+            bindStock(medicamento);
 
             // Configurar ícono
             ivIconoMedicamento.setImageResource(medicamento.getIconoPresentacion());
 
-            // Configurar barras de progreso
+            // Configurar barras de progreso y botón de posponer
+            bindEstadoTomas(medicamento);
+        }
+
+        public void bindStock(Medicamento medicamento) {
+            String infoStock = medicamento.getInfoStock();
+            tvStockInfo.setText("Stock: " + infoStock);
+            stockMostrado.registrar(medicamento.getId(), infoStock);
+        }
+
+        public void bindEstadoTomas(Medicamento medicamento) {
             boolean tieneTomasEnAlerta = configurarBarrasTomas(medicamento);
 
             // Mostrar/ocultar botón de posponer según el estado de las tomas
             if (btnPosponer != null) {
                 btnPosponer.setVisibility(tieneTomasEnAlerta ? View.VISIBLE : View.GONE);
-                btnPosponer.setOnClickListener(new View.OnClickListener() {
-                    @Override
-                    public void onClick(View v) {
-                        if (listener != null) {
-                            listener.onPosponerClick(medicamento);
-                        }
-                    }
-                });
             }
-
-            // Configurar botón Tomado
-            btnTomado.setOnClickListener(new View.OnClickListener() {
-                @Override
-                public void onClick(View v) {
-                    if (listener != null) {
-                        listener.onTomadoClick(medicamento);
-                    }
-                }
-            });
-
-            // Configurar click en el item completo
-            itemView.setOnClickListener(new View.OnClickListener() {
-                @Override
-                public void onClick(View v) {
-                    if (listener != null) {
-                        listener.onMedicamentoClick(medicamento);
-                    }
-                }
-            });
         }
 
         /**
          * Configura las barras de tomas y retorna true si hay tomas en estado de alerta
          */
         private boolean configurarBarrasTomas(Medicamento medicamento) {
-            // Limpiar barras existentes
-            llBarrasTomas.removeAllViews();
-
-            // Obtener estado de las tomas programadas
-            TomaTrackingService trackingService = new TomaTrackingService(context);
-            trackingService.inicializarTomasDia(medicamento);
-            List<TomaProgramada> tomasProgramadas = trackingService.obtenerTomasMedicamento(medicamento.getId());
+            int[] estados = estadosFilas.actuales(medicamento.getId());
+            estadosFilas.mostrados(medicamento.getId());
 
-            // Crear barras según tomas diarias
-            int tomasDiarias = medicamento.getTomasDiarias();
-            List<String> horarios = medicamento.getHorariosTomas();
+            // Un segmento por toma diaria; la vista reutiliza sus arrays entre binds
+            barraTomas.setCantidadSegmentos(estados.length);
             boolean tieneTomasEnAlerta = false;
-            
-            for (int i = 0; i < tomasDiarias && i < horarios.size(); i++) {
-                String horario = horarios.get(i);
-                ProgressBar barra = new ProgressBar(context, null, android.R.attr.progressBarStyleHorizontal);
-                barra.setLayoutParams(new LinearLayout.LayoutParams(
-                        0,
-                        context.getResources().getDimensionPixelSize(R.dimen.progress_bar_height),
-                        1.0f
-                ));
-                barra.setMax(100);
-                barra.setProgress(100); // Llenar la barra para mostrar el color
-
-                // Obtener estado de esta toma específica
-                TomaProgramada.EstadoTomaProgramada estado = TomaProgramada.EstadoTomaProgramada.PENDIENTE;
-                for (TomaProgramada toma : tomasProgramadas) {
-                    if (toma.getHorario().equals(horario)) {
-                        estado = toma.getEstado();
-                        break;
-                    }
-                }
 
-                // Configurar color según el estado
-                int colorResId = obtenerColorEstado(estado);
-                barra.setProgressTintList(ContextCompat.getColorStateList(context, colorResId));
+            for (int i = 0; i < estados.length; i++) {
+                TomaProgramada.EstadoTomaProgramada estado = ESTADOS[estados[i]];
+
+                // Si está en estado ALERTA_ROJA, el segmento parpadea con el reloj compartido
+                barraTomas.setSegmento(i, obtenerColorEstado(estado),
+                    estado == TomaProgramada.EstadoTomaProgramada.ALERTA_ROJA);
 
-                // Si está en estado ALERTA_ROJA, hacer parpadear
-                if (estado == TomaProgramada.EstadoTomaProgramada.ALERTA_ROJA) {
-                    iniciarParpadeo(barra);
-                }
-                
                 // Verificar si hay tomas en alerta (ALERTA_ROJA o RETRASO)
-                if (estado == TomaProgramada.EstadoTomaProgramada.ALERTA_ROJA || 
+                if (estado == TomaProgramada.EstadoTomaProgramada.ALERTA_ROJA ||
                     estado == TomaProgramada.EstadoTomaProgramada.RETRASO) {
                     tieneTomasEnAlerta = true;
                 }
-
-                // Agregar margen entre barras
-                if (i > 0) {
-                    LinearLayout.LayoutParams params = (LinearLayout.LayoutParams) barra.getLayoutParams();
-                    params.setMargins(context.getResources().getDimensionPixelSize(R.dimen.margin_small), 0, 0, 0);
-                    barra.setLayoutParams(params);
-                }
-
-                llBarrasTomas.addView(barra);
             }
-            
+
             return tieneTomasEnAlerta;
         }
 
@@ -202,36 +290,17 @@ public class MedicamentoAdapter extends RecyclerView.Adapter<MedicamentoAdapter.
         private int obtenerColorEstado(TomaProgramada.EstadoTomaProgramada estado) {
             switch (estado) {
                 case PENDIENTE:
-                    return R.color.barra_pendiente;
+                    return colorPendiente;
                 case ALERTA_AMARILLA:
-                    return R.color.barra_alerta_amarilla;
+                    return colorAlertaAmarilla;
                 case ALERTA_ROJA:
                 case RETRASO:
-                    return R.color.barra_alerta_roja;
+                    return colorAlertaRoja;
                 case OMITIDA:
-                    return R.color.barra_omitida;
+                    return colorOmitida;
                 default:
-                    return R.color.barra_pendiente;
+                    return colorPendiente;
             }
         }
-
-        /**
-         * Inicia el efecto de parpadeo para la barra roja
-         */
-        private void iniciarParpadeo(ProgressBar barra) {
-            Handler handler = new Handler();
-            Runnable runnable = new Runnable() {
-                boolean visible = true;
-                @Override
-                public void run() {
-                    if (barra.getVisibility() == View.VISIBLE) {
-                        barra.setAlpha(visible ? 1.0f : 0.3f);
-                        visible = !visible;
-                        handler.postDelayed(this, 500); // Parpadear cada 500ms
-                    }
-                }
-            };
-            handler.post(runnable);
-        }
     }
 }
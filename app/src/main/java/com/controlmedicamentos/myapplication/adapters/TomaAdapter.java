@@ -7,10 +7,12 @@ import android.view.ViewGroup;
 import android.widget.TextView;
 import androidx.annotation.NonNull;
 import androidx.core.content.ContextCompat;
+import androidx.recyclerview.widget.AsyncListDiffer;
 import androidx.recyclerview.widget.RecyclerView;
 import com.controlmedicamentos.myapplication.R;
 import com.controlmedicamentos.myapplication.models.Toma;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.Locale;
@@ -21,7 +23,7 @@ import java.util.Locale;
 public class TomaAdapter extends RecyclerView.Adapter<TomaAdapter.TomaViewHolder> {
 
     private Context context;
-    private List<Toma> tomas;
+    private final AsyncListDiffer<Toma> differ;
     private SimpleDateFormat dateFormat;
     private SimpleDateFormat timeFormat;
 
@@ -32,9 +34,11 @@ public class TomaAdapter extends RecyclerView.Adapter<TomaAdapter.TomaViewHolder
      */
     public TomaAdapter(Context context, List<Toma> tomas) {
         this.context = context;
-        this.tomas = tomas;
+        this.differ = new AsyncListDiffer<>(this, DiffCallbacks.TOMA);
         this.dateFormat = new SimpleDateFormat("dd/MM/yyyy", Locale.getDefault());
         this.timeFormat = new SimpleDateFormat("HH:mm", Locale.getDefault());
+        setHasStableIds(true);
+        actualizarTomas(tomas);
     }
 
     @NonNull
@@ -46,22 +50,38 @@ public class TomaAdapter extends RecyclerView.Adapter<TomaAdapter.TomaViewHolder
 
     @Override
     public void onBindViewHolder(@NonNull TomaViewHolder holder, int position) {
-        Toma toma = tomas.get(position);
+        Toma toma = differ.getCurrentList().get(position);
         holder.bind(toma);
     }
 
+    @Override
+    public void onBindViewHolder(@NonNull TomaViewHolder holder, int position,
+                                 @NonNull List<Object> payloads) {
+        if (payloads.contains(DiffCallbacks.PAYLOAD_ESTADO)) {
+            // Bind parcial: solo cambió el estado de la toma
+            holder.bindEstado(differ.getCurrentList().get(position));
+        } else {
+            onBindViewHolder(holder, position);
+        }
+    }
+
     @Override
     public int getItemCount() {
-        return tomas != null ? tomas.size() : 0;
+        return differ.getCurrentList().size();
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return DiffCallbacks.idEstable(differ.getCurrentList().get(position).getId());
     }
 
     /**
-     * Actualiza la lista de tomas y notifica al adapter
+     * Actualiza la lista de tomas. El diff se calcula en segundo plano y
+     * solo se re-enlazan las filas que cambiaron.
      * @param nuevasTomas Nueva lista de tomas
      */
     public void actualizarTomas(List<Toma> nuevasTomas) {
-        this.tomas = nuevasTomas;
-        notifyDataSetChanged();
+        differ.submitList(nuevasTomas != null ? new ArrayList<>(nuevasTomas) : new ArrayList<>());
     }
 
     class TomaViewHolder extends RecyclerView.ViewHolder {
@@ -96,6 +116,18 @@ public class TomaAdapter extends RecyclerView.Adapter<TomaAdapter.TomaViewHolder
                 tvFechaHora.setText("Fecha no disponible");
             }
 
+            bindEstado(toma);
+
+            // Mostrar observaciones si existen
+            if (toma.getObservaciones() != null && !toma.getObservaciones().isEmpty()) {
+                tvObservaciones.setText(toma.getObservaciones());
+                tvObservaciones.setVisibility(View.VISIBLE);
+            } else {
+                tvObservaciones.setVisibility(View.GONE);
+            }
+        }
+
+        public void bindEstado(Toma toma) {
             // Configurar estado
             Toma.EstadoToma estado = toma.getEstado();
             if (estado == null) {
@@ -108,14 +140,6 @@ public class TomaAdapter extends RecyclerView.Adapter<TomaAdapter.TomaViewHolder
             // Configurar color del indicador según el estado
             int colorEstado = obtenerColorEstado(estado);
             viewEstado.setBackgroundColor(ContextCompat.getColor(context, colorEstado));
-
-            // Mostrar observaciones si existen
-            if (toma.getObservaciones() != null && !toma.getObservaciones().isEmpty()) {
-                tvObservaciones.setText(toma.getObservaciones());
-                tvObservaciones.setVisibility(View.VISIBLE);
-            } else {
-                tvObservaciones.setVisibility(View.GONE);
-            }
         }
 
         private String obtenerTextoEstado(Toma.EstadoToma estado) {
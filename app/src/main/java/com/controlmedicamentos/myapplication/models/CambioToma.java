@@ -0,0 +1,42 @@
+package com.controlmedicamentos.myapplication.models;
+
+/**
+ * Cambio en el resultado de una consulta de tomas escuchada en tiempo real.
+ * Los índices son posiciones en la lista ordenada de la consulta y se aplican en el orden recibido:
+ * indiceAnterior es -1 para las agregadas e indiceNuevo es -1 para las eliminadas.
+ */
+public class CambioToma {
+    public enum Tipo {
+        AGREGADA,
+        MODIFICADA,
+        ELIMINADA
+    }
+
+    private final Tipo tipo;
+    private final Toma toma;
+    private final int indiceAnterior;
+    private final int indiceNuevo;
+
+    public CambioToma(Tipo tipo, Toma toma, int indiceAnterior, int indiceNuevo) {
+        this.tipo = tipo;
+        this.toma = toma;
+        this.indiceAnterior = indiceAnterior;
+        this.indiceNuevo = indiceNuevo;
+    }
+
+    public Tipo getTipo() {
+        return tipo;
+    }
+
+    public Toma getToma() {
+        return toma;
+    }
+
+    public int getIndiceAnterior() {
+        return indiceAnterior;
+    }
+
+    public int getIndiceNuevo() {
+        return indiceNuevo;
+    }
+}
@@ -0,0 +1,216 @@
+package com.controlmedicamentos.myapplication.models;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Horarios de toma de un día representados como minutos desde medianoche (0-1439).
+ * Se calcula una sola vez a partir de los strings "HH:mm" y queda ordenado y validado;
+ * el formato de texto solo se usa en la UI y al persistir.
+ */
+public final class HorarioDiario {
+    public static final int MINUTOS_DIA = 24 * 60;
+    public static final int INVALIDO = -1;
+    /** Máximo de tomas diarias que se pueden cargar (una por hora) */
+    public static final int MAXIMO_TOMAS_DIARIAS = 24;
+
+    public static final HorarioDiario VACIO = new HorarioDiario(new short[0]);
+
+    private final short[] minutos;
+
+    private HorarioDiario(short[] minutos) {
+        this.minutos = minutos;
+    }
+
+    /**
+     * Crea el horario a partir de strings "HH:mm". Los horarios inválidos o repetidos se descartan.
+     */
+    public static HorarioDiario desdeTexto(List<String> horarios) {
+        if (horarios == null || horarios.isEmpty()) {
+            return VACIO;
+        }
+        short[] valores = new short[horarios.size()];
+        int cantidad = 0;
+        for (int i = 0; i < horarios.size(); i++) {
+            int valor = parsear(horarios.get(i));
+            if (valor != INVALIDO) {
+                valores[cantidad++] = (short) valor;
+            }
+        }
+        return crear(valores, cantidad);
+    }
+
+    /**
+     * Genera tomas equiespaciadas a partir de la primera toma (24 horas / tomas diarias)
+     */
+    public static HorarioDiario generar(int minutosPrimeraToma, int tomasDiarias) {
+        short[] valores = valoresGenerados(minutosPrimeraToma, tomasDiarias);
+        return crear(valores, valores.length);
+    }
+
+    /**
+     * Los mismos horarios que generar() en el orden en que se generan (desde la primera toma),
+     * que es como los guarda el cliente web en horariosTomas
+     */
+    public static List<String> generarTexto(int minutosPrimeraToma, int tomasDiarias) {
+        short[] valores = valoresGenerados(minutosPrimeraToma, tomasDiarias);
+        List<String> horarios = new ArrayList<>(valores.length);
+        for (short valor : valores) {
+            horarios.add(formatear(valor));
+        }
+        return horarios;
+    }
+
+    private static short[] valoresGenerados(int minutosPrimeraToma, int tomasDiarias) {
+        if (tomasDiarias <= 0 || minutosPrimeraToma < 0 || minutosPrimeraToma >= MINUTOS_DIA) {
+            return new short[0];
+        }
+        int cantidad = Math.min(tomasDiarias, MINUTOS_DIA);
+        // Hasta 24 tomas el intervalo es de horas enteras, como en el cliente web;
+        // con más no alcanza una hora y se reparte el día en minutos
+        int intervaloMinutos = cantidad <= MAXIMO_TOMAS_DIARIAS
+            ? (24 / cantidad) * 60
+            : MINUTOS_DIA / cantidad;
+        short[] valores = new short[cantidad];
+        for (int i = 0; i < cantidad; i++) {
+            valores[i] = (short) ((minutosPrimeraToma + i * intervaloMinutos) % MINUTOS_DIA);
+        }
+        return valores;
+    }
+
+    private static HorarioDiario crear(short[] valores, int cantidad) {
+        if (cantidad == 0) {
+            return VACIO;
+        }
+        Arrays.sort(valores, 0, cantidad);
+        // Eliminar duplicados (el array ya está ordenado)
+        int unicos = 1;
+        for (int i = 1; i < cantidad; i++) {
+            if (valores[i] != valores[unicos - 1]) {
+                valores[unicos++] = valores[i];
+            }
+        }
+        return new HorarioDiario(unicos == valores.length ? valores : Arrays.copyOf(valores, unicos));
+    }
+
+    /**
+     * Parsea "HH:mm" (también acepta "H:mm") sin crear strings intermedios.
+     * @return minutos desde medianoche, o INVALIDO si el formato o el rango no son válidos
+     */
+    public static int parsear(String horario) {
+        if (horario == null) {
+            return INVALIDO;
+        }
+        int separador = horario.indexOf(':');
+        if (separador < 1 || separador > 2 || horario.length() - separador != 3) {
+            return INVALIDO;
+        }
+        int hora = 0;
+        for (int i = 0; i < separador; i++) {
+            int digito = horario.charAt(i) - '0';
+            if (digito < 0 || digito > 9) {
+                return INVALIDO;
+            }
+            hora = hora * 10 + digito;
+        }
+        int decenas = horario.charAt(separador + 1) - '0';
+        int unidades = horario.charAt(separador + 2) - '0';
+        if (decenas < 0 || decenas > 5 || unidades < 0 || unidades > 9 || hora > 23) {
+            return INVALIDO;
+        }
+        return hora * 60 + decenas * 10 + unidades;
+    }
+
+    /**
+     * Formatea minutos desde medianoche como "HH:mm"
+     */
+    public static String formatear(int minutosDelDia) {
+        int hora = minutosDelDia / 60;
+        int minuto = minutosDelDia % 60;
+        char[] texto = {
+            (char) ('0' + hora / 10), (char) ('0' + hora % 10), ':',
+            (char) ('0' + minuto / 10), (char) ('0' + minuto % 10)
+        };
+        return new String(texto);
+    }
+
+    public int cantidad() {
+        return minutos.length;
+    }
+
+    public boolean isEmpty() {
+        return minutos.length == 0;
+    }
+
+    /**
+     * Minutos desde medianoche de la toma en la posición indicada (orden cronológico)
+     */
+    public int minutosEn(int indice) {
+        return minutos[indice];
+    }
+
+    public String textoEn(int indice) {
+        return formatear(minutos[indice]);
+    }
+
+    /**
+     * Posición de la próxima toma a partir de la hora actual; si todas pasaron, la primera de mañana
+     * @return índice de la próxima toma, o INVALIDO si no hay horarios
+     */
+    public int indiceProxima(int minutosActuales) {
+        if (minutos.length == 0) {
+            return INVALIDO;
+        }
+        int indice = Arrays.binarySearch(minutos, (short) minutosActuales);
+        if (indice < 0) {
+            indice = -indice - 1;
+        }
+        return indice < minutos.length ? indice : 0;
+    }
+
+    /**
+     * Minutos que faltan para la próxima toma (0 si es ahora)
+     * @return minutos hasta la próxima toma, o INVALIDO si no hay horarios
+     */
+    public int minutosHastaProxima(int minutosActuales) {
+        int indice = indiceProxima(minutosActuales);
+        if (indice == INVALIDO) {
+            return INVALIDO;
+        }
+        int diferencia = minutos[indice] - minutosActuales;
+        return diferencia >= 0 ? diferencia : diferencia + MINUTOS_DIA;
+    }
+
+    /**
+     * Convierte a la representación "HH:mm" que se persiste
+     */
+    public List<String> aTexto() {
+        List<String> horarios = new ArrayList<>(minutos.length);
+        for (short valor : minutos) {
+            horarios.add(formatear(valor));
+        }
+        return horarios;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof HorarioDiario)) {
+            return false;
+        }
+        return Arrays.equals(minutos, ((HorarioDiario) o).minutos);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(minutos);
+    }
+
+    @Override
+    public String toString() {
+        return aTexto().toString();
+    }
+}
@@ -4,8 +4,12 @@ import com.controlmedicamentos.myapplication.R;
 
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Objects;
+import java.util.Set;
 
 public class Medicamento {
     private String id;
@@ -21,6 +25,7 @@ public class Medicamento {
     private boolean activo;
     private String detalles;
     private List<String> horariosTomas; // lista de horarios de todas las tomas
+    private HorarioDiario horarioDiario; // los mismos horarios como minutos del día, ordenados
     private int iconoPresentacion; // ícono según la presentación
 
     // Nuevas propiedades para gestión avanzada
@@ -30,6 +35,10 @@ public class Medicamento {
     private int diasEstimadosDuracion; // días estimados de duración
     private int diasRestantesDuracion; // días restantes de duración
     private boolean pausado; // si está pausado (tratamiento completado pero no eliminado)
+    private List<Date> fechasTomasRealizadas; // tomas ocasionales registradas en el documento (solo lectura)
+
+    // Campos modificados desde la última lectura o escritura en Firestore
+    private final EnumSet<Campo> camposModificados = EnumSet.noneOf(Campo.class);
 
     // Enum para tipos de stock
     public enum TipoStock {
@@ -39,8 +48,33 @@ public class Medicamento {
         LIQUIDO_ML            // Gotas, jarabes (por mililitros)
     }
 
+    /**
+     * Campos persistidos que se pueden actualizar por separado
+     */
+    public enum Campo {
+        NOMBRE,
+        PRESENTACION,
+        TOMAS_DIARIAS,
+        HORARIO_PRIMERA_TOMA,
+        HORARIOS_TOMAS,
+        AFECCION,
+        STOCK_INICIAL,
+        STOCK_ACTUAL,
+        COLOR,
+        DIAS_TRATAMIENTO,
+        ACTIVO,
+        PAUSADO,
+        DETALLES,
+        FECHA_VENCIMIENTO,
+        FECHA_INICIO_TRATAMIENTO,
+        TIPO_STOCK,
+        DIAS_ESTIMADOS_DURACION,
+        DIAS_RESTANTES_DURACION
+    }
+
     public Medicamento() {
         this.horariosTomas = new ArrayList<>();
+        this.horarioDiario = HorarioDiario.VACIO;
         this.activo = true;
         this.pausado = false;
         this.tipoStock = TipoStock.UNIDADES_CONTABLES;
@@ -78,6 +112,14 @@ public class Medicamento {
 
     // Asigna tipo de stock según la presentación
     private void asignarTipoStock() {
+        TipoStock anterior = tipoStock;
+        calcularTipoStock();
+        if (tipoStock != anterior) {
+            camposModificados.add(Campo.TIPO_STOCK);
+        }
+    }
+
+    private void calcularTipoStock() {
         switch (presentacion.toLowerCase()) {
             case "comprimidos":
             case "pastillas":
@@ -134,49 +176,32 @@ public class Medicamento {
 
     // Generar horarios de tomas basado en tomas diarias
     private void generarHorariosTomas() {
-        horariosTomas.clear();
+        HorarioDiario anterior = horarioDiario;
+        calcularHorariosTomas();
+        if (!Objects.equals(horarioDiario, anterior)) {
+            camposModificados.add(Campo.HORARIOS_TOMAS);
+        }
+    }
 
+    private void calcularHorariosTomas() {
         // Si no hay tomas diarias, no generar horarios (medicamento ocasional)
         if (tomasDiarias <= 0) {
+            horarioDiario = HorarioDiario.VACIO;
+            horariosTomas = new ArrayList<>();
             return;
         }
-        
-        // Verificar que horarioPrimeraToma no sea null o vacío
-        if (horarioPrimeraToma == null || horarioPrimeraToma.isEmpty()) {
-            // Usar valor por defecto si no está establecido
-            horarioPrimeraToma = "00:00";
-        }
 
-        // Calcular intervalo entre tomas (24 horas / tomas diarias)
-        int intervaloHoras = 24 / tomasDiarias;
-
-        // Parsear hora inicial
-        try {
-            String[] partesHora = horarioPrimeraToma.split(":");
-            if (partesHora.length < 2) {
-                // Si el formato no es correcto, usar valor por defecto
-                partesHora = new String[]{"00", "00"};
-            }
-            int horaInicial = Integer.parseInt(partesHora[0]);
-            int minutoInicial = Integer.parseInt(partesHora[1]);
-
-            // Generar horarios
-            for (int i = 0; i < tomasDiarias; i++) {
-                int hora = (horaInicial + (i * intervaloHoras)) % 24;
-                String horario = String.format("%02d:%02d", hora, minutoInicial);
-                horariosTomas.add(horario);
-            }
-        } catch (Exception e) {
-            // Si hay algún error al parsear, usar valor por defecto
+        // Parsear hora inicial; si no está establecida o el formato no es correcto, usar valor por defecto
+        int minutosPrimeraToma = HorarioDiario.parsear(horarioPrimeraToma);
+        if (minutosPrimeraToma == HorarioDiario.INVALIDO) {
             horarioPrimeraToma = "00:00";
-            int horaInicial = 0;
-            int minutoInicial = 0;
-            for (int i = 0; i < tomasDiarias; i++) {
-                int hora = (horaInicial + (i * intervaloHoras)) % 24;
-                String horario = String.format("%02d:%02d", hora, minutoInicial);
-                horariosTomas.add(horario);
-            }
+            minutosPrimeraToma = 0;
         }
+
+        // Intervalo entre tomas: 24 horas / tomas diarias
+        horarioDiario = HorarioDiario.generar(minutosPrimeraToma, tomasDiarias);
+        // Se persisten en el orden de generación (desde la primera toma), igual que el cliente web
+        horariosTomas = HorarioDiario.generarTexto(minutosPrimeraToma, tomasDiarias);
     }
 
     // Getters y Setters
@@ -193,6 +218,9 @@ public class Medicamento {
     }
 
     public void setNombre(String nombre) {
+        if (!Objects.equals(this.nombre, nombre)) {
+            camposModificados.add(Campo.NOMBRE);
+        }
         this.nombre = nombre;
     }
 
@@ -201,6 +229,9 @@ public class Medicamento {
     }
 
     public void setPresentacion(String presentacion) {
+        if (!Objects.equals(this.presentacion, presentacion)) {
+            camposModificados.add(Campo.PRESENTACION);
+        }
         this.presentacion = presentacion;
         asignarIconoPresentacion();
         asignarTipoStock();
@@ -211,6 +242,9 @@ public class Medicamento {
     }
 
     public void setTomasDiarias(int tomasDiarias) {
+        if (this.tomasDiarias != tomasDiarias) {
+            camposModificados.add(Campo.TOMAS_DIARIAS);
+        }
         this.tomasDiarias = tomasDiarias;
         generarHorariosTomas();
     }
@@ -220,6 +254,9 @@ public class Medicamento {
     }
 
     public void setHorarioPrimeraToma(String horarioPrimeraToma) {
+        if (!Objects.equals(this.horarioPrimeraToma, horarioPrimeraToma)) {
+            camposModificados.add(Campo.HORARIO_PRIMERA_TOMA);
+        }
         this.horarioPrimeraToma = horarioPrimeraToma;
         generarHorariosTomas();
     }
@@ -229,6 +266,9 @@ public class Medicamento {
     }
 
     public void setAfeccion(String afeccion) {
+        if (!Objects.equals(this.afeccion, afeccion)) {
+            camposModificados.add(Campo.AFECCION);
+        }
         this.afeccion = afeccion;
     }
 
@@ -237,6 +277,9 @@ public class Medicamento {
     }
 
     public void setStockInicial(int stockInicial) {
+        if (this.stockInicial != stockInicial) {
+            camposModificados.add(Campo.STOCK_INICIAL);
+        }
         this.stockInicial = stockInicial;
     }
 
@@ -245,6 +288,9 @@ public class Medicamento {
     }
 
     public void setStockActual(int stockActual) {
+        if (this.stockActual != stockActual) {
+            camposModificados.add(Campo.STOCK_ACTUAL);
+        }
         this.stockActual = stockActual;
     }
 
@@ -253,6 +299,9 @@ public class Medicamento {
     }
 
     public void setColor(int color) {
+        if (this.color != color) {
+            camposModificados.add(Campo.COLOR);
+        }
         this.color = color;
     }
 
@@ -261,6 +310,9 @@ public class Medicamento {
     }
 
     public void setDiasTratamiento(int diasTratamiento) {
+        if (this.diasTratamiento != diasTratamiento) {
+            camposModificados.add(Campo.DIAS_TRATAMIENTO);
+        }
         this.diasTratamiento = diasTratamiento;
     }
 
@@ -269,6 +321,9 @@ public class Medicamento {
     }
 
     public void setActivo(boolean activo) {
+        if (this.activo != activo) {
+            camposModificados.add(Campo.ACTIVO);
+        }
         this.activo = activo;
     }
 
@@ -277,6 +332,9 @@ public class Medicamento {
     }
 
     public void setDetalles(String detalles) {
+        if (!Objects.equals(this.detalles, detalles)) {
+            camposModificados.add(Campo.DETALLES);
+        }
         this.detalles = detalles;
     }
 
@@ -285,7 +343,28 @@ public class Medicamento {
     }
 
     public void setHorariosTomas(List<String> horariosTomas) {
+        HorarioDiario nuevo = HorarioDiario.desdeTexto(horariosTomas);
+        if (!Objects.equals(this.horarioDiario, nuevo)) {
+            camposModificados.add(Campo.HORARIOS_TOMAS);
+        }
         this.horariosTomas = horariosTomas;
+        this.horarioDiario = nuevo;
+    }
+
+    /**
+     * Horarios de toma ya parseados (minutos del día, en orden cronológico).
+     * Se calculan al asignar los horarios, no en cada consulta.
+     */
+    public HorarioDiario getHorarioDiario() {
+        return horarioDiario != null ? horarioDiario : HorarioDiario.VACIO;
+    }
+
+    public List<Date> getFechasTomasRealizadas() {
+        return fechasTomasRealizadas;
+    }
+
+    public void setFechasTomasRealizadas(List<Date> fechasTomasRealizadas) {
+        this.fechasTomasRealizadas = fechasTomasRealizadas;
     }
 
     // Método para asignar icono según presentación
@@ -322,6 +401,9 @@ public class Medicamento {
     }
 
     public void setFechaVencimiento(Date fechaVencimiento) {
+        if (!Objects.equals(this.fechaVencimiento, fechaVencimiento)) {
+            camposModificados.add(Campo.FECHA_VENCIMIENTO);
+        }
         this.fechaVencimiento = fechaVencimiento;
     }
 
@@ -330,6 +412,9 @@ public class Medicamento {
     }
 
     public void setFechaInicioTratamiento(Date fechaInicioTratamiento) {
+        if (!Objects.equals(this.fechaInicioTratamiento, fechaInicioTratamiento)) {
+            camposModificados.add(Campo.FECHA_INICIO_TRATAMIENTO);
+        }
         this.fechaInicioTratamiento = fechaInicioTratamiento;
     }
 
@@ -338,6 +423,9 @@ public class Medicamento {
     }
 
     public void setTipoStock(TipoStock tipoStock) {
+        if (this.tipoStock != tipoStock) {
+            camposModificados.add(Campo.TIPO_STOCK);
+        }
         this.tipoStock = tipoStock;
     }
 
@@ -346,6 +434,9 @@ public class Medicamento {
     }
 
     public void setDiasEstimadosDuracion(int diasEstimadosDuracion) {
+        if (this.diasEstimadosDuracion != diasEstimadosDuracion) {
+            camposModificados.add(Campo.DIAS_ESTIMADOS_DURACION);
+        }
         this.diasEstimadosDuracion = diasEstimadosDuracion;
     }
 
@@ -354,6 +445,9 @@ public class Medicamento {
     }
 
     public void setDiasRestantesDuracion(int diasRestantesDuracion) {
+        if (this.diasRestantesDuracion != diasRestantesDuracion) {
+            camposModificados.add(Campo.DIAS_RESTANTES_DURACION);
+        }
         this.diasRestantesDuracion = diasRestantesDuracion;
     }
 
@@ -362,6 +456,9 @@ public class Medicamento {
     }
 
     public void setPausado(boolean pausado) {
+        if (this.pausado != pausado) {
+            camposModificados.add(Campo.PAUSADO);
+        }
         this.pausado = pausado;
     }
 
@@ -398,6 +495,10 @@ public class Medicamento {
         return getPorcentajeStock() <= 20; // Menos del 20% de stock
     }
 
+    /**
+     * Descuenta una dosis en memoria. No marca el stock como modificado: en Firestore el descuento
+     * se aplica con un incremento atómico (ver ColaTomasPendientes), nunca escribiendo este valor.
+     */
     public void consumirDosis() {
         switch (tipoStock) {
             case UNIDADES_CONTABLES:
@@ -418,12 +519,12 @@ public class Medicamento {
     public void agregarStock(int cantidad) {
         switch (tipoStock) {
             case UNIDADES_CONTABLES:
-                stockActual += cantidad;
+                setStockActual(stockActual + cantidad);
                 break;
             case UNIDADES_APROXIMADAS:
             case TOPICO_DIAS:
             case LIQUIDO_ML:
-                diasRestantesDuracion += cantidad;
+                setDiasRestantesDuracion(diasRestantesDuracion + cantidad);
                 break;
         }
     }
@@ -455,13 +556,81 @@ public class Medicamento {
     }
 
     public void pausarMedicamento() {
-        this.pausado = true;
-        this.activo = false;
+        setPausado(true);
+        setActivo(false);
     }
 
     public void reanudarMedicamento() {
-        this.pausado = false;
-        this.activo = true;
+        setPausado(false);
+        setActivo(true);
+    }
+
+    /**
+     * Copia los datos que se editan en el formulario. Como pasan por los setters,
+     * solo quedan marcados como modificados los campos que realmente cambiaron.
+     * El stock actual no se copia: lo decide quien edita según el cambio de stock inicial.
+     */
+    public void copiarDatosEditables(Medicamento origen) {
+        setNombre(origen.getNombre());
+        setPresentacion(origen.getPresentacion());
+        setHorarioPrimeraToma(origen.getHorarioPrimeraToma());
+        setTomasDiarias(origen.getTomasDiarias());
+        setAfeccion(origen.getAfeccion());
+        setStockInicial(origen.getStockInicial());
+        setColor(origen.getColor());
+        setDiasTratamiento(origen.getDiasTratamiento());
+        setDetalles(origen.getDetalles());
+        setFechaVencimiento(origen.getFechaVencimiento());
+    }
+
+    /**
+     * Copia independiente (las listas se copian; las fechas y el horario diario se comparten porque
+     * no se modifican en el lugar). Conserva los campos marcados como modificados.
+     */
+    public Medicamento copiar() {
+        Medicamento copia = new Medicamento();
+        copia.id = id;
+        copia.nombre = nombre;
+        copia.presentacion = presentacion;
+        copia.tomasDiarias = tomasDiarias;
+        copia.horarioPrimeraToma = horarioPrimeraToma;
+        copia.afeccion = afeccion;
+        copia.stockInicial = stockInicial;
+        copia.stockActual = stockActual;
+        copia.color = color;
+        copia.diasTratamiento = diasTratamiento;
+        copia.activo = activo;
+        copia.detalles = detalles;
+        copia.horariosTomas = horariosTomas != null ? new ArrayList<>(horariosTomas) : null;
+        copia.horarioDiario = horarioDiario;
+        copia.iconoPresentacion = iconoPresentacion;
+        copia.fechaVencimiento = fechaVencimiento;
+        copia.fechaInicioTratamiento = fechaInicioTratamiento;
+        copia.tipoStock = tipoStock;
+        copia.diasEstimadosDuracion = diasEstimadosDuracion;
+        copia.diasRestantesDuracion = diasRestantesDuracion;
+        copia.pausado = pausado;
+        copia.fechasTomasRealizadas = fechasTomasRealizadas != null ? new ArrayList<>(fechasTomasRealizadas) : null;
+        copia.camposModificados.addAll(camposModificados);
+        return copia;
+    }
+
+    /**
+     * Campos modificados desde la última vez que se leyó o guardó en Firestore
+     */
+    public Set<Campo> getCamposModificados() {
+        return Collections.unmodifiableSet(EnumSet.copyOf(camposModificados));
+    }
+
+    public boolean tieneCambios() {
+        return !camposModificados.isEmpty();
+    }
+
+    /**
+     * Marca el medicamento como sincronizado con Firestore
+     */
+    public void limpiarCambios() {
+        camposModificados.clear();
     }
 
     public String getInfoStock() {
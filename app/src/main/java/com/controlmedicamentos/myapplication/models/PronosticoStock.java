@@ -0,0 +1,84 @@
+package com.controlmedicamentos.myapplication.models;
+
+import java.util.Date;
+
+/**
+ * Proyección de cuándo se agota el stock de un medicamento.
+ */
+public class PronosticoStock {
+    public static final int DESCONOCIDO = -1;
+
+    private final String medicamentoId;
+    private final double consumoDiario;
+    private final boolean consumoObservado;
+    private final int diasHastaAgotarse;
+    private final Date fechaAgotamiento;
+    private final int diasRestantesTratamiento;
+
+    public PronosticoStock(String medicamentoId,
+                           double consumoDiario,
+                           boolean consumoObservado,
+                           int diasHastaAgotarse,
+                           Date fechaAgotamiento,
+                           int diasRestantesTratamiento) {
+        this.medicamentoId = medicamentoId;
+        this.consumoDiario = consumoDiario;
+        this.consumoObservado = consumoObservado;
+        this.diasHastaAgotarse = diasHastaAgotarse;
+        this.fechaAgotamiento = fechaAgotamiento;
+        this.diasRestantesTratamiento = diasRestantesTratamiento;
+    }
+
+    public String getMedicamentoId() {
+        return medicamentoId;
+    }
+
+    /**
+     * Unidades consumidas por día (0 si no hay consumo)
+     */
+    public double getConsumoDiario() {
+        return consumoDiario;
+    }
+
+    /**
+     * true si el consumo sale de las tomas registradas; false si se usó el esquema de tomas diarias
+     */
+    public boolean isConsumoObservado() {
+        return consumoObservado;
+    }
+
+    /**
+     * Días completos hasta agotar el stock, o DESCONOCIDO si no hay consumo para proyectar
+     */
+    public int getDiasHastaAgotarse() {
+        return diasHastaAgotarse;
+    }
+
+    /**
+     * Fecha proyectada en la que se agota el stock, o null si no se puede proyectar
+     */
+    public Date getFechaAgotamiento() {
+        return fechaAgotamiento;
+    }
+
+    /**
+     * Días que faltan para terminar el tratamiento, o DESCONOCIDO para tratamientos crónicos
+     */
+    public int getDiasRestantesTratamiento() {
+        return diasRestantesTratamiento;
+    }
+
+    public boolean esProyectable() {
+        return diasHastaAgotarse != DESCONOCIDO;
+    }
+
+    /**
+     * Indica si el stock se termina antes que el tratamiento (los crónicos siempre necesitan reposición)
+     */
+    public boolean seAgotaAntesDeTerminar() {
+        if (!esProyectable()) {
+            return false;
+        }
+        return diasRestantesTratamiento == DESCONOCIDO || diasHastaAgotarse < diasRestantesTratamiento;
+    }
+}
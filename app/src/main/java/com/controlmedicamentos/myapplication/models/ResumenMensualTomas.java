@@ -0,0 +1,124 @@
+package com.controlmedicamentos.myapplication.models;
+
+import java.time.LocalDate;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Resumen de las tomas archivadas de un medicamento en un mes: cantidad por día y estado,
+ * y estadísticas de demora (minutos entre el horario programado y la toma) de las tomadas.
+ * Reemplaza a las tomas individuales más antiguas que el horizonte de archivo.
+ */
+public class ResumenMensualTomas {
+    private String id;
+    private String medicamentoId;
+    private String medicamentoNombre;
+    private int anio;
+    private int mes; // 1 a 12
+    private final Map<Integer, Map<Toma.EstadoToma, Integer>> cantidadesPorDia = new TreeMap<>();
+    private int cantidadDemoras;
+    private long demoraTotalMinutos;
+    private int demorasMayores30;
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getMedicamentoId() {
+        return medicamentoId;
+    }
+
+    public void setMedicamentoId(String medicamentoId) {
+        this.medicamentoId = medicamentoId;
+    }
+
+    public String getMedicamentoNombre() {
+        return medicamentoNombre;
+    }
+
+    public void setMedicamentoNombre(String medicamentoNombre) {
+        this.medicamentoNombre = medicamentoNombre;
+    }
+
+    public int getAnio() {
+        return anio;
+    }
+
+    public void setAnio(int anio) {
+        this.anio = anio;
+    }
+
+    public int getMes() {
+        return mes;
+    }
+
+    public void setMes(int mes) {
+        this.mes = mes;
+    }
+
+    /**
+     * Días del mes con alguna toma, con la cantidad por estado (ordenados)
+     */
+    public Map<Integer, Map<Toma.EstadoToma, Integer>> getCantidadesPorDia() {
+        return cantidadesPorDia;
+    }
+
+    public void setCantidad(int dia, Toma.EstadoToma estado, int cantidad) {
+        cantidadesPorDia.computeIfAbsent(dia, d -> new EnumMap<>(Toma.EstadoToma.class)).put(estado, cantidad);
+    }
+
+    public int getCantidad(int dia, Toma.EstadoToma estado) {
+        Map<Toma.EstadoToma, Integer> cantidades = cantidadesPorDia.get(dia);
+        Integer cantidad = cantidades != null ? cantidades.get(estado) : null;
+        return cantidad != null ? cantidad : 0;
+    }
+
+    public int getTotal(Toma.EstadoToma estado) {
+        int total = 0;
+        for (Map<Toma.EstadoToma, Integer> cantidades : cantidadesPorDia.values()) {
+            Integer cantidad = cantidades.get(estado);
+            total += cantidad != null ? cantidad : 0;
+        }
+        return total;
+    }
+
+    /**
+     * Primer día del mes con alguna toma, o null si el resumen está vacío
+     */
+    public LocalDate getPrimerDia() {
+        return cantidadesPorDia.isEmpty() ? null : LocalDate.of(anio, mes, cantidadesPorDia.keySet().iterator().next());
+    }
+
+    public int getCantidadDemoras() {
+        return cantidadDemoras;
+    }
+
+    public void setCantidadDemoras(int cantidadDemoras) {
+        this.cantidadDemoras = cantidadDemoras;
+    }
+
+    public long getDemoraTotalMinutos() {
+        return demoraTotalMinutos;
+    }
+
+    public void setDemoraTotalMinutos(long demoraTotalMinutos) {
+        this.demoraTotalMinutos = demoraTotalMinutos;
+    }
+
+    public int getDemorasMayores30() {
+        return demorasMayores30;
+    }
+
+    public void setDemorasMayores30(int demorasMayores30) {
+        this.demorasMayores30 = demorasMayores30;
+    }
+
+    public float getDemoraPromedioMinutos() {
+        return cantidadDemoras == 0 ? 0f : demoraTotalMinutos / (float) cantidadDemoras;
+    }
+}
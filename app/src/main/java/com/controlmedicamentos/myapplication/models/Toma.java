@@ -33,6 +33,18 @@ public class Toma {
         this.estado = EstadoToma.PENDIENTE;
     }
 
+    /**
+     * ID del documento de la toma copiada de una entrada del array tomasRealizadas de un medicamento
+     * (siempre el mismo para la misma entrada, así la copia no se duplica)
+     * @param fecha "yyyy-MM-dd"
+     * @param hora "HH:mm"
+     * @param ocurrencia cuántas entradas anteriores del array tienen la misma fecha y hora
+     */
+    public static String idTomaRealizada(String medicamentoId, String fecha, String hora, int ocurrencia) {
+        String id = medicamentoId + "_" + fecha.replace("-", "") + "_" + hora.replace(":", "");
+        return ocurrencia > 0 ? id + "_" + ocurrencia : id;
+    }
+
     // Getters y Setters
     public String getId() {
         return id;
@@ -0,0 +1,156 @@
+package com.controlmedicamentos.myapplication.models;
+
+import java.util.Date;
+
+/**
+ * Registro de una dosis tomada que todavía no se confirmó en Firestore.
+ * La clave de idempotencia se usa como ID del documento de la toma, así que reenviar
+ * el mismo registro nunca crea una toma duplicada.
+ */
+public class TomaPendiente {
+    private final String clave;
+    private final String userId;
+    private final String medicamentoId;
+    private final String medicamentoNombre;
+    private final String observaciones;
+    private final Date fechaHoraProgramada;
+    private final Date fechaHoraTomada;
+    private final String campoStock;
+    private final boolean agotaStock;
+    private boolean enEnvio;
+    private boolean verificar;
+    private boolean rechazada;
+    private int intentos;
+    private int rechazos;
+
+    public TomaPendiente(String clave,
+                         String userId,
+                         String medicamentoId,
+                         String medicamentoNombre,
+                         String observaciones,
+                         Date fechaHoraProgramada,
+                         Date fechaHoraTomada,
+                         String campoStock,
+                         boolean agotaStock) {
+        this.clave = clave;
+        this.userId = userId;
+        this.medicamentoId = medicamentoId;
+        this.medicamentoNombre = medicamentoNombre;
+        this.observaciones = observaciones;
+        this.fechaHoraProgramada = fechaHoraProgramada;
+        this.fechaHoraTomada = fechaHoraTomada;
+        this.campoStock = campoStock;
+        this.agotaStock = agotaStock;
+    }
+
+    /**
+     * Clave de idempotencia (ID del documento de la toma en Firestore)
+     */
+    public String getClave() {
+        return clave;
+    }
+
+    /**
+     * Usuario que registró la dosis; la toma se envía solo con esa sesión iniciada.
+     * null en registros guardados por versiones anteriores (se envían con la sesión actual).
+     */
+    public String getUserId() {
+        return userId;
+    }
+
+    /**
+     * true si el registro se puede enviar o aplicar con la sesión del usuario indicado
+     */
+    public boolean esDeUsuario(String userId) {
+        return this.userId == null || this.userId.equals(userId);
+    }
+
+    public String getMedicamentoId() {
+        return medicamentoId;
+    }
+
+    public String getMedicamentoNombre() {
+        return medicamentoNombre;
+    }
+
+    public String getObservaciones() {
+        return observaciones;
+    }
+
+    public Date getFechaHoraProgramada() {
+        return fechaHoraProgramada;
+    }
+
+    public Date getFechaHoraTomada() {
+        return fechaHoraTomada;
+    }
+
+    /**
+     * Campo del medicamento que se descuenta: "stockActual" o "diasRestantesDuracion"
+     */
+    public String getCampoStock() {
+        return campoStock;
+    }
+
+    /**
+     * true si con esta dosis el stock local quedó en 0 o tan cerca que el del servidor podría llegar a 0
+     * (se envía en una transacción para no bajar de 0)
+     */
+    public boolean isAgotaStock() {
+        return agotaStock;
+    }
+
+    /**
+     * true mientras hay una escritura en curso que incluye este registro
+     */
+    public boolean isEnEnvio() {
+        return enEnvio;
+    }
+
+    public void setEnEnvio(boolean enEnvio) {
+        this.enEnvio = enEnvio;
+    }
+
+    /**
+     * true si no se sabe si un envío anterior llegó a aplicarse; antes de reenviarlo hay que comprobar
+     * si la toma ya existe
+     */
+    public boolean isVerificar() {
+        return verificar;
+    }
+
+    public void setVerificar(boolean verificar) {
+        this.verificar = verificar;
+    }
+
+    /**
+     * true si el servidor la rechazó con un error permanente (sin permiso, documento inexistente):
+     * no se reintenta hasta el próximo inicio de la app
+     */
+    public boolean isRechazada() {
+        return rechazada;
+    }
+
+    public void setRechazada(boolean rechazada) {
+        this.rechazada = rechazada;
+    }
+
+    public int getIntentos() {
+        return intentos;
+    }
+
+    public void setIntentos(int intentos) {
+        this.intentos = intentos;
+    }
+
+    /**
+     * Veces que el servidor la rechazó con un error permanente (una por inicio de la app como máximo)
+     */
+    public int getRechazos() {
+        return rechazos;
+    }
+
+    public void setRechazos(int rechazos) {
+        this.rechazos = rechazos;
+    }
+}
@@ -9,6 +9,7 @@ import java.util.Date;
 public class TomaProgramada {
     private String medicamentoId;
     private String horario; // formato "HH:mm"
+    private int minutosHorario = HorarioDiario.INVALIDO; // el mismo horario ya parseado
     private Date fechaHoraProgramada; // fecha y hora exacta de la toma
     private EstadoTomaProgramada estado;
     private int posposiciones; // número de veces que se ha pospuesto (máximo 3)
@@ -34,7 +35,7 @@ public class TomaProgramada {
 
     public TomaProgramada(String medicamentoId, String horario, Date fechaHoraProgramada) {
         this.medicamentoId = medicamentoId;
-        this.horario = horario;
+        setHorario(horario);
         this.fechaHoraProgramada = fechaHoraProgramada;
         this.estado = EstadoTomaProgramada.PENDIENTE;
         this.posposiciones = 0;
@@ -56,6 +57,14 @@ public class TomaProgramada {
 
     public void setHorario(String horario) {
         this.horario = horario;
+        this.minutosHorario = HorarioDiario.parsear(horario);
+    }
+
+    /**
+     * Minutos desde medianoche del horario, parseados al asignarlo (HorarioDiario.INVALIDO si no es válido)
+     */
+    public int getMinutosHorario() {
+        return minutosHorario;
     }
 
     public Date getFechaHoraProgramada() {
@@ -6,6 +6,7 @@ import android.content.Intent;
 import android.util.Log;
 
 import com.controlmedicamentos.myapplication.services.NotificationService;
+import com.controlmedicamentos.myapplication.services.Dependencias;
 import com.controlmedicamentos.myapplication.services.FirebaseService;
 import com.controlmedicamentos.myapplication.models.Medicamento;
 
@@ -35,7 +36,7 @@ public class AlarmReceiver extends BroadcastReceiver {
         }
         
         // Obtener el medicamento desde Firebase
-        FirebaseService firebaseService = new FirebaseService();
+        FirebaseService firebaseService = Dependencias.de(context).getFirebaseService();
         firebaseService.obtenerMedicamento(medicamentoId, new FirebaseService.FirestoreCallback() {
             @Override
             public void onSuccess(Object result) {
@@ -50,7 +51,7 @@ public class AlarmReceiver extends BroadcastReceiver {
                         trackingService.inicializarTomasDia(medicamento);
                         
                         // Enviar notificación según el tipo de alarma
-                        NotificationService notificationService = new NotificationService(context);
+                        NotificationService notificationService = Dependencias.de(context).getNotificationService();
                         if (tipoAlerta == TIPO_ALERTA_AMARILLA) {
                             notificationService.enviarNotificacionAlertaAmarilla(medicamento, horario);
                             Log.d(TAG, "Alerta amarilla enviada para: " + medicamento.getNombre() + " a las " + horario);
@@ -5,6 +5,7 @@ import android.content.Context;
 import android.content.Intent;
 import android.util.Log;
 
+import com.controlmedicamentos.myapplication.services.Dependencias;
 import com.controlmedicamentos.myapplication.services.FirebaseService;
 import com.controlmedicamentos.myapplication.models.Medicamento;
 import com.controlmedicamentos.myapplication.utils.AlarmScheduler;
@@ -30,8 +31,8 @@ public class BootReceiver extends BroadcastReceiver {
      * Reprograma todas las alarmas de medicamentos activos
      */
     private void reprogramarAlarmas(Context context) {
-        FirebaseService firebaseService = new FirebaseService();
-        AlarmScheduler alarmScheduler = new AlarmScheduler(context);
+        FirebaseService firebaseService = Dependencias.de(context).getFirebaseService();
+        AlarmScheduler alarmScheduler = Dependencias.de(context).getAlarmScheduler();
         
         // Obtener todos los medicamentos activos
         firebaseService.obtenerMedicamentosActivos(new FirebaseService.FirestoreListCallback() {
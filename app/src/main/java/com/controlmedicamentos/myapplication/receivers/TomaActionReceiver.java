@@ -9,6 +9,8 @@ import android.widget.Toast;
 import com.controlmedicamentos.myapplication.MainActivity;
 import com.controlmedicamentos.myapplication.models.Medicamento;
 import com.controlmedicamentos.myapplication.models.Toma;
+import com.controlmedicamentos.myapplication.services.ColaTomasPendientes;
+import com.controlmedicamentos.myapplication.services.Dependencias;
 import com.controlmedicamentos.myapplication.services.FirebaseService;
 import com.controlmedicamentos.myapplication.services.TomaTrackingService;
 
@@ -35,7 +37,7 @@ public class TomaActionReceiver extends BroadcastReceiver {
             return;
         }
         
-        TomaTrackingService trackingService = new TomaTrackingService(context);
+        TomaTrackingService trackingService = Dependencias.de(context).getTomaTrackingService();
         
         if (ACTION_POSPONER.equals(action)) {
             Log.d(TAG, "Posponer toma: " + medicamentoId + " - " + horario);
@@ -47,7 +49,7 @@ public class TomaActionReceiver extends BroadcastReceiver {
             Log.d(TAG, "Marcar toma como tomada: " + medicamentoId + " - " + horario);
             
             // Obtener el medicamento para registrar la toma en Firestore
-            FirebaseService firebaseService = new FirebaseService();
+            FirebaseService firebaseService = Dependencias.de(context).getFirebaseService();
             firebaseService.obtenerMedicamento(medicamentoId, new FirebaseService.FirestoreCallback() {
                 @Override
                 public void onSuccess(Object result) {
@@ -67,33 +69,14 @@ public class TomaActionReceiver extends BroadcastReceiver {
                         toma.setEstado(Toma.EstadoToma.TOMADA);
                         toma.setObservaciones("Registrada desde notificación");
                         
-                        firebaseService.guardarToma(toma, new FirebaseService.FirestoreCallback() {
-                            @Override
-                            public void onSuccess(Object result) {
-                                // Actualizar stock del medicamento
-                                medicamento.consumirDosis();
-                                if (medicamento.estaAgotado()) {
-                                    medicamento.pausarMedicamento();
-                                }
-                                
-                                firebaseService.actualizarMedicamento(medicamento, new FirebaseService.FirestoreCallback() {
-                                    @Override
-                                    public void onSuccess(Object updateResult) {
-                                        Log.d(TAG, "Toma registrada y medicamento actualizado");
-                                    }
-                                    
-                                    @Override
-                                    public void onError(Exception exception) {
-                                        Log.e(TAG, "Error al actualizar medicamento", exception);
-                                    }
-                                });
-                            }
-                            
-                            @Override
-                            public void onError(Exception exception) {
-                                Log.e(TAG, "Error al registrar toma en Firestore", exception);
-                            }
-                        });
+                        // Actualizar stock del medicamento en memoria y encolar la dosis;
+                        // la cola la envía a Firestore cuando haya conexión
+                        medicamento.consumirDosis();
+                        if (medicamento.estaAgotado()) {
+                            medicamento.pausarMedicamento();
+                        }
+                        ColaTomasPendientes.getInstance(context).encolar(toma, medicamento);
+                        Log.d(TAG, "Toma encolada para registrar en Firestore");
                     }
                 }
                 
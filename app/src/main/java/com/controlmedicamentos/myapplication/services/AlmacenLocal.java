@@ -0,0 +1,497 @@
+package com.controlmedicamentos.myapplication.services;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import com.controlmedicamentos.myapplication.models.Toma;
+import com.controlmedicamentos.myapplication.models.TomaProgramada;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Base de datos SQLite del dispositivo con las tomas registradas y las tomas programadas.
+ * Las tomas tienen índices por (usuario, medicamento, fecha de toma) y (usuario, fecha de toma), así que
+ * las consultas por rango de fechas se resuelven localmente sin recorrer toda la tabla.
+ * Una vez hidratado el usuario (la primera vez se copian todas sus tomas, ver
+ * FirebaseService.hidratarAlmacenLocal), las consultas de tomas se responden desde aquí y Firestore
+ * solo mantiene la base al día: sincronizarTomas escribe lo que cambió y borra lo que ya no está.
+ *
+ * Todas las lecturas y escrituras se ejecutan en un único hilo de fondo, en orden;
+ * los resultados se entregan en el hilo principal.
+ */
+public final class AlmacenLocal extends SQLiteOpenHelper {
+    private static final String TAG = "AlmacenLocal";
+    private static final String NOMBRE_BASE = "control_medicamentos.db";
+    private static final int VERSION = 2;
+
+    private static final String TABLA_TOMAS = "tomas";
+    private static final String TABLA_TOMAS_PROGRAMADAS = "tomas_programadas";
+    private static final String TABLA_HIDRATACION = "hidratacion";
+
+    private static AlmacenLocal instancia;
+
+    private final ExecutorService ejecutor = Executors.newSingleThreadExecutor();
+    private final Handler handlerPrincipal = new Handler(Looper.getMainLooper());
+
+    private AlmacenLocal(Context context) {
+        super(context, NOMBRE_BASE, null, VERSION);
+    }
+
+    public static synchronized AlmacenLocal getInstance(Context context) {
+        if (instancia == null) {
+            instancia = new AlmacenLocal(context.getApplicationContext());
+        }
+        return instancia;
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLA_TOMAS + " ("
+            + "id TEXT PRIMARY KEY, "
+            + "user_id TEXT NOT NULL, "
+            + "medicamento_id TEXT, "
+            + "medicamento_nombre TEXT, "
+            + "estado TEXT, "
+            + "observaciones TEXT, "
+            + "fecha_hora_programada INTEGER, "
+            + "fecha_hora_tomada INTEGER)");
+        db.execSQL("CREATE INDEX idx_tomas_usuario_medicamento_fecha ON " + TABLA_TOMAS
+            + " (user_id, medicamento_id, fecha_hora_tomada)");
+        db.execSQL("CREATE INDEX idx_tomas_usuario_fecha ON " + TABLA_TOMAS
+            + " (user_id, fecha_hora_tomada)");
+
+        crearTablaTomasProgramadas(db);
+
+        db.execSQL("CREATE TABLE " + TABLA_HIDRATACION + " ("
+            + "user_id TEXT PRIMARY KEY, "
+            + "fecha INTEGER)");
+    }
+
+    private static void crearTablaTomasProgramadas(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLA_TOMAS_PROGRAMADAS + " ("
+            + "user_id TEXT NOT NULL, "
+            + "medicamento_id TEXT NOT NULL, "
+            + "horario TEXT NOT NULL, "
+            + "fecha_hora_programada INTEGER NOT NULL, "
+            + "estado TEXT, "
+            + "posposiciones INTEGER, "
+            + "alerta_amarilla INTEGER, "
+            + "alerta_roja INTEGER, "
+            + "retraso INTEGER, "
+            + "omitida INTEGER, "
+            + "tomada INTEGER)");
+        db.execSQL("CREATE INDEX idx_programadas_usuario_medicamento_fecha ON " + TABLA_TOMAS_PROGRAMADAS
+            + " (user_id, medicamento_id, fecha_hora_programada)");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int versionAnterior, int versionNueva) {
+        if (versionAnterior < 2) {
+            // Las filas anteriores no dicen de qué usuario son; solo guardan el estado del día,
+            // que se vuelve a generar al abrir la app
+            db.execSQL("DROP TABLE IF EXISTS " + TABLA_TOMAS_PROGRAMADAS);
+            crearTablaTomasProgramadas(db);
+        }
+    }
+
+    // ==================== TOMAS ====================
+
+    /**
+     * Inserta o reemplaza tomas del usuario (en segundo plano, en una transacción)
+     */
+    public void guardarTomas(String userId, List<Toma> tomas) {
+        if (userId == null || tomas == null || tomas.isEmpty()) {
+            return;
+        }
+        List<Toma> copia = new ArrayList<>(tomas);
+        ejecutor.execute(() -> {
+            SQLiteDatabase db = getWritableDatabase();
+            db.beginTransaction();
+            try {
+                ContentValues valores = new ContentValues();
+                for (Toma toma : copia) {
+                    if (toma != null && toma.getId() != null) {
+                        insertarToma(db, valores, userId, toma);
+                    }
+                }
+                db.setTransactionSuccessful();
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Error al guardar tomas locales", e);
+            } finally {
+                db.endTransaction();
+            }
+        });
+    }
+
+    private static void insertarToma(SQLiteDatabase db, ContentValues valores, String userId, Toma toma) {
+        valores.clear();
+        valores.put("id", toma.getId());
+        valores.put("user_id", userId);
+        valores.put("medicamento_id", toma.getMedicamentoId());
+        valores.put("medicamento_nombre", toma.getMedicamentoNombre());
+        valores.put("estado", toma.getEstado() != null ? toma.getEstado().name() : null);
+        valores.put("observaciones", toma.getObservaciones());
+        valores.put("fecha_hora_programada", milisegundos(toma.getFechaHoraProgramada()));
+        valores.put("fecha_hora_tomada", milisegundos(toma.getFechaHoraTomada()));
+        db.insertWithOnConflict(TABLA_TOMAS, null, valores, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    /**
+     * Deja las tomas locales de una consulta iguales a las que devolvió Firestore para la misma consulta:
+     * escribe solo las nuevas o modificadas y borra las que ya no están en el servidor (eliminadas o
+     * archivadas desde otro dispositivo o desde la web). Los parámetros son los de obtenerTomas.
+     * Solo debe llamarse con resultados del servidor, no de la caché de Firestore, que puede estar incompleta.
+     */
+    public void sincronizarTomas(String userId, String medicamentoId, Date desde, List<Toma> delServidor) {
+        if (userId == null || delServidor == null) {
+            return;
+        }
+        List<Toma> copia = new ArrayList<>(delServidor);
+        ejecutor.execute(() -> {
+            SQLiteDatabase db = getWritableDatabase();
+            db.beginTransaction();
+            try {
+                Map<String, Toma> locales = new HashMap<>();
+                for (Toma toma : consultarTomas(userId, medicamentoId, desde, null)) {
+                    locales.put(toma.getId(), toma);
+                }
+                int escritas = 0;
+                ContentValues valores = new ContentValues();
+                for (Toma toma : copia) {
+                    if (toma == null || toma.getId() == null) {
+                        continue;
+                    }
+                    Toma local = locales.remove(toma.getId());
+                    if (local == null || !mismosDatos(local, toma)) {
+                        insertarToma(db, valores, userId, toma);
+                        escritas++;
+                    }
+                }
+                int eliminadas = 0;
+                for (Toma local : locales.values()) {
+                    // Firestore deja fuera de las consultas ordenadas por fecha de toma a los documentos sin
+                    // ese campo: sin fecha no se puede saber si la toma se borró, se conserva
+                    if (local.getFechaHoraTomada() != null) {
+                        db.delete(TABLA_TOMAS, "id = ? AND user_id = ?", new String[] {local.getId(), userId});
+                        eliminadas++;
+                    }
+                }
+                db.setTransactionSuccessful();
+                if (escritas > 0 || eliminadas > 0) {
+                    Log.d(TAG, "Tomas locales sincronizadas: " + escritas + " escritas, "
+                        + eliminadas + " eliminadas");
+                }
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Error al sincronizar tomas locales", e);
+            } finally {
+                db.endTransaction();
+            }
+        });
+    }
+
+    private static boolean mismosDatos(Toma a, Toma b) {
+        return Objects.equals(a.getMedicamentoId(), b.getMedicamentoId())
+            && Objects.equals(a.getMedicamentoNombre(), b.getMedicamentoNombre())
+            && a.getEstado() == b.getEstado()
+            && Objects.equals(a.getObservaciones(), b.getObservaciones())
+            && Objects.equals(a.getFechaHoraProgramada(), b.getFechaHoraProgramada())
+            && Objects.equals(a.getFechaHoraTomada(), b.getFechaHoraTomada());
+    }
+
+    /**
+     * Consulta las tomas del usuario, de la más reciente a la más antigua.
+     * @param medicamentoId null para todas las del usuario
+     * @param desde null para no acotar (inclusive)
+     * @param hasta null para no acotar (exclusive)
+     */
+    public void obtenerTomas(String userId, String medicamentoId, Date desde, Date hasta,
+                             FirebaseService.FirestoreListCallback callback) {
+        ejecutor.execute(() -> {
+            try {
+                List<Toma> tomas = consultarTomas(userId, medicamentoId, desde, hasta);
+                handlerPrincipal.post(() -> {
+                    if (callback != null) {
+                        callback.onSuccess(tomas);
+                    }
+                });
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Error al consultar tomas locales", e);
+                handlerPrincipal.post(() -> {
+                    if (callback != null) {
+                        callback.onError(e);
+                    }
+                });
+            }
+        });
+    }
+
+    private List<Toma> consultarTomas(String userId, String medicamentoId, Date desde, Date hasta) {
+        StringBuilder where = new StringBuilder("user_id = ?");
+        List<String> argumentos = new ArrayList<>();
+        argumentos.add(userId);
+        if (medicamentoId != null) {
+            where.append(" AND medicamento_id = ?");
+            argumentos.add(medicamentoId);
+        }
+        if (desde != null) {
+            where.append(" AND fecha_hora_tomada >= ?");
+            argumentos.add(String.valueOf(desde.getTime()));
+        }
+        if (hasta != null) {
+            where.append(" AND fecha_hora_tomada < ?");
+            argumentos.add(String.valueOf(hasta.getTime()));
+        }
+
+        List<Toma> tomas = new ArrayList<>();
+        try (Cursor cursor = getReadableDatabase().query(TABLA_TOMAS,
+                new String[] {"id", "medicamento_id", "medicamento_nombre", "estado", "observaciones",
+                    "fecha_hora_programada", "fecha_hora_tomada"},
+                where.toString(), argumentos.toArray(new String[0]),
+                null, null, "fecha_hora_tomada DESC")) {
+            while (cursor.moveToNext()) {
+                Toma toma = new Toma();
+                toma.setId(cursor.getString(0));
+                toma.setUserId(userId);
+                toma.setMedicamentoId(cursor.getString(1));
+                toma.setMedicamentoNombre(cursor.getString(2));
+                toma.setEstado(estadoToma(cursor.getString(3)));
+                toma.setObservaciones(cursor.getString(4));
+                toma.setFechaHoraProgramada(fecha(cursor, 5));
+                toma.setFechaHoraTomada(fecha(cursor, 6));
+                tomas.add(toma);
+            }
+        }
+        return tomas;
+    }
+
+    /**
+     * Borra tomas por ID (las que se archivaron en resúmenes mensuales)
+     */
+    public void eliminarTomas(String userId, List<String> ids) {
+        if (userId == null || ids == null || ids.isEmpty()) {
+            return;
+        }
+        ejecutor.execute(() -> {
+            SQLiteDatabase db = getWritableDatabase();
+            db.beginTransaction();
+            try {
+                for (String id : ids) {
+                    db.delete(TABLA_TOMAS, "id = ? AND user_id = ?", new String[] {id, userId});
+                }
+                db.setTransactionSuccessful();
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Error al eliminar tomas locales", e);
+            } finally {
+                db.endTransaction();
+            }
+        });
+    }
+
+    /**
+     * Indica en onSuccess (un Boolean) si ya se copiaron todas las tomas del usuario desde Firestore
+     */
+    public void isHidratado(String userId, FirebaseService.FirestoreCallback callback) {
+        ejecutor.execute(() -> {
+            boolean hidratado;
+            try (Cursor cursor = getReadableDatabase().query(TABLA_HIDRATACION, new String[] {"user_id"},
+                    "user_id = ?", new String[] {userId}, null, null, null)) {
+                hidratado = cursor.moveToFirst();
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Error al consultar la hidratación", e);
+                hidratado = false;
+            }
+            boolean resultado = hidratado;
+            handlerPrincipal.post(() -> {
+                if (callback != null) {
+                    callback.onSuccess(resultado);
+                }
+            });
+        });
+    }
+
+    /**
+     * Marca al usuario como hidratado, después de que terminen las escrituras de tomas en curso
+     */
+    public void marcarHidratado(String userId) {
+        ejecutor.execute(() -> {
+            ContentValues valores = new ContentValues();
+            valores.put("user_id", userId);
+            valores.put("fecha", System.currentTimeMillis());
+            getWritableDatabase().insertWithOnConflict(TABLA_HIDRATACION, null, valores,
+                SQLiteDatabase.CONFLICT_REPLACE);
+        });
+    }
+
+    /**
+     * Borra todas las tomas del usuario, sus tomas programadas y su marca de hidratación (al eliminar la cuenta)
+     */
+    public void eliminarDatosUsuario(String userId) {
+        ejecutor.execute(() -> {
+            SQLiteDatabase db = getWritableDatabase();
+            db.delete(TABLA_TOMAS, "user_id = ?", new String[] {userId});
+            db.delete(TABLA_TOMAS_PROGRAMADAS, "user_id = ?", new String[] {userId});
+            db.delete(TABLA_HIDRATACION, "user_id = ?", new String[] {userId});
+        });
+    }
+
+    // ==================== TOMAS PROGRAMADAS ====================
+
+    /**
+     * Reemplaza las tomas programadas guardadas de un medicamento del usuario.
+     * Los valores se copian en el momento, así que las tomas se pueden seguir modificando.
+     */
+    public void guardarTomasProgramadas(String userId, String medicamentoId, List<TomaProgramada> tomas) {
+        if (userId == null || medicamentoId == null || tomas == null) {
+            return;
+        }
+        List<ContentValues> filas = new ArrayList<>(tomas.size());
+        for (TomaProgramada toma : tomas) {
+            if (toma.getFechaHoraProgramada() == null) {
+                continue;
+            }
+            ContentValues valores = new ContentValues();
+            valores.put("user_id", userId);
+            valores.put("medicamento_id", medicamentoId);
+            valores.put("horario", toma.getHorario());
+            valores.put("fecha_hora_programada", toma.getFechaHoraProgramada().getTime());
+            valores.put("estado", toma.getEstado() != null ? toma.getEstado().name() : null);
+            valores.put("posposiciones", toma.getPosposiciones());
+            valores.put("alerta_amarilla", milisegundos(toma.getFechaHoraAlertaAmarilla()));
+            valores.put("alerta_roja", milisegundos(toma.getFechaHoraAlertaRoja()));
+            valores.put("retraso", milisegundos(toma.getFechaHoraRetraso()));
+            valores.put("omitida", milisegundos(toma.getFechaHoraOmitida()));
+            valores.put("tomada", toma.isTomada() ? 1 : 0);
+            filas.add(valores);
+        }
+        ejecutor.execute(() -> {
+            SQLiteDatabase db = getWritableDatabase();
+            db.beginTransaction();
+            try {
+                db.delete(TABLA_TOMAS_PROGRAMADAS, "user_id = ? AND medicamento_id = ?",
+                    new String[] {userId, medicamentoId});
+                for (ContentValues valores : filas) {
+                    db.insert(TABLA_TOMAS_PROGRAMADAS, null, valores);
+                }
+                db.setTransactionSuccessful();
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Error al guardar tomas programadas", e);
+            } finally {
+                db.endTransaction();
+            }
+        });
+    }
+
+    /**
+     * Entrega en onSuccess las tomas programadas del usuario desde una fecha
+     * (Map de medicamentoId a lista ordenada por horario)
+     */
+    public void obtenerTomasProgramadas(String userId, Date desde, FirebaseService.FirestoreCallback callback) {
+        ejecutor.execute(() -> {
+            Map<String, List<TomaProgramada>> tomas = consultarTomasProgramadas(userId, desde);
+            handlerPrincipal.post(() -> {
+                if (callback != null) {
+                    callback.onSuccess(tomas);
+                }
+            });
+        });
+    }
+
+    /**
+     * Igual que obtenerTomasProgramadas, pero espera el resultado. Solo para hilos de fondo
+     * (la copia de seguridad), nunca desde el hilo principal.
+     */
+    public Map<String, List<TomaProgramada>> esperarTomasProgramadas(String userId, Date desde)
+            throws InterruptedException, ExecutionException {
+        return ejecutor.submit(() -> consultarTomasProgramadas(userId, desde)).get();
+    }
+
+    private Map<String, List<TomaProgramada>> consultarTomasProgramadas(String userId, Date desde) {
+        Map<String, List<TomaProgramada>> resultado = new HashMap<>();
+        if (userId == null) {
+            return resultado;
+        }
+        try (Cursor cursor = getReadableDatabase().query(TABLA_TOMAS_PROGRAMADAS,
+                new String[] {"medicamento_id", "horario", "fecha_hora_programada", "estado", "posposiciones",
+                    "alerta_amarilla", "alerta_roja", "retraso", "omitida", "tomada"},
+                "user_id = ? AND fecha_hora_programada >= ?", new String[] {userId, String.valueOf(desde.getTime())},
+                null, null, "medicamento_id, fecha_hora_programada")) {
+            while (cursor.moveToNext()) {
+                TomaProgramada toma = new TomaProgramada(cursor.getString(0), cursor.getString(1), fecha(cursor, 2));
+                toma.setEstado(estadoProgramada(cursor.getString(3)));
+                toma.setPosposiciones(cursor.getInt(4));
+                toma.setFechaHoraAlertaAmarilla(fecha(cursor, 5));
+                toma.setFechaHoraAlertaRoja(fecha(cursor, 6));
+                toma.setFechaHoraRetraso(fecha(cursor, 7));
+                toma.setFechaHoraOmitida(fecha(cursor, 8));
+                toma.setTomada(cursor.getInt(9) != 0);
+
+                List<TomaProgramada> tomas = resultado.get(toma.getMedicamentoId());
+                if (tomas == null) {
+                    tomas = new ArrayList<>();
+                    resultado.put(toma.getMedicamentoId(), tomas);
+                }
+                tomas.add(toma);
+            }
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Error al cargar tomas programadas", e);
+        }
+        return resultado;
+    }
+
+    /**
+     * Borra las tomas programadas anteriores a una fecha (de todos los usuarios del dispositivo)
+     */
+    public void eliminarTomasProgramadasAnteriores(Date fecha) {
+        long limite = fecha.getTime();
+        ejecutor.execute(() -> {
+            try {
+                getWritableDatabase().delete(TABLA_TOMAS_PROGRAMADAS, "fecha_hora_programada < ?",
+                    new String[] {String.valueOf(limite)});
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Error al limpiar tomas programadas", e);
+            }
+        });
+    }
+
+    private static Long milisegundos(Date fecha) {
+        return fecha != null ? fecha.getTime() : null;
+    }
+
+    private static Date fecha(Cursor cursor, int columna) {
+        return cursor.isNull(columna) ? null : new Date(cursor.getLong(columna));
+    }
+
+    private static Toma.EstadoToma estadoToma(String nombre) {
+        if (nombre != null) {
+            for (Toma.EstadoToma estado : Toma.EstadoToma.values()) {
+                if (estado.name().equals(nombre)) {
+                    return estado;
+                }
+            }
+        }
+        return Toma.EstadoToma.TOMADA;
+    }
+
+    private static TomaProgramada.EstadoTomaProgramada estadoProgramada(String nombre) {
+        if (nombre != null) {
+            for (TomaProgramada.EstadoTomaProgramada estado : TomaProgramada.EstadoTomaProgramada.values()) {
+                if (estado.name().equals(nombre)) {
+                    return estado;
+                }
+            }
+        }
+        return TomaProgramada.EstadoTomaProgramada.PENDIENTE;
+    }
+}
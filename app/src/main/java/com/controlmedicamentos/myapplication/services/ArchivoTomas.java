@@ -0,0 +1,285 @@
+package com.controlmedicamentos.myapplication.services;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+import com.controlmedicamentos.myapplication.models.Toma;
+import com.google.firebase.auth.FirebaseUser;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldValue;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.SetOptions;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Archiva las tomas más antiguas que el horizonte configurado: las resume en un documento por
+ * medicamento y mes de la colección "resumenes_tomas" (cantidad por día y estado, y demoras) y
+ * borra las tomas individuales. AdherenciaCalculator combina esos resúmenes con las tomas recientes.
+ *
+ * Cada página se procesa en una transacción que vuelve a leer las tomas: si otro dispositivo ya
+ * archivó alguna, no se cuenta dos veces. Interrumpirlo no deja nada a medias.
+ *
+ * Está desactivado por defecto: la versión web solo lee la colección de tomas, así que deja de ver
+ * las tomas archivadas. El usuario lo activa desde Ajustes, después de una advertencia.
+ */
+public class ArchivoTomas {
+    private static final String TAG = "ArchivoTomas";
+    // Cada toma ocupa un borrado y, en el peor caso, una escritura de resumen
+    private static final int TAMANO_PAGINA = FirebaseService.MAX_OPERACIONES_BATCH / 2;
+    private static final String PREF_ACTIVADO = "archivo_tomas_activado";
+    private static final String PREF_HORIZONTE = "archivo_tomas_horizonte_dias";
+    private static final String PREFIJO_ULTIMO = "archivo_tomas_ultimo_";
+    private static final long INTERVALO_MS = TimeUnit.DAYS.toMillis(1);
+    private static final int DEMORA_TARDIA_MINUTOS = 30;
+
+    public static final int HORIZONTE_DIAS_POR_DEFECTO = 180;
+    // Los gráficos usan hasta 28 días de tomas individuales y el pronóstico de stock 14
+    public static final int HORIZONTE_DIAS_MINIMO = 60;
+
+    static final String COLLECTION_RESUMENES = "resumenes_tomas";
+    private static final String COLLECTION_TOMAS = "tomas";
+
+    private final FirebaseFirestore db;
+    private final SharedPreferences preferences;
+    private final AuthService authService;
+    private final AlmacenLocal almacenLocal;
+
+    public ArchivoTomas(Context context) {
+        this.db = Dependencias.firestore();
+        this.preferences = context.getSharedPreferences("ControlMedicamentos", Context.MODE_PRIVATE);
+        this.authService = new AuthService();
+        this.almacenLocal = AlmacenLocal.getInstance(context);
+    }
+
+    public boolean isActivado() {
+        return preferences.getBoolean(PREF_ACTIVADO, false);
+    }
+
+    public void setActivado(boolean activado) {
+        preferences.edit().putBoolean(PREF_ACTIVADO, activado).apply();
+    }
+
+    public int getHorizonteDias() {
+        return preferences.getInt(PREF_HORIZONTE, HORIZONTE_DIAS_POR_DEFECTO);
+    }
+
+    /**
+     * Cambia cuántos días de tomas individuales se conservan (nunca menos de HORIZONTE_DIAS_MINIMO)
+     */
+    public void setHorizonteDias(int dias) {
+        preferences.edit().putInt(PREF_HORIZONTE, Math.max(HORIZONTE_DIAS_MINIMO, dias)).apply();
+    }
+
+    /**
+     * Archiva si el usuario lo activó y pasó al menos un día desde su último archivo completo
+     */
+    public void archivarSiCorresponde() {
+        if (!isActivado()) {
+            return;
+        }
+        FirebaseUser firebaseUser = authService.getCurrentUser();
+        if (firebaseUser == null) {
+            return;
+        }
+        String clave = PREFIJO_ULTIMO + firebaseUser.getUid();
+        if (System.currentTimeMillis() - preferences.getLong(clave, 0) < INTERVALO_MS) {
+            return;
+        }
+        archivar(new FirebaseService.FirestoreCallback() {
+            @Override
+            public void onSuccess(Object result) {
+                preferences.edit().putLong(clave, System.currentTimeMillis()).apply();
+            }
+
+            @Override
+            public void onError(Exception exception) {
+                Log.w(TAG, "No se pudo archivar tomas antiguas", exception);
+            }
+        });
+    }
+
+    /**
+     * Archiva las tomas programadas antes del primer día del mes en que empieza el horizonte
+     * (se archivan meses completos). Devuelve en onSuccess la cantidad de tomas archivadas.
+     */
+    public void archivar(FirebaseService.FirestoreCallback callback) {
+        FirebaseUser firebaseUser = authService.getCurrentUser();
+        if (firebaseUser == null) {
+            if (callback != null) {
+                callback.onError(new Exception("Usuario no autenticado"));
+            }
+            return;
+        }
+
+        LocalDate inicioHorizonte = LocalDate.now().minusDays(getHorizonteDias()).withDayOfMonth(1);
+        Date corte = Date.from(inicioHorizonte.atStartOfDay(ZoneId.systemDefault()).toInstant());
+        archivarPagina(firebaseUser.getUid(), corte, 0, callback);
+    }
+
+    /**
+     * Las tomas archivadas desaparecen de la consulta, así que siempre se pide la primera página
+     */
+    private void archivarPagina(String userId, Date corte, int archivadas, FirebaseService.FirestoreCallback callback) {
+        db.collection(COLLECTION_TOMAS)
+            .whereEqualTo("userId", userId)
+            .whereLessThan("fechaHoraProgramada", corte)
+            .limit(TAMANO_PAGINA)
+            .get()
+            .addOnSuccessListener(snapshot -> {
+                List<DocumentReference> referencias = new ArrayList<>(snapshot.size());
+                for (DocumentSnapshot document : snapshot.getDocuments()) {
+                    referencias.add(document.getReference());
+                }
+                if (referencias.isEmpty()) {
+                    Log.d(TAG, "Tomas archivadas: " + archivadas);
+                    if (callback != null) {
+                        callback.onSuccess(archivadas);
+                    }
+                    return;
+                }
+                archivarTomas(userId, referencias, new FirebaseService.FirestoreCallback() {
+                    @Override
+                    public void onSuccess(Object result) {
+                        archivarPagina(userId, corte, archivadas + (Integer) result, callback);
+                    }
+
+                    @Override
+                    public void onError(Exception exception) {
+                        Log.e(TAG, "Error al archivar tomas (" + archivadas + " archivadas)", exception);
+                        if (callback != null) {
+                            callback.onError(exception);
+                        }
+                    }
+                });
+            })
+            .addOnFailureListener(e -> {
+                Log.e(TAG, "Error al buscar tomas para archivar", e);
+                if (callback != null) {
+                    callback.onError(e);
+                }
+            });
+    }
+
+    private void archivarTomas(String userId, List<DocumentReference> referencias,
+                               FirebaseService.FirestoreCallback callback) {
+        List<String> idsArchivados = new ArrayList<>();
+        db.runTransaction(transaction -> {
+                idsArchivados.clear();
+                List<DocumentSnapshot> documentos = new ArrayList<>(referencias.size());
+                for (DocumentReference referencia : referencias) {
+                    DocumentSnapshot documento = transaction.get(referencia);
+                    if (documento.exists()) {
+                        documentos.add(documento);
+                    }
+                }
+
+                Map<String, ResumenParcial> resumenes = new LinkedHashMap<>();
+                for (DocumentSnapshot documento : documentos) {
+                    Toma toma = TomaCodec.leer(documento);
+                    Date fecha = toma.getFechaHoraTomada() != null ? toma.getFechaHoraTomada() : toma.getFechaHoraProgramada();
+                    // Una toma sin medicamento o sin fecha no aporta a ningún resumen: solo se borra
+                    if (toma.getMedicamentoId() != null && fecha != null) {
+                        ZonedDateTime dia = fecha.toInstant().atZone(ZoneId.systemDefault());
+                        String mes = String.format(Locale.ROOT, "%04d-%02d", dia.getYear(), dia.getMonthValue());
+                        resumenes.computeIfAbsent(toma.getMedicamentoId() + "_" + mes,
+                            clave -> new ResumenParcial(toma.getMedicamentoId(), toma.getMedicamentoNombre(), mes))
+                            .acumular(toma, dia.getDayOfMonth());
+                    }
+                    transaction.delete(documento.getReference());
+                    idsArchivados.add(documento.getId());
+                }
+
+                for (Map.Entry<String, ResumenParcial> resumen : resumenes.entrySet()) {
+                    transaction.set(db.collection(COLLECTION_RESUMENES).document(resumen.getKey()),
+                        resumen.getValue().toMap(userId), SetOptions.merge());
+                }
+                return idsArchivados.size();
+            })
+            .addOnSuccessListener(cantidad -> {
+                almacenLocal.eliminarTomas(userId, new ArrayList<>(idsArchivados));
+                if (callback != null) {
+                    callback.onSuccess(cantidad);
+                }
+            })
+            .addOnFailureListener(e -> {
+                if (callback != null) {
+                    callback.onError(e);
+                }
+            });
+    }
+
+    /**
+     * Lo que una página aporta al resumen de un medicamento y mes. Se escribe como incrementos,
+     * que se suman a lo que ya tenga el documento
+     */
+    private static class ResumenParcial {
+        private final String medicamentoId;
+        private final String medicamentoNombre;
+        private final String mes;
+        private final Map<Integer, Map<String, Long>> cantidadesPorDia = new HashMap<>();
+        private long cantidadDemoras;
+        private long demoraTotalMinutos;
+        private long demorasMayores30;
+
+        ResumenParcial(String medicamentoId, String medicamentoNombre, String mes) {
+            this.medicamentoId = medicamentoId;
+            this.medicamentoNombre = medicamentoNombre;
+            this.mes = mes;
+        }
+
+        void acumular(Toma toma, int dia) {
+            Toma.EstadoToma estado = toma.getEstado() != null ? toma.getEstado() : Toma.EstadoToma.TOMADA;
+            cantidadesPorDia.computeIfAbsent(dia, d -> new HashMap<>()).merge(estado.name(), 1L, Long::sum);
+
+            if (estado == Toma.EstadoToma.TOMADA && toma.getFechaHoraTomada() != null
+                && toma.getFechaHoraProgramada() != null) {
+                // Tomar antes del horario cuenta como demora 0
+                long minutos = Math.max(0, TimeUnit.MILLISECONDS.toMinutes(
+                    toma.getFechaHoraTomada().getTime() - toma.getFechaHoraProgramada().getTime()));
+                cantidadDemoras++;
+                demoraTotalMinutos += minutos;
+                if (minutos > DEMORA_TARDIA_MINUTOS) {
+                    demorasMayores30++;
+                }
+            }
+        }
+
+        Map<String, Object> toMap(String userId) {
+            Map<String, Object> dias = new HashMap<>();
+            for (Map.Entry<Integer, Map<String, Long>> dia : cantidadesPorDia.entrySet()) {
+                Map<String, Object> cantidades = new HashMap<>();
+                for (Map.Entry<String, Long> cantidad : dia.getValue().entrySet()) {
+                    cantidades.put(cantidad.getKey(), FieldValue.increment(cantidad.getValue()));
+                }
+                dias.put(String.valueOf(dia.getKey()), cantidades);
+            }
+
+            Map<String, Object> map = new HashMap<>();
+            map.put("userId", userId);
+            map.put("medicamentoId", medicamentoId);
+            map.put("medicamentoNombre", medicamentoNombre);
+            map.put("mes", mes);
+            map.put("dias", dias);
+            if (cantidadDemoras > 0) {
+                Map<String, Object> demoras = new HashMap<>();
+                demoras.put("cantidad", FieldValue.increment(cantidadDemoras));
+                demoras.put("totalMinutos", FieldValue.increment(demoraTotalMinutos));
+                demoras.put("mayores30", FieldValue.increment(demorasMayores30));
+                map.put("demoras", demoras);
+            }
+            map.put("actualizado", new Date());
+            return map;
+        }
+    }
+}
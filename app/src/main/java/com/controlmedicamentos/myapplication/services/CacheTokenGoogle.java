@@ -0,0 +1,172 @@
+package com.controlmedicamentos.myapplication.services;
+
+import android.util.Log;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Token de Google Calendar en memoria, compartido por todas las instancias de GoogleCalendarAuthService.
+ * Recuerda también que un usuario no tiene token, así que solo se lee Firestore la primera vez, cuando
+ * el token expira o cuando está por expirar (en ese caso se devuelve el cacheado y se relee igual).
+ *
+ * Las lecturas concurrentes de un usuario comparten una sola (single-flight). Guardar o eliminar el
+ * token avanza la generación: una lectura que empezó antes no pisa la caché con un token viejo.
+ *
+ * No depende de Firestore: GoogleCalendarAuthService hace la lectura y avisa con completar().
+ */
+final class CacheTokenGoogle {
+    private static final String TAG = "CacheTokenGoogle";
+    static final long MARGEN_EXPIRACION_MS = 5 * 60 * 1000; // Expirado si faltan menos de 5 min
+    static final long MARGEN_REFRESCO_MS = 10 * 60 * 1000; // Releer si faltan menos de 10 min
+
+    /**
+     * Lectura de Firestore que el llamador tiene que hacer y después informar con completar()
+     */
+    static final class Lectura {
+        final String userId;
+        final long generacion;
+
+        Lectura(String userId, long generacion) {
+            this.userId = userId;
+            this.generacion = generacion;
+        }
+    }
+
+    private final Object lock = new Object();
+    // Lecturas en curso con los callbacks que esperan cada una, por usuario
+    private final Map<String, List<GoogleCalendarAuthService.FirestoreCallback>> lecturasEnCurso = new HashMap<>();
+    private String userId; // null: no hay nada cacheado
+    private Map<String, Object> tokenData; // null con userId: el usuario no tiene token
+    private long expiraEn;
+    private long generacion;
+
+    /**
+     * Responde desde la caché si puede; si no, deja el callback esperando la lectura del usuario
+     * @return la lectura que hay que hacer, o null si no hace falta (o ya hay una en curso)
+     */
+    Lectura obtener(String userId, long ahora, GoogleCalendarAuthService.FirestoreCallback callback) {
+        Map<String, Object> vigente;
+        Lectura lectura = null;
+        synchronized (lock) {
+            boolean cacheado = userId.equals(this.userId) && (tokenData == null || !estaExpirado(expiraEn, ahora));
+            if (!cacheado) {
+                return esperarLectura(userId, callback);
+            }
+            vigente = tokenData;
+            if (vigente != null && debeRefrescarse(expiraEn, ahora)) {
+                lectura = esperarLectura(userId, null);
+            }
+        }
+        if (callback != null) {
+            callback.onSuccess(vigente);
+        }
+        return lectura;
+    }
+
+    /**
+     * Guarda el resultado de la lectura (null si el usuario no tiene token) y lo entrega a los que
+     * esperaban. Si mientras tanto se guardó o eliminó el token, se descarta y se entrega lo actual.
+     * @param exito false si la lectura falló: no se cachea nada y se entrega null
+     * @return true si el token leído ya expiró y hay que eliminarlo
+     */
+    boolean completar(Lectura lectura, Map<String, Object> leido, boolean exito, long ahora) {
+        boolean expirado = false;
+        Map<String, Object> resultado = exito ? leido : null;
+        List<GoogleCalendarAuthService.FirestoreCallback> callbacks;
+        synchronized (lock) {
+            callbacks = lecturasEnCurso.remove(lectura.userId);
+            if (lectura.generacion != generacion) {
+                Log.d(TAG, "Lectura del token descartada: el token cambió mientras tanto");
+                if (lectura.userId.equals(userId)) {
+                    resultado = tokenData;
+                }
+            } else if (exito) {
+                long expiracion = leido != null ? calcularExpiracion(leido) : Long.MAX_VALUE;
+                if (leido != null && estaExpirado(expiracion, ahora)) {
+                    expirado = true;
+                    resultado = null;
+                }
+                userId = lectura.userId;
+                tokenData = resultado;
+                expiraEn = resultado != null ? expiracion : Long.MAX_VALUE;
+            }
+        }
+        if (callbacks != null) {
+            for (GoogleCalendarAuthService.FirestoreCallback callback : callbacks) {
+                callback.onSuccess(resultado);
+            }
+        }
+        return expirado;
+    }
+
+    /**
+     * El token se acaba de guardar en Firestore
+     */
+    void guardado(String userId, Map<String, Object> tokenData) {
+        synchronized (lock) {
+            generacion++;
+            this.userId = userId;
+            this.tokenData = tokenData;
+            this.expiraEn = calcularExpiracion(tokenData);
+        }
+    }
+
+    /**
+     * El token se acaba de eliminar de Firestore: el usuario queda sin token
+     */
+    void eliminado(String userId) {
+        synchronized (lock) {
+            generacion++;
+            this.userId = userId;
+            this.tokenData = null;
+            this.expiraEn = Long.MAX_VALUE;
+        }
+    }
+
+    private Lectura esperarLectura(String userId, GoogleCalendarAuthService.FirestoreCallback callback) {
+        List<GoogleCalendarAuthService.FirestoreCallback> esperando = lecturasEnCurso.get(userId);
+        boolean enCurso = esperando != null;
+        if (!enCurso) {
+            esperando = new ArrayList<>();
+            lecturasEnCurso.put(userId, esperando);
+        }
+        if (callback != null) {
+            esperando.add(callback);
+        }
+        return enCurso ? null : new Lectura(userId, generacion);
+    }
+
+    private static boolean estaExpirado(long expiraEn, long ahora) {
+        return expiraEn != Long.MAX_VALUE && expiraEn - ahora < MARGEN_EXPIRACION_MS;
+    }
+
+    private static boolean debeRefrescarse(long expiraEn, long ahora) {
+        return expiraEn != Long.MAX_VALUE && expiraEn - ahora < MARGEN_REFRESCO_MS;
+    }
+
+    /**
+     * Calcula el instante de expiración del token en milisegundos
+     * Consistente con React: googleAuthHelper.js - esTokenExpirado()
+     * @return Long.MAX_VALUE si no se puede determinar (se asume que no expira)
+     */
+    static long calcularExpiracion(Map<String, Object> tokenData) {
+        Object fechaObtencionObj = tokenData.get("fechaObtencion");
+        Object expiresInObj = tokenData.get("expires_in");
+
+        if (fechaObtencionObj == null || !(expiresInObj instanceof Number)) {
+            return Long.MAX_VALUE; // No sabemos si está expirado, asumir que no
+        }
+
+        try {
+            long fechaObtencion = Instant.parse(fechaObtencionObj.toString()).toEpochMilli();
+            return fechaObtencion + ((Number) expiresInObj).longValue() * 1000;
+        } catch (Exception e) {
+            Log.e(TAG, "Error al verificar expiración del token", e);
+            return Long.MAX_VALUE;
+        }
+    }
+}
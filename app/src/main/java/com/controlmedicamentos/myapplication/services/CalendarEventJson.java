@@ -0,0 +1,141 @@
+package com.controlmedicamentos.myapplication.services;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.JsonWriter;
+
+import com.controlmedicamentos.myapplication.models.Medicamento;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.Map;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+
+/**
+ * Serialización en streaming de los eventos de Google Calendar.
+ * Escribe el JSON directamente sobre el sink de OkHttp y lee las respuestas sin construir
+ * árboles JSONObject intermedios.
+ */
+final class CalendarEventJson {
+    static final MediaType JSON = MediaType.parse("application/json; charset=utf-8");
+
+    // DateTimeFormatter es inmutable y thread-safe: se comparte entre todas las llamadas
+    static final DateTimeFormatter FORMATO_FECHA_HORA = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss");
+
+    private static final int DURACION_EVENTO_MINUTOS = 15;
+    private static final int TAMANO_INICIAL_EVENTO = 1024;
+    private static final int[] RECORDATORIOS_MINUTOS = {15, 5};
+
+    private CalendarEventJson() {
+    }
+
+    /**
+     * Crea el cuerpo de la request de un evento de toma. El JSON se genera al enviarse,
+     * escribiendo directamente en la conexión.
+     * @param incluirPropiedades true para agregar extendedProperties (solo al crear)
+     */
+    static RequestBody crearBodyEvento(Medicamento medicamento, LocalDateTime inicio, String timeZone,
+                                       boolean incluirPropiedades) {
+        return new RequestBody() {
+            @Override
+            public MediaType contentType() {
+                return JSON;
+            }
+
+            @Override
+            public void writeTo(BufferedSink sink) throws IOException {
+                // Un evento ocupa menos de 1 KB: se arma en un StringWriter de ese tamaño y se codifica
+                // directo en el buffer del sink (un OutputStreamWriter reservaría 8 KB por evento)
+                StringWriter texto = new StringWriter(TAMANO_INICIAL_EVENTO);
+                JsonWriter writer = new JsonWriter(texto);
+                escribirEvento(writer, medicamento, inicio, timeZone, incluirPropiedades);
+                writer.flush();
+                sink.writeUtf8(texto.toString());
+            }
+        };
+    }
+
+    static void escribirEvento(JsonWriter writer, Medicamento medicamento, LocalDateTime inicio,
+                               String timeZone, boolean incluirPropiedades) throws IOException {
+        writer.beginObject();
+        writer.name("summary").value("💊 " + medicamento.getNombre());
+        writer.name("description").value("Toma de " + medicamento.getNombre() + "\n" +
+                   "Presentación: " + medicamento.getPresentacion() + "\n" +
+                   "Condición: " + (medicamento.getAfeccion() != null ? medicamento.getAfeccion() : "N/A") + "\n" +
+                   "Stock: " + medicamento.getStockActual() + "/" +
+                   (medicamento.getDiasTratamiento() > 0 ? medicamento.getDiasTratamiento() : medicamento.getStockInicial()));
+
+        // Fecha inicio y fin (evento de 15 minutos)
+        writer.name("start");
+        escribirFecha(writer, inicio, timeZone);
+        writer.name("end");
+        escribirFecha(writer, inicio.plusMinutes(DURACION_EVENTO_MINUTOS), timeZone);
+
+        // Recordatorios
+        writer.name("reminders").beginObject();
+        writer.name("useDefault").value(false);
+        writer.name("overrides").beginArray();
+        for (int minutos : RECORDATORIOS_MINUTOS) {
+            writer.beginObject();
+            writer.name("method").value("popup");
+            writer.name("minutes").value(minutos);
+            writer.endObject();
+        }
+        writer.endArray();
+        writer.endObject();
+
+        writer.name("colorId").value(GoogleCalendarService.obtenerColorId(medicamento.getColor()));
+
+        if (incluirPropiedades) {
+            writer.name("extendedProperties").beginObject();
+            writer.name("private").beginObject();
+            writer.name("medicamentoId").value(medicamento.getId());
+            writer.name("tipo").value("toma_medicamento");
+            writer.endObject();
+            writer.endObject();
+        }
+        writer.endObject();
+    }
+
+    private static void escribirFecha(JsonWriter writer, LocalDateTime fecha, String timeZone)
+            throws IOException {
+        writer.beginObject();
+        writer.name("dateTime").value(FORMATO_FECHA_HORA.format(fecha));
+        writer.name("timeZone").value(timeZone);
+        writer.endObject();
+    }
+
+    /**
+     * Lee los campos simples de primer nivel de un evento (id, status, htmlLink, etc.).
+     * Los objetos y arrays anidados se saltean sin materializarlos.
+     */
+    static Map<String, Object> leerEvento(Reader reader) throws IOException {
+        Map<String, Object> evento = new HashMap<>();
+        JsonReader jsonReader = new JsonReader(reader);
+        try {
+            jsonReader.beginObject();
+            while (jsonReader.hasNext()) {
+                String nombre = jsonReader.nextName();
+                JsonToken token = jsonReader.peek();
+                if (token == JsonToken.STRING || token == JsonToken.NUMBER) {
+                    evento.put(nombre, jsonReader.nextString());
+                } else if (token == JsonToken.BOOLEAN) {
+                    evento.put(nombre, jsonReader.nextBoolean());
+                } else {
+                    jsonReader.skipValue();
+                }
+            }
+            jsonReader.endObject();
+        } finally {
+            jsonReader.close();
+        }
+        return evento;
+    }
+}
@@ -0,0 +1,135 @@
+package com.controlmedicamentos.myapplication.services;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Cache;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+
+/**
+ * Cliente HTTP compartido por toda la app para el tráfico con Google Calendar.
+ * Reutiliza el pool de conexiones, el dispatcher, las sesiones TLS y la caché en disco
+ * entre todas las instancias de GoogleCalendarService.
+ *
+ * configurarTimeouts() y la caché agregada después reemplazan la instancia (compartiendo pool y
+ * dispatcher), por eso los servicios no deben guardar el cliente: lo piden en cada request.
+ */
+public final class CalendarHttpClient {
+    private static final String TAG = "CalendarHttpClient";
+    private static final String CACHE_DIR = "calendar_http_cache";
+    private static final long CACHE_SIZE_BYTES = 5L * 1024 * 1024; // 5 MB para respuestas GET
+    private static final int MAX_REQUESTS_PER_HOST = 16; // HTTP/2 multiplexa sobre una sola conexión
+    private static final int MAX_IDLE_CONNECTIONS = 5;
+    private static final long KEEP_ALIVE_MINUTES = 5;
+
+    // Timeouts por defecto (en segundos), configurables con configurarTimeouts()
+    private static long connectTimeoutSegundos = 15;
+    private static long readTimeoutSegundos = 20;
+    private static long writeTimeoutSegundos = 20;
+
+    private static OkHttpClient instancia;
+
+    private CalendarHttpClient() {
+    }
+
+    /**
+     * Obtiene el cliente compartido, con caché en disco en el directorio de caché de la app
+     * @param context Contexto (se usa el de la aplicación)
+     */
+    public static synchronized OkHttpClient getInstance(Context context) {
+        if (instancia == null) {
+            Cache cache = null;
+            if (context != null) {
+                File directorio = new File(context.getApplicationContext().getCacheDir(), CACHE_DIR);
+                cache = new Cache(directorio, CACHE_SIZE_BYTES);
+            }
+            instancia = crearCliente(cache);
+        } else if (instancia.cache() == null && context != null) {
+            // El cliente se creó antes sin contexto: agregar la caché manteniendo pool y dispatcher
+            File directorio = new File(context.getApplicationContext().getCacheDir(), CACHE_DIR);
+            instancia = instancia.newBuilder()
+                .cache(new Cache(directorio, CACHE_SIZE_BYTES))
+                .build();
+        }
+        return instancia;
+    }
+
+    /**
+     * Cliente compartido sin caché en disco, para los tests en la JVM (la app siempre pasa un contexto)
+     */
+    static synchronized OkHttpClient getInstance() {
+        if (instancia == null) {
+            instancia = crearCliente(null);
+        }
+        return instancia;
+    }
+
+    /**
+     * Cambia los timeouts del cliente compartido.
+     * El nuevo cliente comparte pool de conexiones, dispatcher y caché con el anterior.
+     */
+    public static synchronized void configurarTimeouts(long connectSegundos, long readSegundos,
+                                                       long writeSegundos) {
+        connectTimeoutSegundos = connectSegundos;
+        readTimeoutSegundos = readSegundos;
+        writeTimeoutSegundos = writeSegundos;
+
+        if (instancia != null) {
+            instancia = instancia.newBuilder()
+                .connectTimeout(connectTimeoutSegundos, TimeUnit.SECONDS)
+                .readTimeout(readTimeoutSegundos, TimeUnit.SECONDS)
+                .writeTimeout(writeTimeoutSegundos, TimeUnit.SECONDS)
+                .build();
+        }
+        Log.d(TAG, "Timeouts configurados: connect=" + connectSegundos + "s, read=" + readSegundos +
+              "s, write=" + writeSegundos + "s");
+    }
+
+    private static OkHttpClient crearCliente(Cache cache) {
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequestsPerHost(MAX_REQUESTS_PER_HOST);
+
+        OkHttpClient.Builder builder = new OkHttpClient.Builder()
+            .dispatcher(dispatcher)
+            .connectionPool(new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_MINUTES, TimeUnit.MINUTES))
+            .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+            .connectTimeout(connectTimeoutSegundos, TimeUnit.SECONDS)
+            .readTimeout(readTimeoutSegundos, TimeUnit.SECONDS)
+            .writeTimeout(writeTimeoutSegundos, TimeUnit.SECONDS)
+            .retryOnConnectionFailure(true)
+            .addNetworkInterceptor(new GzipUserAgentInterceptor());
+
+        if (cache != null) {
+            builder.cache(cache);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Las APIs de Google solo devuelven respuestas comprimidas si el User-Agent contiene "gzip".
+     * OkHttp agrega Accept-Encoding: gzip y descomprime de forma transparente.
+     */
+    private static class GzipUserAgentInterceptor implements Interceptor {
+        @Override
+        public okhttp3.Response intercept(Chain chain) throws java.io.IOException {
+            Request original = chain.request();
+            String userAgent = original.header("User-Agent");
+            if (userAgent != null && userAgent.contains("gzip")) {
+                return chain.proceed(original);
+            }
+            String nuevoUserAgent = (userAgent != null ? userAgent : "ControlMedicamentos") + " (gzip)";
+            return chain.proceed(original.newBuilder()
+                .header("User-Agent", nuevoUserAgent)
+                .build());
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.controlmedicamentos.myapplication.services;
+
+import android.content.Context;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Carpeta cache/exportaciones, compartida por ExportacionHistorial, InformeAdherenciaPdf y
+ * MetricasFirebase a través del FileProvider. Cada uno conserva solo su último archivo y borra
+ * únicamente los anteriores con su propio prefijo, para no invalidar lo que otro acaba de compartir.
+ */
+final class CarpetaExportaciones {
+    private static final String CARPETA = "exportaciones";
+
+    private CarpetaExportaciones() {
+    }
+
+    /**
+     * Crea la carpeta si hace falta y borra los archivos anteriores cuyo nombre empieza con el prefijo
+     */
+    static File preparar(Context context, String prefijo) throws IOException {
+        File carpeta = new File(context.getCacheDir(), CARPETA);
+        if (!carpeta.isDirectory() && !carpeta.mkdirs()) {
+            throw new IOException("No se pudo crear la carpeta de exportación");
+        }
+        File[] anteriores = carpeta.listFiles((directorio, nombre) -> nombre.startsWith(prefijo));
+        if (anteriores != null) {
+            for (File anterior : anteriores) {
+                anterior.delete();
+            }
+        }
+        return carpeta;
+    }
+}
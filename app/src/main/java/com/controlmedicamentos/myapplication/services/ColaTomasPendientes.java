@@ -0,0 +1,381 @@
+package com.controlmedicamentos.myapplication.services;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import com.controlmedicamentos.myapplication.models.Medicamento;
+import com.controlmedicamentos.myapplication.models.Toma;
+import com.controlmedicamentos.myapplication.models.TomaPendiente;
+import com.controlmedicamentos.myapplication.utils.NetworkUtils;
+import com.controlmedicamentos.myapplication.utils.PronosticadorStock;
+import com.google.firebase.auth.FirebaseUser;
+import com.google.firebase.firestore.FirebaseFirestoreException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Cola persistente de dosis tomadas pendientes de enviar a Firestore.
+ * Al tocar "Tomado" la dosis se guarda primero en el dispositivo y la UI se actualiza sin esperar
+ * a la red; la cola se envía en orden cuando hay conexión (NetworkUtils avisa al reconectar).
+ * Las dosis consecutivas se agrupan en WriteBatch de hasta 500 operaciones y cada una lleva una
+ * clave de idempotencia, así que reenviarla después de un corte nunca duplica la toma.
+ *
+ * Una dosis no se descarta por fallar: se reintenta con espera exponencial mientras la app esté abierta.
+ * Solo se deja de enviar si el servidor la rechaza con un error permanente; en ese caso se avisa al
+ * usuario y se reintenta una vez en cada inicio, hasta MAX_RECHAZOS veces: después se descarta.
+ *
+ * Cada dosis guarda el usuario que la registró. Solo se envían y se descuentan del stock mostrado las
+ * del usuario con la sesión iniciada; las de otra cuenta esperan a que esa cuenta vuelva a entrar.
+ */
+public final class ColaTomasPendientes {
+    private static final String TAG = "ColaTomasPendientes";
+    private static final String PREF_COLA = "cola_tomas_pendientes";
+    private static final long ESPERA_INICIAL_MS = 5_000;
+    private static final long ESPERA_MAXIMA_MS = 15 * 60_000;
+    // Con este stock local o menos, el del servidor podría llegar a 0 (dosis de otro dispositivo, lotes en curso)
+    private static final int MARGEN_STOCK_TRANSACCION = 2;
+    // Inicios de la app en los que se reintenta una dosis rechazada antes de descartarla
+    static final int MAX_RECHAZOS = 3;
+
+    private static ColaTomasPendientes instancia;
+
+    private final Context context;
+    private final SharedPreferences preferences;
+    private final List<TomaPendiente> pendientes = new ArrayList<>();
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private boolean enviando;
+    private boolean reintentoProgramado;
+
+    private ColaTomasPendientes(Context context) {
+        this.context = context;
+        this.preferences = context.getSharedPreferences("ControlMedicamentos", Context.MODE_PRIVATE);
+        cargar();
+        NetworkUtils.registrarAlConectar(context, this::enviarPendientes);
+    }
+
+    public static synchronized ColaTomasPendientes getInstance(Context context) {
+        if (instancia == null) {
+            instancia = new ColaTomasPendientes(context.getApplicationContext());
+        }
+        return instancia;
+    }
+
+    /**
+     * Registra una dosis tomada. El medicamento ya debe tener aplicado el consumo en memoria
+     * (consumirDosis y, si corresponde, pausarMedicamento). No bloquea: el envío ocurre en segundo plano.
+     */
+    public synchronized void encolar(Toma toma, Medicamento medicamento) {
+        boolean porDuracion = medicamento.getTipoStock() != null
+            && medicamento.getTipoStock() != Medicamento.TipoStock.UNIDADES_CONTABLES;
+        int stockRestante = porDuracion ? medicamento.getDiasRestantesDuracion() : medicamento.getStockActual();
+        Date ahora = new Date();
+        Date fechaHoraTomada = toma.getFechaHoraTomada() != null ? toma.getFechaHoraTomada() : ahora;
+        TomaPendiente pendiente = new TomaPendiente(
+            UUID.randomUUID().toString(),
+            usuarioActual(),
+            medicamento.getId(),
+            medicamento.getNombre(),
+            toma.getObservaciones(),
+            toma.getFechaHoraProgramada() != null ? toma.getFechaHoraProgramada() : fechaHoraTomada,
+            fechaHoraTomada,
+            porDuracion ? "diasRestantesDuracion" : "stockActual",
+            medicamento.estaAgotado() || stockRestante <= MARGEN_STOCK_TRANSACCION);
+
+        pendientes.add(pendiente);
+        guardar();
+
+        // El pronóstico de stock se actualiza al instante, sin esperar la confirmación del servidor
+        PronosticadorStock.getInstance().registrarConsumo(pendiente.getMedicamentoId(), pendiente.getClave(),
+            fechaHoraTomada);
+
+        toma.setId(pendiente.getClave());
+        enviarPendientes();
+    }
+
+    public synchronized int cantidadPendientes() {
+        return pendientes.size();
+    }
+
+    /**
+     * Aplica sobre medicamentos recién leídos de Firestore las dosis que todavía no se confirmaron,
+     * para que la UI no muestre el stock anterior mientras no hay conexión.
+     * Devuelve copias: los objetos recibidos pueden ser los del listener compartido, que no se modifican
+     * (ver ListenersCompartidos), y la pantalla puede seguir modificando las copias.
+     */
+    public synchronized List<Medicamento> aplicarPendientes(List<Medicamento> medicamentos) {
+        if (medicamentos == null) {
+            return new ArrayList<>();
+        }
+        List<Medicamento> copias = new ArrayList<>(medicamentos.size());
+        Map<String, Medicamento> porId = new HashMap<>();
+        for (Medicamento medicamento : medicamentos) {
+            Medicamento copia = medicamento.copiar();
+            copias.add(copia);
+            if (copia.getId() != null) {
+                porId.put(copia.getId(), copia);
+            }
+        }
+        String userId = usuarioActual();
+        for (TomaPendiente pendiente : pendientes) {
+            // Las rechazadas no se van a aplicar en el servidor, y las de otra cuenta no son de estos medicamentos
+            if (pendiente.isRechazada() || !pendiente.esDeUsuario(userId)) {
+                continue;
+            }
+            // Un WriteBatch en curso ya figura en la caché local de Firestore (las transacciones no)
+            if (pendiente.isEnEnvio() && !pendiente.isVerificar()) {
+                continue;
+            }
+            Medicamento medicamento = porId.get(pendiente.getMedicamentoId());
+            if (medicamento != null) {
+                medicamento.consumirDosis();
+                if (medicamento.estaAgotado()) {
+                    medicamento.pausarMedicamento();
+                }
+            }
+        }
+        return copias;
+    }
+
+    /**
+     * Envía la cola en orden. Solo hay un envío en curso a la vez; al terminar cada tramo se sigue
+     * con el próximo. Si falla, se reintenta con espera exponencial (o al reconectar, lo que ocurra antes).
+     */
+    public synchronized void enviarPendientes() {
+        String userId = usuarioActual();
+        int primeraEnviable = indicePrimeraEnviable(userId);
+        if (enviando || primeraEnviable < 0) {
+            return;
+        }
+        if (!NetworkUtils.isNetworkAvailable(context)) {
+            Log.d(TAG, "Sin conexión: " + pendientes.size() + " tomas pendientes");
+            return;
+        }
+
+        TomaPendiente primera = pendientes.get(primeraEnviable);
+        enviando = true;
+
+        // Las que agotan el stock o tienen un envío dudoso van de a una, en transacción
+        if (primera.isAgotaStock() || primera.isVerificar()) {
+            primera.setEnEnvio(true);
+            guardar();
+            List<TomaPendiente> enviada = Collections.singletonList(primera);
+            firebaseService().enviarTomaPendienteVerificada(primera, new FirebaseService.FirestoreCallback() {
+                @Override
+                public void onSuccess(Object result) {
+                    confirmar(enviada);
+                }
+
+                @Override
+                public void onError(Exception exception) {
+                    fallar(enviada, exception);
+                }
+            });
+            return;
+        }
+
+        // Tramo de dosis consecutivas que pueden ir juntas en un WriteBatch (2 operaciones por dosis)
+        int maxLote = FirebaseService.MAX_OPERACIONES_BATCH / 2;
+        List<TomaPendiente> lote = new ArrayList<>();
+        for (int i = primeraEnviable; i < pendientes.size(); i++) {
+            TomaPendiente pendiente = pendientes.get(i);
+            if (!esEnviable(pendiente, userId)) {
+                continue;
+            }
+            if (lote.size() == maxLote || pendiente.isAgotaStock() || pendiente.isVerificar()) {
+                break;
+            }
+            pendiente.setEnEnvio(true);
+            lote.add(pendiente);
+        }
+        guardar();
+
+        firebaseService().enviarTomasPendientes(lote, new FirebaseService.FirestoreCallback() {
+            @Override
+            public void onSuccess(Object result) {
+                confirmar(lote);
+            }
+
+            @Override
+            public void onError(Exception exception) {
+                fallar(lote, exception);
+            }
+        });
+    }
+
+    private int indicePrimeraEnviable(String userId) {
+        for (int i = 0; i < pendientes.size(); i++) {
+            if (esEnviable(pendientes.get(i), userId)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean esEnviable(TomaPendiente pendiente, String userId) {
+        return userId != null && !pendiente.isRechazada() && pendiente.esDeUsuario(userId);
+    }
+
+    /**
+     * Se pide recién al enviar, para que crear la cola no inicialice Firestore en el hilo principal
+     */
+    private FirebaseService firebaseService() {
+        return Dependencias.de(context).getFirebaseService();
+    }
+
+    private String usuarioActual() {
+        FirebaseUser usuario = Dependencias.de(context).getAuthService().getCurrentUser();
+        return usuario != null ? usuario.getUid() : null;
+    }
+
+    private synchronized void confirmar(List<TomaPendiente> enviadas) {
+        pendientes.removeAll(enviadas);
+        guardar();
+        enviando = false;
+        Log.d(TAG, "Tomas confirmadas: " + enviadas.size() + ", quedan " + pendientes.size());
+        enviarPendientes();
+    }
+
+    private synchronized void fallar(List<TomaPendiente> enviadas, Exception exception) {
+        Log.w(TAG, "No se pudieron enviar " + enviadas.size() + " tomas pendientes", exception);
+        // Un WriteBatch fallido no aplica nada, pero se reintentan de a una (en transacción) para
+        // aislar un registro que falle siempre. Solo un envío individual puede darse por rechazado.
+        boolean permanente = enviadas.size() == 1 && esErrorPermanente(exception);
+        int intentos = 0;
+        for (TomaPendiente pendiente : enviadas) {
+            pendiente.setEnEnvio(false);
+            pendiente.setVerificar(true);
+            pendiente.setIntentos(pendiente.getIntentos() + 1);
+            intentos = Math.max(intentos, pendiente.getIntentos());
+            if (permanente) {
+                pendiente.setRechazada(true);
+                pendiente.setRechazos(pendiente.getRechazos() + 1);
+                Log.e(TAG, "Toma rechazada por el servidor: " + pendiente.getClave(), exception);
+                Dependencias.de(context).getNotificationService()
+                    .enviarNotificacionTomaRechazada(pendiente.getMedicamentoNombre());
+            }
+        }
+        guardar();
+        enviando = false;
+        if (permanente) {
+            enviarPendientes(); // Las siguientes no dependen de la rechazada
+        } else {
+            programarReintento(intentos);
+        }
+    }
+
+    /**
+     * Sin permiso o con el documento inexistente, reintentar no va a cambiar el resultado
+     */
+    private static boolean esErrorPermanente(Exception exception) {
+        if (!(exception instanceof FirebaseFirestoreException)) {
+            return false;
+        }
+        FirebaseFirestoreException.Code codigo = ((FirebaseFirestoreException) exception).getCode();
+        return codigo == FirebaseFirestoreException.Code.PERMISSION_DENIED
+            || codigo == FirebaseFirestoreException.Code.NOT_FOUND;
+    }
+
+    /**
+     * Espera 5 s, 10 s, 20 s... hasta 15 minutos entre reintentos. Reconectar también reintenta.
+     */
+    private void programarReintento(int intentos) {
+        if (reintentoProgramado) {
+            return;
+        }
+        reintentoProgramado = true;
+        long espera = Math.min(ESPERA_MAXIMA_MS, ESPERA_INICIAL_MS << Math.min(intentos - 1, 20));
+        handler.postDelayed(() -> {
+            synchronized (ColaTomasPendientes.this) {
+                reintentoProgramado = false;
+            }
+            enviarPendientes();
+        }, espera);
+        Log.d(TAG, "Reintento de tomas pendientes en " + espera / 1000 + " s");
+    }
+
+    private void cargar() {
+        String json = preferences.getString(PREF_COLA, null);
+        if (json == null) {
+            return;
+        }
+        try {
+            JSONArray array = new JSONArray(json);
+            int descartadas = 0;
+            for (int i = 0; i < array.length(); i++) {
+                JSONObject obj = array.getJSONObject(i);
+                TomaPendiente pendiente = new TomaPendiente(
+                    obj.getString("clave"),
+                    obj.optString("userId", null),
+                    obj.getString("medicamentoId"),
+                    obj.optString("medicamentoNombre", null),
+                    obj.optString("observaciones", null),
+                    new Date(obj.getLong("programada")),
+                    new Date(obj.getLong("tomada")),
+                    obj.getString("campoStock"),
+                    obj.optBoolean("agotaStock"));
+                pendiente.setIntentos(obj.optInt("intentos"));
+                pendiente.setRechazos(obj.optInt("rechazos"));
+                // Las rechazadas se vuelven a intentar una vez por inicio (quizás cambiaron los permisos),
+                // hasta MAX_RECHAZOS veces: el usuario ya fue avisado en cada rechazo
+                if (obj.optBoolean("rechazada") && pendiente.getRechazos() >= MAX_RECHAZOS) {
+                    Log.e(TAG, "Toma rechazada " + pendiente.getRechazos() + " veces, se descarta: " + pendiente.getClave());
+                    descartadas++;
+                    continue;
+                }
+                // Si el proceso terminó con un envío en curso, no se sabe si se aplicó
+                pendiente.setVerificar(obj.optBoolean("verificar") || obj.optBoolean("enEnvio")
+                    || obj.optBoolean("rechazada"));
+                pendientes.add(pendiente);
+            }
+            if (descartadas > 0) {
+                guardar();
+            }
+            Log.d(TAG, "Tomas pendientes cargadas: " + pendientes.size());
+        } catch (JSONException e) {
+            Log.e(TAG, "Cola de tomas pendientes corrupta, se descarta", e);
+            pendientes.clear();
+            preferences.edit().remove(PREF_COLA).apply();
+        }
+    }
+
+    private void guardar() {
+        if (pendientes.isEmpty()) {
+            preferences.edit().remove(PREF_COLA).apply();
+            return;
+        }
+        try {
+            JSONArray array = new JSONArray();
+            for (TomaPendiente pendiente : pendientes) {
+                JSONObject obj = new JSONObject();
+                obj.put("clave", pendiente.getClave());
+                obj.put("userId", pendiente.getUserId());
+                obj.put("medicamentoId", pendiente.getMedicamentoId());
+                obj.put("medicamentoNombre", pendiente.getMedicamentoNombre());
+                obj.put("observaciones", pendiente.getObservaciones());
+                obj.put("programada", pendiente.getFechaHoraProgramada().getTime());
+                obj.put("tomada", pendiente.getFechaHoraTomada().getTime());
+                obj.put("campoStock", pendiente.getCampoStock());
+                obj.put("agotaStock", pendiente.isAgotaStock());
+                obj.put("enEnvio", pendiente.isEnEnvio());
+                obj.put("verificar", pendiente.isVerificar());
+                obj.put("rechazada", pendiente.isRechazada());
+                obj.put("intentos", pendiente.getIntentos());
+                obj.put("rechazos", pendiente.getRechazos());
+                array.put(obj);
+            }
+            preferences.edit().putString(PREF_COLA, array.toString()).apply();
+        } catch (JSONException e) {
+            Log.e(TAG, "Error al guardar la cola de tomas pendientes", e);
+        }
+    }
+}
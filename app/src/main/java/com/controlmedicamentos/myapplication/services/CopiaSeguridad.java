@@ -0,0 +1,759 @@
+package com.controlmedicamentos.myapplication.services;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.JsonWriter;
+import android.util.Log;
+import com.controlmedicamentos.myapplication.models.TomaProgramada;
+import com.controlmedicamentos.myapplication.utils.FormatosFecha;
+import com.google.firebase.Timestamp;
+import com.google.firebase.auth.FirebaseUser;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldPath;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.WriteBatch;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Copia de seguridad completa del usuario: medicamentos, tomas, resúmenes de tomas archivadas,
+ * tomas programadas del día (estado del seguimiento) y ajustes. Se guarda como JSON comprimido con gzip:
+ * { version, creada, userId, ajustes: {...}, tomasProgramadas: [...],
+ *   medicamentos: [{id, datos}], resumenesMensuales: [{id, datos}], tomas: [{id, datos}] }
+ * Los datos de cada documento se copian tal cual están en Firestore (las fechas como {"$t": milisegundos}).
+ *
+ * Una copia de otra cuenta se restaura con IDs nuevos (derivados del ID original y del usuario actual,
+ * así que siguen siendo estables) y medicamentoId actualizado en tomas y resúmenes: no pisa los
+ * documentos de la cuenta original. Las tomas de un mes que en la cuenta actual ya está resumido por
+ * ArchivoTomas (y cuyo resumen la copia no reemplaza) se omiten, para no contarlas dos veces.
+ *
+ * Crear y restaurar leen y escriben el archivo a medida que avanzan, sin cargarlo en memoria.
+ * La restauración escribe en WriteBatch de 500 operaciones con varios lotes en vuelo a la vez, y
+ * guarda cuántos documentos quedaron confirmados: si se interrumpe, restaurar la misma copia retoma
+ * desde ahí (volver a escribir un documento ya restaurado no cambia nada, porque se conservan los IDs).
+ */
+public class CopiaSeguridad {
+    private static final String TAG = "CopiaSeguridad";
+    private static final int VERSION = 1;
+    private static final int TAMANO_PAGINA = FirebaseService.MAX_OPERACIONES_BATCH;
+    private static final int MAX_LOTES_EN_PARALELO = 4;
+    private static final String CAMPO_FECHA = "$t";
+    private static final String PREFIJO_COPIA = "restauracion_copia_";
+    private static final String PREFIJO_CONFIRMADOS = "restauracion_confirmados_";
+
+    public static final String TIPO_MIME = "application/gzip";
+
+    // Ajustes de AjustesActivity y ArchivoTomas que viajan con la copia
+    private static final String[] AJUSTES_BOOLEANOS = {"notificaciones", "vibracion", "sonido",
+        "archivo_tomas_activado"};
+    private static final String[] AJUSTES_ENTEROS = {"volumen", "repeticiones", "dias_antelacion_stock",
+        "archivo_tomas_horizonte_dias"};
+
+    private static final String COLLECTION_MEDICAMENTOS = "medicamentos";
+    private static final String COLLECTION_TOMAS = "tomas";
+
+    /**
+     * Recibe la cantidad de documentos copiados o restaurados hasta el momento (en el hilo principal)
+     */
+    public interface ProgresoListener {
+        void onProgreso(int documentos);
+    }
+
+    private final Context context;
+    private final FirebaseFirestore db;
+    private final SharedPreferences preferences;
+    private final AuthService authService;
+    private final AlmacenLocal almacenLocal;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    public CopiaSeguridad(Context context) {
+        this.context = context.getApplicationContext();
+        this.db = Dependencias.firestore();
+        this.preferences = context.getSharedPreferences("ControlMedicamentos", Context.MODE_PRIVATE);
+        this.authService = Dependencias.de(context).getAuthService();
+        this.almacenLocal = AlmacenLocal.getInstance(context);
+    }
+
+    // ==================== CREAR ====================
+
+    /**
+     * Escribe la copia en el documento elegido por el usuario. Devuelve en onSuccess la cantidad de documentos.
+     */
+    public void crear(Uri destino, ProgresoListener listener, FirebaseService.FirestoreCallback callback) {
+        FirebaseUser firebaseUser = authService.getCurrentUser();
+        if (firebaseUser == null) {
+            if (callback != null) {
+                callback.onError(new Exception("Usuario no autenticado"));
+            }
+            return;
+        }
+        new Creacion(firebaseUser.getUid(), destino, listener, callback).iniciar();
+    }
+
+    /**
+     * Recorre cada colección por páginas; cada página se escribe en el ejecutor antes de pedir la siguiente
+     */
+    private class Creacion {
+        private final String userId;
+        private final Uri destino;
+        private final ProgresoListener listener;
+        private final FirebaseService.FirestoreCallback callback;
+        private final ExecutorService ejecutor = Executors.newSingleThreadExecutor();
+        private JsonWriter json;
+        private int copiados;
+
+        Creacion(String userId, Uri destino, ProgresoListener listener, FirebaseService.FirestoreCallback callback) {
+            this.userId = userId;
+            this.destino = destino;
+            this.listener = listener;
+            this.callback = callback;
+        }
+
+        void iniciar() {
+            ejecutor.execute(() -> {
+                try {
+                    OutputStream salida = context.getContentResolver().openOutputStream(destino);
+                    if (salida == null) {
+                        throw new IOException("No se pudo abrir el archivo de destino");
+                    }
+                    json = new JsonWriter(new OutputStreamWriter(
+                        new GZIPOutputStream(new BufferedOutputStream(salida)), StandardCharsets.UTF_8));
+                    json.beginObject();
+                    json.name("version").value(VERSION);
+                    json.name("creada").value(FormatosFecha.instanteIsoActual());
+                    json.name("userId").value(userId);
+                    escribirAjustes(json);
+                    escribirTomasProgramadas(json, userId);
+                    json.name("medicamentos").beginArray();
+                    handler.post(() -> copiarPagina(COLLECTION_MEDICAMENTOS, null));
+                } catch (IOException e) {
+                    fallar(e);
+                }
+            });
+        }
+
+        private void copiarPagina(String coleccion, DocumentSnapshot cursor) {
+            Query consulta = db.collection(coleccion)
+                .whereEqualTo("userId", userId)
+                .orderBy(FieldPath.documentId())
+                .limit(TAMANO_PAGINA);
+            (cursor != null ? consulta.startAfter(cursor) : consulta).get()
+                .addOnSuccessListener(snapshot -> {
+                    List<DocumentSnapshot> documentos = snapshot.getDocuments();
+                    ejecutor.execute(() -> {
+                        try {
+                            for (DocumentSnapshot documento : documentos) {
+                                json.beginObject();
+                                json.name("id").value(documento.getId());
+                                json.name("datos");
+                                escribirValor(json, documento.getData());
+                                json.endObject();
+                            }
+                            handler.post(() -> {
+                                copiados += documentos.size();
+                                if (listener != null) {
+                                    listener.onProgreso(copiados);
+                                }
+                                if (documentos.size() == TAMANO_PAGINA) {
+                                    copiarPagina(coleccion, documentos.get(documentos.size() - 1));
+                                } else {
+                                    siguienteColeccion(coleccion);
+                                }
+                            });
+                        } catch (IOException e) {
+                            fallar(e);
+                        }
+                    });
+                })
+                .addOnFailureListener(this::fallar);
+        }
+
+        private void siguienteColeccion(String terminada) {
+            ejecutor.execute(() -> {
+                try {
+                    json.endArray();
+                    if (COLLECTION_MEDICAMENTOS.equals(terminada)) {
+                        json.name("resumenesMensuales").beginArray();
+                        handler.post(() -> copiarPagina(ArchivoTomas.COLLECTION_RESUMENES, null));
+                    } else if (ArchivoTomas.COLLECTION_RESUMENES.equals(terminada)) {
+                        json.name("tomas").beginArray();
+                        handler.post(() -> copiarPagina(COLLECTION_TOMAS, null));
+                    } else {
+                        json.endObject();
+                        json.close();
+                        Log.d(TAG, "Copia de seguridad creada: " + copiados + " documentos");
+                        handler.post(() -> {
+                            if (callback != null) {
+                                callback.onSuccess(copiados);
+                            }
+                        });
+                        ejecutor.shutdown();
+                    }
+                } catch (IOException e) {
+                    fallar(e);
+                }
+            });
+        }
+
+        private void fallar(Exception e) {
+            Log.e(TAG, "Error al crear copia de seguridad", e);
+            ejecutor.execute(() -> {
+                cerrar(json);
+                ejecutor.shutdown();
+            });
+            handler.post(() -> {
+                if (callback != null) {
+                    callback.onError(e);
+                }
+            });
+        }
+    }
+
+    private void escribirAjustes(JsonWriter json) throws IOException {
+        json.name("ajustes").beginObject();
+        for (String clave : AJUSTES_BOOLEANOS) {
+            if (preferences.contains(clave)) {
+                json.name(clave).value(preferences.getBoolean(clave, false));
+            }
+        }
+        for (String clave : AJUSTES_ENTEROS) {
+            if (preferences.contains(clave)) {
+                json.name(clave).value(preferences.getInt(clave, 0));
+            }
+        }
+        json.endObject();
+    }
+
+    /**
+     * Estado del seguimiento de hoy (alertas, posposiciones, tomadas), que vive solo en la base local
+     */
+    private void escribirTomasProgramadas(JsonWriter json, String userId) throws IOException {
+        Date hoy = Date.from(LocalDate.now().atStartOfDay(ZoneId.systemDefault()).toInstant());
+        Map<String, List<TomaProgramada>> programadas;
+        try {
+            programadas = almacenLocal.esperarTomasProgramadas(userId, hoy);
+        } catch (InterruptedException | ExecutionException e) {
+            throw new IOException("No se pudieron leer las tomas programadas", e);
+        }
+        json.name("tomasProgramadas").beginArray();
+        for (List<TomaProgramada> tomas : programadas.values()) {
+            for (TomaProgramada toma : tomas) {
+                json.beginObject();
+                json.name("medicamentoId").value(toma.getMedicamentoId());
+                json.name("horario").value(toma.getHorario());
+                json.name("fechaHoraProgramada").value(milisegundos(toma.getFechaHoraProgramada()));
+                json.name("estado").value(toma.getEstado() != null ? toma.getEstado().name() : null);
+                json.name("posposiciones").value(toma.getPosposiciones());
+                json.name("alertaAmarilla").value(milisegundos(toma.getFechaHoraAlertaAmarilla()));
+                json.name("alertaRoja").value(milisegundos(toma.getFechaHoraAlertaRoja()));
+                json.name("retraso").value(milisegundos(toma.getFechaHoraRetraso()));
+                json.name("omitida").value(milisegundos(toma.getFechaHoraOmitida()));
+                json.name("tomada").value(toma.isTomada());
+                json.endObject();
+            }
+        }
+        json.endArray();
+    }
+
+    // ==================== RESTAURAR ====================
+
+    /**
+     * Restaura la copia en la cuenta actual (los documentos pasan a ser del usuario actual).
+     * Devuelve en onSuccess la cantidad de documentos restaurados.
+     */
+    public void restaurar(Uri origen, ProgresoListener listener, FirebaseService.FirestoreCallback callback) {
+        FirebaseUser firebaseUser = authService.getCurrentUser();
+        if (firebaseUser == null) {
+            if (callback != null) {
+                callback.onError(new Exception("Usuario no autenticado"));
+            }
+            return;
+        }
+        String userId = firebaseUser.getUid();
+        // Meses ya resumidos en la cuenta actual: sus tomas individuales ya no existen como tales
+        db.collection(ArchivoTomas.COLLECTION_RESUMENES)
+            .whereEqualTo("userId", userId)
+            .get()
+            .addOnSuccessListener(snapshot -> {
+                Set<String> resumidos = new HashSet<>();
+                for (DocumentSnapshot documento : snapshot.getDocuments()) {
+                    resumidos.add(claveMes(documento.getString("medicamentoId"), documento.getString("mes")));
+                }
+                restaurar(origen, new Restauracion(userId, resumidos, listener), callback);
+            })
+            .addOnFailureListener(e -> {
+                Log.e(TAG, "Error al leer resúmenes antes de restaurar", e);
+                if (callback != null) {
+                    callback.onError(e);
+                }
+            });
+    }
+
+    private void restaurar(Uri origen, Restauracion restauracion, FirebaseService.FirestoreCallback callback) {
+        ExecutorService ejecutor = Executors.newSingleThreadExecutor();
+        ejecutor.execute(() -> {
+            try {
+                int restaurados = restauracion.ejecutar(origen);
+                Log.d(TAG, "Copia de seguridad restaurada: " + restaurados + " documentos");
+                Dependencias.de(context).recargarTomasProgramadas();
+                handler.post(() -> {
+                    if (callback != null) {
+                        callback.onSuccess(restaurados);
+                    }
+                });
+            } catch (Exception e) {
+                // Lo confirmado queda guardado: restaurar la misma copia retoma desde ahí
+                Log.e(TAG, "Error al restaurar copia de seguridad", e);
+                handler.post(() -> {
+                    if (callback != null) {
+                        callback.onError(e);
+                    }
+                });
+            } finally {
+                ejecutor.shutdown();
+            }
+        });
+    }
+
+    /**
+     * Lee la copia en un hilo de fondo y va enviando lotes. El hilo se bloquea cuando hay
+     * MAX_LOTES_EN_PARALELO lotes sin confirmar; las confirmaciones llegan al hilo principal.
+     */
+    private class Restauracion {
+        private final String userId;
+        // Claves medicamentoId_mes (con los IDs de la cuenta actual) cuyas tomas no se restauran
+        private final Set<String> resumidos;
+        private final ProgresoListener listener;
+        private final Semaphore lotesDisponibles = new Semaphore(MAX_LOTES_EN_PARALELO);
+        // Fin (en documentos) de cada lote confirmado que todavía no es contiguo al prefijo confirmado
+        private final TreeMap<Integer, Integer> lotesConfirmados = new TreeMap<>();
+        private String claveCopia;
+        private int saltear;
+        private int indice;
+        private int siguienteLote;
+        private int loteEsperado;
+        private volatile int confirmados;
+        private volatile Exception error;
+        private WriteBatch batch;
+        private int operaciones;
+        private int omitidas;
+        // Dueño de la copia: el del encabezado o, en copias anteriores, el userId del primer documento
+        private String origenUid;
+
+        Restauracion(String userId, Set<String> resumidos, ProgresoListener listener) {
+            this.userId = userId;
+            this.resumidos = resumidos;
+            this.listener = listener;
+        }
+
+        int ejecutar(Uri origen) throws Exception {
+            InputStream entrada = context.getContentResolver().openInputStream(origen);
+            if (entrada == null) {
+                throw new IOException("No se pudo abrir la copia de seguridad");
+            }
+            Map<String, Object> ajustes = null;
+            List<TomaProgramada> tomasProgramadas = new ArrayList<>();
+            try (JsonReader json = new JsonReader(new InputStreamReader(
+                    new GZIPInputStream(new BufferedInputStream(entrada)), StandardCharsets.UTF_8))) {
+                json.beginObject();
+                while (json.hasNext()) {
+                    String nombre = json.nextName();
+                    switch (nombre) {
+                        case "version":
+                            if (json.nextInt() > VERSION) {
+                                throw new IOException("La copia es de una versión más nueva de la app");
+                            }
+                            break;
+                        case "creada":
+                            prepararReanudacion(json.nextString());
+                            break;
+                        case "userId":
+                            origenUid = json.nextString();
+                            break;
+                        case "ajustes":
+                            ajustes = (Map<String, Object>) leerValor(json);
+                            break;
+                        case "tomasProgramadas":
+                            leerTomasProgramadas(json, tomasProgramadas);
+                            break;
+                        case "medicamentos":
+                            restaurarColeccion(json, COLLECTION_MEDICAMENTOS);
+                            break;
+                        case "resumenesMensuales":
+                            restaurarColeccion(json, ArchivoTomas.COLLECTION_RESUMENES);
+                            break;
+                        case "tomas":
+                            restaurarColeccion(json, COLLECTION_TOMAS);
+                            break;
+                        default:
+                            json.skipValue();
+                    }
+                }
+                json.endObject();
+            }
+            enviarLote();
+
+            // Esperar a que se confirmen todos los lotes en vuelo
+            lotesDisponibles.acquire(MAX_LOTES_EN_PARALELO);
+            lotesDisponibles.release(MAX_LOTES_EN_PARALELO);
+            if (error != null) {
+                throw error;
+            }
+
+            restaurarAjustes(ajustes);
+            // Las tomas locales no incluyen las restauradas: se vuelven a copiar desde Firestore.
+            // Se borran antes de guardar las programadas, que también son datos locales del usuario
+            almacenLocal.eliminarDatosUsuario(userId);
+            for (TomaProgramada toma : tomasProgramadas) {
+                toma.setMedicamentoId(idPropio(toma.getMedicamentoId()));
+            }
+            restaurarTomasProgramadas(userId, tomasProgramadas);
+            preferences.edit()
+                .remove(PREFIJO_COPIA + userId)
+                .remove(PREFIJO_CONFIRMADOS + userId)
+                .apply();
+            if (omitidas > 0) {
+                Log.d(TAG, "Tomas omitidas por estar en un mes ya resumido: " + omitidas);
+            }
+            return indice - omitidas;
+        }
+
+        /**
+         * ID del documento en la cuenta actual: el mismo si la copia es de este usuario (o no se sabe de quién es)
+         */
+        private String idPropio(String id) {
+            if (id == null || origenUid == null || origenUid.equals(userId)) {
+                return id;
+            }
+            return UUID.nameUUIDFromBytes((userId + "/" + id).getBytes(StandardCharsets.UTF_8)).toString();
+        }
+
+        /**
+         * Las tomas y los resúmenes con ID "medicamentoId_..." conservan el formato con el ID nuevo del medicamento
+         * (así MigracionTomasRealizadas y ArchivoTomas generan los mismos IDs)
+         */
+        private String idDependiente(String id, String medicamentoId) {
+            if (medicamentoId != null && id.startsWith(medicamentoId + "_")) {
+                return idPropio(medicamentoId) + id.substring(medicamentoId.length());
+            }
+            return idPropio(id);
+        }
+
+        /**
+         * Si esta misma copia ya se empezó a restaurar, se saltean los documentos confirmados
+         */
+        private void prepararReanudacion(String creada) {
+            claveCopia = creada;
+            if (creada.equals(preferences.getString(PREFIJO_COPIA + userId, null))) {
+                saltear = preferences.getInt(PREFIJO_CONFIRMADOS + userId, 0);
+                Log.d(TAG, "Retomando restauración (" + saltear + " documentos ya restaurados)");
+            } else {
+                preferences.edit()
+                    .putString(PREFIJO_COPIA + userId, creada)
+                    .putInt(PREFIJO_CONFIRMADOS + userId, 0)
+                    .apply();
+            }
+            confirmados = saltear;
+        }
+
+        private void restaurarColeccion(JsonReader json, String coleccion) throws Exception {
+            json.beginArray();
+            while (json.hasNext()) {
+                if (error != null) {
+                    throw error;
+                }
+                String id = null;
+                Map<String, Object> datos = null;
+                json.beginObject();
+                while (json.hasNext()) {
+                    String nombre = json.nextName();
+                    if ("id".equals(nombre)) {
+                        id = json.nextString();
+                    } else if ("datos".equals(nombre)) {
+                        datos = (Map<String, Object>) leerValor(json);
+                    } else {
+                        json.skipValue();
+                    }
+                }
+                json.endObject();
+                if (id == null || datos == null) {
+                    continue;
+                }
+                if (origenUid == null) {
+                    origenUid = MedicamentoCodec.texto(datos.get("userId"));
+                }
+                String medicamentoId = MedicamentoCodec.texto(datos.get("medicamentoId"));
+                if (COLLECTION_MEDICAMENTOS.equals(coleccion)) {
+                    id = idPropio(id);
+                } else {
+                    id = idDependiente(id, medicamentoId);
+                    if (medicamentoId != null) {
+                        datos.put("medicamentoId", idPropio(medicamentoId));
+                    }
+                }
+                if (ArchivoTomas.COLLECTION_RESUMENES.equals(coleccion)) {
+                    // El resumen de la copia reemplaza al de la cuenta: sus tomas sin archivar vuelven a contar
+                    resumidos.remove(claveMes(idPropio(medicamentoId), MedicamentoCodec.texto(datos.get("mes"))));
+                }
+                if (indice++ < saltear) {
+                    continue;
+                }
+                if (COLLECTION_TOMAS.equals(coleccion) && resumidos.contains(claveMes(datos))) {
+                    omitidas++;
+                    continue;
+                }
+                datos.put("userId", userId);
+                if (batch == null) {
+                    batch = db.batch();
+                }
+                batch.set(db.collection(coleccion).document(id), datos);
+                if (++operaciones == TAMANO_PAGINA) {
+                    enviarLote();
+                }
+            }
+            json.endArray();
+        }
+
+        private void enviarLote() throws InterruptedException {
+            if (batch == null) {
+                return;
+            }
+            lotesDisponibles.acquire();
+            int numero = siguienteLote++;
+            int fin = indice;
+            WriteBatch lote = batch;
+            batch = null;
+            operaciones = 0;
+            lote.commit()
+                .addOnSuccessListener(aVoid -> {
+                    confirmarLote(numero, fin);
+                    lotesDisponibles.release();
+                })
+                .addOnFailureListener(e -> {
+                    error = e;
+                    lotesDisponibles.release();
+                });
+        }
+
+        /**
+         * Avanza el prefijo confirmado solo con lotes contiguos (pueden terminar en cualquier orden)
+         */
+        private void confirmarLote(int numero, int fin) {
+            lotesConfirmados.put(numero, fin);
+            while (lotesConfirmados.containsKey(loteEsperado)) {
+                confirmados = lotesConfirmados.remove(loteEsperado);
+                loteEsperado++;
+            }
+            if (claveCopia != null) {
+                preferences.edit().putInt(PREFIJO_CONFIRMADOS + userId, confirmados).apply();
+            }
+            if (listener != null) {
+                listener.onProgreso(confirmados);
+            }
+        }
+
+        private void leerTomasProgramadas(JsonReader json, List<TomaProgramada> tomas) throws IOException {
+            json.beginArray();
+            while (json.hasNext()) {
+                Map<String, Object> datos = (Map<String, Object>) leerValor(json);
+                TomaProgramada toma = new TomaProgramada((String) datos.get("medicamentoId"),
+                    (String) datos.get("horario"), fecha(datos.get("fechaHoraProgramada")));
+                Object estado = datos.get("estado");
+                for (TomaProgramada.EstadoTomaProgramada valor : TomaProgramada.EstadoTomaProgramada.values()) {
+                    if (valor.name().equals(estado)) {
+                        toma.setEstado(valor);
+                    }
+                }
+                toma.setPosposiciones(MedicamentoCodec.entero(datos.get("posposiciones"), 0));
+                toma.setFechaHoraAlertaAmarilla(fecha(datos.get("alertaAmarilla")));
+                toma.setFechaHoraAlertaRoja(fecha(datos.get("alertaRoja")));
+                toma.setFechaHoraRetraso(fecha(datos.get("retraso")));
+                toma.setFechaHoraOmitida(fecha(datos.get("omitida")));
+                toma.setTomada(MedicamentoCodec.booleano(datos.get("tomada"), false));
+                if (toma.getMedicamentoId() != null) {
+                    tomas.add(toma);
+                }
+            }
+            json.endArray();
+        }
+    }
+
+    private void restaurarAjustes(Map<String, Object> ajustes) {
+        if (ajustes == null) {
+            return;
+        }
+        SharedPreferences.Editor editor = preferences.edit();
+        for (String clave : AJUSTES_BOOLEANOS) {
+            if (ajustes.get(clave) instanceof Boolean) {
+                editor.putBoolean(clave, (Boolean) ajustes.get(clave));
+            }
+        }
+        for (String clave : AJUSTES_ENTEROS) {
+            if (ajustes.get(clave) instanceof Number) {
+                editor.putInt(clave, ((Number) ajustes.get(clave)).intValue());
+            }
+        }
+        editor.apply();
+    }
+
+    private void restaurarTomasProgramadas(String userId, List<TomaProgramada> tomas) {
+        Map<String, List<TomaProgramada>> porMedicamento = new LinkedHashMap<>();
+        for (TomaProgramada toma : tomas) {
+            porMedicamento.computeIfAbsent(toma.getMedicamentoId(), id -> new ArrayList<>()).add(toma);
+        }
+        for (Map.Entry<String, List<TomaProgramada>> entrada : porMedicamento.entrySet()) {
+            almacenLocal.guardarTomasProgramadas(userId, entrada.getKey(), entrada.getValue());
+        }
+    }
+
+    private static String claveMes(String medicamentoId, String mes) {
+        return medicamentoId + "_" + mes;
+    }
+
+    /**
+     * Clave medicamentoId_yyyy-MM de una toma, con el mismo criterio de fecha que ArchivoTomas
+     */
+    private static String claveMes(Map<String, Object> toma) {
+        Object fecha = toma.get("fechaHoraTomada");
+        if (!(fecha instanceof Timestamp)) {
+            fecha = toma.get("fechaHoraProgramada");
+        }
+        if (!(fecha instanceof Timestamp)) {
+            return null;
+        }
+        ZonedDateTime dia = ((Timestamp) fecha).toDate().toInstant().atZone(ZoneId.systemDefault());
+        String mes = String.format(Locale.ROOT, "%04d-%02d", dia.getYear(), dia.getMonthValue());
+        return claveMes(MedicamentoCodec.texto(toma.get("medicamentoId")), mes);
+    }
+
+    // ==================== VALORES ====================
+
+    /**
+     * Escribe un valor de Firestore. Timestamp y Date se guardan como {"$t": milisegundos}.
+     */
+    private static void escribirValor(JsonWriter json, Object valor) throws IOException {
+        if (valor == null) {
+            json.nullValue();
+        } else if (valor instanceof String) {
+            json.value((String) valor);
+        } else if (valor instanceof Boolean) {
+            json.value((Boolean) valor);
+        } else if (valor instanceof Double || valor instanceof Float) {
+            json.value(((Number) valor).doubleValue());
+        } else if (valor instanceof Number) {
+            json.value(((Number) valor).longValue());
+        } else if (valor instanceof Timestamp || valor instanceof Date) {
+            Date fecha = valor instanceof Timestamp ? ((Timestamp) valor).toDate() : (Date) valor;
+            json.beginObject().name(CAMPO_FECHA).value(fecha.getTime()).endObject();
+        } else if (valor instanceof List) {
+            json.beginArray();
+            for (Object elemento : (List<?>) valor) {
+                escribirValor(json, elemento);
+            }
+            json.endArray();
+        } else if (valor instanceof Map) {
+            json.beginObject();
+            for (Map.Entry<?, ?> entrada : ((Map<?, ?>) valor).entrySet()) {
+                json.name(String.valueOf(entrada.getKey()));
+                escribirValor(json, entrada.getValue());
+            }
+            json.endObject();
+        } else {
+            Log.w(TAG, "Tipo no soportado en la copia: " + valor.getClass().getName());
+            json.nullValue();
+        }
+    }
+
+    /**
+     * Lee un valor escrito por escribirValor: enteros como Long, decimales como Double y fechas como Timestamp
+     */
+    private static Object leerValor(JsonReader json) throws IOException {
+        JsonToken token = json.peek();
+        switch (token) {
+            case NULL:
+                json.nextNull();
+                return null;
+            case BOOLEAN:
+                return json.nextBoolean();
+            case NUMBER:
+                String numero = json.nextString();
+                if (numero.indexOf('.') >= 0 || numero.indexOf('e') >= 0 || numero.indexOf('E') >= 0) {
+                    return Double.parseDouble(numero);
+                }
+                return Long.parseLong(numero);
+            case BEGIN_ARRAY:
+                List<Object> lista = new ArrayList<>();
+                json.beginArray();
+                while (json.hasNext()) {
+                    lista.add(leerValor(json));
+                }
+                json.endArray();
+                return lista;
+            case BEGIN_OBJECT:
+                Map<String, Object> mapa = new HashMap<>();
+                json.beginObject();
+                while (json.hasNext()) {
+                    String nombre = json.nextName();
+                    mapa.put(nombre, leerValor(json));
+                }
+                json.endObject();
+                if (mapa.size() == 1 && mapa.get(CAMPO_FECHA) instanceof Long) {
+                    return new Timestamp(new Date((Long) mapa.get(CAMPO_FECHA)));
+                }
+                return mapa;
+            default:
+                return json.nextString();
+        }
+    }
+
+    private static Long milisegundos(Date fecha) {
+        return fecha != null ? fecha.getTime() : null;
+    }
+
+    private static Date fecha(Object valor) {
+        return valor instanceof Number ? new Date(((Number) valor).longValue()) : null;
+    }
+
+    private static void cerrar(JsonWriter json) {
+        if (json == null) {
+            return;
+        }
+        try {
+            json.close();
+        } catch (IOException | IllegalStateException e) {
+            Log.w(TAG, "Error al cerrar la copia de seguridad", e);
+        }
+    }
+}
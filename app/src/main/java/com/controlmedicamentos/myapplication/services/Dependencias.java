@@ -0,0 +1,200 @@
+package com.controlmedicamentos.myapplication.services;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Trace;
+import android.util.Log;
+import com.controlmedicamentos.myapplication.ControlMedicamentosApp;
+import com.controlmedicamentos.myapplication.utils.AlarmScheduler;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.FirebaseFirestoreSettings;
+import com.google.firebase.firestore.PersistentCacheSettings;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Servicios compartidos por las pantallas, receivers y servicios del proceso. Cada uno se crea la
+ * primera vez que se pide (o antes, en segundo plano, desde precargar()) y después se reutiliza.
+ * La creación de cada uno se marca con una sección de Trace para medirla en los perfiles de arranque.
+ *
+ * AuthService no se comparte en las pantallas que inicializan Google Sign-In, porque el cliente
+ * queda asociado a la actividad.
+ */
+public class Dependencias {
+    private static final String TAG = "Dependencias";
+    // Las tomas también se guardan en AlmacenLocal, así que la caché de Firestore puede ser menor que la predeterminada
+    private static final long TAMANO_CACHE_FIRESTORE = 40L * 1024 * 1024;
+
+    private static FirebaseFirestore firestore;
+
+    /**
+     * Recibe en el hilo principal los servicios que necesita la pantalla principal
+     */
+    public interface ServiciosListener {
+        void onServiciosListos(FirebaseService firebaseService, TomaTrackingService tomaTrackingService);
+    }
+
+    private final Context context;
+    private final ExecutorService ejecutor = Executors.newSingleThreadExecutor();
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private AuthService authService;
+    private FirebaseService firebaseService;
+    private GoogleCalendarService googleCalendarService;
+    private TomaTrackingService tomaTrackingService;
+    private AlarmScheduler alarmScheduler;
+    private NotificationService notificationService;
+
+    public Dependencias(Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    /**
+     * Contenedor de la aplicación a partir de cualquier contexto (actividad, servicio o receiver)
+     */
+    public static Dependencias de(Context context) {
+        return ((ControlMedicamentosApp) context.getApplicationContext()).getDependencias();
+    }
+
+    /**
+     * Instancia de Firestore con la configuración de la app. Los ajustes solo pueden aplicarse antes
+     * del primer uso, por eso todo el código obtiene Firestore desde aquí.
+     */
+    public static synchronized FirebaseFirestore firestore() {
+        if (firestore == null) {
+            Trace.beginSection("Dependencias.firestore");
+            try {
+                FirebaseFirestore instancia = FirebaseFirestore.getInstance();
+                try {
+                    instancia.setFirestoreSettings(new FirebaseFirestoreSettings.Builder()
+                        .setLocalCacheSettings(PersistentCacheSettings.newBuilder()
+                            .setSizeBytes(TAMANO_CACHE_FIRESTORE)
+                            .build())
+                        .build());
+                } catch (IllegalStateException e) {
+                    // Alguna librería ya usó Firestore: queda con la configuración predeterminada
+                    Log.w(TAG, "No se pudo configurar Firestore", e);
+                }
+                firestore = instancia;
+            } finally {
+                Trace.endSection();
+            }
+        }
+        return firestore;
+    }
+
+    public synchronized AuthService getAuthService() {
+        if (authService == null) {
+            authService = new AuthService();
+        }
+        return authService;
+    }
+
+    public synchronized FirebaseService getFirebaseService() {
+        if (firebaseService == null) {
+            Trace.beginSection("Dependencias.firebaseService");
+            try {
+                firebaseService = new FirebaseServiceMedido(context);
+            } finally {
+                Trace.endSection();
+            }
+        }
+        return firebaseService;
+    }
+
+    /**
+     * Servicio de Google Calendar con la caché en disco del cliente HTTP compartido
+     */
+    public synchronized GoogleCalendarService getGoogleCalendarService() {
+        if (googleCalendarService == null) {
+            googleCalendarService = new GoogleCalendarService(context);
+        }
+        return googleCalendarService;
+    }
+
+    /**
+     * Servicio de seguimiento compartido: así todas las pantallas y receivers ven el mismo estado de las tomas del día
+     */
+    public synchronized TomaTrackingService getTomaTrackingService() {
+        if (tomaTrackingService == null) {
+            Trace.beginSection("Dependencias.tomasProgramadas");
+            try {
+                tomaTrackingService = new TomaTrackingService(context);
+            } finally {
+                Trace.endSection();
+            }
+        }
+        return tomaTrackingService;
+    }
+
+    public synchronized AlarmScheduler getAlarmScheduler() {
+        if (alarmScheduler == null) {
+            alarmScheduler = new AlarmScheduler(context);
+        }
+        return alarmScheduler;
+    }
+
+    public synchronized NotificationService getNotificationService() {
+        if (notificationService == null) {
+            Trace.beginSection("Dependencias.canalesNotificacion");
+            try {
+                notificationService = new NotificationService(context);
+            } finally {
+                Trace.endSection();
+            }
+        }
+        return notificationService;
+    }
+
+    /**
+     * Vuelve a leer las tomas programadas de la base local (por ejemplo, después de restaurar una copia).
+     * Si el servicio todavía no se creó no hace nada: las leerá al crearse.
+     */
+    public void recargarTomasProgramadas() {
+        TomaTrackingService servicio;
+        synchronized (this) {
+            servicio = tomaTrackingService;
+        }
+        if (servicio != null) {
+            new Handler(Looper.getMainLooper()).post(servicio::recargarTomasProgramadas);
+        }
+    }
+
+    /**
+     * Entrega FirebaseService y TomaTrackingService sin bloquear el hilo principal: si alguno todavía
+     * no existe se crea en segundo plano. Si ya existen ambos, el listener se llama en el momento.
+     */
+    public void obtenerServicios(ServiciosListener listener) {
+        synchronized (this) {
+            if (firebaseService != null && tomaTrackingService != null) {
+                listener.onServiciosListos(firebaseService, tomaTrackingService);
+                return;
+            }
+        }
+        ejecutor.execute(() -> {
+            FirebaseService servicioFirebase = getFirebaseService();
+            TomaTrackingService servicioTomas = getTomaTrackingService();
+            handler.post(() -> listener.onServiciosListos(servicioFirebase, servicioTomas));
+        });
+    }
+
+    /**
+     * Hace en un hilo de fondo la inicialización pesada (Firestore, canales de notificación y tomas
+     * programadas), para que la primera pantalla no la espere. Lo que se pida antes se crea en el momento.
+     */
+    public void precargar() {
+        ejecutor.execute(() -> {
+            Trace.beginSection("Dependencias.precargar");
+            try {
+                firestore();
+                getNotificationService();
+                getFirebaseService();
+                getTomaTrackingService();
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Error al precargar servicios", e);
+            } finally {
+                Trace.endSection();
+            }
+        });
+    }
+}
@@ -0,0 +1,227 @@
+package com.controlmedicamentos.myapplication.services;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+import com.google.firebase.auth.FirebaseUser;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldPath;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.WriteBatch;
+import java.util.List;
+
+/**
+ * Elimina todos los documentos de un usuario en las colecciones de medicamentos, tomas y
+ * resúmenes de tomas archivadas.
+ * Recorre cada colección por páginas (ordenadas por ID, con cursor) y borra cada página en un
+ * WriteBatch de hasta 500 operaciones, con un número acotado de lotes en vuelo a la vez.
+ * Las colecciones se procesan en paralelo.
+ *
+ * Si se interrumpe, volver a llamarla retoma el trabajo: lo ya borrado no vuelve a aparecer en
+ * las consultas, y el contador de progreso se conserva en SharedPreferences hasta terminar.
+ */
+public class EliminacionMasiva {
+    private static final String TAG = "EliminacionMasiva";
+    private static final int TAMANO_PAGINA = FirebaseService.MAX_OPERACIONES_BATCH;
+    private static final int MAX_LOTES_EN_PARALELO = 3;
+    private static final String PREFIJO_PREF = "eliminacion_masiva_";
+
+    private static final String COLLECTION_MEDICAMENTOS = "medicamentos";
+    private static final String COLLECTION_TOMAS = "tomas";
+
+    /**
+     * Recibe el total de documentos eliminados hasta el momento (en el hilo principal)
+     */
+    public interface ProgresoListener {
+        void onProgreso(int eliminados);
+    }
+
+    private final FirebaseFirestore db;
+    private final SharedPreferences preferences;
+    private final AuthService authService;
+    private final AlmacenLocal almacenLocal;
+
+    public EliminacionMasiva(Context context) {
+        this.db = Dependencias.firestore();
+        this.preferences = context.getSharedPreferences("ControlMedicamentos", Context.MODE_PRIVATE);
+        this.authService = new AuthService();
+        this.almacenLocal = AlmacenLocal.getInstance(context);
+    }
+
+    /**
+     * Elimina todos los medicamentos, tomas y resúmenes del usuario actual
+     */
+    public void eliminarDatosUsuario(ProgresoListener listener, FirebaseService.FirestoreCallback callback) {
+        FirebaseUser firebaseUser = authService.getCurrentUser();
+        if (firebaseUser == null) {
+            if (callback != null) {
+                callback.onError(new Exception("Usuario no autenticado"));
+            }
+            return;
+        }
+
+        String userId = firebaseUser.getUid();
+        EliminacionColeccion medicamentos = new EliminacionColeccion(COLLECTION_MEDICAMENTOS, userId);
+        EliminacionColeccion tomas = new EliminacionColeccion(COLLECTION_TOMAS, userId);
+        EliminacionColeccion resumenes = new EliminacionColeccion(ArchivoTomas.COLLECTION_RESUMENES, userId);
+
+        // Las colecciones avanzan en paralelo; se informa la suma y se termina cuando terminan todas
+        int[] pendientes = {3};
+        boolean[] fallo = {false};
+        ProgresoListener progresoTotal = eliminados -> {
+            if (listener != null) {
+                listener.onProgreso(medicamentos.eliminados + tomas.eliminados + resumenes.eliminados);
+            }
+        };
+        FirebaseService.FirestoreCallback alTerminar = new FirebaseService.FirestoreCallback() {
+            @Override
+            public void onSuccess(Object result) {
+                pendientes[0]--;
+                if (pendientes[0] == 0 && !fallo[0]) {
+                    int total = medicamentos.eliminados + tomas.eliminados + resumenes.eliminados;
+                    Log.d(TAG, "Datos del usuario eliminados: " + total + " documentos");
+                    almacenLocal.eliminarDatosUsuario(userId);
+                    if (callback != null) {
+                        callback.onSuccess(total);
+                    }
+                }
+            }
+
+            @Override
+            public void onError(Exception exception) {
+                if (fallo[0]) {
+                    return;
+                }
+                fallo[0] = true;
+                if (callback != null) {
+                    callback.onError(exception);
+                }
+            }
+        };
+
+        medicamentos.iniciar(progresoTotal, alTerminar);
+        tomas.iniciar(progresoTotal, alTerminar);
+        resumenes.iniciar(progresoTotal, alTerminar);
+    }
+
+    /**
+     * Borrado por páginas de una colección. Todos los callbacks de Firestore llegan al hilo
+     * principal, así que el estado no necesita sincronización.
+     */
+    private class EliminacionColeccion {
+        private final String coleccion;
+        private final String clavePref;
+        private final Query consultaBase;
+
+        private ProgresoListener listener;
+        private FirebaseService.FirestoreCallback callback;
+        private DocumentSnapshot cursor;
+        private boolean buscandoPagina;
+        private boolean sinMasPaginas;
+        private boolean fallo;
+        private boolean terminado;
+        private int lotesEnCurso;
+        int eliminados;
+
+        EliminacionColeccion(String coleccion, String userId) {
+            this.coleccion = coleccion;
+            this.clavePref = PREFIJO_PREF + coleccion + "_" + userId;
+            this.consultaBase = db.collection(coleccion)
+                .whereEqualTo("userId", userId)
+                .orderBy(FieldPath.documentId())
+                .limit(TAMANO_PAGINA);
+        }
+
+        void iniciar(ProgresoListener listener, FirebaseService.FirestoreCallback callback) {
+            this.listener = listener;
+            this.callback = callback;
+            // Si una eliminación anterior quedó a medias, se continúa el conteo
+            eliminados = preferences.getInt(clavePref, 0);
+            if (eliminados > 0) {
+                Log.d(TAG, "Retomando eliminación de " + coleccion + " (" + eliminados + " ya eliminados)");
+                if (listener != null) {
+                    listener.onProgreso(eliminados);
+                }
+            }
+            siguientePagina();
+        }
+
+        /**
+         * Pide la próxima página mientras haya lugar para otro lote en vuelo
+         */
+        private void siguientePagina() {
+            if (fallo || sinMasPaginas || buscandoPagina || lotesEnCurso >= MAX_LOTES_EN_PARALELO) {
+                return;
+            }
+            buscandoPagina = true;
+            Query consulta = cursor != null ? consultaBase.startAfter(cursor) : consultaBase;
+            consulta.get()
+                .addOnSuccessListener(snapshot -> {
+                    buscandoPagina = false;
+                    List<DocumentSnapshot> documentos = snapshot.getDocuments();
+                    if (documentos.size() < TAMANO_PAGINA) {
+                        sinMasPaginas = true;
+                    }
+                    if (!documentos.isEmpty()) {
+                        cursor = documentos.get(documentos.size() - 1);
+                        eliminarPagina(documentos);
+                    }
+                    siguientePagina();
+                    verificarFin();
+                })
+                .addOnFailureListener(e -> {
+                    buscandoPagina = false;
+                    fallar(e);
+                });
+        }
+
+        private void eliminarPagina(List<DocumentSnapshot> documentos) {
+            WriteBatch batch = db.batch();
+            for (DocumentSnapshot documento : documentos) {
+                batch.delete(documento.getReference());
+            }
+            int cantidad = documentos.size();
+            lotesEnCurso++;
+            batch.commit()
+                .addOnSuccessListener(aVoid -> {
+                    lotesEnCurso--;
+                    eliminados += cantidad;
+                    preferences.edit().putInt(clavePref, eliminados).apply();
+                    if (listener != null) {
+                        listener.onProgreso(eliminados);
+                    }
+                    siguientePagina();
+                    verificarFin();
+                })
+                .addOnFailureListener(e -> {
+                    lotesEnCurso--;
+                    fallar(e);
+                });
+        }
+
+        private void verificarFin() {
+            if (fallo || terminado || !sinMasPaginas || buscandoPagina || lotesEnCurso > 0) {
+                return;
+            }
+            terminado = true;
+            Log.d(TAG, "Colección " + coleccion + " eliminada: " + eliminados + " documentos");
+            preferences.edit().remove(clavePref).apply();
+            if (callback != null) {
+                callback.onSuccess(eliminados);
+            }
+        }
+
+        private void fallar(Exception e) {
+            if (fallo) {
+                return;
+            }
+            fallo = true;
+            // El progreso queda guardado: volver a llamar retoma desde lo que falta
+            Log.e(TAG, "Error al eliminar " + coleccion + " (" + eliminados + " eliminados)", e);
+            if (callback != null) {
+                callback.onError(e);
+            }
+        }
+    }
+}
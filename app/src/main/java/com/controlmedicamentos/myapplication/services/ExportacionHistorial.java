@@ -0,0 +1,495 @@
+package com.controlmedicamentos.myapplication.services;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.JsonWriter;
+import android.util.Log;
+import androidx.core.content.FileProvider;
+import com.controlmedicamentos.myapplication.models.Medicamento;
+import com.controlmedicamentos.myapplication.models.ResumenMensualTomas;
+import com.controlmedicamentos.myapplication.models.Toma;
+import com.controlmedicamentos.myapplication.utils.FormatosFecha;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exporta el historial del usuario (medicamentos, resúmenes de tomas archivadas y tomas) a un
+ * archivo CSV o JSON para compartirlo, por ejemplo con el médico.
+ *
+ * Las tomas se leen de a una página por vez: cada página se escribe en el archivo (en un hilo de
+ * fondo, con un writer con buffer) antes de pedir la siguiente, así que la memoria usada no depende
+ * del largo del historial. El archivo queda en la caché y se comparte a través del FileProvider.
+ */
+public class ExportacionHistorial {
+    private static final String TAG = "ExportacionHistorial";
+    private static final int TAMANO_PAGINA = FirebaseService.MAX_OPERACIONES_BATCH;
+    private static final String PREFIJO = "historial_";
+    private static final DateTimeFormatter FORMATO_NOMBRE = DateTimeFormatter.ofPattern("yyyyMMdd_HHmm", Locale.ROOT);
+
+    public enum Formato {
+        CSV("csv", "text/csv"),
+        JSON("json", "application/json");
+
+        private final String extension;
+        private final String tipoMime;
+
+        Formato(String extension, String tipoMime) {
+            this.extension = extension;
+            this.tipoMime = tipoMime;
+        }
+
+        public String getTipoMime() {
+            return tipoMime;
+        }
+    }
+
+    /**
+     * Recibe la cantidad de tomas exportadas hasta el momento (en el hilo principal)
+     */
+    public interface ProgresoListener {
+        void onProgreso(int tomasExportadas);
+    }
+
+    private final Context context;
+    private final FirebaseService firebaseService;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    public ExportacionHistorial(Context context) {
+        this.context = context.getApplicationContext();
+        this.firebaseService = Dependencias.de(context).getFirebaseService();
+    }
+
+    /**
+     * Genera el archivo y devuelve en onSuccess su Uri de contenido (para un Intent de compartir)
+     */
+    public void exportar(Formato formato, ProgresoListener listener, FirebaseService.FirestoreCallback callback) {
+        new Exportacion(formato, listener, callback).iniciar();
+    }
+
+    /**
+     * Una exportación en curso. Los pedidos a Firestore salen del hilo principal y la escritura
+     * se hace en el ejecutor propio; cada paso encadena el siguiente, así que nunca hay dos páginas en memoria.
+     */
+    private class Exportacion {
+        private final Formato formato;
+        private final ProgresoListener listener;
+        private final FirebaseService.FirestoreCallback callback;
+        private final ExecutorService ejecutor = Executors.newSingleThreadExecutor();
+        private File archivo;
+        private Escritor escritor;
+        private int tomasExportadas;
+
+        Exportacion(Formato formato, ProgresoListener listener, FirebaseService.FirestoreCallback callback) {
+            this.formato = formato;
+            this.listener = listener;
+            this.callback = callback;
+        }
+
+        void iniciar() {
+            ejecutor.execute(() -> {
+                try {
+                    // Solo se conserva la última exportación del historial
+                    File carpeta = CarpetaExportaciones.preparar(context, PREFIJO);
+                    String nombre = PREFIJO + LocalDateTime.now().format(FORMATO_NOMBRE) + "." + formato.extension;
+                    archivo = new File(carpeta, nombre);
+                    Writer writer = new BufferedWriter(new OutputStreamWriter(
+                        new FileOutputStream(archivo), StandardCharsets.UTF_8));
+                    escritor = formato == Formato.CSV ? new EscritorCsv(writer) : new EscritorJson(writer);
+                    escritor.iniciar();
+                    handler.post(() -> pedirMedicamentos(null));
+                } catch (IOException e) {
+                    fallar(e);
+                }
+            });
+        }
+
+        private void pedirMedicamentos(String despuesDeId) {
+            firebaseService.obtenerPaginaMedicamentos(despuesDeId, TAMANO_PAGINA, new FirebaseService.FirestoreListCallback() {
+                @Override
+                public void onSuccess(List<?> result) {
+                    List<Medicamento> medicamentos = (List<Medicamento>) result;
+                    escribir(() -> {
+                        for (Medicamento medicamento : medicamentos) {
+                            escritor.medicamento(medicamento);
+                        }
+                    }, () -> {
+                        if (medicamentos.size() == TAMANO_PAGINA) {
+                            pedirMedicamentos(medicamentos.get(medicamentos.size() - 1).getId());
+                        } else {
+                            pedirResumenes();
+                        }
+                    });
+                }
+
+                @Override
+                public void onError(Exception exception) {
+                    fallar(exception);
+                }
+            });
+        }
+
+        /**
+         * Los resúmenes son uno por medicamento y mes, así que se leen de una vez
+         */
+        private void pedirResumenes() {
+            firebaseService.obtenerResumenesMensuales(new FirebaseService.FirestoreListCallback() {
+                @Override
+                public void onSuccess(List<?> result) {
+                    List<ResumenMensualTomas> resumenes = new ArrayList<>((List<ResumenMensualTomas>) result);
+                    resumenes.sort(Comparator.comparingInt((ResumenMensualTomas r) -> r.getAnio() * 12 + r.getMes()));
+                    escribir(() -> {
+                        escritor.iniciarResumenes();
+                        for (ResumenMensualTomas resumen : resumenes) {
+                            escritor.resumen(resumen);
+                        }
+                    }, () -> pedirTomas(null));
+                }
+
+                @Override
+                public void onError(Exception exception) {
+                    fallar(exception);
+                }
+            });
+        }
+
+        private void pedirTomas(Toma despuesDe) {
+            firebaseService.obtenerPaginaTomas(despuesDe, TAMANO_PAGINA, new FirebaseService.FirestoreListCallback() {
+                @Override
+                public void onSuccess(List<?> result) {
+                    List<Toma> tomas = (List<Toma>) result;
+                    escribir(() -> {
+                        if (despuesDe == null) {
+                            escritor.iniciarTomas();
+                        }
+                        for (Toma toma : tomas) {
+                            escritor.toma(toma);
+                        }
+                    }, () -> {
+                        tomasExportadas += tomas.size();
+                        if (listener != null) {
+                            listener.onProgreso(tomasExportadas);
+                        }
+                        if (tomas.size() == TAMANO_PAGINA) {
+                            pedirTomas(tomas.get(tomas.size() - 1));
+                        } else {
+                            terminar();
+                        }
+                    });
+                }
+
+                @Override
+                public void onError(Exception exception) {
+                    fallar(exception);
+                }
+            });
+        }
+
+        /**
+         * Escribe en el ejecutor y, si salió bien, sigue en el hilo principal
+         */
+        private void escribir(Escritura escritura, Runnable siguiente) {
+            ejecutor.execute(() -> {
+                try {
+                    escritura.ejecutar();
+                    handler.post(siguiente);
+                } catch (IOException e) {
+                    fallar(e);
+                }
+            });
+        }
+
+        private void terminar() {
+            ejecutor.execute(() -> {
+                try {
+                    escritor.terminar();
+                    Uri uri = FileProvider.getUriForFile(context,
+                        context.getPackageName() + ".fileprovider", archivo);
+                    Log.d(TAG, "Historial exportado: " + archivo.getName() + " (" + tomasExportadas + " tomas)");
+                    handler.post(() -> {
+                        if (callback != null) {
+                            callback.onSuccess(uri);
+                        }
+                    });
+                    ejecutor.shutdown();
+                } catch (IOException | IllegalArgumentException e) {
+                    fallar(e);
+                }
+            });
+        }
+
+        private void fallar(Exception e) {
+            Log.e(TAG, "Error al exportar historial", e);
+            ejecutor.execute(() -> {
+                if (escritor != null) {
+                    escritor.cerrarSinTerminar();
+                }
+                if (archivo != null) {
+                    archivo.delete();
+                }
+                ejecutor.shutdown();
+            });
+            handler.post(() -> {
+                if (callback != null) {
+                    callback.onError(e);
+                }
+            });
+        }
+    }
+
+    private interface Escritura {
+        void ejecutar() throws IOException;
+    }
+
+    /**
+     * Formato de salida. Se llama en este orden: iniciar, medicamento*, iniciarResumenes, resumen*,
+     * iniciarTomas, toma*, terminar
+     */
+    private abstract static class Escritor {
+        protected final Writer writer;
+
+        Escritor(Writer writer) {
+            this.writer = writer;
+        }
+
+        abstract void iniciar() throws IOException;
+
+        abstract void medicamento(Medicamento medicamento) throws IOException;
+
+        abstract void iniciarResumenes() throws IOException;
+
+        abstract void resumen(ResumenMensualTomas resumen) throws IOException;
+
+        abstract void iniciarTomas() throws IOException;
+
+        abstract void toma(Toma toma) throws IOException;
+
+        abstract void terminar() throws IOException;
+
+        void cerrarSinTerminar() {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Error al cerrar el archivo de exportación", e);
+            }
+        }
+    }
+
+    /**
+     * Una fila por toma. Los días archivados salen como una fila por día y estado, con la cantidad.
+     * Los datos del medicamento (pocos) se guardan en memoria para completar cada fila.
+     */
+    private static class EscritorCsv extends Escritor {
+        private final Map<String, Medicamento> medicamentos = new HashMap<>();
+
+        EscritorCsv(Writer writer) {
+            super(writer);
+        }
+
+        @Override
+        void iniciar() throws IOException {
+            fila("fecha", "hora_programada", "hora_tomada", "medicamento", "presentacion", "afeccion",
+                "estado", "cantidad", "demora_minutos", "observaciones");
+        }
+
+        @Override
+        void medicamento(Medicamento medicamento) {
+            medicamentos.put(medicamento.getId(), medicamento);
+        }
+
+        @Override
+        void iniciarResumenes() {
+        }
+
+        @Override
+        void resumen(ResumenMensualTomas resumen) throws IOException {
+            Medicamento medicamento = medicamentos.get(resumen.getMedicamentoId());
+            for (Map.Entry<Integer, Map<Toma.EstadoToma, Integer>> dia : resumen.getCantidadesPorDia().entrySet()) {
+                String fecha = LocalDate.of(resumen.getAnio(), resumen.getMes(), dia.getKey()).toString();
+                for (Map.Entry<Toma.EstadoToma, Integer> cantidad : dia.getValue().entrySet()) {
+                    fila(fecha, "", "", nombre(medicamento, resumen.getMedicamentoNombre()),
+                        medicamento != null ? medicamento.getPresentacion() : "",
+                        medicamento != null ? medicamento.getAfeccion() : "",
+                        cantidad.getKey().name(), String.valueOf(cantidad.getValue()), "", "");
+                }
+            }
+        }
+
+        @Override
+        void iniciarTomas() {
+        }
+
+        @Override
+        void toma(Toma toma) throws IOException {
+            Medicamento medicamento = medicamentos.get(toma.getMedicamentoId());
+            Date referencia = toma.getFechaHoraProgramada() != null ? toma.getFechaHoraProgramada() : toma.getFechaHoraTomada();
+            String demora = "";
+            if (toma.getFechaHoraProgramada() != null && toma.getFechaHoraTomada() != null) {
+                demora = String.valueOf(TimeUnit.MILLISECONDS.toMinutes(
+                    toma.getFechaHoraTomada().getTime() - toma.getFechaHoraProgramada().getTime()));
+            }
+            fila(referencia != null ? FormatosFecha.fechaLocal(referencia) : "",
+                toma.getFechaHoraProgramada() != null ? FormatosFecha.horaLocal(toma.getFechaHoraProgramada()) : "",
+                toma.getFechaHoraTomada() != null ? FormatosFecha.horaLocal(toma.getFechaHoraTomada()) : "",
+                nombre(medicamento, toma.getMedicamentoNombre()),
+                medicamento != null ? medicamento.getPresentacion() : "",
+                medicamento != null ? medicamento.getAfeccion() : "",
+                toma.getEstado() != null ? toma.getEstado().name() : "",
+                "1", demora, toma.getObservaciones());
+        }
+
+        @Override
+        void terminar() throws IOException {
+            writer.close();
+        }
+
+        private static String nombre(Medicamento medicamento, String porDefecto) {
+            return medicamento != null && medicamento.getNombre() != null ? medicamento.getNombre() : porDefecto;
+        }
+
+        private void fila(String... valores) throws IOException {
+            for (int i = 0; i < valores.length; i++) {
+                if (i > 0) {
+                    writer.write(',');
+                }
+                writer.write(campo(valores[i]));
+            }
+            writer.write("\r\n");
+        }
+
+        /**
+         * Entre comillas (duplicando las internas) si tiene separadores, comillas o saltos de línea
+         */
+        private static String campo(String valor) {
+            if (valor == null) {
+                return "";
+            }
+            if (valor.indexOf(',') < 0 && valor.indexOf('"') < 0 && valor.indexOf('\n') < 0 && valor.indexOf('\r') < 0) {
+                return valor;
+            }
+            return "\"" + valor.replace("\"", "\"\"") + "\"";
+        }
+    }
+
+    /**
+     * { generado, medicamentos: [...], resumenesMensuales: [...], tomas: [...] }
+     * escrito con JsonWriter, que va volcando al writer sin armar el documento en memoria
+     */
+    private static class EscritorJson extends Escritor {
+        private final JsonWriter json;
+
+        EscritorJson(Writer writer) {
+            super(writer);
+            this.json = new JsonWriter(writer);
+            json.setIndent("  ");
+        }
+
+        @Override
+        void iniciar() throws IOException {
+            json.beginObject();
+            json.name("generado").value(FormatosFecha.instanteIsoActual());
+            json.name("medicamentos").beginArray();
+        }
+
+        @Override
+        void medicamento(Medicamento medicamento) throws IOException {
+            json.beginObject();
+            json.name("id").value(medicamento.getId());
+            json.name("nombre").value(medicamento.getNombre());
+            json.name("presentacion").value(medicamento.getPresentacion());
+            json.name("afeccion").value(medicamento.getAfeccion());
+            json.name("tomasDiarias").value(medicamento.getTomasDiarias());
+            json.name("horarios").beginArray();
+            if (medicamento.getHorariosTomas() != null) {
+                for (String horario : medicamento.getHorariosTomas()) {
+                    json.value(horario);
+                }
+            }
+            json.endArray();
+            json.name("diasTratamiento").value(medicamento.getDiasTratamiento());
+            json.name("stockActual").value(medicamento.getStockActual());
+            json.name("activo").value(medicamento.isActivo());
+            json.name("pausado").value(medicamento.isPausado());
+            json.name("detalles").value(medicamento.getDetalles());
+            json.endObject();
+        }
+
+        @Override
+        void iniciarResumenes() throws IOException {
+            json.endArray();
+            json.name("resumenesMensuales").beginArray();
+        }
+
+        @Override
+        void resumen(ResumenMensualTomas resumen) throws IOException {
+            json.beginObject();
+            json.name("medicamentoId").value(resumen.getMedicamentoId());
+            json.name("medicamentoNombre").value(resumen.getMedicamentoNombre());
+            json.name("mes").value(String.format(Locale.ROOT, "%04d-%02d", resumen.getAnio(), resumen.getMes()));
+            json.name("dias").beginObject();
+            for (Map.Entry<Integer, Map<Toma.EstadoToma, Integer>> dia : resumen.getCantidadesPorDia().entrySet()) {
+                json.name(String.valueOf(dia.getKey())).beginObject();
+                for (Map.Entry<Toma.EstadoToma, Integer> cantidad : dia.getValue().entrySet()) {
+                    json.name(cantidad.getKey().name()).value(cantidad.getValue());
+                }
+                json.endObject();
+            }
+            json.endObject();
+            json.name("demoras").beginObject();
+            json.name("cantidad").value(resumen.getCantidadDemoras());
+            json.name("promedioMinutos").value(resumen.getDemoraPromedioMinutos());
+            json.name("mayores30").value(resumen.getDemorasMayores30());
+            json.endObject();
+            json.endObject();
+        }
+
+        @Override
+        void iniciarTomas() throws IOException {
+            json.endArray();
+            json.name("tomas").beginArray();
+        }
+
+        @Override
+        void toma(Toma toma) throws IOException {
+            json.beginObject();
+            json.name("id").value(toma.getId());
+            json.name("medicamentoId").value(toma.getMedicamentoId());
+            json.name("medicamentoNombre").value(toma.getMedicamentoNombre());
+            json.name("estado").value(toma.getEstado() != null ? toma.getEstado().name() : null);
+            json.name("fechaHoraProgramada").value(fecha(toma.getFechaHoraProgramada()));
+            json.name("fechaHoraTomada").value(fecha(toma.getFechaHoraTomada()));
+            json.name("observaciones").value(toma.getObservaciones());
+            json.endObject();
+        }
+
+        @Override
+        void terminar() throws IOException {
+            json.endArray();
+            json.endObject();
+            json.close();
+        }
+
+        private static String fecha(Date fecha) {
+            return fecha != null ? FormatosFecha.instanteIso(fecha) : null;
+        }
+    }
+}
@@ -1,32 +1,45 @@
 package com.controlmedicamentos.myapplication.services;
 
+import android.content.Context;
+import android.content.SharedPreferences;
 import android.util.Log;
 import com.google.android.gms.tasks.OnCompleteListener;
 import com.google.android.gms.tasks.OnFailureListener;
 import com.google.android.gms.tasks.OnSuccessListener;
 import com.google.android.gms.tasks.Task;
 import com.google.firebase.auth.FirebaseUser;
+import com.google.firebase.firestore.AggregateSource;
 import com.google.firebase.firestore.CollectionReference;
+import com.google.firebase.firestore.DocumentChange;
 import com.google.firebase.firestore.DocumentReference;
 import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldPath;
+import com.google.firebase.firestore.FieldValue;
 import com.google.firebase.firestore.FirebaseFirestore;
 import com.google.firebase.firestore.Query;
 import com.google.firebase.firestore.QuerySnapshot;
+import com.google.firebase.firestore.Source;
 import com.google.firebase.firestore.WriteBatch;
+import com.controlmedicamentos.myapplication.models.CambioToma;
 import com.controlmedicamentos.myapplication.models.Medicamento;
+import com.controlmedicamentos.myapplication.models.ResumenMensualTomas;
 import com.controlmedicamentos.myapplication.models.Toma;
+import com.controlmedicamentos.myapplication.models.TomaPendiente;
 import com.controlmedicamentos.myapplication.models.Usuario;
+import com.controlmedicamentos.myapplication.utils.FormatosFecha;
+import com.controlmedicamentos.myapplication.utils.PronosticadorStock;
 import androidx.annotation.NonNull;
 
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
+import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Servicio para manejar operaciones CRUD con Firebase Firestore
@@ -35,6 +48,9 @@ public class FirebaseService {
     private static final String TAG = "FirebaseService";
     private FirebaseFirestore db;
     private AuthService authService;
+    private AlmacenLocal almacenLocal; // null si no se usa la base local
+    private SharedPreferences preferences; // Marcas de sincronización de la base local
+    private final Set<String> sincronizando = new HashSet<>(); // Usuarios con una sincronización en curso
 
     // Nombres de colecciones
     private static final String COLLECTION_USUARIOS = "usuarios";
@@ -42,11 +58,31 @@ public class FirebaseService {
     private static final String COLLECTION_TOMAS = "tomas";
     private static final String COLLECTION_CONFIGURACIONES = "configuraciones";
 
+    // Límite de operaciones de Firestore por WriteBatch
+    public static final int MAX_OPERACIONES_BATCH = 500;
+
+    // Sincronización de la base local de tomas
+    private static final String PREF_TOMAS_SINCRONIZADAS = "tomas_sincronizadas_";
+    private static final String PREF_TOMAS_RECONCILIADAS = "tomas_reconciliadas_";
+    private static final long INTERVALO_SINCRONIZACION_MS = 60_000; // Entre consultas incrementales
+    private static final long INTERVALO_RECONCILIACION_MS = 24 * 60 * 60_000L; // Entre comparaciones completas
+    private static final long MARGEN_SINCRONIZACION_MS = 24 * 60 * 60_000L; // Tomas registradas con atraso
+
     public FirebaseService() {
-        db = FirebaseFirestore.getInstance();
+        db = Dependencias.firestore();
         authService = new AuthService();
     }
 
+    /**
+     * Además de Firestore, copia las tomas leídas y registradas en la base local del dispositivo
+     * y la usa para responder las consultas de tomas cuando Firestore no está disponible
+     */
+    public FirebaseService(Context context) {
+        this();
+        almacenLocal = AlmacenLocal.getInstance(context);
+        preferences = context.getSharedPreferences("ControlMedicamentos", Context.MODE_PRIVATE);
+    }
+
     // ==================== USUARIOS ====================
 
     /**
@@ -145,9 +181,7 @@ public class FirebaseService {
         medicamentoMap.put("userId", firebaseUser.getUid());
         
         // Guardar fechas como string ISO (consistente con React)
-        SimpleDateFormat isoFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US);
-        isoFormat.setTimeZone(java.util.TimeZone.getTimeZone("UTC"));
-        String fechaActual = isoFormat.format(new Date());
+        String fechaActual = FormatosFecha.instanteIsoActual();
         medicamentoMap.put("fechaCreacion", fechaActual);
         medicamentoMap.put("fechaActualizacion", fechaActual);
 
@@ -158,6 +192,7 @@ public class FirebaseService {
                 public void onSuccess(DocumentReference documentReference) {
                     Log.d(TAG, "Medicamento guardado con ID: " + documentReference.getId());
                     medicamento.setId(documentReference.getId());
+                    medicamento.limpiarCambios();
                     if (callback != null) {
                         callback.onSuccess(medicamento);
                     }
@@ -177,9 +212,25 @@ public class FirebaseService {
     /**
      * Actualiza un medicamento existente
      * Consistente con React: medicamentosService.js - actualizarMedicamento()
+     * Solo se envían los campos modificados desde que se leyó el medicamento. El documento
+     * se lee antes únicamente si cambió el stock, para conciliarlo con el valor del servidor.
      */
     public void actualizarMedicamento(Medicamento medicamento, FirestoreCallback callback) {
-        // Primero obtener el medicamento actual para verificar cambios
+        Set<Medicamento.Campo> campos = medicamento.getCamposModificados();
+        if (campos.isEmpty()) {
+            Log.d(TAG, "Medicamento sin cambios, no se actualiza");
+            if (callback != null) {
+                callback.onSuccess(medicamento);
+            }
+            return;
+        }
+
+        if (!campos.contains(Medicamento.Campo.STOCK_INICIAL) && !campos.contains(Medicamento.Campo.STOCK_ACTUAL)) {
+            enviarCambiosMedicamento(medicamento, campos, callback);
+            return;
+        }
+
+        // Primero obtener el medicamento actual para verificar cambios de stock
         db.collection(COLLECTION_MEDICAMENTOS)
             .document(medicamento.getId())
             .get()
@@ -195,60 +246,18 @@ public class FirebaseService {
 
                     // Asegurar que stockInicial y stockActual sean números
                     // Lógica consistente con React: medicamentosService.js líneas 197-210
-                    Map<String, Object> medicamentoActualData = document.getData();
-                    if (medicamentoActualData != null) {
-                        // Obtener valores actuales
-                        Object stockInicialActualObj = medicamentoActualData.get("stockInicial");
-                        Object stockActualActualObj = medicamentoActualData.get("stockActual");
-                        
-                        int stockInicialActual = 0;
-                        int stockActualActual = 0;
-                        
-                        if (stockInicialActualObj instanceof Number) {
-                            stockInicialActual = ((Number) stockInicialActualObj).intValue();
-                        }
-                        if (stockActualActualObj instanceof Number) {
-                            stockActualActual = ((Number) stockActualActualObj).intValue();
-                        }
-                        
-                        // Si se actualiza stockInicial y no se está actualizando stockActual explícitamente,
-                        // actualizar stockActual al nuevo valor de stockInicial (lógica de React)
-                        // Pero si el stockActual del objeto es diferente al actual, significa que se actualizó explícitamente
-                        if (medicamento.getStockInicial() != stockInicialActual) {
-                            // Si stockActual no se actualizó explícitamente, usar el nuevo stockInicial
-                            if (medicamento.getStockActual() == stockActualActual) {
-                                // El stockActual no cambió explícitamente, mantener el valor actual
-                                // (no actualizar al nuevo stockInicial, como en React al editar)
-                                medicamento.setStockActual(stockActualActual);
-                            }
-                            // Si stockActual sí cambió, usar el nuevo valor que viene en el objeto
-                        }
+                    int stockInicialActual = leerEntero(document.get("stockInicial"));
+                    int stockActualActual = leerEntero(document.get("stockActual"));
+
+                    // Si se actualiza stockInicial y no se está actualizando stockActual explícitamente,
+                    // mantener el stockActual del servidor (no actualizar al nuevo stockInicial, como en React al editar)
+                    // Si stockActual sí cambió, usar el nuevo valor que viene en el objeto
+                    if (medicamento.getStockInicial() != stockInicialActual
+                        && medicamento.getStockActual() == stockActualActual) {
+                        medicamento.setStockActual(stockActualActual);
                     }
 
-                    // Preparar mapa de actualización
-                    Map<String, Object> medicamentoMap = medicamentoToMap(medicamento);
-                    
-                    // Actualizar fechaActualizacion como string ISO (consistente con React)
-                    SimpleDateFormat isoFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US);
-                    isoFormat.setTimeZone(java.util.TimeZone.getTimeZone("UTC"));
-                    medicamentoMap.put("fechaActualizacion", isoFormat.format(new Date()));
-
-                    // Actualizar en Firebase
-                    db.collection(COLLECTION_MEDICAMENTOS)
-                        .document(medicamento.getId())
-                        .update(medicamentoMap)
-                        .addOnSuccessListener(aVoid -> {
-                            Log.d(TAG, "Medicamento actualizado exitosamente");
-                            if (callback != null) {
-                                callback.onSuccess(medicamento);
-                            }
-                        })
-                        .addOnFailureListener(e -> {
-                            Log.e(TAG, "Error al actualizar medicamento", e);
-                            if (callback != null) {
-                                callback.onError(e);
-                            }
-                        });
+                    enviarCambiosMedicamento(medicamento, medicamento.getCamposModificados(), callback);
                 } else {
                     Log.e(TAG, "Error al obtener medicamento para actualizar", task.getException());
                     if (callback != null) {
@@ -258,152 +267,207 @@ public class FirebaseService {
             });
     }
 
+    private void enviarCambiosMedicamento(Medicamento medicamento, Set<Medicamento.Campo> campos,
+                                          FirestoreCallback callback) {
+        Map<String, Object> cambios = new HashMap<>();
+        ponerCampos(cambios, medicamento, campos, true);
+
+        // Actualizar fechaActualizacion como string ISO (consistente con React)
+        cambios.put("fechaActualizacion", fechaActualizacionIso());
+
+        db.collection(COLLECTION_MEDICAMENTOS)
+            .document(medicamento.getId())
+            .update(cambios)
+            .addOnSuccessListener(aVoid -> {
+                Log.d(TAG, "Medicamento actualizado exitosamente (" + campos.size() + " campos)");
+                medicamento.limpiarCambios();
+                if (callback != null) {
+                    callback.onSuccess(medicamento);
+                }
+            })
+            .addOnFailureListener(e -> {
+                Log.e(TAG, "Error al actualizar medicamento", e);
+                if (callback != null) {
+                    callback.onError(e);
+                }
+            });
+    }
+
     /**
-     * Resta una unidad del stock de un medicamento
-     * Para medicamentos ocasionales, también registra la toma en tomasRealizadas
-     * Consistente con React: medicamentosService.js - restarStockMedicamento()
+     * Mueve las entradas del array tomasRealizadas de un medicamento (escrito por versiones anteriores y
+     * por la web) a documentos de la colección de tomas. Cada lote escribe las tomas y quita del array las
+     * entradas copiadas (FieldValue.arrayRemove) en la misma operación, así no se copian otra vez.
+     * Cada entrada va a un documento con ID fijo (Toma.idTomaRealizada), así que si se repite la copia de
+     * un lote no se duplican tomas; las entradas sin fecha válida no se copian y quedan en el array.
+     * Se escribe en lotes de hasta MAX_OPERACIONES_BATCH operaciones.
+     * Devuelve en onSuccess la cantidad de tomas escritas.
      */
-    public void restarStockMedicamento(String medicamentoId, FirestoreCallback callback) {
-        db.collection(COLLECTION_MEDICAMENTOS)
-            .document(medicamentoId)
-            .get()
-            .addOnCompleteListener(task -> {
-                if (task.isSuccessful()) {
-                    DocumentSnapshot document = task.getResult();
-                    if (document == null || !document.exists()) {
-                        if (callback != null) {
-                            callback.onError(new Exception("Medicamento no encontrado"));
-                        }
-                        return;
-                    }
+    public void migrarTomasRealizadas(String medicamentoId, FirestoreCallback callback) {
+        FirebaseUser firebaseUser = authService.getCurrentUser();
+        if (firebaseUser == null) {
+            if (callback != null) {
+                callback.onError(new Exception("Usuario no autenticado"));
+            }
+            return;
+        }
 
-                    Map<String, Object> medicamentoData = document.getData();
-                    if (medicamentoData == null) {
-                        if (callback != null) {
-                            callback.onError(new Exception("Datos del medicamento no disponibles"));
+        db.collection(COLLECTION_MEDICAMENTOS).document(medicamentoId).get()
+            .addOnSuccessListener(document -> {
+                Map<String, Map<String, Object>> tomas = new LinkedHashMap<>();
+                List<Object> entradas = new ArrayList<>();
+                Object lista = document.get("tomasRealizadas");
+                if (lista instanceof List) {
+                    String nombre = document.getString("nombre");
+                    Map<String, Integer> ocurrencias = new HashMap<>();
+                    for (Object entrada : (List<?>) lista) {
+                        Toma toma = MedicamentoCodec.tomaRealizada(entrada, medicamentoId, nombre,
+                            firebaseUser.getUid());
+                        if (toma == null) {
+                            continue;
                         }
-                        return;
-                    }
-
-                    // Obtener stock actual
-                    Object stockActualObj = medicamentoData.get("stockActual");
-                    int stockActual = 0;
-                    if (stockActualObj instanceof Number) {
-                        stockActual = ((Number) stockActualObj).intValue();
+                        // Mismo texto que reconstruye PronosticadorStock a partir de las fechas del medicamento
+                        String fecha = FormatosFecha.fechaLocal(toma.getFechaHoraProgramada());
+                        String hora = FormatosFecha.horaLocal(toma.getFechaHoraProgramada());
+                        int ocurrencia = ocurrencias.merge(fecha + " " + hora, 1, Integer::sum) - 1;
+                        tomas.put(Toma.idTomaRealizada(medicamentoId, fecha, hora, ocurrencia), tomaToMap(toma));
+                        entradas.add(entrada);
                     }
+                }
+                escribirTomasRealizadas(medicamentoId, new ArrayList<>(tomas.entrySet()), entradasAQuitar(entradas),
+                    0, callback);
+            })
+            .addOnFailureListener(e -> {
+                Log.e(TAG, "Error al leer tomas realizadas", e);
+                if (callback != null) {
+                    callback.onError(e);
+                }
+            });
+    }
 
-                    if (stockActual <= 0) {
-                        if (callback != null) {
-                            callback.onError(new Exception("No hay stock disponible para restar"));
-                        }
-                        return;
-                    }
+    /**
+     * Para cada toma, la entrada del array que se quita al escribirla, o null. arrayRemove quita todas las
+     * entradas iguales, así que las repetidas se quitan recién con la última copia: si un lote falla,
+     * las que faltan siguen en el array y se copian al reintentar.
+     */
+    private static List<Object> entradasAQuitar(List<Object> entradas) {
+        Map<Object, Integer> ultimas = new HashMap<>();
+        for (int i = 0; i < entradas.size(); i++) {
+            ultimas.put(entradas.get(i), i);
+        }
+        List<Object> quitar = new ArrayList<>(entradas.size());
+        for (int i = 0; i < entradas.size(); i++) {
+            quitar.add(ultimas.get(entradas.get(i)) == i ? entradas.get(i) : null);
+        }
+        return quitar;
+    }
 
-                    int nuevoStock = Math.max(0, stockActual - 1);
+    private void escribirTomasRealizadas(String medicamentoId, List<Map.Entry<String, Map<String, Object>>> tomas,
+                                         List<Object> quitar, int desde, FirestoreCallback callback) {
+        if (desde >= tomas.size()) {
+            Log.d(TAG, "Tomas realizadas copiadas de " + medicamentoId + ": " + tomas.size());
+            if (callback != null) {
+                callback.onSuccess(tomas.size());
+            }
+            return;
+        }
+        // Una operación del lote es la actualización del array
+        int hasta = Math.min(tomas.size(), desde + MAX_OPERACIONES_BATCH - 1);
+        WriteBatch batch = db.batch();
+        List<Toma> escritas = new ArrayList<>(hasta - desde);
+        List<Object> quitadas = new ArrayList<>();
+        for (int i = desde; i < hasta; i++) {
+            Map.Entry<String, Map<String, Object>> toma = tomas.get(i);
+            batch.set(db.collection(COLLECTION_TOMAS).document(toma.getKey()), toma.getValue());
+            escritas.add(TomaCodec.leer(toma.getKey(), toma.getValue()));
+            if (quitar.get(i) != null) {
+                quitadas.add(quitar.get(i));
+            }
+        }
+        if (!quitadas.isEmpty()) {
+            batch.update(db.collection(COLLECTION_MEDICAMENTOS).document(medicamentoId),
+                "tomasRealizadas", FieldValue.arrayRemove(quitadas.toArray()));
+        }
+        batch.commit()
+            .addOnSuccessListener(aVoid -> {
+                guardarTomasLocales(escritas.get(0).getUserId(), escritas);
+                escribirTomasRealizadas(medicamentoId, tomas, quitar, hasta, callback);
+            })
+            .addOnFailureListener(e -> {
+                // Lo escrito queda: al repetir, los mismos IDs se sobrescriben
+                Log.e(TAG, "Error al copiar tomas realizadas", e);
+                if (callback != null) {
+                    callback.onError(e);
+                }
+            });
+    }
 
-                    // Verificar si es medicamento ocasional (tomasDiarias === 0)
-                    Object tomasDiariasObj = medicamentoData.get("tomasDiarias");
-                    int tomasDiarias = 0;
-                    if (tomasDiariasObj instanceof Number) {
-                        tomasDiarias = ((Number) tomasDiariasObj).intValue();
-                    }
-                    boolean esOcasional = (tomasDiarias == 0);
-
-                    // Preparar datos actualizados
-                    Map<String, Object> datosActualizados = new HashMap<>();
-                    datosActualizados.put("stockActual", nuevoStock);
-                    
-                    // Actualizar fechaActualizacion como string ISO
-                    SimpleDateFormat isoFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US);
-                    isoFormat.setTimeZone(java.util.TimeZone.getTimeZone("UTC"));
-                    datosActualizados.put("fechaActualizacion", isoFormat.format(new Date()));
-
-                    // Si es medicamento ocasional, registrar la toma
-                    if (esOcasional) {
-                        // Obtener tomasRealizadas existentes
-                        List<Map<String, Object>> tomasRealizadas = new ArrayList<>();
-                        Object tomasObj = medicamentoData.get("tomasRealizadas");
-                        if (tomasObj instanceof List) {
-                            @SuppressWarnings("unchecked")
-                            List<Object> tomasList = (List<Object>) tomasObj;
-                            for (Object tomaObj : tomasList) {
-                                if (tomaObj instanceof Map) {
-                                    @SuppressWarnings("unchecked")
-                                    Map<String, Object> toma = (Map<String, Object>) tomaObj;
-                                    tomasRealizadas.add(toma);
-                                }
-                            }
-                        }
+    private static int leerEntero(Object valor) {
+        return valor instanceof Number ? ((Number) valor).intValue() : 0;
+    }
 
-                        // Crear nueva toma
-                        Calendar cal = Calendar.getInstance();
-                        String fechaHoy = new SimpleDateFormat("yyyy-MM-dd", Locale.US).format(cal.getTime());
-                        String horaActual = new SimpleDateFormat("HH:mm", Locale.US).format(cal.getTime());
+    private static String fechaActualizacionIso() {
+        return FormatosFecha.instanteIsoActual();
+    }
 
-                        Map<String, Object> nuevaToma = new HashMap<>();
-                        nuevaToma.put("fecha", fechaHoy);
-                        nuevaToma.put("hora", horaActual);
-                        nuevaToma.put("tomada", true);
-                        nuevaToma.put("tipo", "ocasional");
+    // ==================== TOMAS ====================
 
-                        tomasRealizadas.add(nuevaToma);
-                        datosActualizados.put("tomasRealizadas", tomasRealizadas);
-                    }
+    /**
+     * Guarda una toma realizada por el usuario.
+     */
+    public void guardarToma(Toma toma, FirestoreCallback callback) {
+        if (!prepararToma(toma, callback)) {
+            return;
+        }
 
-                    // Actualizar en Firebase
-                    db.collection(COLLECTION_MEDICAMENTOS)
-                        .document(medicamentoId)
-                        .update(datosActualizados)
-                        .addOnSuccessListener(aVoid -> {
-                            Log.d(TAG, "Stock restado exitosamente. Nuevo stock: " + nuevoStock);
-                            if (callback != null) {
-                                Map<String, Object> resultado = new HashMap<>();
-                                resultado.put("stockActual", nuevoStock);
-                                resultado.put("tomaRegistrada", esOcasional);
-                                callback.onSuccess(resultado);
-                            }
-                        })
-                        .addOnFailureListener(e -> {
-                            Log.e(TAG, "Error al restar stock", e);
-                            if (callback != null) {
-                                callback.onError(e);
-                            }
-                        });
-                } else {
-                    Log.e(TAG, "Error al obtener medicamento para restar stock", task.getException());
-                    if (callback != null) {
-                        callback.onError(task.getException());
-                    }
+        Map<String, Object> tomaMap = tomaToMap(toma);
+        db.collection(COLLECTION_TOMAS)
+            .add(tomaMap)
+            .addOnSuccessListener(documentReference -> {
+                Log.d(TAG, "Toma registrada con ID: " + documentReference.getId());
+                toma.setId(documentReference.getId());
+                guardarTomasLocales(toma.getUserId(), Collections.singletonList(toma));
+                if (toma.getEstado() == Toma.EstadoToma.TOMADA) {
+                    // Actualizar el pronóstico de stock de forma incremental
+                    PronosticadorStock.getInstance().registrarConsumo(toma.getMedicamentoId(), toma.getId(),
+                        toma.getFechaHoraTomada());
+                }
+                if (callback != null) {
+                    callback.onSuccess(toma);
+                }
+            })
+            .addOnFailureListener(e -> {
+                Log.e(TAG, "Error al registrar la toma", e);
+                if (callback != null) {
+                    callback.onError(e);
                 }
             });
     }
 
-    // ==================== TOMAS ====================
-
     /**
-     * Guarda una toma realizada por el usuario.
+     * Valida la toma y completa usuario, fechas y estado por defecto
+     * @return false si la toma no es válida (el error ya se informó al callback)
      */
-    public void guardarToma(Toma toma, FirestoreCallback callback) {
+    private boolean prepararToma(Toma toma, FirestoreCallback callback) {
         FirebaseUser firebaseUser = authService.getCurrentUser();
         if (firebaseUser == null) {
             if (callback != null) {
                 callback.onError(new Exception("Usuario no autenticado"));
             }
-            return;
+            return false;
         }
 
         if (toma == null) {
             if (callback != null) {
                 callback.onError(new Exception("Datos de la toma no válidos"));
             }
-            return;
+            return false;
         }
 
         if (toma.getMedicamentoId() == null || toma.getMedicamentoId().isEmpty()) {
             if (callback != null) {
                 callback.onError(new Exception("El ID del medicamento es obligatorio"));
             }
-            return;
+            return false;
         }
 
         toma.setUserId(firebaseUser.getUid());
@@ -418,18 +482,65 @@ public class FirebaseService {
             toma.setEstado(Toma.EstadoToma.TOMADA);
         }
 
-        Map<String, Object> tomaMap = tomaToMap(toma);
-        db.collection(COLLECTION_TOMAS)
-            .add(tomaMap)
-            .addOnSuccessListener(documentReference -> {
-                Log.d(TAG, "Toma registrada con ID: " + documentReference.getId());
-                toma.setId(documentReference.getId());
+        return true;
+    }
+
+    /**
+     * Envía un lote de dosis pendientes (en orden) en un único WriteBatch: por cada una se crea la toma
+     * con su clave de idempotencia como ID y se descuenta el stock con FieldValue.increment(-1).
+     * Cada dosis son 2 operaciones, así que el lote no debe superar MAX_OPERACIONES_BATCH / 2 registros.
+     * El incremento no tiene piso: las dosis que pueden dejar el stock en 0 van por enviarTomaPendienteVerificada.
+     * Al confirmarse, las tomas se guardan también en la base local.
+     */
+    public void enviarTomasPendientes(List<TomaPendiente> lote, FirestoreCallback callback) {
+        FirebaseUser firebaseUser = authService.getCurrentUser();
+        if (firebaseUser == null) {
+            if (callback != null) {
+                callback.onError(new Exception("Usuario no autenticado"));
+            }
+            return;
+        }
+        if (lote == null || lote.isEmpty() || lote.size() * 2 > MAX_OPERACIONES_BATCH) {
+            if (callback != null) {
+                callback.onError(new Exception("Lote de tomas pendientes no válido"));
+            }
+            return;
+        }
+
+        String userId = firebaseUser.getUid();
+        for (TomaPendiente pendiente : lote) {
+            if (!pendiente.esDeUsuario(userId)) {
                 if (callback != null) {
-                    callback.onSuccess(toma);
+                    callback.onError(new Exception("La toma pendiente es de otro usuario"));
+                }
+                return;
+            }
+        }
+
+        String fechaActualizacion = fechaActualizacionIso();
+        WriteBatch batch = db.batch();
+        List<Toma> tomas = new ArrayList<>(lote.size());
+        for (TomaPendiente pendiente : lote) {
+            Map<String, Object> cambios = new HashMap<>();
+            cambios.put(pendiente.getCampoStock(), FieldValue.increment(-1));
+            cambios.put("fechaActualizacion", fechaActualizacion);
+
+            Map<String, Object> datosToma = tomaPendienteToMap(pendiente, userId);
+            tomas.add(TomaCodec.leer(pendiente.getClave(), datosToma));
+            batch.set(db.collection(COLLECTION_TOMAS).document(pendiente.getClave()), datosToma);
+            batch.update(db.collection(COLLECTION_MEDICAMENTOS).document(pendiente.getMedicamentoId()), cambios);
+        }
+
+        batch.commit()
+            .addOnSuccessListener(aVoid -> {
+                Log.d(TAG, "Tomas pendientes enviadas: " + lote.size());
+                guardarTomasLocales(userId, tomas);
+                if (callback != null) {
+                    callback.onSuccess(lote);
                 }
             })
             .addOnFailureListener(e -> {
-                Log.e(TAG, "Error al registrar la toma", e);
+                Log.e(TAG, "Error al enviar tomas pendientes", e);
                 if (callback != null) {
                     callback.onError(e);
                 }
@@ -437,9 +548,13 @@ public class FirebaseService {
     }
 
     /**
-     * Obtiene las tomas registradas para un medicamento específico.
+     * Envía una dosis pendiente en una transacción. Se usa cuando la dosis agota el stock (no puede
+     * bajar de 0 y el medicamento se pausa según el valor del servidor) y cuando no se sabe si un envío
+     * anterior se aplicó: si la toma ya existe no se vuelve a descontar el stock.
+     * Si el medicamento ya no existe, la dosis se descarta. Si la toma quedó registrada, se guarda
+     * también en la base local.
      */
-    public void obtenerTomasPorMedicamento(String medicamentoId, FirestoreListCallback callback) {
+    public void enviarTomaPendienteVerificada(TomaPendiente pendiente, FirestoreCallback callback) {
         FirebaseUser firebaseUser = authService.getCurrentUser();
         if (firebaseUser == null) {
             if (callback != null) {
@@ -447,34 +562,62 @@ public class FirebaseService {
             }
             return;
         }
+        String userId = firebaseUser.getUid();
+        if (!pendiente.esDeUsuario(userId)) {
+            if (callback != null) {
+                callback.onError(new Exception("La toma pendiente es de otro usuario"));
+            }
+            return;
+        }
 
-        db.collection(COLLECTION_TOMAS)
-            .whereEqualTo("userId", firebaseUser.getUid())
-            .whereEqualTo("medicamentoId", medicamentoId)
-            .orderBy("fechaHoraTomada", Query.Direction.DESCENDING)
-            .get()
-            .addOnCompleteListener(task -> {
-                if (task.isSuccessful()) {
-                    List<Toma> tomas = new ArrayList<>();
-                    for (DocumentSnapshot document : task.getResult()) {
-                        tomas.add(mapToToma(document));
-                    }
-                    if (callback != null) {
-                        callback.onSuccess(tomas);
-                    }
-                } else {
-                    Log.e(TAG, "Error al obtener tomas del medicamento", task.getException());
-                    if (callback != null) {
-                        callback.onError(task.getException());
-                    }
+        Map<String, Object> datosToma = tomaPendienteToMap(pendiente, userId);
+        DocumentReference tomaRef = db.collection(COLLECTION_TOMAS).document(pendiente.getClave());
+        DocumentReference medicamentoRef = db.collection(COLLECTION_MEDICAMENTOS).document(pendiente.getMedicamentoId());
+        db.runTransaction(transaction -> {
+                if (transaction.get(tomaRef).exists()) {
+                    return true; // Ya se aplicó en un envío anterior
+                }
+                DocumentSnapshot medicamento = transaction.get(medicamentoRef);
+                if (!medicamento.exists()) {
+                    return false; // El medicamento se eliminó mientras la dosis estaba pendiente
+                }
+                String campoStock = pendiente.getCampoStock();
+                int nuevoValor = Math.max(0, leerEntero(medicamento.get(campoStock)) - 1);
+
+                Map<String, Object> cambios = new HashMap<>();
+                cambios.put(campoStock, nuevoValor);
+                cambios.put("fechaActualizacion", fechaActualizacionIso());
+                if (nuevoValor == 0) {
+                    cambios.put("pausado", true);
+                    cambios.put("activo", false);
+                }
+
+                transaction.set(tomaRef, datosToma);
+                transaction.update(medicamentoRef, cambios);
+                return true;
+            })
+            .addOnSuccessListener(registrada -> {
+                Log.d(TAG, "Toma pendiente verificada: " + pendiente.getClave());
+                if (Boolean.TRUE.equals(registrada)) {
+                    guardarTomasLocales(userId,
+                        Collections.singletonList(TomaCodec.leer(pendiente.getClave(), datosToma)));
+                }
+                if (callback != null) {
+                    callback.onSuccess(pendiente);
+                }
+            })
+            .addOnFailureListener(e -> {
+                Log.e(TAG, "Error al enviar toma pendiente", e);
+                if (callback != null) {
+                    callback.onError(e);
                 }
             });
     }
 
     /**
-     * Obtiene todas las tomas del usuario actual.
+     * Obtiene las tomas registradas para un medicamento específico.
      */
-    public void obtenerTomasUsuario(FirestoreListCallback callback) {
+    public void obtenerTomasPorMedicamento(String medicamentoId, FirestoreListCallback callback) {
         FirebaseUser firebaseUser = authService.getCurrentUser();
         if (firebaseUser == null) {
             if (callback != null) {
@@ -483,59 +626,36 @@ public class FirebaseService {
             return;
         }
 
-        db.collection(COLLECTION_TOMAS)
+        Query consulta = db.collection(COLLECTION_TOMAS)
             .whereEqualTo("userId", firebaseUser.getUid())
-            .orderBy("fechaHoraTomada", Query.Direction.DESCENDING)
-            .get()
-            .addOnCompleteListener(task -> {
-                if (task.isSuccessful()) {
-                    List<Toma> tomas = new ArrayList<>();
-                    for (DocumentSnapshot document : task.getResult()) {
-                        tomas.add(mapToToma(document));
-                    }
-                    if (callback != null) {
-                        callback.onSuccess(tomas);
-                    }
-                } else {
-                    Log.e(TAG, "Error al obtener tomas del usuario", task.getException());
-                    if (callback != null) {
-                        callback.onError(task.getException());
-                    }
-                }
-            });
+            .whereEqualTo("medicamentoId", medicamentoId)
+            .orderBy("fechaHoraTomada", Query.Direction.DESCENDING);
+        consultarTomas(consulta, firebaseUser.getUid(), medicamentoId, null, callback);
     }
 
     /**
-     * Elimina un medicamento
+     * Obtiene todas las tomas del usuario actual.
      */
-    public void eliminarMedicamento(String medicamentoId, FirestoreCallback callback) {
-        db.collection(COLLECTION_MEDICAMENTOS)
-            .document(medicamentoId)
-            .delete()
-            .addOnSuccessListener(new OnSuccessListener<Void>() {
-                @Override
-                public void onSuccess(Void aVoid) {
-                    Log.d(TAG, "Medicamento eliminado exitosamente");
-                    if (callback != null) {
-                        callback.onSuccess(null);
-                    }
-                }
-            })
-            .addOnFailureListener(new OnFailureListener() {
-                @Override
-                public void onFailure(@NonNull Exception e) {
-                    Log.e(TAG, "Error al eliminar medicamento", e);
-                    if (callback != null) {
-                        callback.onError(e);
-                    }
-                }
-            });
+    public void obtenerTomasUsuario(FirestoreListCallback callback) {
+        FirebaseUser firebaseUser = authService.getCurrentUser();
+        if (firebaseUser == null) {
+            if (callback != null) {
+                callback.onError(new Exception("Usuario no autenticado"));
+            }
+            return;
+        }
+
+        Query consulta = db.collection(COLLECTION_TOMAS)
+            .whereEqualTo("userId", firebaseUser.getUid())
+            .orderBy("fechaHoraTomada", Query.Direction.DESCENDING);
+        consultarTomas(consulta, firebaseUser.getUid(), null, null, callback);
     }
 
     /**
-     * Obtiene todos los medicamentos del usuario actual
+     * Obtiene las tomas del usuario actual registradas desde una fecha
+     * (usa el mismo índice userId + fechaHoraTomada que obtenerTomasUsuario)
      */
-    public void obtenerMedicamentos(FirestoreListCallback callback) {
+    public void obtenerTomasUsuarioDesde(Date desde, FirestoreListCallback callback) {
         FirebaseUser firebaseUser = authService.getCurrentUser();
         if (firebaseUser == null) {
             if (callback != null) {
@@ -544,16 +664,390 @@ public class FirebaseService {
             return;
         }
 
-        db.collection(COLLECTION_MEDICAMENTOS)
+        Query consulta = db.collection(COLLECTION_TOMAS)
             .whereEqualTo("userId", firebaseUser.getUid())
-            .get()
-            .addOnCompleteListener(new OnCompleteListener<QuerySnapshot>() {
-                @Override
+            .whereGreaterThanOrEqualTo("fechaHoraTomada", desde)
+            .orderBy("fechaHoraTomada", Query.Direction.DESCENDING);
+        consultarTomas(consulta, firebaseUser.getUid(), null, desde, callback);
+    }
+
+    /**
+     * Obtiene una página de tomas del usuario en orden cronológico (por fecha programada y luego por ID).
+     * Para recorrer todo el historial sin cargarlo entero en memoria.
+     * @param despuesDe última toma de la página anterior, o null para la primera
+     */
+    public void obtenerPaginaTomas(Toma despuesDe, int limite, FirestoreListCallback callback) {
+        FirebaseUser firebaseUser = authService.getCurrentUser();
+        if (firebaseUser == null) {
+            if (callback != null) {
+                callback.onError(new Exception("Usuario no autenticado"));
+            }
+            return;
+        }
+
+        Query consulta = db.collection(COLLECTION_TOMAS)
+            .whereEqualTo("userId", firebaseUser.getUid())
+            .orderBy("fechaHoraProgramada")
+            .orderBy(FieldPath.documentId());
+        if (despuesDe != null) {
+            consulta = consulta.startAfter(despuesDe.getFechaHoraProgramada(), despuesDe.getId());
+        }
+        consulta.limit(limite).get()
+            .addOnSuccessListener(snapshot -> {
+                List<Toma> tomas = new ArrayList<>(snapshot.size());
+                for (DocumentSnapshot document : snapshot.getDocuments()) {
+                    tomas.add(TomaCodec.leer(document));
+                }
+                if (callback != null) {
+                    callback.onSuccess(tomas);
+                }
+            })
+            .addOnFailureListener(e -> {
+                Log.e(TAG, "Error al obtener página de tomas", e);
+                if (callback != null) {
+                    callback.onError(e);
+                }
+            });
+    }
+
+    /**
+     * Copia todas las tomas del usuario a la base local la primera vez (por páginas de
+     * MAX_OPERACIONES_BATCH documentos). Si ya se hizo, o no hay base local, no hace nada.
+     * Devuelve en onSuccess la cantidad de tomas copiadas.
+     */
+    public void hidratarAlmacenLocal(FirestoreCallback callback) {
+        FirebaseUser firebaseUser = authService.getCurrentUser();
+        if (firebaseUser == null) {
+            if (callback != null) {
+                callback.onError(new Exception("Usuario no autenticado"));
+            }
+            return;
+        }
+        if (almacenLocal == null) {
+            if (callback != null) {
+                callback.onSuccess(0);
+            }
+            return;
+        }
+
+        String userId = firebaseUser.getUid();
+        almacenLocal.isHidratado(userId, new FirestoreCallback() {
+            @Override
+            public void onSuccess(Object hidratado) {
+                if (Boolean.TRUE.equals(hidratado)) {
+                    if (callback != null) {
+                        callback.onSuccess(0);
+                    }
+                    return;
+                }
+                Query consulta = db.collection(COLLECTION_TOMAS)
+                    .whereEqualTo("userId", userId)
+                    .orderBy(FieldPath.documentId())
+                    .limit(MAX_OPERACIONES_BATCH);
+                hidratarPagina(consulta, null, 0, userId, callback);
+            }
+
+            @Override
+            public void onError(Exception exception) {
+                if (callback != null) {
+                    callback.onError(exception);
+                }
+            }
+        });
+    }
+
+    private void hidratarPagina(Query consulta, DocumentSnapshot cursor, int copiadas, String userId,
+                                FirestoreCallback callback) {
+        (cursor != null ? consulta.startAfter(cursor) : consulta).get()
+            .addOnSuccessListener(snapshot -> {
+                List<DocumentSnapshot> documentos = snapshot.getDocuments();
+                List<Toma> tomas = new ArrayList<>(documentos.size());
+                for (DocumentSnapshot document : documentos) {
+                    tomas.add(TomaCodec.leer(document));
+                }
+                almacenLocal.guardarTomas(userId, tomas);
+                int total = copiadas + tomas.size();
+
+                if (documentos.size() == MAX_OPERACIONES_BATCH) {
+                    hidratarPagina(consulta, documentos.get(documentos.size() - 1), total, userId, callback);
+                    return;
+                }
+                almacenLocal.marcarHidratado(userId);
+                // Se acaba de copiar todo: cuenta como una sincronización completa
+                marcarTomasSincronizadas(userId, System.currentTimeMillis(), true);
+                Log.d(TAG, "Base local hidratada con " + total + " tomas");
+                if (callback != null) {
+                    callback.onSuccess(total);
+                }
+            })
+            .addOnFailureListener(e -> {
+                // Lo copiado queda guardado; el próximo intento vuelve a empezar y reemplaza
+                Log.e(TAG, "Error al hidratar la base local", e);
+                if (callback != null) {
+                    callback.onError(e);
+                }
+            });
+    }
+
+    private void guardarTomasLocales(String userId, List<Toma> tomas) {
+        if (almacenLocal != null) {
+            almacenLocal.guardarTomas(userId, tomas);
+        }
+    }
+
+    /**
+     * Responde una consulta de tomas. Si la base local ya está hidratada, responde desde ella y después
+     * la pone al día con sincronizarTomasLocales (que no consulta el servidor en cada llamada). Si todavía
+     * no, consulta Firestore: la base local se completa al hidratarse.
+     * @param medicamentoId y desde deben ser los mismos filtros que tiene la consulta
+     */
+    private void consultarTomas(Query consulta, String userId, String medicamentoId, Date desde,
+                                FirestoreListCallback callback) {
+        if (almacenLocal == null) {
+            consultarTomasFirestore(consulta, callback);
+            return;
+        }
+        almacenLocal.isHidratado(userId, new FirestoreCallback() {
+            @Override
+            public void onSuccess(Object hidratado) {
+                if (!Boolean.TRUE.equals(hidratado)) {
+                    consultarTomasFirestore(consulta, callback);
+                    return;
+                }
+                almacenLocal.obtenerTomas(userId, medicamentoId, desde, null, callback);
+                sincronizarTomasLocales(false, null);
+            }
+
+            @Override
+            public void onError(Exception exception) {
+                consultarTomasFirestore(consulta, callback);
+            }
+        });
+    }
+
+    /**
+     * Trae del servidor lo que cambió en las tomas del usuario y lo guarda en la base local.
+     * Normalmente pide solo las tomas con fecha desde la última sincronización (menos un margen para las
+     * registradas con atraso), como mucho una vez por minuto; las escrituras de esta app ya se guardan en
+     * la base local al confirmarse. Una vez por día, o si se pide completa (actualización explícita),
+     * compara todas las tomas con el servidor y borra las eliminadas en otro dispositivo o en la web.
+     * Devuelve en onSuccess la cantidad de tomas recibidas (0 si no hizo falta consultar).
+     */
+    public void sincronizarTomasLocales(boolean completa, FirestoreCallback callback) {
+        FirebaseUser firebaseUser = authService.getCurrentUser();
+        if (firebaseUser == null) {
+            if (callback != null) {
+                callback.onError(new Exception("Usuario no autenticado"));
+            }
+            return;
+        }
+        if (almacenLocal == null) {
+            if (callback != null) {
+                callback.onSuccess(0);
+            }
+            return;
+        }
+
+        String userId = firebaseUser.getUid();
+        long ahora = System.currentTimeMillis();
+        long ultimaSincronizacion = preferences.getLong(PREF_TOMAS_SINCRONIZADAS + userId, 0);
+        boolean reconciliar = completa
+            || ahora - preferences.getLong(PREF_TOMAS_RECONCILIADAS + userId, 0) >= INTERVALO_RECONCILIACION_MS;
+        synchronized (sincronizando) {
+            boolean reciente = !reconciliar && ahora - ultimaSincronizacion < INTERVALO_SINCRONIZACION_MS;
+            if (reciente || !sincronizando.add(userId)) {
+                if (callback != null) {
+                    callback.onSuccess(0);
+                }
+                return;
+            }
+        }
+
+        Query consulta = db.collection(COLLECTION_TOMAS).whereEqualTo("userId", userId);
+        if (!reconciliar) {
+            // Mismo índice userId + fechaHoraTomada que obtenerTomasUsuarioDesde
+            consulta = consulta.whereGreaterThanOrEqualTo("fechaHoraTomada",
+                new Date(ultimaSincronizacion - MARGEN_SINCRONIZACION_MS));
+        }
+        // Solo con datos del servidor: la caché de Firestore puede no tener todas las tomas
+        consulta.orderBy("fechaHoraTomada", Query.Direction.DESCENDING).get(Source.SERVER)
+            .addOnSuccessListener(snapshot -> {
+                List<Toma> tomas = new ArrayList<>(snapshot.size());
+                for (DocumentSnapshot document : snapshot.getDocuments()) {
+                    tomas.add(TomaCodec.leer(document));
+                }
+                if (reconciliar) {
+                    almacenLocal.sincronizarTomas(userId, null, null, tomas);
+                } else {
+                    almacenLocal.guardarTomas(userId, tomas);
+                }
+                marcarTomasSincronizadas(userId, ahora, reconciliar);
+                synchronized (sincronizando) {
+                    sincronizando.remove(userId);
+                }
+                if (callback != null) {
+                    callback.onSuccess(tomas.size());
+                }
+            })
+            .addOnFailureListener(e -> {
+                Log.w(TAG, "No se pudo sincronizar la base local de tomas", e);
+                synchronized (sincronizando) {
+                    sincronizando.remove(userId);
+                }
+                if (callback != null) {
+                    callback.onError(e);
+                }
+            });
+    }
+
+    private void marcarTomasSincronizadas(String userId, long momento, boolean completa) {
+        if (preferences == null) {
+            return;
+        }
+        SharedPreferences.Editor editor = preferences.edit().putLong(PREF_TOMAS_SINCRONIZADAS + userId, momento);
+        if (completa) {
+            editor.putLong(PREF_TOMAS_RECONCILIADAS + userId, momento);
+        }
+        editor.apply();
+    }
+
+    private void consultarTomasFirestore(Query consulta, FirestoreListCallback callback) {
+        consulta.get()
+            .addOnSuccessListener(snapshot -> {
+                List<Toma> tomas = new ArrayList<>(snapshot.size());
+                for (DocumentSnapshot document : snapshot.getDocuments()) {
+                    tomas.add(TomaCodec.leer(document));
+                }
+                if (callback != null) {
+                    callback.onSuccess(tomas);
+                }
+            })
+            .addOnFailureListener(e -> {
+                Log.e(TAG, "Error al obtener tomas", e);
+                if (callback != null) {
+                    callback.onError(e);
+                }
+            });
+    }
+
+    /**
+     * Elimina un medicamento
+     */
+    public void eliminarMedicamento(String medicamentoId, FirestoreCallback callback) {
+        db.collection(COLLECTION_MEDICAMENTOS)
+            .document(medicamentoId)
+            .delete()
+            .addOnSuccessListener(new OnSuccessListener<Void>() {
+                @Override
+                public void onSuccess(Void aVoid) {
+                    Log.d(TAG, "Medicamento eliminado exitosamente");
+                    if (callback != null) {
+                        callback.onSuccess(null);
+                    }
+                }
+            })
+            .addOnFailureListener(new OnFailureListener() {
+                @Override
+                public void onFailure(@NonNull Exception e) {
+                    Log.e(TAG, "Error al eliminar medicamento", e);
+                    if (callback != null) {
+                        callback.onError(e);
+                    }
+                }
+            });
+    }
+
+    /**
+     * Obtiene una página de medicamentos del usuario ordenados por ID
+     * @param despuesDeId ID del último medicamento de la página anterior, o null para la primera
+     */
+    public void obtenerPaginaMedicamentos(String despuesDeId, int limite, FirestoreListCallback callback) {
+        FirebaseUser firebaseUser = authService.getCurrentUser();
+        if (firebaseUser == null) {
+            if (callback != null) {
+                callback.onError(new Exception("Usuario no autenticado"));
+            }
+            return;
+        }
+
+        Query consulta = db.collection(COLLECTION_MEDICAMENTOS)
+            .whereEqualTo("userId", firebaseUser.getUid())
+            .orderBy(FieldPath.documentId());
+        if (despuesDeId != null) {
+            consulta = consulta.startAfter(despuesDeId);
+        }
+        consulta.limit(limite).get()
+            .addOnSuccessListener(snapshot -> {
+                List<Medicamento> medicamentos = new ArrayList<>(snapshot.size());
+                for (DocumentSnapshot document : snapshot.getDocuments()) {
+                    medicamentos.add(MedicamentoCodec.leer(document));
+                }
+                if (callback != null) {
+                    callback.onSuccess(medicamentos);
+                }
+            })
+            .addOnFailureListener(e -> {
+                Log.e(TAG, "Error al obtener página de medicamentos", e);
+                if (callback != null) {
+                    callback.onError(e);
+                }
+            });
+    }
+
+    /**
+     * Obtiene los resúmenes mensuales de tomas archivadas del usuario (ver ArchivoTomas)
+     */
+    public void obtenerResumenesMensuales(FirestoreListCallback callback) {
+        FirebaseUser firebaseUser = authService.getCurrentUser();
+        if (firebaseUser == null) {
+            if (callback != null) {
+                callback.onError(new Exception("Usuario no autenticado"));
+            }
+            return;
+        }
+
+        db.collection(ArchivoTomas.COLLECTION_RESUMENES)
+            .whereEqualTo("userId", firebaseUser.getUid())
+            .get()
+            .addOnSuccessListener(snapshot -> {
+                List<ResumenMensualTomas> resumenes = new ArrayList<>(snapshot.size());
+                for (DocumentSnapshot document : snapshot.getDocuments()) {
+                    resumenes.add(ResumenMensualCodec.leer(document));
+                }
+                if (callback != null) {
+                    callback.onSuccess(resumenes);
+                }
+            })
+            .addOnFailureListener(e -> {
+                Log.e(TAG, "Error al obtener resúmenes mensuales", e);
+                if (callback != null) {
+                    callback.onError(e);
+                }
+            });
+    }
+
+    /**
+     * Obtiene todos los medicamentos del usuario actual
+     */
+    public void obtenerMedicamentos(FirestoreListCallback callback) {
+        FirebaseUser firebaseUser = authService.getCurrentUser();
+        if (firebaseUser == null) {
+            if (callback != null) {
+                callback.onError(new Exception("Usuario no autenticado"));
+            }
+            return;
+        }
+
+        db.collection(COLLECTION_MEDICAMENTOS)
+            .whereEqualTo("userId", firebaseUser.getUid())
+            .get()
+            .addOnCompleteListener(new OnCompleteListener<QuerySnapshot>() {
+                @Override
                 public void onComplete(@NonNull Task<QuerySnapshot> task) {
                     if (task.isSuccessful()) {
                         List<Medicamento> medicamentos = new ArrayList<>();
                         for (DocumentSnapshot document : task.getResult()) {
-                            Medicamento medicamento = mapToMedicamento(document);
+                            Medicamento medicamento = MedicamentoCodec.leer(document);
                             medicamentos.add(medicamento);
                         }
                         if (callback != null) {
@@ -569,6 +1063,62 @@ public class FirebaseService {
             });
     }
 
+    /**
+     * Cuenta los medicamentos del usuario actual sin descargarlos (consulta de agregación count()).
+     * Devuelve un Integer en onSuccess.
+     */
+    public void contarMedicamentos(FirestoreCallback callback) {
+        FirebaseUser firebaseUser = authService.getCurrentUser();
+        if (firebaseUser == null) {
+            if (callback != null) {
+                callback.onError(new Exception("Usuario no autenticado"));
+            }
+            return;
+        }
+
+        // Si hay un listener de medicamentos activo, su último resultado ya tiene la cantidad
+        int enListener = ListenersCompartidos.getInstance()
+            .cantidadDocumentos(claveListener(COLLECTION_MEDICAMENTOS, firebaseUser.getUid()));
+        if (enListener >= 0) {
+            if (callback != null) {
+                callback.onSuccess(enListener);
+            }
+            return;
+        }
+
+        contar(db.collection(COLLECTION_MEDICAMENTOS)
+            .whereEqualTo("userId", firebaseUser.getUid()), callback);
+    }
+
+    /**
+     * Ejecuta count() sobre la consulta. El servidor solo devuelve el número; si no hay conexión
+     * (las agregaciones no usan la caché) se cuentan los documentos en caché sin mapearlos.
+     */
+    private void contar(Query consulta, FirestoreCallback callback) {
+        consulta.count()
+            .get(AggregateSource.SERVER)
+            .addOnSuccessListener(snapshot -> {
+                if (callback != null) {
+                    callback.onSuccess((int) snapshot.getCount());
+                }
+            })
+            .addOnFailureListener(e -> {
+                Log.w(TAG, "No se pudo contar en el servidor, se usa la caché", e);
+                consulta.get(Source.CACHE)
+                    .addOnSuccessListener(snapshot -> {
+                        if (callback != null) {
+                            callback.onSuccess(snapshot.size());
+                        }
+                    })
+                    .addOnFailureListener(errorCache -> {
+                        Log.e(TAG, "Error al contar documentos", errorCache);
+                        if (callback != null) {
+                            callback.onError(errorCache);
+                        }
+                    });
+            });
+    }
+
     /**
      * Obtiene un medicamento por ID
      */
@@ -580,7 +1130,7 @@ public class FirebaseService {
                 if (task.isSuccessful()) {
                     DocumentSnapshot document = task.getResult();
                     if (document != null && document.exists()) {
-                        Medicamento medicamento = mapToMedicamento(document);
+                        Medicamento medicamento = MedicamentoCodec.leer(document);
                         medicamento.setId(document.getId());
                         if (callback != null) {
                             callback.onSuccess(medicamento);
@@ -622,7 +1172,7 @@ public class FirebaseService {
                     if (task.isSuccessful()) {
                         List<Medicamento> medicamentos = new ArrayList<>();
                         for (DocumentSnapshot document : task.getResult()) {
-                            Medicamento medicamento = mapToMedicamento(document);
+                            Medicamento medicamento = MedicamentoCodec.leer(document);
                             medicamentos.add(medicamento);
                         }
                         if (callback != null) {
@@ -641,7 +1191,8 @@ public class FirebaseService {
     // ==================== LISTENERS EN TIEMPO REAL ====================
 
     /**
-     * Agrega un listener para cambios en tiempo real de medicamentos
+     * Agrega un listener para cambios en tiempo real de medicamentos. Todas las pantallas comparten
+     * un único listener de Firestore por usuario (ver ListenersCompartidos); remove() da de baja solo a este.
      */
     public com.google.firebase.firestore.ListenerRegistration agregarListenerMedicamentos(
             FirestoreListCallback callback) {
@@ -653,28 +1204,150 @@ public class FirebaseService {
             return null;
         }
 
-        return db.collection(COLLECTION_MEDICAMENTOS)
+        return ListenersCompartidos.getInstance().suscribir(
+            claveListener(COLLECTION_MEDICAMENTOS, firebaseUser.getUid()),
+            db.collection(COLLECTION_MEDICAMENTOS).whereEqualTo("userId", firebaseUser.getUid()),
+            MedicamentoCodec::leer,
+            callback);
+    }
+
+    /**
+     * Agrega un listener con la lista completa de tomas del usuario (de la más reciente a la más antigua),
+     * compartido entre pantallas igual que el de medicamentos
+     */
+    public com.google.firebase.firestore.ListenerRegistration agregarListenerTodasLasTomas(
+            FirestoreListCallback callback) {
+        FirebaseUser firebaseUser = authService.getCurrentUser();
+        if (firebaseUser == null) {
+            if (callback != null) {
+                callback.onError(new Exception("Usuario no autenticado"));
+            }
+            return null;
+        }
+
+        return ListenersCompartidos.getInstance().suscribir(
+            claveListener(COLLECTION_TOMAS, firebaseUser.getUid()),
+            db.collection(COLLECTION_TOMAS)
+                .whereEqualTo("userId", firebaseUser.getUid())
+                .orderBy("fechaHoraTomada", Query.Direction.DESCENDING),
+            TomaCodec::leer,
+            callback);
+    }
+
+    /**
+     * Agrega un listener con los resúmenes mensuales de tomas archivadas del usuario (ver ArchivoTomas),
+     * compartido entre pantallas. Se escucha junto con las tomas: al archivar, unas pasan a los otros.
+     */
+    public com.google.firebase.firestore.ListenerRegistration agregarListenerResumenesMensuales(
+            FirestoreListCallback callback) {
+        FirebaseUser firebaseUser = authService.getCurrentUser();
+        if (firebaseUser == null) {
+            if (callback != null) {
+                callback.onError(new Exception("Usuario no autenticado"));
+            }
+            return null;
+        }
+
+        return ListenersCompartidos.getInstance().suscribir(
+            claveListener(ArchivoTomas.COLLECTION_RESUMENES, firebaseUser.getUid()),
+            db.collection(ArchivoTomas.COLLECTION_RESUMENES).whereEqualTo("userId", firebaseUser.getUid()),
+            ResumenMensualCodec::leer,
+            callback);
+    }
+
+    private static String claveListener(String coleccion, String userId) {
+        return coleccion + "/" + userId;
+    }
+
+    /**
+     * Escucha en tiempo real las tomas de un medicamento (de la más reciente a la más antigua).
+     * El callback recibe solo los cambios (List<CambioToma>); la primera vez, todas las tomas como agregadas.
+     */
+    public com.google.firebase.firestore.ListenerRegistration agregarListenerTomasMedicamento(
+            String medicamentoId, FirestoreListCallback callback) {
+        FirebaseUser firebaseUser = authService.getCurrentUser();
+        if (firebaseUser == null) {
+            if (callback != null) {
+                callback.onError(new Exception("Usuario no autenticado"));
+            }
+            return null;
+        }
+
+        return escucharTomas(db.collection(COLLECTION_TOMAS)
+            .whereEqualTo("userId", firebaseUser.getUid())
+            .whereEqualTo("medicamentoId", medicamentoId)
+            .orderBy("fechaHoraTomada", Query.Direction.DESCENDING), firebaseUser.getUid(), callback);
+    }
+
+    /**
+     * Escucha en tiempo real todas las tomas del usuario (de la más reciente a la más antigua).
+     * El callback recibe solo los cambios (List<CambioToma>); la primera vez, todas las tomas como agregadas.
+     */
+    public com.google.firebase.firestore.ListenerRegistration agregarListenerTomasUsuario(
+            FirestoreListCallback callback) {
+        FirebaseUser firebaseUser = authService.getCurrentUser();
+        if (firebaseUser == null) {
+            if (callback != null) {
+                callback.onError(new Exception("Usuario no autenticado"));
+            }
+            return null;
+        }
+
+        return escucharTomas(db.collection(COLLECTION_TOMAS)
             .whereEqualTo("userId", firebaseUser.getUid())
-            .addSnapshotListener((snapshot, e) -> {
-                if (e != null) {
-                    Log.e(TAG, "Error en listener de medicamentos", e);
-                    if (callback != null) {
-                        callback.onError(e);
-                    }
-                    return;
-                }
+            .orderBy("fechaHoraTomada", Query.Direction.DESCENDING), firebaseUser.getUid(), callback);
+    }
 
-                if (snapshot != null) {
-                    List<Medicamento> medicamentos = new ArrayList<>();
-                    for (DocumentSnapshot document : snapshot.getDocuments()) {
-                        Medicamento medicamento = mapToMedicamento(document);
-                        medicamentos.add(medicamento);
-                    }
-                    if (callback != null) {
-                        callback.onSuccess(medicamentos);
-                    }
+    /**
+     * Solo se convierten los documentos que cambiaron; el resto de la lista del receptor queda igual
+     */
+    private com.google.firebase.firestore.ListenerRegistration escucharTomas(Query consulta, String userId,
+                                                                            FirestoreListCallback callback) {
+        boolean[] primeraVez = {true};
+        return consulta.addSnapshotListener((snapshot, e) -> {
+            if (e != null) {
+                Log.e(TAG, "Error en listener de tomas", e);
+                if (callback != null) {
+                    callback.onError(e);
                 }
-            });
+                return;
+            }
+            // La primera entrega se informa aunque esté vacía, para que el receptor sepa que no hay tomas
+            if (snapshot == null || (snapshot.getDocumentChanges().isEmpty() && !primeraVez[0])) {
+                return;
+            }
+            primeraVez[0] = false;
+
+            List<CambioToma> cambios = new ArrayList<>(snapshot.getDocumentChanges().size());
+            List<Toma> actualizadas = new ArrayList<>();
+            List<String> eliminadas = new ArrayList<>();
+            for (DocumentChange cambio : snapshot.getDocumentChanges()) {
+                Toma toma = TomaCodec.leer(cambio.getDocument());
+                CambioToma.Tipo tipo;
+                switch (cambio.getType()) {
+                    case ADDED:
+                        tipo = CambioToma.Tipo.AGREGADA;
+                        actualizadas.add(toma);
+                        break;
+                    case MODIFIED:
+                        tipo = CambioToma.Tipo.MODIFICADA;
+                        actualizadas.add(toma);
+                        break;
+                    default:
+                        tipo = CambioToma.Tipo.ELIMINADA;
+                        eliminadas.add(toma.getId());
+                        break;
+                }
+                cambios.add(new CambioToma(tipo, toma, cambio.getOldIndex(), cambio.getNewIndex()));
+            }
+            guardarTomasLocales(userId, actualizadas);
+            if (almacenLocal != null) {
+                almacenLocal.eliminarTomas(userId, eliminadas);
+            }
+            if (callback != null) {
+                callback.onSuccess(cambios);
+            }
+        });
     }
 
     // ==================== CONVERSIÓN DE OBJETOS ====================
@@ -723,381 +1396,133 @@ public class FirebaseService {
         return map;
     }
 
-    private Toma mapToToma(DocumentSnapshot document) {
-        Toma toma = new Toma();
-        toma.setId(document.getId());
-        toma.setMedicamentoId(document.getString("medicamentoId"));
-        toma.setMedicamentoNombre(document.getString("medicamentoNombre"));
-        toma.setUserId(document.getString("userId"));
-        toma.setObservaciones(document.getString("observaciones"));
-        toma.setFechaHoraProgramada(document.getDate("fechaHoraProgramada"));
-        toma.setFechaHoraTomada(document.getDate("fechaHoraTomada"));
-
-        String estado = document.getString("estado");
-        if (estado != null) {
-            try {
-                toma.setEstado(Toma.EstadoToma.valueOf(estado));
-            } catch (IllegalArgumentException e) {
-                toma.setEstado(Toma.EstadoToma.TOMADA);
-            }
-        } else {
-            toma.setEstado(Toma.EstadoToma.TOMADA);
-        }
-
-        return toma;
+    private Map<String, Object> tomaPendienteToMap(TomaPendiente pendiente, String userId) {
+        Map<String, Object> map = new HashMap<>();
+        map.put("medicamentoId", pendiente.getMedicamentoId());
+        map.put("medicamentoNombre", pendiente.getMedicamentoNombre());
+        map.put("userId", userId);
+        map.put("estado", Toma.EstadoToma.TOMADA.name());
+        map.put("observaciones", pendiente.getObservaciones() != null ? pendiente.getObservaciones() : "");
+        map.put("fechaHoraProgramada", pendiente.getFechaHoraProgramada());
+        map.put("fechaHoraTomada", pendiente.getFechaHoraTomada());
+        map.put("createdAt", new Date());
+        return map;
     }
 
     private Map<String, Object> medicamentoToMap(Medicamento medicamento) {
         Map<String, Object> map = new HashMap<>();
-        map.put("nombre", medicamento.getNombre());
-        map.put("presentacion", medicamento.getPresentacion());
-        map.put("tomasDiarias", medicamento.getTomasDiarias());
-        
-        // Guardar como "primeraToma" (formato usado en React)
-        // Si tomasDiarias = 0, guardar como string vacío "" (medicamento ocasional)
-        // Si tomasDiarias > 0, guardar el horario real
-        String horario = "";
-        if (medicamento.getTomasDiarias() > 0) {
-            horario = medicamento.getHorarioPrimeraToma() != null && !medicamento.getHorarioPrimeraToma().isEmpty() 
-                ? medicamento.getHorarioPrimeraToma() 
-                : "";
-        }
-        // Guardar como "primeraToma" para compatibilidad con React
-        map.put("primeraToma", horario);
-        // También guardar como "horarioPrimeraToma" para compatibilidad con versión anterior de la app
-        map.put("horarioPrimeraToma", horario.isEmpty() ? "00:00" : horario);
-        
-        map.put("afeccion", medicamento.getAfeccion());
-        map.put("stockInicial", medicamento.getStockInicial());
-        map.put("stockActual", medicamento.getStockActual());
-        
-        // Guardar color como string hexadecimal para compatibilidad con la web
-        int colorInt = medicamento.getColor();
-        String colorHex = String.format("#%06X", (0xFFFFFF & colorInt));
-        map.put("color", colorHex);
-        
-        // Guardar días de tratamiento y si es crónico
-        int diasTratamiento = medicamento.getDiasTratamiento();
-        map.put("diasTratamiento", diasTratamiento);
-        map.put("esCronico", diasTratamiento == -1);
-        
-        map.put("activo", medicamento.isActivo());
-        map.put("pausado", medicamento.isPausado());
-        map.put("detalles", medicamento.getDetalles() != null ? medicamento.getDetalles() : "");
+        ponerCampos(map, medicamento, EnumSet.allOf(Medicamento.Campo.class), false);
         map.put("alarmasActivas", true); // Por defecto activas, consistente con React
         
-        if (medicamento.getHorariosTomas() != null) {
-            map.put("horariosTomas", medicamento.getHorariosTomas());
-        }
-        
         // Campos adicionales para compatibilidad con React
         map.put("tomasRealizadas", new ArrayList<>()); // Lista vacía por defecto
         map.put("eventoIdsGoogleCalendar", new ArrayList<>()); // Lista vacía por defecto
         
-        // Guardar fecha de vencimiento como string ISO (formato web) y Timestamp (formato app)
-        if (medicamento.getFechaVencimiento() != null) {
-            SimpleDateFormat isoFormat = new SimpleDateFormat("yyyy-MM-dd", Locale.US);
-            map.put("fechaVencimiento", isoFormat.format(medicamento.getFechaVencimiento()));
-            map.put("fechaVencimientoTimestamp", new com.google.firebase.Timestamp(
-                new java.sql.Timestamp(medicamento.getFechaVencimiento().getTime())));
-        }
-        
-        if (medicamento.getFechaInicioTratamiento() != null) {
-            map.put("fechaInicioTratamiento", new com.google.firebase.Timestamp(
-                new java.sql.Timestamp(medicamento.getFechaInicioTratamiento().getTime())));
-        }
-        
-        if (medicamento.getTipoStock() != null) {
-            map.put("tipoStock", medicamento.getTipoStock().name());
-        }
-        
-        map.put("diasEstimadosDuracion", medicamento.getDiasEstimadosDuracion());
-        map.put("diasRestantesDuracion", medicamento.getDiasRestantesDuracion());
-        
         // Campos de fecha para compatibilidad con React (formato ISO string)
-        SimpleDateFormat isoFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US);
-        isoFormat.setTimeZone(java.util.TimeZone.getTimeZone("UTC"));
-        
         if (medicamento.getFechaInicioTratamiento() != null) {
-            map.put("fechaCreacion", isoFormat.format(medicamento.getFechaInicioTratamiento()));
+            map.put("fechaCreacion", FormatosFecha.instanteIso(medicamento.getFechaInicioTratamiento()));
         } else {
-            map.put("fechaCreacion", isoFormat.format(new Date()));
+            map.put("fechaCreacion", FormatosFecha.instanteIsoActual());
         }
-        map.put("fechaActualizacion", isoFormat.format(new Date()));
+        map.put("fechaActualizacion", FormatosFecha.instanteIsoActual());
         
         return map;
     }
 
-    private Medicamento mapToMedicamento(DocumentSnapshot document) {
-        Medicamento medicamento = new Medicamento();
-        medicamento.setId(document.getId());
-        medicamento.setNombre(document.getString("nombre"));
-        medicamento.setPresentacion(document.getString("presentacion"));
-        
-        // Leer tomasDiarias primero para determinar el comportamiento
-        int tomasDiarias = 0;
-        if (document.get("tomasDiarias") != null) {
-            Object tomasObj = document.get("tomasDiarias");
-            if (tomasObj instanceof Number) {
-                tomasDiarias = ((Number) tomasObj).intValue();
+    /**
+     * Escribe en el mapa las claves de Firestore correspondientes a los campos indicados.
+     * En una actualización parcial los valores nulos se borran del documento con FieldValue.delete();
+     * al crear el documento simplemente se omiten.
+     */
+    private void ponerCampos(Map<String, Object> map, Medicamento medicamento,
+                             Set<Medicamento.Campo> campos, boolean parcial) {
+        if (campos.contains(Medicamento.Campo.NOMBRE)) {
+            map.put("nombre", medicamento.getNombre());
+        }
+        if (campos.contains(Medicamento.Campo.PRESENTACION)) {
+            map.put("presentacion", medicamento.getPresentacion());
+        }
+        if (campos.contains(Medicamento.Campo.TOMAS_DIARIAS) || campos.contains(Medicamento.Campo.HORARIO_PRIMERA_TOMA)) {
+            map.put("tomasDiarias", medicamento.getTomasDiarias());
+            
+            // Guardar como "primeraToma" (formato usado en React)
+            // Si tomasDiarias = 0, guardar como string vacío "" (medicamento ocasional)
+            // Si tomasDiarias > 0, guardar el horario real
+            String horario = "";
+            if (medicamento.getTomasDiarias() > 0) {
+                horario = medicamento.getHorarioPrimeraToma() != null && !medicamento.getHorarioPrimeraToma().isEmpty() 
+                    ? medicamento.getHorarioPrimeraToma() 
+                    : "";
             }
+            // Guardar como "primeraToma" para compatibilidad con React
+            map.put("primeraToma", horario);
+            // También guardar como "horarioPrimeraToma" para compatibilidad con versión anterior de la app
+            map.put("horarioPrimeraToma", horario.isEmpty() ? "00:00" : horario);
         }
-        
-        // IMPORTANTE: Establecer horarioPrimeraToma ANTES de setTomasDiarias
-        // porque setTomasDiarias() llama a generarHorariosTomas() que necesita horarioPrimeraToma
-        // Leer primero "primeraToma" (formato React), luego "horarioPrimeraToma" (formato app anterior)
-        String primeraToma = document.getString("primeraToma");
-        if (primeraToma == null || primeraToma.isEmpty()) {
-            primeraToma = document.getString("horarioPrimeraToma");
+        if (campos.contains(Medicamento.Campo.AFECCION)) {
+            map.put("afeccion", medicamento.getAfeccion());
         }
-        
-        // Si tomasDiarias = 0, mantener primeraToma como "" (vacío) para medicamentos ocasionales
-        // Si tomasDiarias > 0 y no hay horario, usar "00:00" como valor por defecto
-        if (tomasDiarias > 0) {
-            medicamento.setHorarioPrimeraToma(primeraToma != null && !primeraToma.isEmpty() ? primeraToma : "00:00");
-        } else {
-            // Medicamento ocasional: mantener vacío
-            medicamento.setHorarioPrimeraToma(primeraToma != null && !primeraToma.isEmpty() ? primeraToma : "");
+        if (campos.contains(Medicamento.Campo.STOCK_INICIAL)) {
+            map.put("stockInicial", medicamento.getStockInicial());
         }
-        
-        // Ahora establecer tomasDiarias después de horarioPrimeraToma
-        medicamento.setTomasDiarias(tomasDiarias);
-        
-        medicamento.setAfeccion(document.getString("afeccion"));
-        
-        if (document.get("stockInicial") != null) {
-            Object stockObj = document.get("stockInicial");
-            if (stockObj instanceof Number) {
-                medicamento.setStockInicial(((Number) stockObj).intValue());
-            }
+        if (campos.contains(Medicamento.Campo.STOCK_ACTUAL)) {
+            map.put("stockActual", medicamento.getStockActual());
         }
-        if (document.get("stockActual") != null) {
-            Object stockObj = document.get("stockActual");
-            if (stockObj instanceof Number) {
-                medicamento.setStockActual(((Number) stockObj).intValue());
-            }
+        if (campos.contains(Medicamento.Campo.COLOR)) {
+            // Guardar color como string hexadecimal para compatibilidad con la web
+            int colorInt = medicamento.getColor();
+            String colorHex = String.format("#%06X", (0xFFFFFF & colorInt));
+            map.put("color", colorHex);
         }
-        if (document.get("color") != null) {
-            try {
-                Object colorObj = document.get("color");
-                if (colorObj instanceof Number) {
-                    medicamento.setColor(((Number) colorObj).intValue());
-                } else if (colorObj instanceof String) {
-                    // Intentar parsear como string
-                    String colorStr = (String) colorObj;
-                    if (colorStr.startsWith("#")) {
-                        // Si es un color hexadecimal como "#2196F3", convertirlo a int ARGB
-                        // Añadir alpha FF al principio si no está presente
-                        String hexColor = colorStr.substring(1);
-                        if (hexColor.length() == 6) {
-                            hexColor = "FF" + hexColor; // Añadir alpha
-                        }
-                        medicamento.setColor((int) Long.parseLong(hexColor, 16));
-                    } else {
-                        // Si es un número como string
-                        medicamento.setColor(Integer.parseInt(colorStr));
-                    }
-                } else {
-                    Log.w(TAG, "Tipo de color no reconocido: " + colorObj.getClass().getName());
-                    // Valor por defecto: color azul #2196F3 (ARGB: 0xFF2196F3)
-                    medicamento.setColor(0xFF2196F3);
-                }
-            } catch (Exception e) {
-                Log.e(TAG, "Error al convertir color a int", e);
-                // Valor por defecto: color azul #2196F3 (ARGB: 0xFF2196F3)
-                medicamento.setColor(0xFF2196F3);
-            }
-        } else {
-            // Si no hay color, usar el valor por defecto
-            medicamento.setColor(0xFF2196F3);
+        if (campos.contains(Medicamento.Campo.DIAS_TRATAMIENTO)) {
+            // Guardar días de tratamiento y si es crónico
+            int diasTratamiento = medicamento.getDiasTratamiento();
+            map.put("diasTratamiento", diasTratamiento);
+            map.put("esCronico", diasTratamiento == -1);
         }
-        
-        // Manejar días de tratamiento: puede venir como número o como esCronico booleano
-        if (document.get("esCronico") != null && document.getBoolean("esCronico")) {
-            medicamento.setDiasTratamiento(-1);
-        } else if (document.get("diasTratamiento") != null) {
-            Object diasObj = document.get("diasTratamiento");
-            if (diasObj instanceof Number) {
-                medicamento.setDiasTratamiento(((Number) diasObj).intValue());
-            }
+        if (campos.contains(Medicamento.Campo.ACTIVO)) {
+            map.put("activo", medicamento.isActivo());
         }
-        medicamento.setActivo(document.getBoolean("activo") != null ? document.getBoolean("activo") : true);
-        medicamento.setPausado(document.getBoolean("pausado") != null ? document.getBoolean("pausado") : false);
-        medicamento.setDetalles(document.getString("detalles"));
-        
-        // Leer alarmasActivas (por defecto true, consistente con React)
-        // Este campo no está en el modelo Android pero se lee para compatibilidad
-        
-        if (document.get("horariosTomas") != null) {
-            medicamento.setHorariosTomas((List<String>) document.get("horariosTomas"));
+        if (campos.contains(Medicamento.Campo.PAUSADO)) {
+            map.put("pausado", medicamento.isPausado());
         }
-        
-        // Leer campos adicionales para compatibilidad con React
-        // tomasRealizadas y eventoIdsGoogleCalendar no están en el modelo Android
-        // pero se leen del documento para mantener consistencia
-        
-        // Manejar fechaVencimiento: puede venir como Timestamp o como string ISO
-        // IMPORTANTE: Verificar primero el tipo del objeto antes de intentar obtenerlo como Timestamp
-        Object fechaVencimientoObj = document.get("fechaVencimiento");
-        if (fechaVencimientoObj != null) {
-            try {
-                if (fechaVencimientoObj instanceof com.google.firebase.Timestamp) {
-                    // Si es un Timestamp de Firebase
-                    medicamento.setFechaVencimiento(((com.google.firebase.Timestamp) fechaVencimientoObj).toDate());
-                } else if (fechaVencimientoObj instanceof String) {
-                    // Si es un string ISO "yyyy-MM-dd"
-                    try {
-                        String fechaStr = (String) fechaVencimientoObj;
-                        SimpleDateFormat isoFormat = new SimpleDateFormat("yyyy-MM-dd", Locale.US);
-                        medicamento.setFechaVencimiento(isoFormat.parse(fechaStr));
-                    } catch (ParseException e) {
-                        Log.e(TAG, "Error al parsear fechaVencimiento: " + fechaVencimientoObj, e);
-                    }
-                } else {
-                    Log.w(TAG, "Tipo de fechaVencimiento no reconocido: " + fechaVencimientoObj.getClass().getName());
-                }
-            } catch (Exception e) {
-                Log.e(TAG, "Error al procesar fechaVencimiento", e);
-            }
+        if (campos.contains(Medicamento.Campo.DETALLES)) {
+            map.put("detalles", medicamento.getDetalles() != null ? medicamento.getDetalles() : "");
+        }
+        if (campos.contains(Medicamento.Campo.HORARIOS_TOMAS) && medicamento.getHorariosTomas() != null) {
+            map.put("horariosTomas", medicamento.getHorariosTomas());
         }
         
-        // También verificar fechaVencimientoTimestamp si existe
-        Object fechaVencimientoTimestampObj = document.get("fechaVencimientoTimestamp");
-        if (fechaVencimientoTimestampObj != null && fechaVencimientoTimestampObj instanceof com.google.firebase.Timestamp) {
-            medicamento.setFechaVencimiento(((com.google.firebase.Timestamp) fechaVencimientoTimestampObj).toDate());
+        // Guardar fecha de vencimiento como string ISO (formato web) y Timestamp (formato app)
+        if (campos.contains(Medicamento.Campo.FECHA_VENCIMIENTO)) {
+            if (medicamento.getFechaVencimiento() != null) {
+                map.put("fechaVencimiento", FormatosFecha.fechaLocal(medicamento.getFechaVencimiento()));
+                map.put("fechaVencimientoTimestamp", new com.google.firebase.Timestamp(
+                    new java.sql.Timestamp(medicamento.getFechaVencimiento().getTime())));
+            } else if (parcial) {
+                map.put("fechaVencimiento", FieldValue.delete());
+                map.put("fechaVencimientoTimestamp", FieldValue.delete());
+            }
         }
         
-        // Manejar fechaInicioTratamiento: puede venir como Timestamp o como string ISO
-        Object fechaInicioObj = document.get("fechaInicioTratamiento");
-        if (fechaInicioObj != null) {
-            try {
-                if (fechaInicioObj instanceof com.google.firebase.Timestamp) {
-                    medicamento.setFechaInicioTratamiento(((com.google.firebase.Timestamp) fechaInicioObj).toDate());
-                } else if (fechaInicioObj instanceof String) {
-                    try {
-                        String fechaStr = (String) fechaInicioObj;
-                        SimpleDateFormat isoFormat = new SimpleDateFormat("yyyy-MM-dd", Locale.US);
-                        medicamento.setFechaInicioTratamiento(isoFormat.parse(fechaStr));
-                    } catch (ParseException e) {
-                        Log.e(TAG, "Error al parsear fechaInicioTratamiento: " + fechaInicioObj, e);
-                    }
-                }
-            } catch (Exception e) {
-                Log.e(TAG, "Error al procesar fechaInicioTratamiento", e);
+        if (campos.contains(Medicamento.Campo.FECHA_INICIO_TRATAMIENTO)) {
+            if (medicamento.getFechaInicioTratamiento() != null) {
+                map.put("fechaInicioTratamiento", new com.google.firebase.Timestamp(
+                    new java.sql.Timestamp(medicamento.getFechaInicioTratamiento().getTime())));
+            } else if (parcial) {
+                map.put("fechaInicioTratamiento", FieldValue.delete());
             }
         }
-        if (document.getString("tipoStock") != null) {
-            medicamento.setTipoStock(Medicamento.TipoStock.valueOf(document.getString("tipoStock")));
+        
+        if (campos.contains(Medicamento.Campo.TIPO_STOCK) && medicamento.getTipoStock() != null) {
+            map.put("tipoStock", medicamento.getTipoStock().name());
         }
-        if (document.get("diasEstimadosDuracion") != null) {
-            medicamento.setDiasEstimadosDuracion(document.getLong("diasEstimadosDuracion").intValue());
+        if (campos.contains(Medicamento.Campo.DIAS_ESTIMADOS_DURACION)) {
+            map.put("diasEstimadosDuracion", medicamento.getDiasEstimadosDuracion());
         }
-        if (document.get("diasRestantesDuracion") != null) {
-            medicamento.setDiasRestantesDuracion(document.getLong("diasRestantesDuracion").intValue());
+        if (campos.contains(Medicamento.Campo.DIAS_RESTANTES_DURACION)) {
+            map.put("diasRestantesDuracion", medicamento.getDiasRestantesDuracion());
         }
-        return medicamento;
-    }
-
-    /**
-     * Elimina todos los medicamentos del usuario actual
-     */
-    public void eliminarTodosLosMedicamentos(FirestoreCallback callback) {
-        FirebaseUser firebaseUser = authService.getCurrentUser();
-        if (firebaseUser == null) {
-            if (callback != null) {
-                callback.onError(new Exception("Usuario no autenticado"));
-            }
-            return;
-        }
-
-        db.collection(COLLECTION_MEDICAMENTOS)
-            .whereEqualTo("userId", firebaseUser.getUid())
-            .get()
-            .addOnCompleteListener(task -> {
-                if (task.isSuccessful()) {
-                    List<Task<Void>> deleteTasks = new ArrayList<>();
-                    for (DocumentSnapshot document : task.getResult()) {
-                        deleteTasks.add(document.getReference().delete());
-                    }
-                    
-                    if (deleteTasks.isEmpty()) {
-                        if (callback != null) {
-                            callback.onSuccess(null);
-                        }
-                        return;
-                    }
-                    
-                    com.google.android.gms.tasks.Tasks.whenAll(deleteTasks)
-                        .addOnSuccessListener(aVoid -> {
-                            Log.d(TAG, "Todos los medicamentos eliminados exitosamente");
-                            if (callback != null) {
-                                callback.onSuccess(null);
-                            }
-                        })
-                        .addOnFailureListener(e -> {
-                            Log.e(TAG, "Error al eliminar medicamentos", e);
-                            if (callback != null) {
-                                callback.onError(e);
-                            }
-                        });
-                } else {
-                    Log.e(TAG, "Error al obtener medicamentos para eliminar", task.getException());
-                    if (callback != null) {
-                        callback.onError(task.getException());
-                    }
-                }
-            });
-    }
-
-    /**
-     * Elimina todas las tomas del usuario actual
-     */
-    public void eliminarTodasLasTomas(FirestoreCallback callback) {
-        FirebaseUser firebaseUser = authService.getCurrentUser();
-        if (firebaseUser == null) {
-            if (callback != null) {
-                callback.onError(new Exception("Usuario no autenticado"));
-            }
-            return;
-        }
-
-        db.collection(COLLECTION_TOMAS)
-            .whereEqualTo("userId", firebaseUser.getUid())
-            .get()
-            .addOnCompleteListener(task -> {
-                if (task.isSuccessful()) {
-                    List<Task<Void>> deleteTasks = new ArrayList<>();
-                    for (DocumentSnapshot document : task.getResult()) {
-                        deleteTasks.add(document.getReference().delete());
-                    }
-                    
-                    if (deleteTasks.isEmpty()) {
-                        if (callback != null) {
-                            callback.onSuccess(null);
-                        }
-                        return;
-                    }
-                    
-                    com.google.android.gms.tasks.Tasks.whenAll(deleteTasks)
-                        .addOnSuccessListener(aVoid -> {
-                            Log.d(TAG, "Todas las tomas eliminadas exitosamente");
-                            if (callback != null) {
-                                callback.onSuccess(null);
-                            }
-                        })
-                        .addOnFailureListener(e -> {
-                            Log.e(TAG, "Error al eliminar tomas", e);
-                            if (callback != null) {
-                                callback.onError(e);
-                            }
-                        });
-                } else {
-                    Log.e(TAG, "Error al obtener tomas para eliminar", task.getException());
-                    if (callback != null) {
-                        callback.onError(task.getException());
-                    }
-                }
-            });
     }
 
     /**
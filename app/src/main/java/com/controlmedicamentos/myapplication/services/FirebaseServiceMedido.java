@@ -0,0 +1,271 @@
+package com.controlmedicamentos.myapplication.services;
+
+import android.content.Context;
+import com.controlmedicamentos.myapplication.models.Medicamento;
+import com.controlmedicamentos.myapplication.models.Toma;
+import com.controlmedicamentos.myapplication.models.TomaPendiente;
+import com.controlmedicamentos.myapplication.models.Usuario;
+import com.google.firebase.firestore.ListenerRegistration;
+import java.util.Date;
+import java.util.List;
+import java.util.function.ToIntFunction;
+
+/**
+ * FirebaseService que registra en MetricasFirebase la latencia, los errores y los documentos leídos
+ * y escritos de cada operación, envolviendo el callback. Es la instancia que entrega Dependencias,
+ * así que las pantallas lo usan sin cambios.
+ *
+ * Los documentos se estiman por operación: en las consultas, los de la lista devuelta; en las demás,
+ * los que lee y escribe cada una (por ejemplo, restar stock lee el medicamento y escribe el medicamento y la toma).
+ */
+class FirebaseServiceMedido extends FirebaseService {
+    private static final ToIntFunction<Object> NINGUNO = resultado -> 0;
+    private static final ToIntFunction<Object> UNO = resultado -> 1;
+    private static final ToIntFunction<Object> DOS = resultado -> 2;
+
+    private final MetricasFirebase metricas = MetricasFirebase.getInstance();
+
+    FirebaseServiceMedido(Context context) {
+        super(context);
+    }
+
+    // ==================== USUARIOS ====================
+
+    @Override
+    public void guardarUsuario(Usuario usuario, FirestoreCallback callback) {
+        super.guardarUsuario(usuario, medir("guardarUsuario", NINGUNO, UNO, callback));
+    }
+
+    @Override
+    public void obtenerUsuarioActual(FirestoreCallback callback) {
+        super.obtenerUsuarioActual(medir("obtenerUsuarioActual", UNO, NINGUNO, callback));
+    }
+
+    @Override
+    public void eliminarUsuario(FirestoreCallback callback) {
+        super.eliminarUsuario(medir("eliminarUsuario", NINGUNO, UNO, callback));
+    }
+
+    // ==================== MEDICAMENTOS ====================
+
+    @Override
+    public void guardarMedicamento(Medicamento medicamento, FirestoreCallback callback) {
+        super.guardarMedicamento(medicamento, medir("guardarMedicamento", NINGUNO, UNO, callback));
+    }
+
+    @Override
+    public void actualizarMedicamento(Medicamento medicamento, FirestoreCallback callback) {
+        super.actualizarMedicamento(medicamento, medir("actualizarMedicamento", NINGUNO, UNO, callback));
+    }
+
+    @Override
+    public void migrarTomasRealizadas(String medicamentoId, FirestoreCallback callback) {
+        // Lee el medicamento y escribe una toma por entrada copiada (el resultado es la cantidad total)
+        super.migrarTomasRealizadas(medicamentoId, medir("migrarTomasRealizadas", UNO,
+            resultado -> resultado instanceof Integer ? (Integer) resultado : 0, callback));
+    }
+
+    @Override
+    public void eliminarMedicamento(String medicamentoId, FirestoreCallback callback) {
+        super.eliminarMedicamento(medicamentoId, medir("eliminarMedicamento", NINGUNO, UNO, callback));
+    }
+
+    @Override
+    public void obtenerMedicamentos(FirestoreListCallback callback) {
+        super.obtenerMedicamentos(medirLista("obtenerMedicamentos", callback));
+    }
+
+    @Override
+    public void obtenerMedicamentosActivos(FirestoreListCallback callback) {
+        super.obtenerMedicamentosActivos(medirLista("obtenerMedicamentosActivos", callback));
+    }
+
+    @Override
+    public void obtenerPaginaMedicamentos(String despuesDeId, int limite, FirestoreListCallback callback) {
+        super.obtenerPaginaMedicamentos(despuesDeId, limite, medirLista("obtenerPaginaMedicamentos", callback));
+    }
+
+    @Override
+    public void obtenerMedicamento(String medicamentoId, FirestoreCallback callback) {
+        super.obtenerMedicamento(medicamentoId, medir("obtenerMedicamento", UNO, NINGUNO, callback));
+    }
+
+    @Override
+    public void contarMedicamentos(FirestoreCallback callback) {
+        super.contarMedicamentos(medir("contarMedicamentos", UNO, NINGUNO, callback));
+    }
+
+    // ==================== TOMAS ====================
+
+    @Override
+    public void guardarToma(Toma toma, FirestoreCallback callback) {
+        super.guardarToma(toma, medir("guardarToma", NINGUNO, UNO, callback));
+    }
+
+    @Override
+    public void enviarTomasPendientes(List<TomaPendiente> lote, FirestoreCallback callback) {
+        int escritos = lote != null ? lote.size() * 2 : 0;
+        super.enviarTomasPendientes(lote, medir("enviarTomasPendientes", NINGUNO, resultado -> escritos, callback));
+    }
+
+    @Override
+    public void enviarTomaPendienteVerificada(TomaPendiente pendiente, FirestoreCallback callback) {
+        super.enviarTomaPendienteVerificada(pendiente, medir("enviarTomaPendienteVerificada", DOS, DOS, callback));
+    }
+
+    @Override
+    public void obtenerTomasPorMedicamento(String medicamentoId, FirestoreListCallback callback) {
+        super.obtenerTomasPorMedicamento(medicamentoId, medirLista("obtenerTomasPorMedicamento", callback));
+    }
+
+    @Override
+    public void obtenerTomasUsuario(FirestoreListCallback callback) {
+        super.obtenerTomasUsuario(medirLista("obtenerTomasUsuario", callback));
+    }
+
+    @Override
+    public void obtenerTomasUsuarioDesde(Date desde, FirestoreListCallback callback) {
+        super.obtenerTomasUsuarioDesde(desde, medirLista("obtenerTomasUsuarioDesde", callback));
+    }
+
+    @Override
+    public void obtenerPaginaTomas(Toma despuesDe, int limite, FirestoreListCallback callback) {
+        super.obtenerPaginaTomas(despuesDe, limite, medirLista("obtenerPaginaTomas", callback));
+    }
+
+    @Override
+    public void obtenerResumenesMensuales(FirestoreListCallback callback) {
+        super.obtenerResumenesMensuales(medirLista("obtenerResumenesMensuales", callback));
+    }
+
+    @Override
+    public void hidratarAlmacenLocal(FirestoreCallback callback) {
+        super.hidratarAlmacenLocal(medir("hidratarAlmacenLocal",
+            resultado -> resultado instanceof Integer ? (Integer) resultado : 0, NINGUNO, callback));
+    }
+
+    // ==================== LISTENERS ====================
+
+    @Override
+    public ListenerRegistration agregarListenerMedicamentos(FirestoreListCallback callback) {
+        return super.agregarListenerMedicamentos(medirListener("listenerMedicamentos", callback));
+    }
+
+    @Override
+    public ListenerRegistration agregarListenerTodasLasTomas(FirestoreListCallback callback) {
+        return super.agregarListenerTodasLasTomas(medirListener("listenerTodasLasTomas", callback));
+    }
+
+    @Override
+    public ListenerRegistration agregarListenerResumenesMensuales(FirestoreListCallback callback) {
+        return super.agregarListenerResumenesMensuales(medirListener("listenerResumenesMensuales", callback));
+    }
+
+    @Override
+    public ListenerRegistration agregarListenerTomasMedicamento(String medicamentoId, FirestoreListCallback callback) {
+        return super.agregarListenerTomasMedicamento(medicamentoId, medirListener("listenerTomasMedicamento", callback));
+    }
+
+    @Override
+    public ListenerRegistration agregarListenerTomasUsuario(FirestoreListCallback callback) {
+        return super.agregarListenerTomasUsuario(medirListener("listenerTomasUsuario", callback));
+    }
+
+    // ==================== MEDICIÓN ====================
+
+    private FirestoreCallback medir(String operacion, ToIntFunction<Object> leidos, ToIntFunction<Object> escritos,
+                                    FirestoreCallback callback) {
+        if (callback instanceof CallbackMedido) {
+            return callback;
+        }
+        return new CallbackMedido(operacion, leidos, escritos, callback);
+    }
+
+    /**
+     * Mide desde la llamada hasta el resultado; los documentos leídos son los de la lista
+     */
+    private FirestoreListCallback medirLista(String operacion, FirestoreListCallback callback) {
+        long inicio = System.nanoTime();
+        return new FirestoreListCallback() {
+            @Override
+            public void onSuccess(List<?> result) {
+                metricas.registrar(operacion, System.nanoTime() - inicio, false, result != null ? result.size() : 0, 0);
+                if (callback != null) {
+                    callback.onSuccess(result);
+                }
+            }
+
+            @Override
+            public void onError(Exception exception) {
+                metricas.registrar(operacion, System.nanoTime() - inicio, true, 0, 0);
+                if (callback != null) {
+                    callback.onError(exception);
+                }
+            }
+        };
+    }
+
+    /**
+     * Los listeners entregan resultados muchas veces: se mide cuánto tarda el callback en procesar cada uno,
+     * y sus documentos se cuentan como entregados (no como leídos)
+     */
+    private FirestoreListCallback medirListener(String operacion, FirestoreListCallback callback) {
+        if (callback == null) {
+            return null;
+        }
+        return new FirestoreListCallback() {
+            @Override
+            public void onSuccess(List<?> result) {
+                long inicio = System.nanoTime();
+                try {
+                    callback.onSuccess(result);
+                } finally {
+                    metricas.registrarEntrega(operacion, System.nanoTime() - inicio, false, result != null ? result.size() : 0);
+                }
+            }
+
+            @Override
+            public void onError(Exception exception) {
+                long inicio = System.nanoTime();
+                try {
+                    callback.onError(exception);
+                } finally {
+                    metricas.registrarEntrega(operacion, System.nanoTime() - inicio, true, 0);
+                }
+            }
+        };
+    }
+
+    private class CallbackMedido implements FirestoreCallback {
+        private final String operacion;
+        private final ToIntFunction<Object> leidos;
+        private final ToIntFunction<Object> escritos;
+        private final FirestoreCallback callback;
+        private final long inicio = System.nanoTime();
+
+        CallbackMedido(String operacion, ToIntFunction<Object> leidos, ToIntFunction<Object> escritos,
+                       FirestoreCallback callback) {
+            this.operacion = operacion;
+            this.leidos = leidos;
+            this.escritos = escritos;
+            this.callback = callback;
+        }
+
+        @Override
+        public void onSuccess(Object result) {
+            metricas.registrar(operacion, System.nanoTime() - inicio, false,
+                leidos.applyAsInt(result), escritos.applyAsInt(result));
+            if (callback != null) {
+                callback.onSuccess(result);
+            }
+        }
+
+        @Override
+        public void onError(Exception exception) {
+            metricas.registrar(operacion, System.nanoTime() - inicio, true, 0, 0);
+            if (callback != null) {
+                callback.onError(exception);
+            }
+        }
+    }
+}
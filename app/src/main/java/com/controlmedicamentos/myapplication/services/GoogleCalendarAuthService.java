@@ -8,10 +8,10 @@ import com.google.firebase.auth.FirebaseUser;
 import com.google.firebase.firestore.DocumentSnapshot;
 import com.google.firebase.firestore.FirebaseFirestore;
 
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
 import java.util.HashMap;
-import java.util.Locale;
 import java.util.Map;
 
 /**
@@ -21,6 +21,11 @@ import java.util.Map;
 public class GoogleCalendarAuthService {
     private static final String TAG = "GoogleCalendarAuth";
     private static final String COLLECTION_GOOGLE_TOKENS = "googleTokens";
+    private static final DateTimeFormatter ISO_FORMAT =
+        DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'").withZone(ZoneOffset.UTC);
+    
+    // Caché en memoria compartida por todas las instancias del servicio
+    private static final CacheTokenGoogle CACHE = new CacheTokenGoogle();
     
     private Context context;
     private FirebaseFirestore db;
@@ -28,7 +33,7 @@ public class GoogleCalendarAuthService {
     
     public GoogleCalendarAuthService(Context context) {
         this.context = context;
-        this.db = FirebaseFirestore.getInstance();
+        this.db = Dependencias.firestore();
         this.authService = new AuthService();
     }
     
@@ -49,14 +54,13 @@ public class GoogleCalendarAuthService {
         Map<String, Object> tokenParaGuardar = new HashMap<>(tokenData);
         
         // Agregar metadatos
-        SimpleDateFormat isoFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US);
-        isoFormat.setTimeZone(java.util.TimeZone.getTimeZone("UTC"));
-        tokenParaGuardar.put("fechaActualizacion", isoFormat.format(new Date()));
+        String fechaActual = ISO_FORMAT.format(Instant.now());
+        tokenParaGuardar.put("fechaActualizacion", fechaActual);
         tokenParaGuardar.put("userId", userId);
         
         // Si no tiene fechaObtencion, agregarla
         if (!tokenParaGuardar.containsKey("fechaObtencion")) {
-            tokenParaGuardar.put("fechaObtencion", isoFormat.format(new Date()));
+            tokenParaGuardar.put("fechaObtencion", fechaActual);
         }
         
         db.collection(COLLECTION_GOOGLE_TOKENS)
@@ -64,6 +68,7 @@ public class GoogleCalendarAuthService {
             .set(tokenParaGuardar)
             .addOnSuccessListener(aVoid -> {
                 Log.d(TAG, "Token de Google Calendar guardado exitosamente");
+                CACHE.guardado(userId, tokenParaGuardar);
                 if (callback != null) {
                     callback.onSuccess(tokenParaGuardar);
                 }
@@ -80,6 +85,10 @@ public class GoogleCalendarAuthService {
      * Obtiene el token de acceso de Google del usuario
      * Verifica si el token está expirado
      * Consistente con React: calendarService.js - obtenerTokenGoogle()
+     * 
+     * El token se mantiene en memoria (ver CacheTokenGoogle), también cuando el usuario no tiene uno:
+     * Firestore se lee la primera vez, cuando expira o cuando está por expirar.
+     * Las llamadas concurrentes comparten una única lectura en curso.
      */
     public void obtenerTokenGoogle(FirestoreCallback callback) {
         FirebaseUser firebaseUser = authService.getCurrentUser();
@@ -90,55 +99,32 @@ public class GoogleCalendarAuthService {
             return;
         }
         
-        String userId = firebaseUser.getUid();
-        
+        CacheTokenGoogle.Lectura lectura = CACHE.obtener(firebaseUser.getUid(), System.currentTimeMillis(), callback);
+        if (lectura != null) {
+            leerTokenDeFirestore(lectura);
+        }
+    }
+    
+    /**
+     * Lee el token de Firestore y entrega el resultado a la caché, que lo reparte a los que esperan
+     */
+    private void leerTokenDeFirestore(CacheTokenGoogle.Lectura lectura) {
         db.collection(COLLECTION_GOOGLE_TOKENS)
-            .document(userId)
+            .document(lectura.userId)
             .get()
             .addOnCompleteListener(task -> {
+                Map<String, Object> tokenData = null;
                 if (task.isSuccessful()) {
                     DocumentSnapshot document = task.getResult();
-                    if (document != null && document.exists()) {
-                        Map<String, Object> tokenData = document.getData();
-                        if (tokenData != null) {
-                            // Verificar si el token está expirado
-                            if (esTokenExpirado(tokenData)) {
-                                Log.d(TAG, "Token de Google Calendar expirado, eliminando");
-                                eliminarTokenGoogle(new FirestoreCallback() {
-                                    @Override
-                                    public void onSuccess(Object result) {
-                                        if (callback != null) {
-                                            callback.onSuccess(null);
-                                        }
-                                    }
-                                    
-                                    @Override
-                                    public void onError(Exception exception) {
-                                        if (callback != null) {
-                                            callback.onSuccess(null);
-                                        }
-                                    }
-                                });
-                            } else {
-                                if (callback != null) {
-                                    callback.onSuccess(tokenData);
-                                }
-                            }
-                        } else {
-                            if (callback != null) {
-                                callback.onSuccess(null);
-                            }
-                        }
-                    } else {
-                        if (callback != null) {
-                            callback.onSuccess(null);
-                        }
-                    }
+                    tokenData = document != null && document.exists() ? document.getData() : null;
                 } else {
                     Log.e(TAG, "Error al obtener token de Google Calendar", task.getException());
-                    if (callback != null) {
-                        callback.onSuccess(null); // No es crítico, retornar null
-                    }
+                }
+                // Si falla no es crítico: se entrega null y no se cachea
+                boolean expirado = CACHE.completar(lectura, tokenData, task.isSuccessful(), System.currentTimeMillis());
+                if (expirado) {
+                    Log.d(TAG, "Token de Google Calendar expirado, eliminando");
+                    eliminarTokenGoogle(null);
                 }
             });
     }
@@ -163,6 +149,7 @@ public class GoogleCalendarAuthService {
             .delete()
             .addOnSuccessListener(aVoid -> {
                 Log.d(TAG, "Token de Google Calendar eliminado exitosamente");
+                CACHE.eliminado(userId);
                 if (callback != null) {
                     callback.onSuccess(null);
                 }
@@ -175,46 +162,6 @@ public class GoogleCalendarAuthService {
             });
     }
     
-    /**
-     * Verifica si el token está expirado
-     * Consistente con React: googleAuthHelper.js - esTokenExpirado()
-     */
-    private boolean esTokenExpirado(Map<String, Object> tokenData) {
-        if (tokenData == null) {
-            return true;
-        }
-        
-        Object fechaObtencionObj = tokenData.get("fechaObtencion");
-        Object expiresInObj = tokenData.get("expires_in");
-        
-        if (fechaObtencionObj == null || expiresInObj == null) {
-            return false; // No sabemos si está expirado, asumir que no
-        }
-        
-        try {
-            String fechaObtencionStr = fechaObtencionObj.toString();
-            long expiresIn = ((Number) expiresInObj).longValue();
-            
-            SimpleDateFormat isoFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US);
-            isoFormat.setTimeZone(java.util.TimeZone.getTimeZone("UTC"));
-            Date fechaObtencion = isoFormat.parse(fechaObtencionStr);
-            
-            if (fechaObtencion == null) {
-                return false;
-            }
-            
-            Date fechaExpiracion = new Date(fechaObtencion.getTime() + (expiresIn * 1000));
-            Date ahora = new Date();
-            
-            // Considerar expirado si falta menos de 5 minutos
-            return ahora.after(fechaExpiracion) || 
-                   (fechaExpiracion.getTime() - ahora.getTime()) < (5 * 60 * 1000);
-        } catch (Exception e) {
-            Log.e(TAG, "Error al verificar expiración del token", e);
-            return false;
-        }
-    }
-    
     /**
      * Verifica si el usuario tiene Google Calendar conectado
      * Consistente con React: calendarService.js - tieneGoogleCalendarConectado()
@@ -1,28 +1,27 @@
 package com.controlmedicamentos.myapplication.services;
 
+import android.content.Context;
 import android.util.Log;
 
+import com.controlmedicamentos.myapplication.models.HorarioDiario;
 import com.controlmedicamentos.myapplication.models.Medicamento;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
 import java.io.IOException;
-import java.text.SimpleDateFormat;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.util.ArrayList;
-import java.util.Calendar;
-import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Locale;
+import java.util.Map;
 
 import okhttp3.Call;
 import okhttp3.Callback;
-import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.RequestBody;
 import okhttp3.Response;
+import okhttp3.ResponseBody;
 
 /**
  * Servicio para interactuar con la API de Google Calendar
@@ -31,12 +30,23 @@ import okhttp3.Response;
 public class GoogleCalendarService {
     private static final String TAG = "GoogleCalendarService";
     private static final String CALENDAR_API_BASE_URL = "https://www.googleapis.com/calendar/v3/calendars/primary/events";
-    private static final MediaType JSON = MediaType.parse("application/json; charset=utf-8");
     
-    private OkHttpClient httpClient;
+    private final Context context;
+    
+    /**
+     * Usa el cliente HTTP compartido con caché en disco para las respuestas GET.
+     * Se obtiene de Dependencias.getGoogleCalendarService()
+     */
+    public GoogleCalendarService(Context context) {
+        this.context = context.getApplicationContext();
+    }
     
-    public GoogleCalendarService() {
-        this.httpClient = new OkHttpClient();
+    /**
+     * El cliente se pide en cada request: CalendarHttpClient puede reemplazarlo (timeouts)
+     * y todos los servicios deben usar el actual
+     */
+    private OkHttpClient httpClient() {
+        return CalendarHttpClient.getInstance(context);
     }
     
     /**
@@ -45,92 +55,33 @@ public class GoogleCalendarService {
      */
     public void crearEventoToma(String accessToken, Medicamento medicamento, String fecha, String hora, 
                                 CalendarCallback callback) {
-        try {
-            Calendar fechaCompleta = Calendar.getInstance();
-            String[] partesFecha = fecha.split("-");
-            String[] partesHora = hora.split(":");
-            
-            if (partesFecha.length == 3 && partesHora.length == 2) {
-                fechaCompleta.set(
-                    Integer.parseInt(partesFecha[0]),
-                    Integer.parseInt(partesFecha[1]) - 1,
-                    Integer.parseInt(partesFecha[2]),
-                    Integer.parseInt(partesHora[0]),
-                    Integer.parseInt(partesHora[1]),
-                    0
-                );
-            } else {
-                if (callback != null) {
-                    callback.onError(new Exception("Formato de fecha u hora inválido"));
-                }
-                return;
+        LocalDateTime fechaCompleta = parsearFechaHora(fecha, hora);
+        if (fechaCompleta == null) {
+            if (callback != null) {
+                callback.onError(new Exception("Formato de fecha u hora inválido"));
             }
-            
-            Calendar fechaFin = (Calendar) fechaCompleta.clone();
-            fechaFin.add(Calendar.MINUTE, 15); // Evento de 15 minutos
-            
-            // Obtener zona horaria del dispositivo
-            String timeZone = java.util.TimeZone.getDefault().getID();
-            
-            // Crear objeto JSON del evento
-            JSONObject evento = new JSONObject();
-            evento.put("summary", "💊 " + medicamento.getNombre());
-            evento.put("description", "Toma de " + medicamento.getNombre() + "\n" +
-                       "Presentación: " + medicamento.getPresentacion() + "\n" +
-                       "Condición: " + (medicamento.getAfeccion() != null ? medicamento.getAfeccion() : "N/A") + "\n" +
-                       "Stock: " + medicamento.getStockActual() + "/" + 
-                       (medicamento.getDiasTratamiento() > 0 ? medicamento.getDiasTratamiento() : medicamento.getStockInicial()));
-            
-            // Fecha inicio
-            JSONObject start = new JSONObject();
-            SimpleDateFormat isoFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss", Locale.US);
-            start.put("dateTime", isoFormat.format(fechaCompleta.getTime()));
-            start.put("timeZone", timeZone);
-            evento.put("start", start);
-            
-            // Fecha fin
-            JSONObject end = new JSONObject();
-            end.put("dateTime", isoFormat.format(fechaFin.getTime()));
-            end.put("timeZone", timeZone);
-            evento.put("end", end);
-            
-            // Recordatorios
-            JSONObject reminders = new JSONObject();
-            reminders.put("useDefault", false);
-            JSONArray overrides = new JSONArray();
-            JSONObject reminder1 = new JSONObject();
-            reminder1.put("method", "popup");
-            reminder1.put("minutes", 15); // Recordatorio 15 min antes
-            overrides.put(reminder1);
-            JSONObject reminder2 = new JSONObject();
-            reminder2.put("method", "popup");
-            reminder2.put("minutes", 5); // Recordatorio 5 min antes
-            overrides.put(reminder2);
-            reminders.put("overrides", overrides);
-            evento.put("reminders", reminders);
-            
-            // Color
-            evento.put("colorId", obtenerColorId(medicamento.getColor()));
-            
-            // Propiedades extendidas
-            JSONObject extendedProperties = new JSONObject();
-            JSONObject privateProps = new JSONObject();
-            privateProps.put("medicamentoId", medicamento.getId());
-            privateProps.put("tipo", "toma_medicamento");
-            extendedProperties.put("private", privateProps);
-            evento.put("extendedProperties", extendedProperties);
-            
-            // Crear request
-            RequestBody body = RequestBody.create(evento.toString(), JSON);
+            return;
+        }
+        // Obtener zona horaria del dispositivo
+        crearEvento(accessToken, medicamento, fechaCompleta, java.util.TimeZone.getDefault().getID(), callback);
+    }
+    
+    /**
+     * Crea el evento de una toma con la fecha y hora ya resueltas
+     */
+    private void crearEvento(String accessToken, Medicamento medicamento, LocalDateTime fechaCompleta,
+                             String timeZone, CalendarCallback callback) {
+        try {
+            // Crear request (el JSON del evento se escribe en streaming al enviarse)
+            RequestBody body = CalendarEventJson.crearBodyEvento(medicamento, fechaCompleta, timeZone, true);
             Request request = new Request.Builder()
                 .url(CALENDAR_API_BASE_URL)
                 .addHeader("Authorization", "Bearer " + accessToken)
-                .addHeader("Content-Type", "application/json")
                 .post(body)
                 .build();
             
             // Ejecutar request
-            httpClient.newCall(request).enqueue(new Callback() {
+            httpClient().newCall(request).enqueue(new Callback() {
                 @Override
                 public void onFailure(Call call, IOException e) {
                     Log.e(TAG, "Error al crear evento en Google Calendar", e);
@@ -141,25 +92,29 @@ public class GoogleCalendarService {
                 
                 @Override
                 public void onResponse(Call call, Response response) throws IOException {
-                    if (!response.isSuccessful()) {
-                        String errorBody = response.body() != null ? response.body().string() : "Error desconocido";
-                        Log.e(TAG, "Error al crear evento: " + response.code() + " - " + errorBody);
-                        if (callback != null) {
-                            callback.onError(new Exception("Error al crear evento: " + errorBody));
+                    try (ResponseBody responseBody = response.body()) {
+                        if (!response.isSuccessful()) {
+                            String errorBody = responseBody != null ? responseBody.string() : "Error desconocido";
+                            Log.e(TAG, "Error al crear evento: " + response.code() + " - " + errorBody);
+                            if (callback != null) {
+                                callback.onError(new Exception("Error al crear evento: " + errorBody));
+                            }
+                            return;
+                        }
+                        
+                        Map<String, Object> eventoCreado = responseBody != null
+                            ? CalendarEventJson.leerEvento(responseBody.charStream())
+                            : new HashMap<>();
+                        Object eventoId = eventoCreado.get("id");
+                        if (eventoId == null) {
+                            throw new IOException("Respuesta sin id de evento");
                         }
-                        return;
-                    }
-                    
-                    try {
-                        String responseBody = response.body() != null ? response.body().string() : "{}";
-                        JSONObject eventoCreado = new JSONObject(responseBody);
-                        String eventoId = eventoCreado.getString("id");
                         
                         Log.d(TAG, "Evento creado exitosamente en Google Calendar: " + eventoId);
                         if (callback != null) {
-                            callback.onSuccess(eventoId, eventoCreado);
+                            callback.onSuccess(eventoId.toString(), eventoCreado);
                         }
-                    } catch (JSONException e) {
+                    } catch (IOException | IllegalStateException e) {
                         Log.e(TAG, "Error al parsear respuesta de Google Calendar", e);
                         if (callback != null) {
                             callback.onError(e);
@@ -183,77 +138,25 @@ public class GoogleCalendarService {
     public void actualizarEventoToma(String accessToken, String eventoId, Medicamento medicamento, 
                                      String fecha, String hora, CalendarCallback callback) {
         try {
-            Calendar fechaCompleta = Calendar.getInstance();
-            String[] partesFecha = fecha.split("-");
-            String[] partesHora = hora.split(":");
-            
-            if (partesFecha.length == 3 && partesHora.length == 2) {
-                fechaCompleta.set(
-                    Integer.parseInt(partesFecha[0]),
-                    Integer.parseInt(partesFecha[1]) - 1,
-                    Integer.parseInt(partesFecha[2]),
-                    Integer.parseInt(partesHora[0]),
-                    Integer.parseInt(partesHora[1]),
-                    0
-                );
-            } else {
+            LocalDateTime fechaCompleta = parsearFechaHora(fecha, hora);
+            if (fechaCompleta == null) {
                 if (callback != null) {
                     callback.onError(new Exception("Formato de fecha u hora inválido"));
                 }
                 return;
             }
             
-            Calendar fechaFin = (Calendar) fechaCompleta.clone();
-            fechaFin.add(Calendar.MINUTE, 15);
-            
             String timeZone = java.util.TimeZone.getDefault().getID();
             
-            // Crear objeto JSON del evento
-            JSONObject evento = new JSONObject();
-            evento.put("summary", "💊 " + medicamento.getNombre());
-            evento.put("description", "Toma de " + medicamento.getNombre() + "\n" +
-                       "Presentación: " + medicamento.getPresentacion() + "\n" +
-                       "Condición: " + (medicamento.getAfeccion() != null ? medicamento.getAfeccion() : "N/A") + "\n" +
-                       "Stock: " + medicamento.getStockActual() + "/" + 
-                       (medicamento.getDiasTratamiento() > 0 ? medicamento.getDiasTratamiento() : medicamento.getStockInicial()));
-            
-            JSONObject start = new JSONObject();
-            SimpleDateFormat isoFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss", Locale.US);
-            start.put("dateTime", isoFormat.format(fechaCompleta.getTime()));
-            start.put("timeZone", timeZone);
-            evento.put("start", start);
-            
-            JSONObject end = new JSONObject();
-            end.put("dateTime", isoFormat.format(fechaFin.getTime()));
-            end.put("timeZone", timeZone);
-            evento.put("end", end);
-            
-            JSONObject reminders = new JSONObject();
-            reminders.put("useDefault", false);
-            JSONArray overrides = new JSONArray();
-            JSONObject reminder1 = new JSONObject();
-            reminder1.put("method", "popup");
-            reminder1.put("minutes", 15);
-            overrides.put(reminder1);
-            JSONObject reminder2 = new JSONObject();
-            reminder2.put("method", "popup");
-            reminder2.put("minutes", 5);
-            overrides.put(reminder2);
-            reminders.put("overrides", overrides);
-            evento.put("reminders", reminders);
-            
-            evento.put("colorId", obtenerColorId(medicamento.getColor()));
-            
             // Crear request
-            RequestBody body = RequestBody.create(evento.toString(), JSON);
+            RequestBody body = CalendarEventJson.crearBodyEvento(medicamento, fechaCompleta, timeZone, false);
             Request request = new Request.Builder()
                 .url(CALENDAR_API_BASE_URL + "/" + eventoId)
                 .addHeader("Authorization", "Bearer " + accessToken)
-                .addHeader("Content-Type", "application/json")
                 .put(body)
                 .build();
             
-            httpClient.newCall(request).enqueue(new Callback() {
+            httpClient().newCall(request).enqueue(new Callback() {
                 @Override
                 public void onFailure(Call call, IOException e) {
                     Log.e(TAG, "Error al actualizar evento en Google Calendar", e);
@@ -264,24 +167,25 @@ public class GoogleCalendarService {
                 
                 @Override
                 public void onResponse(Call call, Response response) throws IOException {
-                    if (!response.isSuccessful()) {
-                        String errorBody = response.body() != null ? response.body().string() : "Error desconocido";
-                        Log.e(TAG, "Error al actualizar evento: " + response.code() + " - " + errorBody);
-                        if (callback != null) {
-                            callback.onError(new Exception("Error al actualizar evento: " + errorBody));
+                    try (ResponseBody responseBody = response.body()) {
+                        if (!response.isSuccessful()) {
+                            String errorBody = responseBody != null ? responseBody.string() : "Error desconocido";
+                            Log.e(TAG, "Error al actualizar evento: " + response.code() + " - " + errorBody);
+                            if (callback != null) {
+                                callback.onError(new Exception("Error al actualizar evento: " + errorBody));
+                            }
+                            return;
                         }
-                        return;
-                    }
-                    
-                    try {
-                        String responseBody = response.body() != null ? response.body().string() : "{}";
-                        JSONObject eventoActualizado = new JSONObject(responseBody);
+                        
+                        Map<String, Object> eventoActualizado = responseBody != null
+                            ? CalendarEventJson.leerEvento(responseBody.charStream())
+                            : new HashMap<>();
                         
                         Log.d(TAG, "Evento actualizado exitosamente en Google Calendar");
                         if (callback != null) {
                             callback.onSuccess(eventoId, eventoActualizado);
                         }
-                    } catch (JSONException e) {
+                    } catch (IOException | IllegalStateException e) {
                         Log.e(TAG, "Error al parsear respuesta de Google Calendar", e);
                         if (callback != null) {
                             callback.onError(e);
@@ -298,6 +202,32 @@ public class GoogleCalendarService {
         }
     }
     
+    /**
+     * Convierte fecha "yyyy-MM-dd" y hora "HH:mm" a LocalDateTime
+     * @return null si el formato no es válido
+     */
+    private LocalDateTime parsearFechaHora(String fecha, String hora) {
+        if (fecha == null) {
+            return null;
+        }
+        String[] partesFecha = fecha.split("-");
+        int minutosDelDia = HorarioDiario.parsear(hora);
+        if (partesFecha.length != 3 || minutosDelDia == HorarioDiario.INVALIDO) {
+            return null;
+        }
+        try {
+            return LocalDateTime.of(
+                Integer.parseInt(partesFecha[0]),
+                Integer.parseInt(partesFecha[1]),
+                Integer.parseInt(partesFecha[2]),
+                minutosDelDia / 60,
+                minutosDelDia % 60
+            );
+        } catch (NumberFormatException | DateTimeException e) {
+            return null;
+        }
+    }
+    
     /**
      * Elimina un evento de Google Calendar
      * Consistente con React: calendarService.js - eliminarEventoToma()
@@ -309,7 +239,7 @@ public class GoogleCalendarService {
             .delete()
             .build();
         
-        httpClient.newCall(request).enqueue(new Callback() {
+        httpClient().newCall(request).enqueue(new Callback() {
             @Override
             public void onFailure(Call call, IOException e) {
                 Log.e(TAG, "Error al eliminar evento de Google Calendar", e);
@@ -354,7 +284,7 @@ public class GoogleCalendarService {
         }
         
         List<String> eventoIds = new ArrayList<>();
-        Calendar fechaHoy = Calendar.getInstance();
+        LocalDate hoy = LocalDate.now();
         
         // Determinar cuántos días de eventos crear
         int diasTratamiento;
@@ -366,44 +296,39 @@ public class GoogleCalendarService {
             diasTratamiento = medicamento.getDiasTratamiento() > 0 ? medicamento.getDiasTratamiento() : 30;
         }
         
-        // Calcular todas las horas de toma
-        List<String> horasToma = new ArrayList<>();
+        // Calcular todas las horas de toma (minutos del día, sin pasar por strings)
         String primeraToma = medicamento.getHorarioPrimeraToma();
-        if (primeraToma == null || primeraToma.isEmpty()) {
-            primeraToma = "00:00";
+        int minutosPrimeraToma = primeraToma != null ? HorarioDiario.parsear(primeraToma) : HorarioDiario.INVALIDO;
+        if (minutosPrimeraToma == HorarioDiario.INVALIDO) {
+            minutosPrimeraToma = 0;
         }
+        int horaInicial = minutosPrimeraToma / 60;
+        int minutoInicial = minutosPrimeraToma % 60;
         
-        String[] partes = primeraToma.split(":");
-        int horaInicial = Integer.parseInt(partes[0]);
-        int minutoInicial = partes.length > 1 ? Integer.parseInt(partes[1]) : 0;
-        
-        int intervalo = 24 / medicamento.getTomasDiarias();
-        for (int i = 0; i < medicamento.getTomasDiarias(); i++) {
+        int[] minutosToma = new int[medicamento.getTomasDiarias()];
+        int intervalo = 24 / minutosToma.length;
+        for (int i = 0; i < minutosToma.length; i++) {
             int hora = (horaInicial + (i * intervalo)) % 24;
             int minuto = (i == 0) ? minutoInicial : 0;
-            horasToma.add(String.format("%02d:%02d", hora, minuto));
+            minutosToma[i] = hora * 60 + minuto;
         }
         
         // Crear eventos para cada día del tratamiento
         // Limitar a 100 eventos por vez para evitar sobrecarga de la API
         final int maxEventos = 100;
         final int[] eventosCreados = {0};
-        final int[] eventosPendientes = {diasTratamiento * horasToma.size()};
+        final int[] eventosPendientes = {diasTratamiento * minutosToma.length};
+        String timeZone = java.util.TimeZone.getDefault().getID();
         
         for (int dia = 0; dia < diasTratamiento && eventosCreados[0] < maxEventos; dia++) {
-            Calendar fecha = (Calendar) fechaHoy.clone();
-            fecha.add(Calendar.DAY_OF_YEAR, dia);
-            String fechaStr = String.format("%04d-%02d-%02d", 
-                fecha.get(Calendar.YEAR),
-                fecha.get(Calendar.MONTH) + 1,
-                fecha.get(Calendar.DAY_OF_MONTH));
+            LocalDate fecha = hoy.plusDays(dia);
             
-            for (String horaToma : horasToma) {
+            for (int minutos : minutosToma) {
                 if (eventosCreados[0] >= maxEventos) {
                     break;
                 }
                 
-                crearEventoToma(accessToken, medicamento, fechaStr, horaToma, 
+                crearEvento(accessToken, medicamento, fecha.atTime(minutos / 60, minutos % 60), timeZone,
                     new CalendarCallback() {
                         @Override
                         public void onSuccess(String eventoId, Object evento) {
@@ -438,7 +363,7 @@ public class GoogleCalendarService {
      * Convierte el color del medicamento a un colorId de Google Calendar
      * Consistente con React: calendarService.js - obtenerColorId()
      */
-    private String obtenerColorId(int colorInt) {
+    static String obtenerColorId(int colorInt) {
         // Convertir color ARGB a hexadecimal
         String colorHex = String.format("#%06X", (0xFFFFFF & colorInt));
         
@@ -0,0 +1,98 @@
+package com.controlmedicamentos.myapplication.services;
+
+/**
+ * Histograma de latencias en microsegundos con memoria fija, al estilo de HdrHistogram: valores
+ * menores que SUB_CUBETAS se guardan exactos y los demás en cubetas logarítmicas divididas en
+ * SUB_CUBETAS / 2 partes iguales, así el error relativo de los percentiles es menor al 7 %.
+ * Cubre hasta 2^36 µs (unas 19 horas); los valores mayores se cuentan en la última cubeta.
+ *
+ * No es seguro entre hilos: lo sincroniza MetricasFirebase.
+ */
+final class HistogramaLatencia {
+    private static final int SUB_CUBETAS = 32;
+    private static final int MITAD = SUB_CUBETAS / 2;
+    private static final int BITS_MITAD = 4;
+    private static final int MAXIMO_BITS = 36;
+    private static final long VALOR_MAXIMO = (1L << MAXIMO_BITS) - 1;
+
+    private final long[] cantidades = new long[indice(VALOR_MAXIMO) + 1];
+    private long total;
+    private long minimo = Long.MAX_VALUE;
+    private long maximo;
+    private long suma;
+
+    void registrar(long micros) {
+        long valor = Math.max(0, Math.min(micros, VALOR_MAXIMO));
+        cantidades[indice(valor)]++;
+        total++;
+        suma += valor;
+        minimo = Math.min(minimo, valor);
+        maximo = Math.max(maximo, valor);
+    }
+
+    long getTotal() {
+        return total;
+    }
+
+    long getMinimo() {
+        return total == 0 ? 0 : minimo;
+    }
+
+    long getMaximo() {
+        return maximo;
+    }
+
+    double getPromedio() {
+        return total == 0 ? 0 : (double) suma / total;
+    }
+
+    /**
+     * Valor bajo el cual queda el porcentaje pedido de las mediciones (límite superior de su cubeta)
+     */
+    long percentil(double porcentaje) {
+        if (total == 0) {
+            return 0;
+        }
+        long objetivo = Math.max(1, (long) Math.ceil(porcentaje / 100.0 * total));
+        long acumulado = 0;
+        for (int i = 0; i < cantidades.length; i++) {
+            acumulado += cantidades[i];
+            if (acumulado >= objetivo) {
+                return Math.min(limiteSuperior(i), maximo);
+            }
+        }
+        return maximo;
+    }
+
+    int getCantidadCubetas() {
+        return cantidades.length;
+    }
+
+    long getCantidad(int cubeta) {
+        return cantidades[cubeta];
+    }
+
+    /**
+     * Mayor valor que cae en la cubeta
+     */
+    static long limiteSuperior(int cubeta) {
+        if (cubeta < SUB_CUBETAS) {
+            return cubeta;
+        }
+        int desplazamiento = (cubeta - SUB_CUBETAS) / MITAD + 1;
+        long parte = (cubeta - SUB_CUBETAS) % MITAD + MITAD;
+        return ((parte + 1) << desplazamiento) - 1;
+    }
+
+    /**
+     * Cubeta en la que cae el valor (entre 0 y VALOR_MAXIMO)
+     */
+    static int indice(long valor) {
+        if (valor < SUB_CUBETAS) {
+            return (int) valor;
+        }
+        int bitMasAlto = 63 - Long.numberOfLeadingZeros(valor);
+        int desplazamiento = bitMasAlto - BITS_MITAD;
+        return SUB_CUBETAS + (desplazamiento - 1) * MITAD + (int) (valor >> desplazamiento) - MITAD;
+    }
+}
@@ -0,0 +1,536 @@
+package com.controlmedicamentos.myapplication.services;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.graphics.Typeface;
+import android.graphics.pdf.PdfDocument;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.TextPaint;
+import android.text.TextUtils;
+import android.util.Log;
+import androidx.core.content.FileProvider;
+import com.controlmedicamentos.myapplication.R;
+import com.controlmedicamentos.myapplication.models.AdherenciaIntervalo;
+import com.controlmedicamentos.myapplication.models.AdherenciaResumen;
+import com.controlmedicamentos.myapplication.models.Medicamento;
+import com.controlmedicamentos.myapplication.models.ResumenMensualTomas;
+import com.controlmedicamentos.myapplication.models.Toma;
+import com.controlmedicamentos.myapplication.utils.AdherenciaCalculator;
+import com.controlmedicamentos.myapplication.utils.FormatosFecha;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Genera un informe de adherencia en PDF (PdfDocument): por cada medicamento, el resumen general y
+ * los gráficos semanal y mensual, y después la tabla con el historial de tomas.
+ *
+ * Las tomas se recorren de a una página de Firestore por vez en un hilo de fondo. Cada toma se suma a
+ * un resumen por medicamento, mes y día (igual que las archivadas, ver ArchivoTomas), con el que se
+ * calculan la adherencia y los gráficos, y su fila de la tabla se escribe en un archivo temporal que
+ * se vuelca al PDF al final. Así ninguna lista de tomas queda en memoria.
+ * El marco de los gráficos y el encabezado de página se dibujan una vez y se reutilizan como bitmaps.
+ */
+public class InformeAdherenciaPdf {
+    private static final String TAG = "InformeAdherenciaPdf";
+    private static final int TAMANO_PAGINA = FirebaseService.MAX_OPERACIONES_BATCH;
+    private static final String PREFIJO = "informe_";
+    private static final DateTimeFormatter FORMATO_NOMBRE = DateTimeFormatter.ofPattern("yyyyMMdd_HHmm", Locale.ROOT);
+
+    // A4 en puntos
+    private static final int ANCHO = 595;
+    private static final int ALTO = 842;
+    private static final int MARGEN = 40;
+    private static final int ALTO_ENCABEZADO = 48;
+    private static final int ANCHO_GRAFICO = 245;
+    private static final int ALTO_GRAFICO = 130;
+    private static final int ALTO_SECCION = 70 + ALTO_GRAFICO + 24;
+    private static final int ALTO_FILA = 14;
+    // Resolución de los bitmaps respecto de los puntos del PDF
+    private static final int ESCALA_BITMAP = 2;
+
+    public static final String TIPO_MIME = "application/pdf";
+
+    /**
+     * Recibe la cantidad de tomas procesadas hasta el momento (en el hilo principal)
+     */
+    public interface ProgresoListener {
+        void onProgreso(int tomasProcesadas);
+    }
+
+    private final Context context;
+    private final FirebaseService firebaseService;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    public InformeAdherenciaPdf(Context context) {
+        this.context = context.getApplicationContext();
+        this.firebaseService = Dependencias.de(context).getFirebaseService();
+    }
+
+    /**
+     * Genera el informe y devuelve en onSuccess su Uri de contenido (para un Intent de compartir)
+     */
+    public void generar(ProgresoListener listener, FirebaseService.FirestoreCallback callback) {
+        new Generacion(listener, callback).iniciar();
+    }
+
+    private class Generacion {
+        private final ProgresoListener listener;
+        private final FirebaseService.FirestoreCallback callback;
+        private final ExecutorService ejecutor = Executors.newSingleThreadExecutor();
+        private final List<Medicamento> medicamentos = new ArrayList<>();
+        // Resúmenes por medicamento: archivados y armados con las tomas leídas, por mes ("yyyy-MM")
+        private final Map<String, Map<String, ResumenMensualTomas>> resumenes = new HashMap<>();
+        private final Map<String, String> nombres = new HashMap<>();
+        private File filasTemporales;
+        private Writer filas;
+        private int tomasProcesadas;
+
+        Generacion(ProgresoListener listener, FirebaseService.FirestoreCallback callback) {
+            this.listener = listener;
+            this.callback = callback;
+        }
+
+        void iniciar() {
+            ejecutor.execute(() -> {
+                try {
+                    filasTemporales = File.createTempFile("informe_filas", ".tsv", context.getCacheDir());
+                    filas = new BufferedWriter(new OutputStreamWriter(
+                        new FileOutputStream(filasTemporales), StandardCharsets.UTF_8));
+                    handler.post(() -> pedirMedicamentos(null));
+                } catch (IOException e) {
+                    fallar(e);
+                }
+            });
+        }
+
+        private void pedirMedicamentos(String despuesDeId) {
+            firebaseService.obtenerPaginaMedicamentos(despuesDeId, TAMANO_PAGINA, new FirebaseService.FirestoreListCallback() {
+                @Override
+                public void onSuccess(List<?> result) {
+                    List<Medicamento> pagina = (List<Medicamento>) result;
+                    medicamentos.addAll(pagina);
+                    if (pagina.size() == TAMANO_PAGINA) {
+                        pedirMedicamentos(pagina.get(pagina.size() - 1).getId());
+                    } else {
+                        pedirResumenes();
+                    }
+                }
+
+                @Override
+                public void onError(Exception exception) {
+                    fallar(exception);
+                }
+            });
+        }
+
+        private void pedirResumenes() {
+            firebaseService.obtenerResumenesMensuales(new FirebaseService.FirestoreListCallback() {
+                @Override
+                public void onSuccess(List<?> result) {
+                    List<ResumenMensualTomas> archivados = (List<ResumenMensualTomas>) result;
+                    ejecutor.execute(() -> {
+                        for (ResumenMensualTomas resumen : archivados) {
+                            String mes = String.format(Locale.ROOT, "%04d-%02d", resumen.getAnio(), resumen.getMes());
+                            resumenesDe(resumen.getMedicamentoId()).put(mes, resumen);
+                        }
+                        handler.post(() -> pedirTomas(null));
+                    });
+                }
+
+                @Override
+                public void onError(Exception exception) {
+                    fallar(exception);
+                }
+            });
+        }
+
+        private void pedirTomas(Toma despuesDe) {
+            firebaseService.obtenerPaginaTomas(despuesDe, TAMANO_PAGINA, new FirebaseService.FirestoreListCallback() {
+                @Override
+                public void onSuccess(List<?> result) {
+                    List<Toma> tomas = (List<Toma>) result;
+                    ejecutor.execute(() -> {
+                        try {
+                            for (Toma toma : tomas) {
+                                acumular(toma);
+                            }
+                            handler.post(() -> {
+                                tomasProcesadas += tomas.size();
+                                if (listener != null) {
+                                    listener.onProgreso(tomasProcesadas);
+                                }
+                                if (tomas.size() == TAMANO_PAGINA) {
+                                    pedirTomas(tomas.get(tomas.size() - 1));
+                                } else {
+                                    renderizar();
+                                }
+                            });
+                        } catch (IOException e) {
+                            fallar(e);
+                        }
+                    });
+                }
+
+                @Override
+                public void onError(Exception exception) {
+                    fallar(exception);
+                }
+            });
+        }
+
+        /**
+         * Suma la toma al resumen de su día y escribe su fila de la tabla en el archivo temporal
+         */
+        private void acumular(Toma toma) throws IOException {
+            Date fecha = toma.getFechaHoraTomada() != null ? toma.getFechaHoraTomada() : toma.getFechaHoraProgramada();
+            Toma.EstadoToma estado = toma.getEstado() != null ? toma.getEstado() : Toma.EstadoToma.TOMADA;
+            if (toma.getMedicamentoId() != null && fecha != null) {
+                ZonedDateTime dia = fecha.toInstant().atZone(ZoneId.systemDefault());
+                String mes = String.format(Locale.ROOT, "%04d-%02d", dia.getYear(), dia.getMonthValue());
+                ResumenMensualTomas resumen = resumenesDe(toma.getMedicamentoId()).get(mes);
+                if (resumen == null) {
+                    resumen = new ResumenMensualTomas();
+                    resumen.setMedicamentoId(toma.getMedicamentoId());
+                    resumen.setAnio(dia.getYear());
+                    resumen.setMes(dia.getMonthValue());
+                    resumenesDe(toma.getMedicamentoId()).put(mes, resumen);
+                }
+                resumen.setCantidad(dia.getDayOfMonth(), estado,
+                    resumen.getCantidad(dia.getDayOfMonth(), estado) + 1);
+                if (toma.getMedicamentoNombre() != null) {
+                    nombres.put(toma.getMedicamentoId(), toma.getMedicamentoNombre());
+                }
+            }
+
+            Date programada = toma.getFechaHoraProgramada();
+            filas.write(fecha != null ? FormatosFecha.fechaLocal(fecha) : "");
+            filas.write('\t');
+            filas.write(programada != null ? FormatosFecha.horaLocal(programada) : "");
+            filas.write('\t');
+            filas.write(toma.getFechaHoraTomada() != null ? FormatosFecha.horaLocal(toma.getFechaHoraTomada()) : "");
+            filas.write('\t');
+            filas.write(limpiar(toma.getMedicamentoNombre()));
+            filas.write('\t');
+            filas.write(estado.name());
+            filas.write('\n');
+        }
+
+        private Map<String, ResumenMensualTomas> resumenesDe(String medicamentoId) {
+            return resumenes.computeIfAbsent(medicamentoId, id -> new HashMap<>());
+        }
+
+        private void renderizar() {
+            ejecutor.execute(() -> {
+                PdfDocument documento = new PdfDocument();
+                Lienzo lienzo = new Lienzo(documento);
+                try {
+                    filas.close();
+                    renderizarResumenes(lienzo);
+                    renderizarHistorial(lienzo);
+                    lienzo.terminarPagina();
+
+                    File carpeta = CarpetaExportaciones.preparar(context, PREFIJO);
+                    File archivo = new File(carpeta, PREFIJO + LocalDateTime.now().format(FORMATO_NOMBRE) + ".pdf");
+                    try (OutputStream salida = new BufferedOutputStream(new FileOutputStream(archivo))) {
+                        documento.writeTo(salida);
+                    }
+                    Uri uri = FileProvider.getUriForFile(context, context.getPackageName() + ".fileprovider", archivo);
+                    Log.d(TAG, "Informe generado: " + lienzo.paginas + " páginas, " + tomasProcesadas + " tomas");
+                    handler.post(() -> {
+                        if (callback != null) {
+                            callback.onSuccess(uri);
+                        }
+                    });
+                } catch (IOException | RuntimeException e) {
+                    fallar(e);
+                } finally {
+                    documento.close();
+                    lienzo.liberar();
+                    filasTemporales.delete();
+                    ejecutor.shutdown();
+                }
+            });
+        }
+
+        private void renderizarResumenes(Lienzo lienzo) {
+            List<Medicamento> ordenados = new ArrayList<>(medicamentos);
+            ordenados.sort((a, b) -> String.valueOf(a.getNombre()).compareToIgnoreCase(String.valueOf(b.getNombre())));
+            lienzo.titulo("Resumen por medicamento");
+            for (Medicamento medicamento : ordenados) {
+                List<ResumenMensualTomas> delMedicamento = new ArrayList<>(resumenesDe(medicamento.getId()).values());
+                if (medicamento.getTomasDiarias() == 0 && delMedicamento.isEmpty()) {
+                    continue; // Ocasionales solo aparecen si tuvieron tomas
+                }
+                List<Toma> sinTomas = Collections.emptyList();
+                AdherenciaResumen resumen = AdherenciaCalculator.calcularResumenGeneral(medicamento, sinTomas, delMedicamento);
+                List<AdherenciaIntervalo> semanal = AdherenciaCalculator.calcularAdherenciaSemanal(medicamento, sinTomas, delMedicamento);
+                List<AdherenciaIntervalo> mensual = AdherenciaCalculator.calcularAdherenciaMensual(medicamento, sinTomas, delMedicamento);
+                lienzo.seccionMedicamento(medicamento, resumen, semanal, mensual);
+            }
+        }
+
+        private void renderizarHistorial(Lienzo lienzo) throws IOException {
+            lienzo.nuevaPagina();
+            lienzo.titulo("Historial de tomas");
+            lienzo.encabezadoTabla();
+            try (BufferedReader lector = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(filasTemporales), StandardCharsets.UTF_8))) {
+                String linea;
+                while ((linea = lector.readLine()) != null) {
+                    lienzo.filaTabla(linea.split("\t", -1));
+                }
+            }
+        }
+
+        private void fallar(Exception e) {
+            Log.e(TAG, "Error al generar el informe", e);
+            ejecutor.execute(() -> {
+                try {
+                    if (filas != null) {
+                        filas.close();
+                    }
+                } catch (IOException ignorada) {
+                    // El archivo temporal se borra igual
+                }
+                if (filasTemporales != null) {
+                    filasTemporales.delete();
+                }
+                ejecutor.shutdown();
+            });
+            handler.post(() -> {
+                if (callback != null) {
+                    callback.onError(e);
+                }
+            });
+        }
+    }
+
+    private static String limpiar(String texto) {
+        return texto == null ? "" : texto.replace('\t', ' ').replace('\n', ' ');
+    }
+
+    /**
+     * Escribe en las páginas del documento llevando la posición vertical; abre una página nueva
+     * cuando lo que sigue no entra. Los bitmaps del encabezado y del marco de los gráficos se crean
+     * la primera vez que se usan y se reutilizan en todas las páginas.
+     */
+    private class Lienzo {
+        private final PdfDocument documento;
+        private final Paint texto = new Paint(Paint.ANTI_ALIAS_FLAG);
+        private final Paint negrita = new Paint(Paint.ANTI_ALIAS_FLAG);
+        private final Paint barra = new Paint(Paint.ANTI_ALIAS_FLAG);
+        private final Paint bitmaps = new Paint(Paint.FILTER_BITMAP_FLAG);
+        private final Map<String, Bitmap> cache = new HashMap<>();
+        private final String fechaInforme = LocalDate.now().toString();
+        private PdfDocument.Page pagina;
+        private Canvas canvas;
+        private float y;
+        int paginas;
+
+        Lienzo(PdfDocument documento) {
+            this.documento = documento;
+            texto.setColor(Color.DKGRAY);
+            texto.setTextSize(9);
+            negrita.setColor(Color.BLACK);
+            negrita.setTextSize(11);
+            negrita.setTypeface(Typeface.DEFAULT_BOLD);
+            barra.setColor(context.getColor(R.color.primary));
+        }
+
+        void nuevaPagina() {
+            terminarPagina();
+            paginas++;
+            pagina = documento.startPage(new PdfDocument.PageInfo.Builder(ANCHO, ALTO, paginas).create());
+            canvas = pagina.getCanvas();
+            canvas.drawBitmap(encabezado(), null, new RectF(0, 0, ANCHO, ALTO_ENCABEZADO), bitmaps);
+            canvas.drawText("Página " + paginas, ANCHO - MARGEN - 40, ALTO - MARGEN / 2f, texto);
+            y = ALTO_ENCABEZADO + 20;
+        }
+
+        void terminarPagina() {
+            if (pagina != null) {
+                documento.finishPage(pagina);
+                pagina = null;
+            }
+        }
+
+        private void asegurarEspacio(float alto) {
+            if (pagina == null || y + alto > ALTO - MARGEN) {
+                nuevaPagina();
+            }
+        }
+
+        void titulo(String titulo) {
+            asegurarEspacio(30);
+            Paint paint = new Paint(negrita);
+            paint.setTextSize(14);
+            canvas.drawText(titulo, MARGEN, y + 14, paint);
+            y += 30;
+        }
+
+        void seccionMedicamento(Medicamento medicamento, AdherenciaResumen resumen,
+                                List<AdherenciaIntervalo> semanal, List<AdherenciaIntervalo> mensual) {
+            asegurarEspacio(ALTO_SECCION);
+            String nombre = medicamento.getNombre() != null ? medicamento.getNombre() : "";
+            if (medicamento.getPresentacion() != null && !medicamento.getPresentacion().isEmpty()) {
+                nombre += " (" + medicamento.getPresentacion() + ")";
+            }
+            canvas.drawText(recortar(nombre, negrita, ANCHO - 2 * MARGEN), MARGEN, y + 12, negrita);
+            String detalle = medicamento.getTomasDiarias() > 0
+                ? medicamento.getTomasDiarias() + " tomas diarias"
+                : "Ocasional";
+            if (medicamento.getAfeccion() != null && !medicamento.getAfeccion().isEmpty()) {
+                detalle += " • " + medicamento.getAfeccion();
+            }
+            canvas.drawText(recortar(detalle, texto, ANCHO - 2 * MARGEN), MARGEN, y + 28, texto);
+            canvas.drawText(String.format(Locale.getDefault(), "Adherencia general: %d%% (%d de %d tomas)",
+                Math.round(resumen.getPorcentaje()), resumen.getTomasRealizadas(), resumen.getTomasEsperadas()),
+                MARGEN, y + 42, texto);
+
+            float yGraficos = y + 56;
+            grafico(MARGEN, yGraficos, "Últimos 7 días", semanal);
+            grafico(ANCHO - MARGEN - ANCHO_GRAFICO, yGraficos, "Últimas 4 semanas", mensual);
+            y += ALTO_SECCION;
+        }
+
+        /**
+         * Dibuja el marco cacheado y encima las barras (0 a 100 %) con sus etiquetas
+         */
+        private void grafico(float x, float yInicio, String titulo, List<AdherenciaIntervalo> datos) {
+            canvas.drawText(titulo, x, yInicio + 8, texto);
+            float yMarco = yInicio + 12;
+            canvas.drawBitmap(marcoGrafico(), null, new RectF(x, yMarco, x + ANCHO_GRAFICO, yMarco + ALTO_GRAFICO), bitmaps);
+            if (datos == null || datos.isEmpty()) {
+                return;
+            }
+            float izquierda = x + 24;
+            float base = yMarco + ALTO_GRAFICO - 14;
+            float altoUtil = ALTO_GRAFICO - 22;
+            float ancho = (ANCHO_GRAFICO - 30) / (float) datos.size();
+            Paint etiqueta = new Paint(texto);
+            etiqueta.setTextSize(7);
+            etiqueta.setTextAlign(Paint.Align.CENTER);
+            for (int i = 0; i < datos.size(); i++) {
+                AdherenciaIntervalo intervalo = datos.get(i);
+                float centro = izquierda + ancho * i + ancho / 2;
+                float alto = altoUtil * Math.max(0f, Math.min(100f, intervalo.getPorcentaje())) / 100f;
+                canvas.drawRect(centro - ancho * 0.3f, base - alto, centro + ancho * 0.3f, base, barra);
+                canvas.drawText(intervalo.getEtiqueta(), centro, base + 9, etiqueta);
+            }
+        }
+
+        void encabezadoTabla() {
+            fila(new String[] {"Fecha", "Programada", "Tomada", "Medicamento", "Estado"}, negrita);
+        }
+
+        void filaTabla(String[] columnas) {
+            if (pagina == null || y + ALTO_FILA > ALTO - MARGEN) {
+                nuevaPagina();
+                encabezadoTabla();
+            }
+            fila(columnas, texto);
+        }
+
+        private void fila(String[] columnas, Paint paint) {
+            float[] posiciones = {MARGEN, MARGEN + 75, MARGEN + 145, MARGEN + 205, MARGEN + 425};
+            float[] anchos = {70, 65, 55, 215, 90};
+            for (int i = 0; i < posiciones.length && i < columnas.length; i++) {
+                canvas.drawText(recortar(columnas[i], paint, anchos[i]), posiciones[i], y + 10, paint);
+            }
+            y += ALTO_FILA;
+        }
+
+        private String recortar(String valor, Paint paint, float ancho) {
+            return TextUtils.ellipsize(valor, new TextPaint(paint), ancho, TextUtils.TruncateAt.END).toString();
+        }
+
+        private Bitmap encabezado() {
+            Bitmap bitmap = cache.get("encabezado");
+            if (bitmap == null) {
+                bitmap = Bitmap.createBitmap(ANCHO * ESCALA_BITMAP, ALTO_ENCABEZADO * ESCALA_BITMAP, Bitmap.Config.ARGB_8888);
+                Canvas lienzo = new Canvas(bitmap);
+                lienzo.scale(ESCALA_BITMAP, ESCALA_BITMAP);
+                Paint fondo = new Paint();
+                fondo.setColor(context.getColor(R.color.primary));
+                lienzo.drawRect(0, 0, ANCHO, ALTO_ENCABEZADO, fondo);
+                Paint titulo = new Paint(Paint.ANTI_ALIAS_FLAG);
+                titulo.setColor(Color.WHITE);
+                titulo.setTextSize(16);
+                titulo.setTypeface(Typeface.DEFAULT_BOLD);
+                lienzo.drawText("Informe de adherencia", MARGEN, 30, titulo);
+                titulo.setTextSize(9);
+                titulo.setTypeface(Typeface.DEFAULT);
+                titulo.setTextAlign(Paint.Align.RIGHT);
+                lienzo.drawText("Generado el " + fechaInforme, ANCHO - MARGEN, 30, titulo);
+                cache.put("encabezado", bitmap);
+            }
+            return bitmap;
+        }
+
+        /**
+         * Fondo, ejes y líneas de 0, 50 y 100 %: igual en todos los gráficos
+         */
+        private Bitmap marcoGrafico() {
+            Bitmap bitmap = cache.get("marco");
+            if (bitmap == null) {
+                bitmap = Bitmap.createBitmap(ANCHO_GRAFICO * ESCALA_BITMAP, ALTO_GRAFICO * ESCALA_BITMAP, Bitmap.Config.ARGB_8888);
+                Canvas lienzo = new Canvas(bitmap);
+                lienzo.scale(ESCALA_BITMAP, ESCALA_BITMAP);
+                lienzo.drawColor(Color.rgb(0xF5, 0xF5, 0xF5));
+                Paint linea = new Paint(Paint.ANTI_ALIAS_FLAG);
+                linea.setColor(Color.LTGRAY);
+                linea.setStrokeWidth(0.5f);
+                Paint etiqueta = new Paint(Paint.ANTI_ALIAS_FLAG);
+                etiqueta.setColor(Color.GRAY);
+                etiqueta.setTextSize(7);
+                float base = ALTO_GRAFICO - 14;
+                float altoUtil = ALTO_GRAFICO - 22;
+                for (int porcentaje = 0; porcentaje <= 100; porcentaje += 50) {
+                    float yLinea = base - altoUtil * porcentaje / 100f;
+                    lienzo.drawLine(22, yLinea, ANCHO_GRAFICO - 4, yLinea, linea);
+                    lienzo.drawText(porcentaje + "%", 2, yLinea + 3, etiqueta);
+                }
+                lienzo.drawLine(22, 4, 22, base, linea);
+                cache.put("marco", bitmap);
+            }
+            return bitmap;
+        }
+
+        void liberar() {
+            for (Bitmap bitmap : cache.values()) {
+                bitmap.recycle();
+            }
+            cache.clear();
+        }
+    }
+}
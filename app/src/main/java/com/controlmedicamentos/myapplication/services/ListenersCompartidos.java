@@ -0,0 +1,217 @@
+package com.controlmedicamentos.myapplication.services;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import com.google.firebase.firestore.DocumentChange;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FirebaseFirestoreException;
+import com.google.firebase.firestore.ListenerRegistration;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.QuerySnapshot;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Listeners de Firestore compartidos por todo el proceso: uno por clave (colección + usuario), con
+ * cualquier cantidad de suscriptores. Un suscriptor nuevo recibe al instante el último resultado sin
+ * leer de nuevo, y el listener sigue activo TIEMPO_GRACIA_MS después de la última baja, así que
+ * pasar de una pantalla a otra no genera lecturas adicionales.
+ *
+ * Cada snapshot se convierte una sola vez y solo los documentos que cambiaron (getDocumentChanges);
+ * todos los suscriptores reciben la misma lista, que no se puede modificar. Los objetos también son
+ * compartidos y se reutilizan entre snapshots: quien necesite modificarlos debe trabajar sobre copias.
+ *
+ * Si Firestore cancela un listener por un error, se informa a los suscriptores y se vuelve a abrir
+ * con espera exponencial mientras queden suscriptores.
+ *
+ * Se usa solo desde el hilo principal (donde Firestore entrega los snapshots), por eso no hay sincronización.
+ */
+final class ListenersCompartidos {
+    private static final String TAG = "ListenersCompartidos";
+    private static final long TIEMPO_GRACIA_MS = 30000;
+    private static final long ESPERA_INICIAL_MS = 5000;
+    private static final long ESPERA_MAXIMA_MS = 5 * 60 * 1000;
+
+    private static ListenersCompartidos instancia;
+
+    private final Map<String, Canal<?>> canales = new HashMap<>();
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    private ListenersCompartidos() {
+    }
+
+    static synchronized ListenersCompartidos getInstance() {
+        if (instancia == null) {
+            instancia = new ListenersCompartidos();
+        }
+        return instancia;
+    }
+
+    /**
+     * Suscribe el callback al listener de la clave, creándolo con la consulta si no existe.
+     * @return registro cuyo remove() da de baja solo a este suscriptor
+     */
+    <T> ListenerRegistration suscribir(String clave, Query consulta, Function<DocumentSnapshot, T> conversor,
+                                       FirebaseService.FirestoreListCallback callback) {
+        @SuppressWarnings("unchecked")
+        Canal<T> canal = (Canal<T>) canales.get(clave);
+        if (canal == null) {
+            canal = new Canal<>(clave, consulta, conversor);
+            canales.put(clave, canal);
+        }
+        canal.agregar(callback);
+
+        Canal<T> suscrito = canal;
+        boolean[] activo = {true};
+        return () -> {
+            if (activo[0]) {
+                activo[0] = false;
+                suscrito.quitar(callback);
+            }
+        };
+    }
+
+    /**
+     * Cantidad de documentos del último resultado del listener de la clave, o -1 si no hay uno activo
+     */
+    int cantidadDocumentos(String clave) {
+        Canal<?> canal = canales.get(clave);
+        return canal != null && canal.ultimo != null ? canal.ultimo.size() : -1;
+    }
+
+    private final class Canal<T> {
+        private final String clave;
+        private final Query consulta;
+        private final Function<DocumentSnapshot, T> conversor;
+        private final List<FirebaseService.FirestoreListCallback> suscriptores = new ArrayList<>();
+        private final Runnable cierre = this::cerrar;
+        private final Runnable reapertura = this::abrir;
+        // Documentos convertidos en el orden de la consulta; se actualizan con los cambios de cada snapshot
+        private final List<T> documentos = new ArrayList<>();
+        private ListenerRegistration registro;
+        private List<T> ultimo;
+        private boolean primeraEntrega;
+        private long espera = ESPERA_INICIAL_MS;
+
+        Canal(String clave, Query consulta, Function<DocumentSnapshot, T> conversor) {
+            this.clave = clave;
+            this.consulta = consulta;
+            this.conversor = conversor;
+        }
+
+        void agregar(FirebaseService.FirestoreListCallback callback) {
+            handler.removeCallbacks(cierre);
+            suscriptores.add(callback);
+            if (ultimo != null) {
+                // Ya hay datos: se entregan sin esperar al próximo cambio
+                List<T> resultado = ultimo;
+                handler.post(() -> {
+                    if (suscriptores.contains(callback) && callback != null) {
+                        callback.onSuccess(resultado);
+                    }
+                });
+            }
+            if (registro == null) {
+                // Primera suscripción, o el listener anterior falló y espera para reabrirse: se abre ya
+                handler.removeCallbacks(reapertura);
+                abrir();
+            }
+        }
+
+        void quitar(FirebaseService.FirestoreListCallback callback) {
+            suscriptores.remove(callback);
+            if (suscriptores.isEmpty()) {
+                handler.postDelayed(cierre, TIEMPO_GRACIA_MS);
+            }
+        }
+
+        private void abrir() {
+            if (suscriptores.isEmpty()) {
+                canales.remove(clave, this);
+                return;
+            }
+            Log.d(TAG, "Abriendo listener " + clave);
+            // El primer snapshot de un listener nuevo trae todos los documentos como agregados
+            documentos.clear();
+            primeraEntrega = true;
+            registro = consulta.addSnapshotListener(this::onSnapshot);
+        }
+
+        private void cerrar() {
+            if (!suscriptores.isEmpty()) {
+                return;
+            }
+            Log.d(TAG, "Cerrando listener " + clave);
+            handler.removeCallbacks(reapertura);
+            if (registro != null) {
+                registro.remove();
+                registro = null;
+            }
+            canales.remove(clave, this);
+        }
+
+        private void onSnapshot(QuerySnapshot snapshot, FirebaseFirestoreException e) {
+            if (e != null) {
+                // Firestore ya no entrega más snapshots en este listener: se reabre más tarde
+                Log.e(TAG, "Error en listener " + clave + ", se reabre en " + espera + " ms", e);
+                registro = null;
+                handler.removeCallbacks(reapertura);
+                handler.postDelayed(reapertura, espera);
+                espera = Math.min(espera * 2, ESPERA_MAXIMA_MS);
+                for (FirebaseService.FirestoreListCallback callback : new ArrayList<>(suscriptores)) {
+                    if (callback != null) {
+                        callback.onError(e);
+                    }
+                }
+                return;
+            }
+            if (snapshot == null) {
+                return;
+            }
+            espera = ESPERA_INICIAL_MS;
+            List<DocumentChange> cambios = snapshot.getDocumentChanges();
+            // La primera entrega se informa aunque esté vacía, para que los suscriptores sepan que no hay datos
+            if (cambios.isEmpty() && !primeraEntrega) {
+                return;
+            }
+            aplicarCambios(cambios);
+            primeraEntrega = false;
+            ultimo = Collections.unmodifiableList(new ArrayList<>(documentos));
+            for (FirebaseService.FirestoreListCallback callback : new ArrayList<>(suscriptores)) {
+                if (callback != null) {
+                    callback.onSuccess(ultimo);
+                }
+            }
+        }
+
+        /**
+         * Los índices de cada cambio suponen que los anteriores ya se aplicaron, en orden
+         */
+        private void aplicarCambios(List<DocumentChange> cambios) {
+            for (DocumentChange cambio : cambios) {
+                switch (cambio.getType()) {
+                    case ADDED:
+                        documentos.add(cambio.getNewIndex(), conversor.apply(cambio.getDocument()));
+                        break;
+                    case MODIFIED:
+                        T modificado = conversor.apply(cambio.getDocument());
+                        if (cambio.getOldIndex() == cambio.getNewIndex()) {
+                            documentos.set(cambio.getNewIndex(), modificado);
+                        } else {
+                            documentos.remove(cambio.getOldIndex());
+                            documentos.add(cambio.getNewIndex(), modificado);
+                        }
+                        break;
+                    case REMOVED:
+                        documentos.remove(cambio.getOldIndex());
+                        break;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,282 @@
+package com.controlmedicamentos.myapplication.services;
+
+import android.util.Log;
+import com.controlmedicamentos.myapplication.models.HorarioDiario;
+import com.controlmedicamentos.myapplication.models.Medicamento;
+import com.controlmedicamentos.myapplication.models.Toma;
+import com.controlmedicamentos.myapplication.utils.FormatosFecha;
+import com.google.firebase.Timestamp;
+import com.google.firebase.firestore.DocumentSnapshot;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Convierte documentos de la colección "medicamentos" en Medicamento.
+ * Toma el mapa de datos del documento una sola vez y lee cada campo con una única búsqueda,
+ * sin pasar por los getters tipados de DocumentSnapshot (que repiten la búsqueda y el cast).
+ * Acepta los formatos que escriben tanto la app como la versión web.
+ */
+final class MedicamentoCodec {
+    private static final String TAG = "MedicamentoCodec";
+    private static final int COLOR_POR_DEFECTO = 0xFF2196F3; // Azul #2196F3
+
+    private static final Map<String, Medicamento.TipoStock> TIPOS_STOCK = new HashMap<>();
+
+    static {
+        for (Medicamento.TipoStock tipo : Medicamento.TipoStock.values()) {
+            TIPOS_STOCK.put(tipo.name(), tipo);
+        }
+    }
+
+    private MedicamentoCodec() {
+    }
+
+    static Medicamento leer(DocumentSnapshot document) {
+        return leer(document.getId(), document.getData());
+    }
+
+    /**
+     * Convierte el mapa de datos de un documento (null equivale a un documento vacío)
+     */
+    static Medicamento leer(String id, Map<String, Object> datos) {
+        if (datos == null) {
+            datos = Collections.emptyMap();
+        }
+
+        Medicamento medicamento = new Medicamento();
+        medicamento.setId(id);
+        medicamento.setNombre(texto(datos.get("nombre")));
+        // Medicamento usa la presentación para el ícono y el tipo de stock: no puede quedar en null
+        String presentacion = texto(datos.get("presentacion"));
+        medicamento.setPresentacion(presentacion != null ? presentacion : "");
+
+        // horarioPrimeraToma va ANTES de setTomasDiarias, que genera los horarios a partir de él.
+        // Primero "primeraToma" (formato React), luego "horarioPrimeraToma" (formato app anterior)
+        int tomasDiarias = entero(datos.get("tomasDiarias"), 0);
+        String primeraToma = texto(datos.get("primeraToma"));
+        if (primeraToma == null || primeraToma.isEmpty()) {
+            primeraToma = texto(datos.get("horarioPrimeraToma"));
+        }
+        if (primeraToma != null && !primeraToma.isEmpty()) {
+            medicamento.setHorarioPrimeraToma(primeraToma);
+        } else {
+            // Ocasionales (tomasDiarias = 0) quedan sin horario
+            medicamento.setHorarioPrimeraToma(tomasDiarias > 0 ? "00:00" : "");
+        }
+        medicamento.setTomasDiarias(tomasDiarias);
+
+        medicamento.setAfeccion(texto(datos.get("afeccion")));
+
+        Object stockInicial = datos.get("stockInicial");
+        if (stockInicial instanceof Number) {
+            medicamento.setStockInicial(((Number) stockInicial).intValue());
+        }
+        Object stockActual = datos.get("stockActual");
+        if (stockActual instanceof Number) {
+            // Los descuentos con incremento atómico pueden dejar el servidor por debajo de 0
+            medicamento.setStockActual(Math.max(0, ((Number) stockActual).intValue()));
+        }
+        medicamento.setColor(color(datos.get("color")));
+
+        // Días de tratamiento: puede venir como número o como esCronico booleano
+        if (Boolean.TRUE.equals(datos.get("esCronico"))) {
+            medicamento.setDiasTratamiento(-1);
+        } else {
+            Object diasTratamiento = datos.get("diasTratamiento");
+            if (diasTratamiento instanceof Number) {
+                medicamento.setDiasTratamiento(((Number) diasTratamiento).intValue());
+            }
+        }
+        medicamento.setActivo(booleano(datos.get("activo"), true));
+        medicamento.setPausado(booleano(datos.get("pausado"), false));
+        medicamento.setDetalles(texto(datos.get("detalles")));
+
+        Object horariosTomas = datos.get("horariosTomas");
+        if (horariosTomas instanceof List) {
+            medicamento.setHorariosTomas(textos((List<?>) horariosTomas));
+        }
+
+        // De tomasRealizadas (web y versiones anteriores) solo se conservan las fechas, para pronosticar el consumo.
+        // MigracionTomasRealizadas las copia a la colección de tomas sin quitarlas del array
+        Object tomasRealizadas = datos.get("tomasRealizadas");
+        if (tomasRealizadas instanceof List && !((List<?>) tomasRealizadas).isEmpty()) {
+            List<Date> fechasTomas = new ArrayList<>(((List<?>) tomasRealizadas).size());
+            for (Object tomaObj : (List<?>) tomasRealizadas) {
+                if (tomaObj instanceof Map) {
+                    Date fechaToma = fechaTomaRealizada((Map<?, ?>) tomaObj);
+                    if (fechaToma != null) {
+                        fechasTomas.add(fechaToma);
+                    }
+                }
+            }
+            medicamento.setFechasTomasRealizadas(fechasTomas);
+        }
+
+        // fechaVencimientoTimestamp (app) tiene prioridad sobre fechaVencimiento (string ISO de la web)
+        Date fechaVencimiento = fecha(datos.get("fechaVencimientoTimestamp"), "fechaVencimientoTimestamp");
+        if (fechaVencimiento == null) {
+            fechaVencimiento = fecha(datos.get("fechaVencimiento"), "fechaVencimiento");
+        }
+        if (fechaVencimiento != null) {
+            medicamento.setFechaVencimiento(fechaVencimiento);
+        }
+        Date fechaInicio = fecha(datos.get("fechaInicioTratamiento"), "fechaInicioTratamiento");
+        if (fechaInicio != null) {
+            medicamento.setFechaInicioTratamiento(fechaInicio);
+        }
+
+        String tipoStock = texto(datos.get("tipoStock"));
+        if (tipoStock != null) {
+            Medicamento.TipoStock tipo = TIPOS_STOCK.get(tipoStock);
+            if (tipo != null) {
+                medicamento.setTipoStock(tipo);
+            } else {
+                Log.w(TAG, "Tipo de stock no reconocido: " + tipoStock);
+            }
+        }
+        Object diasEstimados = datos.get("diasEstimadosDuracion");
+        if (diasEstimados instanceof Number) {
+            medicamento.setDiasEstimadosDuracion(((Number) diasEstimados).intValue());
+        }
+        Object diasRestantes = datos.get("diasRestantesDuracion");
+        if (diasRestantes instanceof Number) {
+            medicamento.setDiasRestantesDuracion(Math.max(0, ((Number) diasRestantes).intValue()));
+        }
+
+        // Recién leído: nada pendiente de guardar
+        medicamento.limpiarCambios();
+        return medicamento;
+    }
+
+    /**
+     * Color guardado como "#RRGGBB" (web), como número ARGB o como número en texto
+     */
+    private static int color(Object valor) {
+        if (valor == null) {
+            return COLOR_POR_DEFECTO;
+        }
+        if (valor instanceof Number) {
+            return ((Number) valor).intValue();
+        }
+        if (valor instanceof String) {
+            String colorStr = (String) valor;
+            try {
+                if (colorStr.startsWith("#")) {
+                    String hexColor = colorStr.substring(1);
+                    if (hexColor.length() == 6) {
+                        hexColor = "FF" + hexColor; // Añadir alpha
+                    }
+                    return (int) Long.parseLong(hexColor, 16);
+                }
+                return Integer.parseInt(colorStr);
+            } catch (NumberFormatException e) {
+                Log.e(TAG, "Color inválido: " + colorStr, e);
+                return COLOR_POR_DEFECTO;
+            }
+        }
+        Log.w(TAG, "Tipo de color no reconocido: " + valor.getClass().getName());
+        return COLOR_POR_DEFECTO;
+    }
+
+    /**
+     * Fecha guardada como Timestamp (app) o como string "yyyy-MM-dd" (web)
+     */
+    private static Date fecha(Object valor, String campo) {
+        if (valor == null) {
+            return null;
+        }
+        if (valor instanceof Timestamp) {
+            return ((Timestamp) valor).toDate();
+        }
+        if (valor instanceof Date) {
+            return (Date) valor;
+        }
+        if (valor instanceof String) {
+            Date fecha = FormatosFecha.parsearFechaLocal((String) valor);
+            if (fecha == null) {
+                Log.e(TAG, "Error al parsear " + campo + ": " + valor);
+            }
+            return fecha;
+        }
+        Log.w(TAG, "Tipo de " + campo + " no reconocido: " + valor.getClass().getName());
+        return null;
+    }
+
+    /**
+     * Convierte una entrada de tomasRealizadas ({fecha: "yyyy-MM-dd", hora: "HH:mm"}) en Date
+     * @return null si la fecha no es válida
+     */
+    private static Date fechaTomaRealizada(Map<?, ?> toma) {
+        Object fechaObj = toma.get("fecha");
+        if (!(fechaObj instanceof String)) {
+            return null;
+        }
+        Date dia = FormatosFecha.parsearFechaLocal((String) fechaObj);
+        if (dia == null) {
+            Log.w(TAG, "Fecha de toma realizada inválida: " + fechaObj);
+            return null;
+        }
+        Object horaObj = toma.get("hora");
+        int minutosDelDia = horaObj instanceof String ? HorarioDiario.parsear((String) horaObj) : 0;
+        if (minutosDelDia == HorarioDiario.INVALIDO) {
+            minutosDelDia = 0;
+        }
+        return Date.from(dia.toInstant().atZone(java.time.ZoneId.systemDefault())
+            .plusMinutes(minutosDelDia)
+            .toInstant());
+    }
+
+    /**
+     * Convierte una entrada de tomasRealizadas en una Toma para guardarla en la colección de tomas.
+     * Las entradas con "tomada": false se guardan como perdidas.
+     * @return null si la entrada no tiene una fecha válida
+     */
+    static Toma tomaRealizada(Object entrada, String medicamentoId, String medicamentoNombre, String userId) {
+        if (!(entrada instanceof Map)) {
+            return null;
+        }
+        Map<?, ?> datos = (Map<?, ?>) entrada;
+        Date fecha = fechaTomaRealizada(datos);
+        if (fecha == null) {
+            return null;
+        }
+        Toma toma = new Toma();
+        toma.setMedicamentoId(medicamentoId);
+        toma.setMedicamentoNombre(medicamentoNombre);
+        toma.setUserId(userId);
+        toma.setFechaHoraProgramada(fecha);
+        if (Boolean.FALSE.equals(datos.get("tomada"))) {
+            toma.setEstado(Toma.EstadoToma.PERDIDA);
+        } else {
+            toma.setEstado(Toma.EstadoToma.TOMADA);
+            toma.setFechaHoraTomada(fecha);
+        }
+        return toma;
+    }
+
+    private static List<String> textos(List<?> valores) {
+        List<String> resultado = new ArrayList<>(valores.size());
+        for (Object valor : valores) {
+            if (valor instanceof String) {
+                resultado.add((String) valor);
+            }
+        }
+        return resultado;
+    }
+
+    static String texto(Object valor) {
+        return valor instanceof String ? (String) valor : null;
+    }
+
+    static int entero(Object valor, int porDefecto) {
+        return valor instanceof Number ? ((Number) valor).intValue() : porDefecto;
+    }
+
+    static boolean booleano(Object valor, boolean porDefecto) {
+        return valor instanceof Boolean ? (Boolean) valor : porDefecto;
+    }
+}
@@ -0,0 +1,183 @@
+package com.controlmedicamentos.myapplication.services;
+
+import android.content.Context;
+import android.net.Uri;
+import android.util.JsonWriter;
+import androidx.core.content.FileProvider;
+import com.controlmedicamentos.myapplication.utils.FormatosFecha;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Métricas de las operaciones de FirebaseService en este proceso: histograma de latencia,
+ * cantidad de llamadas y errores, y documentos leídos y escritos por operación.
+ * Las registra FirebaseServiceMedido; se ven en la sección de diagnóstico de Ajustes y se pueden
+ * exportar a un archivo JSON.
+ *
+ * En los listeners se mide el tiempo que tarda el callback en procesar cada entrega. Los documentos
+ * que reciben se cuentan aparte, como entregados y no como leídos: cada entrega trae el resultado
+ * completo aunque Firestore solo haya leído los cambios, y un suscriptor nuevo lo recibe sin leer nada.
+ */
+public final class MetricasFirebase {
+    private static final String PREFIJO = "metricas_";
+    private static final DateTimeFormatter FORMATO_NOMBRE = DateTimeFormatter.ofPattern("yyyyMMdd_HHmm", Locale.ROOT);
+    private static final double[] PERCENTILES = {50, 90, 95, 99};
+
+    private static MetricasFirebase instancia;
+
+    private final Map<String, Operacion> operaciones = new TreeMap<>();
+    private Date desde = new Date();
+
+    private MetricasFirebase() {
+    }
+
+    public static synchronized MetricasFirebase getInstance() {
+        if (instancia == null) {
+            instancia = new MetricasFirebase();
+        }
+        return instancia;
+    }
+
+    /**
+     * Registra una llamada terminada
+     * @param nanos duración medida con System.nanoTime()
+     */
+    synchronized void registrar(String operacion, long nanos, boolean error, int leidos, int escritos) {
+        Operacion datos = operaciones.get(operacion);
+        if (datos == null) {
+            datos = new Operacion();
+            operaciones.put(operacion, datos);
+        }
+        datos.latencia.registrar(nanos / 1000);
+        datos.llamadas++;
+        if (error) {
+            datos.errores++;
+        }
+        datos.leidos += leidos;
+        datos.escritos += escritos;
+    }
+
+    /**
+     * Registra una entrega de un listener
+     * @param nanos lo que tardó el callback en procesarla
+     */
+    synchronized void registrarEntrega(String operacion, long nanos, boolean error, int entregados) {
+        registrar(operacion, nanos, error, 0, 0);
+        operaciones.get(operacion).entregados += entregados;
+    }
+
+    public synchronized void reiniciar() {
+        operaciones.clear();
+        desde = new Date();
+    }
+
+    /**
+     * Texto con una línea por operación (para mostrar en pantalla)
+     */
+    public synchronized String getResumen() {
+        if (operaciones.isEmpty()) {
+            return "Sin operaciones registradas desde " + FormatosFecha.horaLocal(desde);
+        }
+        StringBuilder texto = new StringBuilder();
+        texto.append("Desde ").append(FormatosFecha.fechaLocal(desde)).append(' ')
+            .append(FormatosFecha.horaLocal(desde)).append('\n');
+        for (Map.Entry<String, Operacion> entrada : operaciones.entrySet()) {
+            Operacion datos = entrada.getValue();
+            HistogramaLatencia latencia = datos.latencia;
+            texto.append('\n').append(entrada.getKey()).append('\n');
+            texto.append(String.format(Locale.getDefault(),
+                "  %d llamadas, %.1f%% errores, %d leídos, %d escritos%n",
+                datos.llamadas, datos.getTasaError() * 100, datos.leidos, datos.escritos));
+            if (datos.entregados > 0) {
+                texto.append(String.format(Locale.getDefault(), "  %d entregados%n", datos.entregados));
+            }
+            texto.append(String.format(Locale.getDefault(),
+                "  p50 %s · p95 %s · p99 %s · máx %s%n",
+                milisegundos(latencia.percentil(50)), milisegundos(latencia.percentil(95)),
+                milisegundos(latencia.percentil(99)), milisegundos(latencia.getMaximo())));
+        }
+        return texto.toString();
+    }
+
+    /**
+     * Escribe las métricas en cache/exportaciones (reemplazando la exportación anterior) y devuelve su Uri de contenido (para compartir)
+     */
+    public Uri exportar(Context context) throws IOException {
+        File carpeta = CarpetaExportaciones.preparar(context, PREFIJO);
+        File archivo = new File(carpeta, PREFIJO + LocalDateTime.now().format(FORMATO_NOMBRE) + ".json");
+        try (JsonWriter json = new JsonWriter(new OutputStreamWriter(new FileOutputStream(archivo), StandardCharsets.UTF_8))) {
+            json.setIndent("  ");
+            escribir(json);
+        }
+        return FileProvider.getUriForFile(context, context.getPackageName() + ".fileprovider", archivo);
+    }
+
+    private synchronized void escribir(JsonWriter json) throws IOException {
+        json.beginObject();
+        json.name("desde").value(FormatosFecha.instanteIso(desde));
+        json.name("generado").value(FormatosFecha.instanteIsoActual());
+        json.name("operaciones").beginArray();
+        for (Map.Entry<String, Operacion> entrada : operaciones.entrySet()) {
+            Operacion datos = entrada.getValue();
+            HistogramaLatencia latencia = datos.latencia;
+            json.beginObject();
+            json.name("nombre").value(entrada.getKey());
+            json.name("llamadas").value(datos.llamadas);
+            json.name("errores").value(datos.errores);
+            json.name("tasaError").value(datos.getTasaError());
+            json.name("documentosLeidos").value(datos.leidos);
+            json.name("documentosEscritos").value(datos.escritos);
+            json.name("documentosEntregados").value(datos.entregados);
+
+            json.name("latenciaMicros").beginObject();
+            json.name("minimo").value(latencia.getMinimo());
+            json.name("promedio").value(Math.round(latencia.getPromedio()));
+            for (double percentil : PERCENTILES) {
+                json.name("p" + (int) percentil).value(latencia.percentil(percentil));
+            }
+            json.name("maximo").value(latencia.getMaximo());
+            json.endObject();
+
+            // Solo las cubetas con mediciones: [límite superior en µs, cantidad]
+            json.name("histograma").beginArray();
+            for (int i = 0; i < latencia.getCantidadCubetas(); i++) {
+                if (latencia.getCantidad(i) > 0) {
+                    json.beginArray()
+                        .value(HistogramaLatencia.limiteSuperior(i))
+                        .value(latencia.getCantidad(i))
+                        .endArray();
+                }
+            }
+            json.endArray();
+            json.endObject();
+        }
+        json.endArray();
+        json.endObject();
+    }
+
+    private static String milisegundos(long micros) {
+        return String.format(Locale.getDefault(), "%.1f ms", micros / 1000.0);
+    }
+
+    private static final class Operacion {
+        final HistogramaLatencia latencia = new HistogramaLatencia();
+        long llamadas;
+        long errores;
+        long leidos;
+        long escritos;
+        long entregados;
+
+        double getTasaError() {
+            return llamadas == 0 ? 0 : (double) errores / llamadas;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.controlmedicamentos.myapplication.services;
+
+import android.content.Context;
+import android.util.Log;
+import com.controlmedicamentos.myapplication.models.Medicamento;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Mueve a la colección de tomas las entradas del array tomasRealizadas de los medicamentos
+ * (versiones anteriores de la app y la web siguen agregándolas ahí). Las entradas copiadas se quitan
+ * del array en el mismo lote, así que un medicamento ya migrado llega con el array vacío.
+ * Se alimenta con cada lista que entrega el listener de medicamentos, pero cada medicamento se migra
+ * una sola vez por ejecución de la app: si falla se reintenta con el próximo snapshot, y lo que la web
+ * agregue después se migra la próxima vez que se abra la app.
+ */
+public class MigracionTomasRealizadas {
+    private static final String TAG = "MigracionTomasRealizadas";
+
+    private static MigracionTomasRealizadas instancia;
+
+    private final FirebaseService firebaseService;
+    private final Set<String> enCurso = new HashSet<>();
+    private final Set<String> migrados = new HashSet<>();
+
+    private MigracionTomasRealizadas(Context context) {
+        this.firebaseService = Dependencias.de(context).getFirebaseService();
+    }
+
+    public static synchronized MigracionTomasRealizadas getInstance(Context context) {
+        if (instancia == null) {
+            instancia = new MigracionTomasRealizadas(context);
+        }
+        return instancia;
+    }
+
+    /**
+     * Migra los medicamentos de la lista con entradas en el array que todavía no se migraron
+     */
+    public synchronized void migrarMedicamentos(List<Medicamento> medicamentos) {
+        if (medicamentos == null) {
+            return;
+        }
+        for (Medicamento medicamento : medicamentos) {
+            if (medicamento == null || medicamento.getId() == null
+                || medicamento.getFechasTomasRealizadas() == null
+                || medicamento.getFechasTomasRealizadas().isEmpty()) {
+                continue;
+            }
+            String medicamentoId = medicamento.getId();
+            if (migrados.contains(medicamentoId) || !enCurso.add(medicamentoId)) {
+                continue;
+            }
+            firebaseService.migrarTomasRealizadas(medicamentoId, new FirebaseService.FirestoreCallback() {
+                @Override
+                public void onSuccess(Object result) {
+                    terminar(medicamentoId, true);
+                }
+
+                @Override
+                public void onError(Exception exception) {
+                    // Se reintenta con el próximo snapshot
+                    Log.w(TAG, "No se pudieron copiar las tomas de " + medicamentoId, exception);
+                    terminar(medicamentoId, false);
+                }
+            });
+        }
+    }
+
+    private synchronized void terminar(String medicamentoId, boolean migrado) {
+        enCurso.remove(medicamentoId);
+        if (migrado) {
+            migrados.add(medicamentoId);
+        }
+    }
+}
@@ -20,6 +20,7 @@ import androidx.core.app.NotificationCompat;
 import com.controlmedicamentos.myapplication.MainActivity;
 import com.controlmedicamentos.myapplication.R;
 import com.controlmedicamentos.myapplication.models.Medicamento;
+import com.controlmedicamentos.myapplication.models.PronosticoStock;
 import com.controlmedicamentos.myapplication.receivers.TomaActionReceiver;
 
 import java.util.Calendar;
@@ -296,6 +297,77 @@ public class NotificationService {
         notificationManager.notify(notificationId, builder.build());
     }
     
+    /**
+     * Envía un recordatorio para reponer un medicamento antes de que se agote
+     */
+    public void enviarNotificacionReposicion(Medicamento medicamento, PronosticoStock pronostico) {
+        boolean notificacionesHabilitadas = preferences.getBoolean("notificaciones", true);
+        if (!notificacionesHabilitadas || pronostico == null || !pronostico.esProyectable()) {
+            return;
+        }
+        
+        Intent intent = new Intent(context, MainActivity.class);
+        intent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_CLEAR_TASK);
+        PendingIntent pendingIntent = PendingIntent.getActivity(
+            context,
+            0,
+            intent,
+            PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE
+        );
+        
+        int dias = pronostico.getDiasHastaAgotarse();
+        String texto = dias == 0
+            ? medicamento.getNombre() + " se agota hoy"
+            : medicamento.getNombre() + " se agota en " + dias + (dias == 1 ? " día" : " días");
+        
+        NotificationCompat.Builder builder = new NotificationCompat.Builder(context, CHANNEL_ID)
+            .setSmallIcon(R.drawable.ic_medicamento)
+            .setContentTitle("Reponer medicamento")
+            .setContentText(texto)
+            .setStyle(new NotificationCompat.BigTextStyle()
+                .bigText(texto + ".\nStock actual: " + medicamento.getStockActual() +
+                        ". Recordá reponerlo para no interrumpir el tratamiento."))
+            .setPriority(NotificationCompat.PRIORITY_DEFAULT)
+            .setContentIntent(pendingIntent)
+            .setAutoCancel(true);
+        
+        int notificationId = (medicamento.getId() != null ? medicamento.getId().hashCode() :
+                            (int) System.currentTimeMillis()) + 2000; // +2000 para diferenciar de las alertas de toma
+        notificationManager.notify(notificationId, builder.build());
+    }
+    
+    /**
+     * Avisa que el servidor rechazó una dosis registrada sin conexión (se guardó en el dispositivo
+     * y se volverá a intentar al abrir la app de nuevo)
+     */
+    public void enviarNotificacionTomaRechazada(String medicamentoNombre) {
+        Intent intent = new Intent(context, MainActivity.class);
+        intent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_CLEAR_TASK);
+        PendingIntent pendingIntent = PendingIntent.getActivity(
+            context,
+            0,
+            intent,
+            PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE
+        );
+        
+        String nombre = medicamentoNombre != null ? medicamentoNombre : "un medicamento";
+        String texto = "No se pudo registrar la toma de " + nombre;
+        
+        NotificationCompat.Builder builder = new NotificationCompat.Builder(context, CHANNEL_ID)
+            .setSmallIcon(R.drawable.ic_medicamento)
+            .setContentTitle("Toma sin sincronizar")
+            .setContentText(texto)
+            .setStyle(new NotificationCompat.BigTextStyle()
+                .bigText(texto + ". El servidor la rechazó; quedó guardada en el dispositivo y se " +
+                        "volverá a enviar la próxima vez que abras la app. Verificá que la sesión siga iniciada."))
+            .setPriority(NotificationCompat.PRIORITY_DEFAULT)
+            .setContentIntent(pendingIntent)
+            .setAutoCancel(true);
+        
+        int notificationId = (medicamentoNombre != null ? medicamentoNombre.hashCode() : 0) + 3000; // +3000 para diferenciar de las demás
+        notificationManager.notify(notificationId, builder.build());
+    }
+    
     /**
      * Cancela todas las notificaciones de un medicamento
      */
@@ -0,0 +1,80 @@
+package com.controlmedicamentos.myapplication.services;
+
+import android.util.Log;
+import com.controlmedicamentos.myapplication.models.ResumenMensualTomas;
+import com.controlmedicamentos.myapplication.models.Toma;
+import com.google.firebase.firestore.DocumentSnapshot;
+import java.time.YearMonth;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Convierte documentos de la colección "resumenes_tomas" en ResumenMensualTomas.
+ * Formato (lo escribe ArchivoTomas con incrementos, así que cada campo puede faltar):
+ * { medicamentoId, medicamentoNombre, userId, mes: "yyyy-MM",
+ *   dias: { "<día>": { "<ESTADO>": cantidad } },
+ *   demoras: { cantidad, totalMinutos, mayores30 } }
+ */
+final class ResumenMensualCodec {
+    private static final String TAG = "ResumenMensualCodec";
+
+    private ResumenMensualCodec() {
+    }
+
+    static ResumenMensualTomas leer(DocumentSnapshot document) {
+        Map<String, Object> datos = document.getData();
+        if (datos == null) {
+            datos = Collections.emptyMap();
+        }
+
+        ResumenMensualTomas resumen = new ResumenMensualTomas();
+        resumen.setId(document.getId());
+        resumen.setMedicamentoId(MedicamentoCodec.texto(datos.get("medicamentoId")));
+        resumen.setMedicamentoNombre(MedicamentoCodec.texto(datos.get("medicamentoNombre")));
+
+        String mes = MedicamentoCodec.texto(datos.get("mes"));
+        if (mes != null && mes.length() == 7) {
+            try {
+                resumen.setAnio(Integer.parseInt(mes.substring(0, 4)));
+                resumen.setMes(Integer.parseInt(mes.substring(5)));
+            } catch (NumberFormatException e) {
+                Log.w(TAG, "Mes inválido en resumen " + document.getId() + ": " + mes);
+            }
+        }
+
+        Object dias = datos.get("dias");
+        if (dias instanceof Map && resumen.getMes() >= 1 && resumen.getMes() <= 12) {
+            for (Map.Entry<?, ?> dia : ((Map<?, ?>) dias).entrySet()) {
+                if (!(dia.getValue() instanceof Map)) {
+                    continue;
+                }
+                int numeroDia;
+                try {
+                    numeroDia = Integer.parseInt(String.valueOf(dia.getKey()));
+                } catch (NumberFormatException e) {
+                    continue;
+                }
+                if (numeroDia < 1 || numeroDia > YearMonth.of(resumen.getAnio(), resumen.getMes()).lengthOfMonth()) {
+                    continue;
+                }
+                Map<?, ?> cantidades = (Map<?, ?>) dia.getValue();
+                for (Toma.EstadoToma estado : Toma.EstadoToma.values()) {
+                    int cantidad = MedicamentoCodec.entero(cantidades.get(estado.name()), 0);
+                    if (cantidad > 0) {
+                        resumen.setCantidad(numeroDia, estado, cantidad);
+                    }
+                }
+            }
+        }
+
+        Object demoras = datos.get("demoras");
+        if (demoras instanceof Map) {
+            Map<?, ?> estadisticas = (Map<?, ?>) demoras;
+            resumen.setCantidadDemoras(MedicamentoCodec.entero(estadisticas.get("cantidad"), 0));
+            Object total = estadisticas.get("totalMinutos");
+            resumen.setDemoraTotalMinutos(total instanceof Number ? ((Number) total).longValue() : 0);
+            resumen.setDemorasMayores30(MedicamentoCodec.entero(estadisticas.get("mayores30"), 0));
+        }
+        return resumen;
+    }
+}
@@ -0,0 +1,60 @@
+package com.controlmedicamentos.myapplication.services;
+
+import com.controlmedicamentos.myapplication.models.Toma;
+import com.google.firebase.Timestamp;
+import com.google.firebase.firestore.DocumentSnapshot;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Convierte documentos de la colección "tomas" en Toma, leyendo cada campo una sola vez
+ * del mapa de datos del documento.
+ */
+final class TomaCodec {
+    private static final Map<String, Toma.EstadoToma> ESTADOS = new HashMap<>();
+
+    static {
+        for (Toma.EstadoToma estado : Toma.EstadoToma.values()) {
+            ESTADOS.put(estado.name(), estado);
+        }
+    }
+
+    private TomaCodec() {
+    }
+
+    static Toma leer(DocumentSnapshot document) {
+        return leer(document.getId(), document.getData());
+    }
+
+    /**
+     * Convierte el mapa de datos de un documento (null equivale a un documento vacío)
+     */
+    static Toma leer(String id, Map<String, Object> datos) {
+        if (datos == null) {
+            datos = Collections.emptyMap();
+        }
+
+        Toma toma = new Toma();
+        toma.setId(id);
+        toma.setMedicamentoId(MedicamentoCodec.texto(datos.get("medicamentoId")));
+        toma.setMedicamentoNombre(MedicamentoCodec.texto(datos.get("medicamentoNombre")));
+        toma.setUserId(MedicamentoCodec.texto(datos.get("userId")));
+        toma.setObservaciones(MedicamentoCodec.texto(datos.get("observaciones")));
+        toma.setFechaHoraProgramada(fecha(datos.get("fechaHoraProgramada")));
+        toma.setFechaHoraTomada(fecha(datos.get("fechaHoraTomada")));
+
+        // Sin estado (o con uno desconocido) se asume tomada
+        Toma.EstadoToma estado = ESTADOS.get(MedicamentoCodec.texto(datos.get("estado")));
+        toma.setEstado(estado != null ? estado : Toma.EstadoToma.TOMADA);
+        return toma;
+    }
+
+    private static Date fecha(Object valor) {
+        if (valor instanceof Timestamp) {
+            return ((Timestamp) valor).toDate();
+        }
+        return valor instanceof Date ? (Date) valor : null;
+    }
+}
@@ -2,18 +2,23 @@ package com.controlmedicamentos.myapplication.services;
 
 import android.app.Service;
 import android.content.Intent;
+import android.content.SharedPreferences;
 import android.os.Handler;
 import android.os.IBinder;
 import android.os.Looper;
 import android.util.Log;
 
 import com.controlmedicamentos.myapplication.models.Medicamento;
+import com.controlmedicamentos.myapplication.models.PronosticoStock;
 import com.controlmedicamentos.myapplication.models.Toma;
 import com.controlmedicamentos.myapplication.models.TomaProgramada;
+import com.controlmedicamentos.myapplication.utils.PronosticadorStock;
 
 import java.util.Calendar;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Servicio en segundo plano que verifica periódicamente el estado de las tomas programadas
@@ -22,20 +27,25 @@ import java.util.List;
 public class TomaStateCheckerService extends Service {
     private static final String TAG = "TomaStateChecker";
     private static final long INTERVALO_VERIFICACION = 60 * 1000; // Verificar cada minuto
+    private static final String PREF_REPOSICION_NOTIFICADA = "reposicion_notificada_";
     
     private Handler handler;
     private Runnable verificacionRunnable;
     private FirebaseService firebaseService;
     private TomaTrackingService trackingService;
+    private NotificationService notificationService;
     private boolean ejecutando = false;
+    private boolean cargandoHistorial = false;
     
     @Override
     public void onCreate() {
         super.onCreate();
         Log.d(TAG, "Servicio creado");
         handler = new Handler(Looper.getMainLooper());
-        firebaseService = new FirebaseService();
-        trackingService = new TomaTrackingService(this);
+        Dependencias dependencias = Dependencias.de(this);
+        firebaseService = dependencias.getFirebaseService();
+        trackingService = dependencias.getTomaTrackingService();
+        notificationService = dependencias.getNotificationService();
         
         verificacionRunnable = new Runnable() {
             @Override
@@ -139,6 +149,8 @@ public class TomaStateCheckerService extends Service {
                         }
                     }
                 }
+                
+                verificarReposicion(medicamentos);
             }
             
             @Override
@@ -148,6 +160,63 @@ public class TomaStateCheckerService extends Service {
         });
     }
     
+    /**
+     * Recordatorio de reposición: avisa una vez por día por cada medicamento cuyo stock
+     * proyectado se agota antes de terminar el tratamiento y dentro de los días de antelación configurados
+     */
+    private void verificarReposicion(List<Medicamento> medicamentos) {
+        PronosticadorStock pronosticador = PronosticadorStock.getInstance();
+        if (!pronosticador.isHistorialCargado() && !cargandoHistorial) {
+            cargarHistorialConsumo();
+        }
+        
+        SharedPreferences preferences = getSharedPreferences("ControlMedicamentos", MODE_PRIVATE);
+        int diasAntelacion = preferences.getInt("dias_antelacion_stock", 7);
+        long hoy = TimeUnit.MILLISECONDS.toDays(System.currentTimeMillis());
+        
+        Map<String, PronosticoStock> pronosticos = pronosticador.pronosticar(medicamentos);
+        for (Medicamento medicamento : medicamentos) {
+            if (!medicamento.isActivo() || medicamento.isPausado() || medicamento.getTomasDiarias() <= 0) {
+                continue;
+            }
+            PronosticoStock pronostico = pronosticos.get(medicamento.getId());
+            if (pronostico == null || !pronostico.seAgotaAntesDeTerminar()
+                || pronostico.getDiasHastaAgotarse() > diasAntelacion) {
+                continue;
+            }
+            
+            String clave = PREF_REPOSICION_NOTIFICADA + medicamento.getId();
+            if (preferences.getLong(clave, -1) == hoy) {
+                continue; // Ya se avisó hoy
+            }
+            preferences.edit().putLong(clave, hoy).apply();
+            notificationService.enviarNotificacionReposicion(medicamento, pronostico);
+            Log.d(TAG, "Recordatorio de reposición: " + medicamento.getNombre() +
+                  " se agota en " + pronostico.getDiasHastaAgotarse() + " días");
+        }
+    }
+    
+    /**
+     * Carga las tomas recientes para que el pronóstico use el consumo real
+     */
+    private void cargarHistorialConsumo() {
+        cargandoHistorial = true;
+        firebaseService.obtenerTomasUsuarioDesde(PronosticadorStock.inicioVentana(),
+            new FirebaseService.FirestoreListCallback() {
+                @Override
+                public void onSuccess(List<?> result) {
+                    cargandoHistorial = false;
+                    PronosticadorStock.getInstance().cargarTomas((List<Toma>) result);
+                }
+                
+                @Override
+                public void onError(Exception exception) {
+                    cargandoHistorial = false;
+                    Log.w(TAG, "No se pudo cargar el historial de consumo", exception);
+                }
+            });
+    }
+    
     /**
      * Registra una toma omitida en Firestore para que afecte el cálculo de adherencia
      */
@@ -4,8 +4,10 @@ import android.content.Context;
 import android.content.SharedPreferences;
 import android.util.Log;
 
+import com.controlmedicamentos.myapplication.models.HorarioDiario;
 import com.controlmedicamentos.myapplication.models.Medicamento;
 import com.controlmedicamentos.myapplication.models.TomaProgramada;
+import com.google.firebase.auth.FirebaseUser;
 
 import java.util.ArrayList;
 import java.util.Calendar;
@@ -15,7 +17,9 @@ import java.util.List;
 import java.util.Map;
 
 /**
- * Servicio para rastrear y gestionar el estado de las tomas programadas
+ * Servicio para rastrear y gestionar el estado de las tomas programadas.
+ * El estado se guarda en AlmacenLocal por usuario; la base se lee y escribe en su hilo de fondo,
+ * así que el estado guardado se incorpora poco después de crear el servicio (ver cargarTomasProgramadas).
  */
 public class TomaTrackingService {
     private static final String TAG = "TomaTrackingService";
@@ -24,11 +28,15 @@ public class TomaTrackingService {
     
     private Context context;
     private SharedPreferences preferences;
+    private AlmacenLocal almacenLocal;
+    private AuthService authService;
     private Map<String, List<TomaProgramada>> tomasPorMedicamento;
     
     public TomaTrackingService(Context context) {
         this.context = context;
         this.preferences = context.getSharedPreferences("ControlMedicamentos", Context.MODE_PRIVATE);
+        this.almacenLocal = AlmacenLocal.getInstance(context);
+        this.authService = new AuthService();
         this.tomasPorMedicamento = new HashMap<>();
         cargarTomasProgramadas();
     }
@@ -41,8 +49,8 @@ public class TomaTrackingService {
             return;
         }
         
-        List<String> horarios = medicamento.getHorariosTomas();
-        if (horarios == null || horarios.isEmpty()) {
+        HorarioDiario horarios = medicamento.getHorarioDiario();
+        if (horarios.isEmpty()) {
             return;
         }
         
@@ -51,43 +59,54 @@ public class TomaTrackingService {
         hoy.set(Calendar.MINUTE, 0);
         hoy.set(Calendar.SECOND, 0);
         hoy.set(Calendar.MILLISECOND, 0);
+        Calendar ahora = Calendar.getInstance();
         
-        List<TomaProgramada> tomas = new ArrayList<>();
+        List<TomaProgramada> anteriores = tomasPorMedicamento.get(medicamento.getId());
+        List<TomaProgramada> tomas = new ArrayList<>(horarios.cantidad());
         
-        for (String horario : horarios) {
-            try {
-                String[] partes = horario.split(":");
-                if (partes.length != 2) {
-                    continue;
-                }
-                
-                int hora = Integer.parseInt(partes[0]);
-                int minuto = Integer.parseInt(partes[1]);
-                
-                Calendar fechaToma = (Calendar) hoy.clone();
-                fechaToma.set(Calendar.HOUR_OF_DAY, hora);
-                fechaToma.set(Calendar.MINUTE, minuto);
-                
-                // Si la hora ya pasó hoy, no incluirla (ya se procesó o se omitió)
-                Calendar ahora = Calendar.getInstance();
-                if (fechaToma.before(ahora) && !esTomaDelDia(fechaToma, ahora)) {
-                    continue;
-                }
-                
-                TomaProgramada toma = new TomaProgramada(
-                    medicamento.getId(),
-                    horario,
-                    fechaToma.getTime()
-                );
-                
-                tomas.add(toma);
-            } catch (NumberFormatException e) {
-                Log.e(TAG, "Error al parsear horario: " + horario, e);
+        for (int i = 0; i < horarios.cantidad(); i++) {
+            int minutosDelDia = horarios.minutosEn(i);
+            
+            // Si la toma de hoy ya estaba guardada, conservar su estado (tomada, pospuesta, alertas)
+            TomaProgramada guardada = buscarTomaDelDia(anteriores, minutosDelDia, hoy);
+            if (guardada != null) {
+                tomas.add(guardada);
+                continue;
+            }
+            
+            Calendar fechaToma = (Calendar) hoy.clone();
+            fechaToma.set(Calendar.HOUR_OF_DAY, minutosDelDia / 60);
+            fechaToma.set(Calendar.MINUTE, minutosDelDia % 60);
+            
+            // Si la hora ya pasó hoy, no incluirla (ya se procesó o se omitió)
+            if (fechaToma.before(ahora) && !esTomaDelDia(fechaToma, ahora)) {
+                continue;
             }
+            
+            TomaProgramada toma = new TomaProgramada(
+                medicamento.getId(),
+                horarios.textoEn(i),
+                fechaToma.getTime()
+            );
+            
+            tomas.add(toma);
         }
         
         tomasPorMedicamento.put(medicamento.getId(), tomas);
-        guardarTomasProgramadas();
+        guardarTomasProgramadas(medicamento.getId());
+    }
+    
+    private TomaProgramada buscarTomaDelDia(List<TomaProgramada> tomas, int minutosDelDia, Calendar hoy) {
+        if (tomas == null) {
+            return null;
+        }
+        for (TomaProgramada toma : tomas) {
+            if (toma.getMinutosHorario() == minutosDelDia && toma.getFechaHoraProgramada() != null
+                && !toma.getFechaHoraProgramada().before(hoy.getTime())) {
+                return toma;
+            }
+        }
+        return null;
     }
     
     /**
@@ -160,7 +179,7 @@ public class TomaTrackingService {
             if (toma.getEstado() != TomaProgramada.EstadoTomaProgramada.OMITIDA) {
                 toma.setEstado(TomaProgramada.EstadoTomaProgramada.OMITIDA);
                 toma.setFechaHoraOmitida(ahora);
-                guardarTomasProgramadas();
+                guardarTomasProgramadas(toma.getMedicamentoId());
             }
         } else if (ahora.after(fechaRetraso)) {
             if (toma.getEstado() != TomaProgramada.EstadoTomaProgramada.RETRASO &&
@@ -169,7 +188,7 @@ public class TomaTrackingService {
                 if (toma.getFechaHoraRetraso() == null) {
                     toma.setFechaHoraRetraso(ahora);
                 }
-                guardarTomasProgramadas();
+                guardarTomasProgramadas(toma.getMedicamentoId());
             }
         } else if (ahora.after(fechaProgramada)) {
             if (toma.getEstado() != TomaProgramada.EstadoTomaProgramada.ALERTA_ROJA &&
@@ -179,7 +198,7 @@ public class TomaTrackingService {
                 if (toma.getFechaHoraAlertaRoja() == null) {
                     toma.setFechaHoraAlertaRoja(ahora);
                 }
-                guardarTomasProgramadas();
+                guardarTomasProgramadas(toma.getMedicamentoId());
             }
         } else if (fechaAlertaAmarilla != null && ahora.after(fechaAlertaAmarilla)) {
             if (toma.getEstado() == TomaProgramada.EstadoTomaProgramada.PENDIENTE) {
@@ -187,7 +206,7 @@ public class TomaTrackingService {
                 if (toma.getFechaHoraAlertaAmarilla() == null) {
                     toma.setFechaHoraAlertaAmarilla(ahora);
                 }
-                guardarTomasProgramadas();
+                guardarTomasProgramadas(toma.getMedicamentoId());
             }
         }
     }
@@ -205,7 +224,7 @@ public class TomaTrackingService {
             if (toma.getHorario().equals(horario) && !toma.isTomada()) {
                 toma.setTomada(true);
                 toma.setEstado(TomaProgramada.EstadoTomaProgramada.PENDIENTE);
-                guardarTomasProgramadas();
+                guardarTomasProgramadas(medicamentoId);
                 break;
             }
         }
@@ -230,13 +249,13 @@ public class TomaTrackingService {
                     cal.add(Calendar.MINUTE, 10);
                     toma.setFechaHoraProgramada(cal.getTime());
                     toma.setEstado(TomaProgramada.EstadoTomaProgramada.PENDIENTE);
-                    guardarTomasProgramadas();
+                    guardarTomasProgramadas(medicamentoId);
                     return true;
                 } else {
                     // Ya se pospuso 3 veces, marcar como omitida
                     toma.setEstado(TomaProgramada.EstadoTomaProgramada.OMITIDA);
                     toma.setFechaHoraOmitida(new Date());
-                    guardarTomasProgramadas();
+                    guardarTomasProgramadas(medicamentoId);
                     return false;
                 }
             }
@@ -264,31 +283,83 @@ public class TomaTrackingService {
     }
     
     /**
-     * Guarda las tomas programadas en SharedPreferences
+     * Guarda en la base local (en segundo plano) las tomas programadas de un medicamento
      */
-    private void guardarTomasProgramadas() {
-        // Por simplicidad, guardamos solo los IDs y horarios
-        // En producción, se podría usar JSON o una base de datos
-        // Por ahora, las tomas se recalculan cada vez que se inicia la app
+    private void guardarTomasProgramadas(String medicamentoId) {
+        List<TomaProgramada> tomas = tomasPorMedicamento.get(medicamentoId);
+        String userId = usuarioActual();
+        if (medicamentoId == null || tomas == null || userId == null) {
+            return;
+        }
+        almacenLocal.guardarTomasProgramadas(userId, medicamentoId, tomas);
+    }
+    
+    private String usuarioActual() {
+        FirebaseUser usuario = authService.getCurrentUser();
+        return usuario != null ? usuario.getUid() : null;
     }
     
     /**
-     * Carga las tomas programadas desde SharedPreferences
+     * Descarta las tomas programadas en memoria y las vuelve a leer de la base local
      */
-    private void cargarTomasProgramadas() {
-        // Por simplicidad, las tomas se inicializan cuando se cargan los medicamentos
-        // En producción, se podría cargar desde SharedPreferences o base de datos
+    public void recargarTomasProgramadas() {
+        tomasPorMedicamento.clear();
+        cargarTomasProgramadas();
     }
     
     /**
-     * Limpia las tomas del día anterior
+     * Carga desde la base local las tomas programadas del día del usuario (conserva su estado entre reinicios).
+     * Si mientras tanto se inicializó algún medicamento, el estado guardado reemplaza a las tomas recién
+     * generadas del mismo horario.
      */
-    public void limpiarTomasAnteriores() {
+    private void cargarTomasProgramadas() {
+        String userId = usuarioActual();
+        if (userId == null) {
+            return;
+        }
+        almacenLocal.obtenerTomasProgramadas(userId, inicioDelDia().getTime(), new FirebaseService.FirestoreCallback() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public void onSuccess(Object result) {
+                Map<String, List<TomaProgramada>> guardadas = (Map<String, List<TomaProgramada>>) result;
+                for (Map.Entry<String, List<TomaProgramada>> entrada : guardadas.entrySet()) {
+                    List<TomaProgramada> actuales = tomasPorMedicamento.get(entrada.getKey());
+                    if (actuales == null) {
+                        tomasPorMedicamento.put(entrada.getKey(), entrada.getValue());
+                        continue;
+                    }
+                    for (TomaProgramada guardada : entrada.getValue()) {
+                        for (int i = 0; i < actuales.size(); i++) {
+                            if (actuales.get(i).getHorario().equals(guardada.getHorario())) {
+                                actuales.set(i, guardada);
+                                break;
+                            }
+                        }
+                    }
+                }
+            }
+            
+            @Override
+            public void onError(Exception exception) {
+                Log.e(TAG, "Error al cargar tomas programadas", exception);
+            }
+        });
+    }
+    
+    private Calendar inicioDelDia() {
         Calendar hoy = Calendar.getInstance();
         hoy.set(Calendar.HOUR_OF_DAY, 0);
         hoy.set(Calendar.MINUTE, 0);
         hoy.set(Calendar.SECOND, 0);
         hoy.set(Calendar.MILLISECOND, 0);
+        return hoy;
+    }
+    
+    /**
+     * Limpia las tomas del día anterior
+     */
+    public void limpiarTomasAnteriores() {
+        Calendar hoy = inicioDelDia();
         
         for (List<TomaProgramada> tomas : tomasPorMedicamento.values()) {
             tomas.removeIf(toma -> {
@@ -301,7 +372,7 @@ public class TomaTrackingService {
             });
         }
         
-        guardarTomasProgramadas();
+        almacenLocal.eliminarTomasProgramadasAnteriores(hoy.getTime());
     }
 }
 
@@ -3,16 +3,21 @@ package com.controlmedicamentos.myapplication.utils;
 import com.controlmedicamentos.myapplication.models.AdherenciaIntervalo;
 import com.controlmedicamentos.myapplication.models.AdherenciaResumen;
 import com.controlmedicamentos.myapplication.models.Medicamento;
+import com.controlmedicamentos.myapplication.models.ResumenMensualTomas;
 import com.controlmedicamentos.myapplication.models.Toma;
 import java.text.DateFormatSymbols;
+import java.time.LocalDate;
+import java.time.ZoneId;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 
 /**
  * Utilidad para calcular métricas de adherencia en diferentes rangos.
+ * Las tomas archivadas llegan como resúmenes mensuales (por día) y se suman a las tomas individuales.
  */
 public final class AdherenciaCalculator {
 
@@ -22,10 +27,15 @@ public final class AdherenciaCalculator {
     }
 
     public static AdherenciaResumen calcularResumenGeneral(Medicamento medicamento, List<Toma> tomas) {
+        return calcularResumenGeneral(medicamento, tomas, null);
+    }
+
+    public static AdherenciaResumen calcularResumenGeneral(Medicamento medicamento, List<Toma> tomas,
+                                                           List<ResumenMensualTomas> resumenes) {
         Date ahora = new Date();
         Date fechaInicio = medicamento.getFechaInicioTratamiento() != null
             ? medicamento.getFechaInicioTratamiento()
-            : obtenerFechaMasAntigua(tomas, ahora);
+            : obtenerFechaMasAntigua(tomas, resumenes, ahora);
 
         if (fechaInicio.after(ahora)) {
             fechaInicio = ahora;
@@ -44,9 +54,8 @@ public final class AdherenciaCalculator {
         int diasSeguimiento = Math.max(1, diasEntre(fechaInicio, fechaFin) + 1);
         boolean esOcasional = medicamento.getTomasDiarias() == 0;
 
-        int tomasEsperadas = esOcasional ? contarTomasEnRango(tomas, fechaInicio, fechaFin) :
-            medicamento.getTomasDiarias() * diasSeguimiento;
-        int tomasRealizadas = contarTomasEnRango(tomas, fechaInicio, fechaFin);
+        int tomasRealizadas = contarTomasEnRango(tomas, resumenes, fechaInicio, fechaFin);
+        int tomasEsperadas = esOcasional ? tomasRealizadas : medicamento.getTomasDiarias() * diasSeguimiento;
 
         float porcentaje;
         if (tomasEsperadas == 0) {
@@ -66,10 +75,14 @@ public final class AdherenciaCalculator {
     }
 
     public static List<AdherenciaIntervalo> calcularAdherenciaSemanal(Medicamento medicamento, List<Toma> tomas) {
+        return calcularAdherenciaSemanal(medicamento, tomas, null);
+    }
+
+    public static List<AdherenciaIntervalo> calcularAdherenciaSemanal(Medicamento medicamento, List<Toma> tomas,
+                                                                      List<ResumenMensualTomas> resumenes) {
         List<AdherenciaIntervalo> resultado = new ArrayList<>();
-        Date hoy = new Date();
         Calendar cal = Calendar.getInstance();
-        cal.setTime(truncarFecha(sumarDias(hoy, -6)));
+        cal.setTime(inicioSemanaActual());
 
         for (int i = 0; i < 7; i++) {
             Date inicio = cal.getTime();
@@ -77,7 +90,7 @@ public final class AdherenciaCalculator {
 
             boolean esOcasional = medicamento.getTomasDiarias() == 0;
             int esperadas = esOcasional ? 1 : medicamento.getTomasDiarias();
-            int realizadas = contarTomasEnRango(tomas, inicio, fin);
+            int realizadas = contarTomasEnRango(tomas, resumenes, inicio, fin);
             if (esOcasional && realizadas == 0) {
                 esperadas = 1; // se usa como factor para mostrar 0%
             }
@@ -91,6 +104,11 @@ public final class AdherenciaCalculator {
     }
 
     public static List<AdherenciaIntervalo> calcularAdherenciaMensual(Medicamento medicamento, List<Toma> tomas) {
+        return calcularAdherenciaMensual(medicamento, tomas, null);
+    }
+
+    public static List<AdherenciaIntervalo> calcularAdherenciaMensual(Medicamento medicamento, List<Toma> tomas,
+                                                                      List<ResumenMensualTomas> resumenes) {
         List<AdherenciaIntervalo> resultado = new ArrayList<>();
         Date hoy = new Date();
         Calendar cal = Calendar.getInstance();
@@ -101,9 +119,9 @@ public final class AdherenciaCalculator {
             Date fin = finDeDia(sumarDias(inicio, 6));
             boolean esOcasional = medicamento.getTomasDiarias() == 0;
             int diasIntervalo = diasEntre(inicio, fin) + 1;
-            int esperadas = esOcasional ? Math.max(1, contarTomasEnRango(tomas, inicio, fin))
+            int realizadas = contarTomasEnRango(tomas, resumenes, inicio, fin);
+            int esperadas = esOcasional ? Math.max(1, realizadas)
                 : medicamento.getTomasDiarias() * diasIntervalo;
-            int realizadas = contarTomasEnRango(tomas, inicio, fin);
             float porcentaje = esperadas == 0 ? 0f : Math.min(100f, (realizadas * 100f) / (float) esperadas);
             resultado.add(new AdherenciaIntervalo(
                 "Sem " + (semana + 1),
@@ -117,6 +135,24 @@ public final class AdherenciaCalculator {
         return resultado;
     }
 
+    /**
+     * Primer día (a las 00:00) de los 7 que abarca calcularAdherenciaSemanal
+     */
+    public static Date inicioSemanaActual() {
+        return truncarFecha(sumarDias(new Date(), -6));
+    }
+
+    /**
+     * Indica si la toma se cuenta como realizada a partir de la fecha indicada
+     */
+    public static boolean cuentaDesde(Toma toma, Date desde) {
+        if (toma == null || (toma.getEstado() != null && toma.getEstado() != Toma.EstadoToma.TOMADA)) {
+            return false;
+        }
+        Date fecha = toma.getFechaHoraTomada() != null ? toma.getFechaHoraTomada() : toma.getFechaHoraProgramada();
+        return fecha != null && !fecha.before(desde);
+    }
+
     public static List<Toma> filtrarTomasPorMedicamento(List<Toma> tomas, String medicamentoId) {
         List<Toma> resultado = new ArrayList<>();
         if (tomas == null || medicamentoId == null) {
@@ -130,6 +166,20 @@ public final class AdherenciaCalculator {
         return resultado;
     }
 
+    public static List<ResumenMensualTomas> filtrarResumenesPorMedicamento(List<ResumenMensualTomas> resumenes,
+                                                                         String medicamentoId) {
+        List<ResumenMensualTomas> resultado = new ArrayList<>();
+        if (resumenes == null || medicamentoId == null) {
+            return resultado;
+        }
+        for (ResumenMensualTomas resumen : resumenes) {
+            if (resumen != null && medicamentoId.equals(resumen.getMedicamentoId())) {
+                resultado.add(resumen);
+            }
+        }
+        return resultado;
+    }
+
     private static Date truncarFecha(Date fecha) {
         Calendar cal = Calendar.getInstance();
         cal.setTime(fecha);
@@ -162,6 +212,39 @@ public final class AdherenciaCalculator {
         return (int) (diff / (1000 * 60 * 60 * 24));
     }
 
+    private static int contarTomasEnRango(List<Toma> tomas, List<ResumenMensualTomas> resumenes,
+                                          Date inicio, Date fin) {
+        return contarTomasEnRango(tomas, inicio, fin) + contarResumenesEnRango(resumenes, inicio, fin);
+    }
+
+    /**
+     * Suma las tomas realizadas de los días resumidos que caen en el rango (un día cuenta si su
+     * comienzo está entre el día de inicio y el fin)
+     */
+    private static int contarResumenesEnRango(List<ResumenMensualTomas> resumenes, Date inicio, Date fin) {
+        if (resumenes == null || resumenes.isEmpty()) {
+            return 0;
+        }
+        Date desde = truncarFecha(inicio);
+        int contador = 0;
+        for (ResumenMensualTomas resumen : resumenes) {
+            if (resumen == null || resumen.getMes() < 1) continue;
+            for (Map.Entry<Integer, Map<Toma.EstadoToma, Integer>> dia : resumen.getCantidadesPorDia().entrySet()) {
+                Integer tomadas = dia.getValue().get(Toma.EstadoToma.TOMADA);
+                if (tomadas == null || tomadas == 0) continue;
+                Date fecha = inicioDeDia(LocalDate.of(resumen.getAnio(), resumen.getMes(), dia.getKey()));
+                if (!fecha.before(desde) && !fecha.after(fin)) {
+                    contador += tomadas;
+                }
+            }
+        }
+        return contador;
+    }
+
+    private static Date inicioDeDia(LocalDate dia) {
+        return Date.from(dia.atStartOfDay(ZoneId.systemDefault()).toInstant());
+    }
+
     private static int contarTomasEnRango(List<Toma> tomas, Date inicio, Date fin) {
         if (tomas == null || tomas.isEmpty()) {
             return 0;
@@ -184,11 +267,19 @@ public final class AdherenciaCalculator {
         return contador;
     }
 
-    private static Date obtenerFechaMasAntigua(List<Toma> tomas, Date fallback) {
+    private static Date obtenerFechaMasAntigua(List<Toma> tomas, List<ResumenMensualTomas> resumenes, Date fallback) {
+        Date min = fallback;
+        if (resumenes != null) {
+            for (ResumenMensualTomas resumen : resumenes) {
+                LocalDate primerDia = resumen != null && resumen.getMes() > 0 ? resumen.getPrimerDia() : null;
+                if (primerDia != null && inicioDeDia(primerDia).before(min)) {
+                    min = inicioDeDia(primerDia);
+                }
+            }
+        }
         if (tomas == null || tomas.isEmpty()) {
-            return fallback;
+            return min;
         }
-        Date min = fallback;
         for (Toma toma : tomas) {
             if (toma == null) continue;
             Date fecha = toma.getFechaHoraTomada() != null ? toma.getFechaHoraTomada() : toma.getFechaHoraProgramada();
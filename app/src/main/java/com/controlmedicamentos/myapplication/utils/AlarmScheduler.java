@@ -6,6 +6,7 @@ import android.content.Context;
 import android.content.Intent;
 import android.util.Log;
 
+import com.controlmedicamentos.myapplication.models.HorarioDiario;
 import com.controlmedicamentos.myapplication.models.Medicamento;
 import com.controlmedicamentos.myapplication.receivers.AlarmReceiver;
 
@@ -46,84 +47,71 @@ public class AlarmScheduler {
         // Cancelar alarmas existentes primero
         cancelarAlarmasMedicamento(medicamento);
         
-        List<String> horarios = medicamento.getHorariosTomas();
-        if (horarios == null || horarios.isEmpty()) {
+        HorarioDiario horarios = medicamento.getHorarioDiario();
+        if (horarios.isEmpty()) {
             Log.e(TAG, "No hay horarios para el medicamento: " + medicamento.getNombre());
             return;
         }
         
         Calendar ahora = Calendar.getInstance();
         
-        // Programar alarmas para cada horario
-        for (int i = 0; i < horarios.size(); i++) {
-            String horario = horarios.get(i);
+        // Programar alarmas para cada horario (ya parseados como minutos del día)
+        for (int i = 0; i < horarios.cantidad(); i++) {
+            String horario = horarios.textoEn(i);
+            int hora = horarios.minutosEn(i) / 60;
+            int minuto = horarios.minutosEn(i) % 60;
+            
+            // Crear Calendar para la hora de la toma hoy
+            Calendar horarioToma = Calendar.getInstance();
+            horarioToma.set(Calendar.HOUR_OF_DAY, hora);
+            horarioToma.set(Calendar.MINUTE, minuto);
+            horarioToma.set(Calendar.SECOND, 0);
+            horarioToma.set(Calendar.MILLISECOND, 0);
             
-            // Parsear horario (formato "HH:mm")
-            String[] partes = horario.split(":");
-            if (partes.length != 2) {
-                Log.e(TAG, "Formato de horario inválido: " + horario);
-                continue;
+            // Si la hora ya pasó hoy, programar para mañana
+            if (horarioToma.before(ahora)) {
+                horarioToma.add(Calendar.DAY_OF_YEAR, 1);
             }
             
-            try {
-                int hora = Integer.parseInt(partes[0]);
-                int minuto = Integer.parseInt(partes[1]);
-                
-                // Crear Calendar para la hora de la toma hoy
-                Calendar horarioToma = Calendar.getInstance();
-                horarioToma.set(Calendar.HOUR_OF_DAY, hora);
-                horarioToma.set(Calendar.MINUTE, minuto);
-                horarioToma.set(Calendar.SECOND, 0);
-                horarioToma.set(Calendar.MILLISECOND, 0);
-                
-                // Si la hora ya pasó hoy, programar para mañana
-                if (horarioToma.before(ahora)) {
-                    horarioToma.add(Calendar.DAY_OF_YEAR, 1);
-                }
-                
-                // Programar alarma 10 minutos antes (alerta amarilla)
-                Calendar horarioAlertaAmarilla = (Calendar) horarioToma.clone();
-                horarioAlertaAmarilla.add(Calendar.MINUTE, -10);
-                
-                // Solo programar si la alerta amarilla no ha pasado
-                if (!horarioAlertaAmarilla.before(ahora)) {
-                    Intent intentAmarilla = AlarmReceiver.createIntent(
-                        context, medicamento.getId(), horario, AlarmReceiver.TIPO_ALERTA_AMARILLA);
-                    int requestCodeAmarilla = generarRequestCode(medicamento.getId(), i, 0, true);
-                    PendingIntent pendingIntentAmarilla = PendingIntent.getBroadcast(
-                        context,
-                        requestCodeAmarilla,
-                        intentAmarilla,
-                        PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE
-                    );
-                    
-                    programarAlarma(horarioAlertaAmarilla.getTimeInMillis(), pendingIntentAmarilla);
-                    Log.d(TAG, "Alerta amarilla programada (10 min antes) para: " + 
-                          medicamento.getNombre() + " a las " + horario);
-                }
-                
-                // Programar alarma en el horario exacto (alerta roja)
-                Intent intentRoja = AlarmReceiver.createIntent(
-                    context, medicamento.getId(), horario, AlarmReceiver.TIPO_ALERTA_ROJA);
-                int requestCodeRoja = generarRequestCode(medicamento.getId(), i, 0, false);
-                PendingIntent pendingIntentRoja = PendingIntent.getBroadcast(
+            // Programar alarma 10 minutos antes (alerta amarilla)
+            Calendar horarioAlertaAmarilla = (Calendar) horarioToma.clone();
+            horarioAlertaAmarilla.add(Calendar.MINUTE, -10);
+            
+            // Solo programar si la alerta amarilla no ha pasado
+            if (!horarioAlertaAmarilla.before(ahora)) {
+                Intent intentAmarilla = AlarmReceiver.createIntent(
+                    context, medicamento.getId(), horario, AlarmReceiver.TIPO_ALERTA_AMARILLA);
+                int requestCodeAmarilla = generarRequestCode(medicamento.getId(), i, 0, true);
+                PendingIntent pendingIntentAmarilla = PendingIntent.getBroadcast(
                     context,
-                    requestCodeRoja,
-                    intentRoja,
+                    requestCodeAmarilla,
+                    intentAmarilla,
                     PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE
                 );
                 
-                programarAlarma(horarioToma.getTimeInMillis(), pendingIntentRoja);
-                
-                Log.d(TAG, "Alarma programada para: " + medicamento.getNombre() + 
-                      " a las " + horario + " (requestCode: " + requestCodeRoja + ")");
-                
-                // Programar alarmas recurrentes para los próximos días
-                programarAlarmasRecurrentes(medicamento, horario, i, horarioToma);
-                
-            } catch (NumberFormatException e) {
-                Log.e(TAG, "Error al parsear horario: " + horario, e);
+                programarAlarma(horarioAlertaAmarilla.getTimeInMillis(), pendingIntentAmarilla);
+                Log.d(TAG, "Alerta amarilla programada (10 min antes) para: " + 
+                      medicamento.getNombre() + " a las " + horario);
             }
+            
+            // Programar alarma en el horario exacto (alerta roja)
+            Intent intentRoja = AlarmReceiver.createIntent(
+                context, medicamento.getId(), horario, AlarmReceiver.TIPO_ALERTA_ROJA);
+            int requestCodeRoja = generarRequestCode(medicamento.getId(), i, 0, false);
+            PendingIntent pendingIntentRoja = PendingIntent.getBroadcast(
+                context,
+                requestCodeRoja,
+                intentRoja,
+                PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE
+            );
+            
+            programarAlarma(horarioToma.getTimeInMillis(), pendingIntentRoja);
+            
+            Log.d(TAG, "Alarma programada para: " + medicamento.getNombre() + 
+                  " a las " + horario + " (requestCode: " + requestCodeRoja + ")");
+            
+            // Programar alarmas recurrentes para los próximos días
+            programarAlarmasRecurrentes(medicamento, horario, i, horarioToma);
         }
     }
     
@@ -0,0 +1,67 @@
+package com.controlmedicamentos.myapplication.utils;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Formatos de fecha compartidos con la versión web (los mismos strings que guarda React en Firestore).
+ * Los DateTimeFormatter son inmutables y seguros entre hilos, así que se crean una sola vez
+ * en lugar de un SimpleDateFormat por campo y por documento.
+ */
+public final class FormatosFecha {
+    private static final DateTimeFormatter INSTANTE_ISO =
+        DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US).withZone(ZoneOffset.UTC);
+    private static final DateTimeFormatter HORA = DateTimeFormatter.ofPattern("HH:mm", Locale.US);
+    private static final int LARGO_FECHA = 10; // "yyyy-MM-dd"
+
+    private FormatosFecha() {
+    }
+
+    /**
+     * Fecha y hora en UTC, "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'" (fechaCreacion / fechaActualizacion)
+     */
+    public static String instanteIso(Date fecha) {
+        return INSTANTE_ISO.format(fecha.toInstant());
+    }
+
+    public static String instanteIsoActual() {
+        return INSTANTE_ISO.format(Instant.now());
+    }
+
+    /**
+     * Día en la zona horaria del dispositivo, "yyyy-MM-dd"
+     */
+    public static String fechaLocal(Date fecha) {
+        return DateTimeFormatter.ISO_LOCAL_DATE.format(fecha.toInstant().atZone(ZoneId.systemDefault()));
+    }
+
+    /**
+     * Hora en la zona horaria del dispositivo, "HH:mm"
+     */
+    public static String horaLocal(Date fecha) {
+        return HORA.format(fecha.toInstant().atZone(ZoneId.systemDefault()));
+    }
+
+    /**
+     * Interpreta un string que empieza con "yyyy-MM-dd" como el inicio de ese día en la zona del dispositivo
+     * (lo que siga a la fecha, como una hora ISO, se ignora)
+     * @return null si no es una fecha válida
+     */
+    public static Date parsearFechaLocal(String texto) {
+        if (texto == null || texto.length() < LARGO_FECHA) {
+            return null;
+        }
+        try {
+            LocalDate fecha = LocalDate.parse(texto.substring(0, LARGO_FECHA), DateTimeFormatter.ISO_LOCAL_DATE);
+            return Date.from(fecha.atStartOfDay(ZoneId.systemDefault()).toInstant());
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+}
@@ -2,7 +2,10 @@ package com.controlmedicamentos.myapplication.utils;
 
 import android.content.Context;
 import android.net.ConnectivityManager;
+import android.net.Network;
 import android.net.NetworkInfo;
+import android.os.Handler;
+import android.os.Looper;
 
 /**
  * Utilidad para verificar el estado de la conexión a internet
@@ -59,5 +62,29 @@ public class NetworkUtils {
         
         return false;
     }
-}
 
+    /**
+     * Ejecuta una acción en el hilo principal cada vez que vuelve a haber conexión
+     * @param context Contexto de la aplicación
+     * @param alConectar Acción a ejecutar al recuperar la conexión
+     * @return el callback registrado (para desregistrarlo), o null si no se pudo registrar
+     */
+    public static ConnectivityManager.NetworkCallback registrarAlConectar(Context context, Runnable alConectar) {
+        ConnectivityManager connectivityManager = 
+            (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        
+        if (connectivityManager == null) {
+            return null;
+        }
+        
+        Handler handler = new Handler(Looper.getMainLooper());
+        ConnectivityManager.NetworkCallback callback = new ConnectivityManager.NetworkCallback() {
+            @Override
+            public void onAvailable(Network network) {
+                handler.post(alConectar);
+            }
+        };
+        connectivityManager.registerDefaultNetworkCallback(callback);
+        return callback;
+    }
+}
@@ -0,0 +1,113 @@
+package com.controlmedicamentos.myapplication.utils;
+
+import com.controlmedicamentos.myapplication.models.HorarioDiario;
+import com.controlmedicamentos.myapplication.models.Medicamento;
+import com.controlmedicamentos.myapplication.services.TomaTrackingService;
+import java.util.Calendar;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Mantiene el orden del dashboard por próxima toma.
+ * Cada medicamento tiene una clave precalculada (tomas omitidas y minutos hasta la próxima toma),
+ * así el comparador no vuelve a parsear strings ni consultar el servicio de tracking.
+ * Las claves se recalculan en una sola pasada y la lista solo se reordena si el orden cambió.
+ */
+public class OrdenDashboard {
+    private final Predicate<String> tieneTomasOmitidas;
+    private final Map<String, ClaveOrden> claves = new HashMap<>();
+
+    private final Comparator<Medicamento> comparador = (med1, med2) -> {
+        ClaveOrden clave1 = claves.get(med1.getId());
+        ClaveOrden clave2 = claves.get(med2.getId());
+        // Los medicamentos con tomas omitidas van al final
+        if (clave1.omitida != clave2.omitida) {
+            return clave1.omitida ? 1 : -1;
+        }
+        return Long.compare(clave1.minutosHastaProxima, clave2.minutosHastaProxima);
+    };
+
+    public OrdenDashboard(TomaTrackingService trackingService) {
+        this(trackingService != null ? trackingService::tieneTomasOmitidas : medicamentoId -> false);
+    }
+
+    /**
+     * @param tieneTomasOmitidas indica por ID si el medicamento tiene tomas omitidas hoy
+     */
+    OrdenDashboard(Predicate<String> tieneTomasOmitidas) {
+        this.tieneTomasOmitidas = tieneTomasOmitidas;
+    }
+
+    /**
+     * Recalcula las claves con la hora actual y ordena la lista en el lugar si hace falta.
+     * @return true si el orden de la lista cambió
+     */
+    public boolean ordenar(List<Medicamento> medicamentos) {
+        Calendar cal = Calendar.getInstance();
+        return ordenar(medicamentos, cal.get(Calendar.HOUR_OF_DAY) * 60 + cal.get(Calendar.MINUTE));
+    }
+
+    /**
+     * Igual que ordenar(List) con la hora indicada en minutos desde medianoche
+     */
+    boolean ordenar(List<Medicamento> medicamentos, int minutosActuales) {
+        if (medicamentos == null || medicamentos.isEmpty()) {
+            return false;
+        }
+
+        // Una pasada: actualizar claves y detectar si la lista ya está ordenada
+        boolean ordenada = true;
+        Medicamento anterior = null;
+        for (int i = 0; i < medicamentos.size(); i++) {
+            Medicamento medicamento = medicamentos.get(i);
+            actualizarClave(medicamento, minutosActuales);
+            if (anterior != null && ordenada && comparador.compare(anterior, medicamento) > 0) {
+                ordenada = false;
+            }
+            anterior = medicamento;
+        }
+
+        descartarClavesObsoletas(medicamentos);
+
+        if (ordenada) {
+            return false;
+        }
+        // TimSort aprovecha los tramos ya ordenados, así que reordenar tras un cambio puntual es casi lineal
+        medicamentos.sort(comparador);
+        return true;
+    }
+
+    private void actualizarClave(Medicamento medicamento, int minutosActuales) {
+        ClaveOrden clave = claves.get(medicamento.getId());
+        if (clave == null) {
+            clave = new ClaveOrden();
+            claves.put(medicamento.getId(), clave);
+        }
+        // Los horarios ya vienen parseados en el modelo
+        int minutosHastaProxima = medicamento.getHorarioDiario().minutosHastaProxima(minutosActuales);
+        clave.omitida = tieneTomasOmitidas.test(medicamento.getId());
+        clave.minutosHastaProxima = minutosHastaProxima == HorarioDiario.INVALIDO
+            ? Long.MAX_VALUE : minutosHastaProxima;
+    }
+
+    private void descartarClavesObsoletas(List<Medicamento> medicamentos) {
+        if (claves.size() <= medicamentos.size()) {
+            return;
+        }
+        Set<String> vigentes = new HashSet<>();
+        for (Medicamento medicamento : medicamentos) {
+            vigentes.add(medicamento.getId());
+        }
+        claves.keySet().retainAll(vigentes);
+    }
+
+    private static class ClaveOrden {
+        boolean omitida;
+        long minutosHastaProxima;
+    }
+}
@@ -0,0 +1,268 @@
+package com.controlmedicamentos.myapplication.utils;
+
+import com.controlmedicamentos.myapplication.models.Medicamento;
+import com.controlmedicamentos.myapplication.models.PronosticoStock;
+import com.controlmedicamentos.myapplication.models.Toma;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Proyecta cuándo se agota el stock de cada medicamento a partir del consumo real.
+ * Mantiene por medicamento un histograma de tomas por día de los últimos días (buffer circular),
+ * que se actualiza en O(1) con cada toma registrada. Con eso, calcular los días hasta agotarse
+ * de todos los medicamentos es una sola pasada O(N).
+ * Es compartido por toda la app (dashboard, botiquín y verificación en segundo plano).
+ */
+public final class PronosticadorStock {
+    private static final int VENTANA_DIAS = 14;
+    private static final int DIAS_MINIMOS_OBSERVADOS = 3; // Con menos datos se usa el esquema de tomas diarias
+    private static final long SIN_DATOS = Long.MIN_VALUE;
+
+    private static PronosticadorStock instancia;
+
+    private final Map<String, HistorialConsumo> historiales = new HashMap<>();
+    private boolean historialCargado;
+
+    private PronosticadorStock() {
+    }
+
+    public static synchronized PronosticadorStock getInstance() {
+        if (instancia == null) {
+            instancia = new PronosticadorStock();
+        }
+        return instancia;
+    }
+
+    /**
+     * Fecha desde la que hace falta cargar tomas para llenar la ventana de observación
+     */
+    public static Date inicioVentana() {
+        return new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(VENTANA_DIAS));
+    }
+
+    /**
+     * Incorpora al historial las tomas registradas. Se combina con lo que ya había (por ejemplo,
+     * dosis de la cola que todavía no llegaron al servidor): cada toma se cuenta una sola vez por su ID,
+     * así se puede volver a cargar desde la caché o desde el servidor sin duplicar el consumo.
+     */
+    public synchronized void cargarTomas(List<Toma> tomas) {
+        if (tomas != null) {
+            for (Toma toma : tomas) {
+                if (toma != null && toma.getEstado() == Toma.EstadoToma.TOMADA) {
+                    registrarInterno(toma.getMedicamentoId(), toma.getId(), toma.getFechaHoraTomada());
+                }
+            }
+        }
+        historialCargado = true;
+    }
+
+    public synchronized boolean isHistorialCargado() {
+        return historialCargado;
+    }
+
+    /**
+     * Registra una unidad consumida (se llama después de cada cambio de stock)
+     * @param tomaId ID del documento de la toma, para no contarla de nuevo al cargar el historial
+     */
+    public synchronized void registrarConsumo(String medicamentoId, String tomaId, Date fecha) {
+        registrarInterno(medicamentoId, tomaId, fecha);
+    }
+
+    /**
+     * Olvida el historial de un medicamento (por ejemplo, al eliminarlo)
+     */
+    public synchronized void descartar(String medicamentoId) {
+        historiales.remove(medicamentoId);
+    }
+
+    /**
+     * Calcula el pronóstico de todos los medicamentos en una sola pasada
+     * @return pronósticos por ID de medicamento, en el mismo orden de la lista
+     */
+    public synchronized Map<String, PronosticoStock> pronosticar(List<Medicamento> medicamentos) {
+        Map<String, PronosticoStock> pronosticos = new LinkedHashMap<>();
+        if (medicamentos == null) {
+            return pronosticos;
+        }
+        long hoy = diaLocal(System.currentTimeMillis());
+        for (Medicamento medicamento : medicamentos) {
+            if (medicamento != null && medicamento.getId() != null) {
+                pronosticos.put(medicamento.getId(), pronosticarInterno(medicamento, hoy));
+            }
+        }
+        return pronosticos;
+    }
+
+    public synchronized PronosticoStock pronosticar(Medicamento medicamento) {
+        return pronosticarInterno(medicamento, diaLocal(System.currentTimeMillis()));
+    }
+
+    private PronosticoStock pronosticarInterno(Medicamento medicamento, long hoy) {
+        HistorialConsumo historial = obtenerHistorial(medicamento.getId());
+
+        // Las tomas ocasionales registradas por la web vienen en el documento del medicamento.
+        // Se incorporan una sola vez; las siguientes llegan por registrarConsumo(). Cada una se cuenta
+        // con el ID de su copia en la colección de tomas (ver MigracionTomasRealizadas), así no se cuenta dos veces.
+        if (!historial.ocasionalesCargadas && medicamento.getFechasTomasRealizadas() != null) {
+            Map<String, Integer> ocurrencias = new HashMap<>();
+            for (Date fecha : medicamento.getFechasTomasRealizadas()) {
+                if (fecha != null) {
+                    String dia = FormatosFecha.fechaLocal(fecha);
+                    String hora = FormatosFecha.horaLocal(fecha);
+                    int ocurrencia = ocurrencias.merge(dia + " " + hora, 1, Integer::sum) - 1;
+                    historial.registrar(diaLocal(fecha.getTime()),
+                        Toma.idTomaRealizada(medicamento.getId(), dia, hora, ocurrencia));
+                }
+            }
+            historial.ocasionalesCargadas = true;
+        }
+
+        int diasRestantesTratamiento = calcularDiasRestantesTratamiento(medicamento, hoy);
+
+        // Stock no contable (cremas, jarabes): la app ya lleva los días restantes estimados,
+        // así que el consumo se expresa en días de stock por día
+        if (medicamento.getTipoStock() != null
+            && medicamento.getTipoStock() != Medicamento.TipoStock.UNIDADES_CONTABLES) {
+            int dias = Math.max(0, medicamento.getDiasRestantesDuracion());
+            return new PronosticoStock(medicamento.getId(), dias > 0 ? 1.0 : 0, false, dias,
+                fechaEnDias(hoy, dias), diasRestantesTratamiento);
+        }
+
+        int stock = Math.max(0, medicamento.getStockActual());
+        double consumoObservado = historial.consumoDiario(hoy);
+        boolean observado = consumoObservado > 0;
+        double consumoDiario = observado ? consumoObservado : Math.max(0, medicamento.getTomasDiarias());
+
+        int diasHastaAgotarse;
+        if (stock == 0) {
+            diasHastaAgotarse = 0;
+        } else if (consumoDiario > 0) {
+            diasHastaAgotarse = (int) Math.floor(stock / consumoDiario);
+        } else {
+            // Ocasional sin consumo registrado: no hay ritmo para proyectar
+            diasHastaAgotarse = PronosticoStock.DESCONOCIDO;
+        }
+
+        Date fechaAgotamiento = diasHastaAgotarse != PronosticoStock.DESCONOCIDO
+            ? fechaEnDias(hoy, diasHastaAgotarse) : null;
+        return new PronosticoStock(medicamento.getId(), consumoDiario, observado, diasHastaAgotarse,
+            fechaAgotamiento, diasRestantesTratamiento);
+    }
+
+    private void registrarInterno(String medicamentoId, String tomaId, Date fecha) {
+        if (medicamentoId == null || fecha == null) {
+            return;
+        }
+        obtenerHistorial(medicamentoId).registrar(diaLocal(fecha.getTime()), tomaId);
+    }
+
+    private HistorialConsumo obtenerHistorial(String medicamentoId) {
+        HistorialConsumo historial = historiales.get(medicamentoId);
+        if (historial == null) {
+            historial = new HistorialConsumo();
+            historiales.put(medicamentoId, historial);
+        }
+        return historial;
+    }
+
+    private static int calcularDiasRestantesTratamiento(Medicamento medicamento, long hoy) {
+        if (medicamento.getDiasTratamiento() <= 0) {
+            return PronosticoStock.DESCONOCIDO; // Crónico u ocasional
+        }
+        if (medicamento.getFechaInicioTratamiento() == null) {
+            return medicamento.getDiasTratamiento();
+        }
+        long transcurridos = hoy - diaLocal(medicamento.getFechaInicioTratamiento().getTime());
+        return (int) Math.max(0, medicamento.getDiasTratamiento() - transcurridos);
+    }
+
+    /**
+     * Número de día (desde epoch) en la zona horaria del dispositivo
+     */
+    private static long diaLocal(long millis) {
+        return Math.floorDiv(millis + TimeZone.getDefault().getOffset(millis), TimeUnit.DAYS.toMillis(1));
+    }
+
+    private static Date fechaEnDias(long hoy, int dias) {
+        long millis = TimeUnit.DAYS.toMillis(hoy + dias);
+        return new Date(millis - TimeZone.getDefault().getOffset(millis));
+    }
+
+    /**
+     * Tomas por día de los últimos VENTANA_DIAS días en un buffer circular indexado por día.
+     * Guarda el día de cada toma contada (por ID) mientras está dentro de la ventana.
+     */
+    private static final class HistorialConsumo {
+        private final int[] conteos = new int[VENTANA_DIAS];
+        private final Map<String, Long> tomasContadas = new HashMap<>();
+        private long ultimoDia = SIN_DATOS;
+        private long primerDia = SIN_DATOS;
+        boolean ocasionalesCargadas;
+
+        /**
+         * @param tomaId ID de la toma, o null si no tiene (se cuenta siempre)
+         */
+        void registrar(long dia, String tomaId) {
+            if (tomaId != null && tomasContadas.containsKey(tomaId)) {
+                return; // Ya contada
+            }
+            if (ultimoDia == SIN_DATOS) {
+                ultimoDia = dia;
+            }
+            avanzarHasta(dia);
+            if (dia <= ultimoDia - VENTANA_DIAS) {
+                return; // Fuera de la ventana
+            }
+            conteos[indice(dia)]++;
+            if (tomaId != null) {
+                tomasContadas.put(tomaId, dia);
+            }
+            if (primerDia == SIN_DATOS || dia < primerDia) {
+                primerDia = dia;
+            }
+        }
+
+        /**
+         * Consumo promedio por día dentro de la ventana, o 0 si no hay suficientes días observados
+         */
+        double consumoDiario(long hoy) {
+            if (primerDia == SIN_DATOS) {
+                return 0;
+            }
+            avanzarHasta(hoy);
+            if (hoy - primerDia + 1 < DIAS_MINIMOS_OBSERVADOS) {
+                return 0;
+            }
+            long diasObservados = hoy - Math.max(primerDia, hoy - VENTANA_DIAS + 1) + 1;
+            int total = 0;
+            for (int conteo : conteos) {
+                total += conteo;
+            }
+            return (double) total / diasObservados;
+        }
+
+        /**
+         * Mueve el final de la ventana hasta el día indicado, limpiando los días que salen
+         */
+        private void avanzarHasta(long dia) {
+            if (dia <= ultimoDia) {
+                return;
+            }
+            long dias = Math.min(dia - ultimoDia, VENTANA_DIAS);
+            for (long d = dia - dias + 1; d <= dia; d++) {
+                conteos[indice(d)] = 0;
+            }
+            ultimoDia = dia;
+            tomasContadas.values().removeIf(diaToma -> diaToma <= ultimoDia - VENTANA_DIAS);
+        }
+
+        private static int indice(long dia) {
+            return (int) Math.floorMod(dia, (long) VENTANA_DIAS);
+        }
+    }
+}
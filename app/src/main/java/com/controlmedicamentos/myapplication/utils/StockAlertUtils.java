@@ -1,11 +1,15 @@
 package com.controlmedicamentos.myapplication.utils;
 
+import android.content.Context;
+import android.content.SharedPreferences;
 import android.util.Log;
 import com.controlmedicamentos.myapplication.models.Medicamento;
-import java.util.ArrayList;
+import com.controlmedicamentos.myapplication.models.PronosticoStock;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Utilidad para monitorear el stock de medicamentos y generar alertas
@@ -23,155 +27,249 @@ public class StockAlertUtils {
         void onStockBajo(Medicamento medicamento, int diasRestantes, String mensaje);
     }
     
-    private static Set<String> alertados = new HashSet<>();
+    /**
+     * Nivel de alerta ya notificado para un medicamento. Cada medicamento está en un único nivel,
+     * así que pasar de uno a otro es un solo put en el mapa (no hay que limpiar claves sueltas).
+     */
+    enum NivelAlerta {
+        NINGUNO(0),
+        SIETE_DIAS(1),
+        TRES_DIAS(2),
+        DOS_DIAS(3),
+        UN_DIA(4),
+        AGOTADO(5);
+
+        final int codigo; // Valor persistido (no depende del orden del enum)
+
+        NivelAlerta(int codigo) {
+            this.codigo = codigo;
+        }
+
+        static NivelAlerta desdeCodigo(int codigo) {
+            for (NivelAlerta nivel : values()) {
+                if (nivel.codigo == codigo) {
+                    return nivel;
+                }
+            }
+            return NINGUNO;
+        }
+    }
+    
+    private static final String PREFIJO_PREF = "alerta_stock_";
+    
+    // Solo contiene medicamentos con alguna alerta activa; la ausencia equivale a NINGUNO
+    private static final Map<String, NivelAlerta> alertados = new ConcurrentHashMap<>();
+    private static volatile boolean estadoCargado = false;
     
     /**
      * Verifica el stock de los medicamentos y genera alertas
      * Consistente con React: useStockAlerts.js líneas 13-101
      * 
+     * @param context Contexto para persistir las alertas ya notificadas
      * @param medicamentos Lista de medicamentos a verificar
      * @param listener Listener para recibir las alertas
      * @param diasAntesAlerta Días antes de que se acabe el stock para alertar (por defecto 7)
      */
-    public static void verificarStock(List<Medicamento> medicamentos, StockAlertListener listener, int diasAntesAlerta) {
+    public static void verificarStock(Context context, List<Medicamento> medicamentos, StockAlertListener listener, int diasAntesAlerta) {
         if (medicamentos == null || medicamentos.isEmpty()) {
             return;
         }
+        verificarStock(obtenerPreferencias(context), medicamentos, listener, diasAntesAlerta);
+    }
+    
+    /**
+     * Igual que verificarStock(Context, ...) con las preferencias donde se persisten las alertas notificadas
+     */
+    static void verificarStock(SharedPreferences preferences, List<Medicamento> medicamentos, StockAlertListener listener, int diasAntesAlerta) {
+        cargarEstado(preferences);
         
         int diasAlerta = diasAntesAlerta > 0 ? diasAntesAlerta : DIAS_ANTES_ALERTA;
         
+        // Días hasta agotarse de todos los medicamentos, según el consumo real (una sola pasada)
+        Map<String, PronosticoStock> pronosticos = PronosticadorStock.getInstance().pronosticar(medicamentos);
+        
         for (Medicamento medicamento : medicamentos) {
             if (!medicamento.isActivo()) {
                 continue;
             }
             
             int stockActual = medicamento.getStockActual();
-            int tomasDiarias = medicamento.getTomasDiarias();
             int diasTratamiento = medicamento.getDiasTratamiento();
             
-            // Calcular días restantes de stock
-            int diasRestantes = 0;
-            if (tomasDiarias > 0) {
-                diasRestantes = Math.floorDiv(stockActual, tomasDiarias);
+            // Días restantes de stock proyectados (-1 si no hay consumo para proyectar, p. ej. ocasionales)
+            PronosticoStock pronostico = pronosticos.get(medicamento.getId());
+            int diasRestantes = pronostico != null ? pronostico.getDiasHastaAgotarse() : PronosticoStock.DESCONOCIDO;
+            if (medicamento.getTomasDiarias() <= 0) {
+                diasRestantes = PronosticoStock.DESCONOCIDO;
+            }
+            
+            NivelAlerta nivel;
+            if (stockActual <= 0) {
+                nivel = NivelAlerta.AGOTADO;
+            }
+            // Verificar si el stock se acaba antes de terminar el tratamiento
+            else if (diasTratamiento > 0 && diasRestantes >= 0 && pronostico.seAgotaAntesDeTerminar()) {
+                nivel = calcularNivel(diasRestantes, diasAlerta);
             } else {
-                // Para medicamentos ocasionales, no calcular días restantes
-                diasRestantes = -1;
+                // Stock suficiente
+                nivel = NivelAlerta.NINGUNO;
             }
             
-            String medicamentoId = medicamento.getId();
+            // Solo se alerta al entrar en un nivel distinto al ya notificado
+            if (!cambiarNivel(preferences, medicamento.getId(), nivel)) {
+                continue;
+            }
             
-            // Si el stock está en 0 o negativo
-            if (stockActual <= 0) {
-                String keyAgotado = medicamentoId + "-agotado";
-                if (!alertados.contains(keyAgotado)) {
-                    alertados.add(keyAgotado);
+            switch (nivel) {
+                case AGOTADO:
                     if (listener != null) {
                         listener.onStockAgotado(medicamento);
                     }
                     Log.w(TAG, "Stock agotado: " + medicamento.getNombre());
-                }
-            }
-            // Verificar si el tratamiento tiene más días que el stock restante
-            else if (diasTratamiento > 0 && diasRestantes >= 0 && diasRestantes < diasTratamiento) {
-                // Alerta cuando quede 1 día
-                if (diasRestantes == 1) {
-                    String key1Dia = medicamentoId + "-1dia";
-                    if (!alertados.contains(key1Dia)) {
-                        alertados.add(key1Dia);
-                        // Limpiar otras alertas
-                        alertados.remove(medicamentoId + "-2dias");
-                        alertados.remove(medicamentoId + "-3dias");
-                        alertados.remove(medicamentoId + "-7dias");
-                        
-                        String mensaje = medicamento.getNombre() + ": Solo queda medicamento para 1 día. Debes agregar stock para completar el tratamiento.";
-                        if (listener != null) {
-                            listener.onStockBajo(medicamento, 1, mensaje);
-                        }
-                        Log.w(TAG, mensaje);
-                    }
-                }
-                // Alerta cuando queden 2 días
-                else if (diasRestantes == 2) {
-                    String key2Dias = medicamentoId + "-2dias";
-                    if (!alertados.contains(key2Dias)) {
-                        alertados.add(key2Dias);
-                        // Limpiar otras alertas
-                        alertados.remove(medicamentoId + "-3dias");
-                        alertados.remove(medicamentoId + "-7dias");
-                        
-                        String mensaje = medicamento.getNombre() + ": Queda medicamento para 2 días.";
-                        if (listener != null) {
-                            listener.onStockBajo(medicamento, 2, mensaje);
-                        }
-                        Log.w(TAG, mensaje);
-                    }
-                }
-                // Alerta cuando queden 3 días
-                else if (diasRestantes == 3) {
-                    String key3Dias = medicamentoId + "-3dias";
-                    if (!alertados.contains(key3Dias)) {
-                        alertados.add(key3Dias);
-                        // Limpiar otras alertas
-                        alertados.remove(medicamentoId + "-7dias");
-                        
-                        String mensaje = medicamento.getNombre() + ": Queda medicamento para 3 días.";
-                        if (listener != null) {
-                            listener.onStockBajo(medicamento, 3, mensaje);
-                        }
-                        Log.w(TAG, mensaje);
-                    }
-                }
-                // Alerta cuando queden 7 días o menos (pero más de 3)
-                else if (diasRestantes <= diasAlerta && diasRestantes > 3) {
-                    String key7Dias = medicamentoId + "-7dias";
-                    if (!alertados.contains(key7Dias)) {
-                        alertados.add(key7Dias);
-                        
-                        String mensaje = medicamento.getNombre() + ": El medicamento se acabará antes de terminar el tratamiento. Quedan aproximadamente " + diasRestantes + " días de stock.";
-                        if (listener != null) {
-                            listener.onStockBajo(medicamento, diasRestantes, mensaje);
-                        }
-                        Log.w(TAG, mensaje);
-                    }
-                } else {
-                    // Si el stock se recuperó, remover todas las alertas
-                    alertados.remove(medicamentoId + "-1dia");
-                    alertados.remove(medicamentoId + "-2dias");
-                    alertados.remove(medicamentoId + "-3dias");
-                    alertados.remove(medicamentoId + "-7dias");
-                    alertados.remove(medicamentoId + "-agotado");
-                }
-            } else {
-                // Si el stock es suficiente, remover todas las alertas
-                alertados.remove(medicamentoId + "-1dia");
-                alertados.remove(medicamentoId + "-2dias");
-                alertados.remove(medicamentoId + "-3dias");
-                alertados.remove(medicamentoId + "-7dias");
-                alertados.remove(medicamentoId + "-agotado");
+                    break;
+                case UN_DIA:
+                    notificarStockBajo(listener, medicamento, 1,
+                        medicamento.getNombre() + ": Solo queda medicamento para 1 día. Debes agregar stock para completar el tratamiento.");
+                    break;
+                case DOS_DIAS:
+                    notificarStockBajo(listener, medicamento, 2,
+                        medicamento.getNombre() + ": Queda medicamento para 2 días.");
+                    break;
+                case TRES_DIAS:
+                    notificarStockBajo(listener, medicamento, 3,
+                        medicamento.getNombre() + ": Queda medicamento para 3 días.");
+                    break;
+                case SIETE_DIAS:
+                    notificarStockBajo(listener, medicamento, diasRestantes,
+                        medicamento.getNombre() + ": El medicamento se acabará antes de terminar el tratamiento. Quedan aproximadamente " + diasRestantes + " días de stock.");
+                    break;
+                default:
+                    break;
             }
         }
         
-        // Limpiar alertas de medicamentos que ya no existen
+        descartarMedicamentosEliminados(preferences, medicamentos);
+    }
+    
+    static NivelAlerta calcularNivel(int diasRestantes, int diasAlerta) {
+        if (diasRestantes == 1) {
+            return NivelAlerta.UN_DIA;
+        } else if (diasRestantes == 2) {
+            return NivelAlerta.DOS_DIAS;
+        } else if (diasRestantes == 3) {
+            return NivelAlerta.TRES_DIAS;
+        } else if (diasRestantes <= diasAlerta && diasRestantes > 3) {
+            // Alerta cuando queden 7 días o menos (pero más de 3)
+            return NivelAlerta.SIETE_DIAS;
+        }
+        return NivelAlerta.NINGUNO;
+    }
+    
+    private static void notificarStockBajo(StockAlertListener listener, Medicamento medicamento,
+                                           int diasRestantes, String mensaje) {
+        if (listener != null) {
+            listener.onStockBajo(medicamento, diasRestantes, mensaje);
+        }
+        Log.w(TAG, mensaje);
+    }
+    
+    /**
+     * Registra el nuevo nivel de forma atómica y lo persiste si cambió
+     * @return true si hay que notificar (se entró en un nivel de alerta distinto al anterior)
+     */
+    private static boolean cambiarNivel(SharedPreferences preferences, String medicamentoId, NivelAlerta nivel) {
+        if (medicamentoId == null) {
+            return false;
+        }
+        NivelAlerta anterior = nivel == NivelAlerta.NINGUNO
+            ? alertados.remove(medicamentoId)
+            : alertados.put(medicamentoId, nivel);
+        if (anterior == null) {
+            anterior = NivelAlerta.NINGUNO;
+        }
+        if (anterior == nivel) {
+            return false;
+        }
+        
+        // Solo se escribe en disco en las transiciones, que son poco frecuentes
+        SharedPreferences.Editor editor = preferences.edit();
+        if (nivel == NivelAlerta.NINGUNO) {
+            editor.remove(PREFIJO_PREF + medicamentoId);
+        } else {
+            editor.putInt(PREFIJO_PREF + medicamentoId, nivel.codigo);
+        }
+        editor.apply();
+        return nivel != NivelAlerta.NINGUNO;
+    }
+    
+    /**
+     * Limpia alertas de medicamentos que ya no existen
+     */
+    private static void descartarMedicamentosEliminados(SharedPreferences preferences, List<Medicamento> medicamentos) {
+        if (alertados.isEmpty()) {
+            return;
+        }
         Set<String> medicamentoIds = new HashSet<>();
         for (Medicamento med : medicamentos) {
             medicamentoIds.add(med.getId());
         }
         
-        Set<String> alertadosAClear = new HashSet<>();
-        for (String key : alertados) {
-            String medicamentoId = key.split("-")[0];
-            if (!medicamentoIds.contains(medicamentoId)) {
-                alertadosAClear.add(key);
+        SharedPreferences.Editor editor = null;
+        for (String medicamentoId : alertados.keySet()) {
+            if (!medicamentoIds.contains(medicamentoId) && alertados.remove(medicamentoId) != null) {
+                if (editor == null) {
+                    editor = preferences.edit();
+                }
+                editor.remove(PREFIJO_PREF + medicamentoId);
+            }
+        }
+        if (editor != null) {
+            editor.apply();
+        }
+    }
+    
+    /**
+     * Carga una sola vez por proceso las alertas ya notificadas, para no repetirlas tras reiniciar la app
+     */
+    private static void cargarEstado(SharedPreferences preferences) {
+        if (estadoCargado) {
+            return;
+        }
+        synchronized (StockAlertUtils.class) {
+            if (estadoCargado) {
+                return;
+            }
+            for (Map.Entry<String, ?> entry : preferences.getAll().entrySet()) {
+                String clave = entry.getKey();
+                if (clave.startsWith(PREFIJO_PREF) && entry.getValue() instanceof Integer) {
+                    NivelAlerta nivel = NivelAlerta.desdeCodigo((Integer) entry.getValue());
+                    if (nivel != NivelAlerta.NINGUNO) {
+                        alertados.putIfAbsent(clave.substring(PREFIJO_PREF.length()), nivel);
+                    }
+                }
             }
+            estadoCargado = true;
         }
-        alertados.removeAll(alertadosAClear);
+    }
+    
+    private static SharedPreferences obtenerPreferencias(Context context) {
+        return context.getApplicationContext().getSharedPreferences("ControlMedicamentos", Context.MODE_PRIVATE);
     }
     
     /**
      * Limpia todas las alertas
      */
-    public static void limpiarAlertas() {
+    public static void limpiarAlertas(Context context) {
+        SharedPreferences preferences = obtenerPreferencias(context);
+        SharedPreferences.Editor editor = preferences.edit();
+        for (String clave : preferences.getAll().keySet()) {
+            if (clave.startsWith(PREFIJO_PREF)) {
+                editor.remove(clave);
+            }
+        }
+        editor.apply();
         alertados.clear();
+        estadoCargado = true;
     }
 }
 
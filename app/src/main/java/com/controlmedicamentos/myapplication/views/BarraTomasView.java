@@ -0,0 +1,200 @@
+package com.controlmedicamentos.myapplication.views;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.AttributeSet;
+import android.view.View;
+import androidx.annotation.Nullable;
+import com.controlmedicamentos.myapplication.R;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tira de segmentos que muestra el estado de cada toma diaria de un medicamento.
+ * Dibuja los N segmentos directamente en el canvas, sin crear una vista por toma,
+ * y reutiliza sus arrays entre binds. Los segmentos marcados para parpadear comparten
+ * un único reloj de animación que solo corre mientras haya vistas adjuntas que lo necesiten.
+ */
+public class BarraTomasView extends View {
+    private static final int CAPACIDAD_INICIAL = 4;
+    private static final int ALPHA_VISIBLE = 255;
+    private static final int ALPHA_ATENUADO = 77; // 0.3f
+
+    private final Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final RectF rect = new RectF();
+    private final int altoBarra;
+    private final int separacion;
+    private final float radio;
+
+    private int[] colores = new int[CAPACIDAD_INICIAL];
+    private boolean[] parpadea = new boolean[CAPACIDAD_INICIAL];
+    private int cantidad;
+    private int cantidadParpadeando;
+    private boolean registrado;
+
+    public BarraTomasView(Context context) {
+        this(context, null);
+    }
+
+    public BarraTomasView(Context context, @Nullable AttributeSet attrs) {
+        this(context, attrs, 0);
+    }
+
+    public BarraTomasView(Context context, @Nullable AttributeSet attrs, int defStyleAttr) {
+        super(context, attrs, defStyleAttr);
+        altoBarra = getResources().getDimensionPixelSize(R.dimen.progress_bar_height);
+        separacion = getResources().getDimensionPixelSize(R.dimen.margin_small);
+        radio = altoBarra / 2f;
+        paint.setStyle(Paint.Style.FILL);
+    }
+
+    /**
+     * Define la cantidad de segmentos. Los arrays solo crecen, así que rebindear filas
+     * con la misma cantidad de tomas no reserva memoria.
+     */
+    public void setCantidadSegmentos(int nuevaCantidad) {
+        if (nuevaCantidad < 0) {
+            nuevaCantidad = 0;
+        }
+        if (nuevaCantidad > colores.length) {
+            int capacidad = Math.max(nuevaCantidad, colores.length * 2);
+            colores = Arrays.copyOf(colores, capacidad);
+            parpadea = Arrays.copyOf(parpadea, capacidad);
+        }
+        for (int i = 0; i < nuevaCantidad; i++) {
+            parpadea[i] = false;
+        }
+        cantidad = nuevaCantidad;
+        cantidadParpadeando = 0;
+        actualizarRegistroParpadeo();
+        requestLayout();
+        invalidate();
+    }
+
+    /**
+     * Configura el color de un segmento y si debe parpadear
+     */
+    public void setSegmento(int indice, int color, boolean debeParpadear) {
+        if (indice < 0 || indice >= cantidad) {
+            return;
+        }
+        colores[indice] = color;
+        if (parpadea[indice] != debeParpadear) {
+            parpadea[indice] = debeParpadear;
+            cantidadParpadeando += debeParpadear ? 1 : -1;
+            actualizarRegistroParpadeo();
+        }
+        invalidate();
+    }
+
+    public int getCantidadSegmentos() {
+        return cantidad;
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        int ancho = getDefaultSize(getSuggestedMinimumWidth(), widthMeasureSpec);
+        int alto = cantidad > 0 ? altoBarra + getPaddingTop() + getPaddingBottom() : 0;
+        setMeasuredDimension(ancho, resolveSize(alto, heightMeasureSpec));
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        if (cantidad == 0) {
+            return;
+        }
+
+        float izquierda = getPaddingLeft();
+        float disponible = getWidth() - getPaddingLeft() - getPaddingRight() - separacion * (cantidad - 1);
+        float anchoSegmento = disponible / cantidad;
+        float arriba = getPaddingTop();
+        boolean atenuar = !RelojParpadeo.visible;
+
+        for (int i = 0; i < cantidad; i++) {
+            paint.setColor(colores[i]);
+            if (parpadea[i] && atenuar) {
+                paint.setAlpha(ALPHA_ATENUADO);
+            } else {
+                paint.setAlpha(ALPHA_VISIBLE);
+            }
+            rect.set(izquierda, arriba, izquierda + anchoSegmento, arriba + altoBarra);
+            canvas.drawRoundRect(rect, radio, radio, paint);
+            izquierda += anchoSegmento + separacion;
+        }
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        actualizarRegistroParpadeo();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        actualizarRegistroParpadeo();
+    }
+
+    @Override
+    protected void onVisibilityChanged(View changedView, int visibility) {
+        super.onVisibilityChanged(changedView, visibility);
+        actualizarRegistroParpadeo();
+    }
+
+    /**
+     * La vista escucha el reloj solo si está adjunta, visible y tiene segmentos que parpadean
+     */
+    private void actualizarRegistroParpadeo() {
+        boolean debeEscuchar = cantidadParpadeando > 0 && isAttachedToWindow() && isShown();
+        if (debeEscuchar && !registrado) {
+            RelojParpadeo.registrar(this);
+            registrado = true;
+        } else if (!debeEscuchar && registrado) {
+            RelojParpadeo.desregistrar(this);
+            registrado = false;
+        }
+    }
+
+    /**
+     * Reloj de parpadeo compartido por todas las barras. Un solo Runnable alterna la fase
+     * cada 500ms e invalida las vistas registradas; se detiene cuando no queda ninguna.
+     */
+    private static final class RelojParpadeo {
+        private static final long INTERVALO_MS = 500;
+        private static final Handler handler = new Handler(Looper.getMainLooper());
+        private static final List<BarraTomasView> vistas = new ArrayList<>();
+        private static boolean visible = true;
+
+        private static final Runnable tick = new Runnable() {
+            @Override
+            public void run() {
+                visible = !visible;
+                for (int i = 0; i < vistas.size(); i++) {
+                    vistas.get(i).invalidate();
+                }
+                handler.postDelayed(this, INTERVALO_MS);
+            }
+        };
+
+        static void registrar(BarraTomasView vista) {
+            vistas.add(vista);
+            if (vistas.size() == 1) {
+                handler.postDelayed(tick, INTERVALO_MS);
+            }
+        }
+
+        static void desregistrar(BarraTomasView vista) {
+            vistas.remove(vista);
+            if (vistas.isEmpty()) {
+                handler.removeCallbacks(tick);
+                visible = true;
+            }
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.controlmedicamentos.myapplication;
+
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Mide los bytes que el hilo actual reserva en el heap mientras ejecuta un bloque (ThreadMXBean de
+ * HotSpot). Es determinista, a diferencia de medir tiempos, así que los tests pueden comparar caminos.
+ */
+public final class Asignaciones {
+
+    public interface Bloque {
+        void ejecutar() throws Exception;
+    }
+
+    private Asignaciones() {
+    }
+
+    /**
+     * Bytes reservados por el bloque; saltea el test si la JVM no lo puede medir
+     */
+    public static long medir(Bloque bloque) throws Exception {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean hotspot = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(hotspot.isThreadAllocatedMemorySupported() && hotspot.isThreadAllocatedMemoryEnabled());
+        long hilo = Thread.currentThread().getId();
+        long antes = hotspot.getThreadAllocatedBytes(hilo);
+        bloque.ejecutar();
+        return hotspot.getThreadAllocatedBytes(hilo) - antes;
+    }
+}
@@ -0,0 +1,140 @@
+package com.controlmedicamentos.myapplication;
+
+import android.content.SharedPreferences;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * SharedPreferences en memoria para los tests de JVM (los cambios se aplican al llamar apply o commit)
+ */
+public class PreferenciasEnMemoria implements SharedPreferences {
+    private final Map<String, Object> valores = new HashMap<>();
+
+    @Override
+    public Map<String, ?> getAll() {
+        return new HashMap<>(valores);
+    }
+
+    @Override
+    public String getString(String clave, String porDefecto) {
+        return valores.containsKey(clave) ? (String) valores.get(clave) : porDefecto;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Set<String> getStringSet(String clave, Set<String> porDefecto) {
+        return valores.containsKey(clave) ? (Set<String>) valores.get(clave) : porDefecto;
+    }
+
+    @Override
+    public int getInt(String clave, int porDefecto) {
+        return valores.containsKey(clave) ? (Integer) valores.get(clave) : porDefecto;
+    }
+
+    @Override
+    public long getLong(String clave, long porDefecto) {
+        return valores.containsKey(clave) ? (Long) valores.get(clave) : porDefecto;
+    }
+
+    @Override
+    public float getFloat(String clave, float porDefecto) {
+        return valores.containsKey(clave) ? (Float) valores.get(clave) : porDefecto;
+    }
+
+    @Override
+    public boolean getBoolean(String clave, boolean porDefecto) {
+        return valores.containsKey(clave) ? (Boolean) valores.get(clave) : porDefecto;
+    }
+
+    @Override
+    public boolean contains(String clave) {
+        return valores.containsKey(clave);
+    }
+
+    @Override
+    public Editor edit() {
+        return new Editor() {
+            private final Map<String, Object> cambios = new HashMap<>();
+            private final Set<String> borradas = new HashSet<>();
+            private boolean limpiar;
+
+            @Override
+            public Editor putString(String clave, String valor) {
+                return poner(clave, valor);
+            }
+
+            @Override
+            public Editor putStringSet(String clave, Set<String> valor) {
+                return poner(clave, valor != null ? new HashSet<>(valor) : null);
+            }
+
+            @Override
+            public Editor putInt(String clave, int valor) {
+                return poner(clave, valor);
+            }
+
+            @Override
+            public Editor putLong(String clave, long valor) {
+                return poner(clave, valor);
+            }
+
+            @Override
+            public Editor putFloat(String clave, float valor) {
+                return poner(clave, valor);
+            }
+
+            @Override
+            public Editor putBoolean(String clave, boolean valor) {
+                return poner(clave, valor);
+            }
+
+            @Override
+            public Editor remove(String clave) {
+                borradas.add(clave);
+                return this;
+            }
+
+            @Override
+            public Editor clear() {
+                limpiar = true;
+                return this;
+            }
+
+            @Override
+            public boolean commit() {
+                apply();
+                return true;
+            }
+
+            @Override
+            public void apply() {
+                if (limpiar) {
+                    valores.clear();
+                }
+                valores.keySet().removeAll(borradas);
+                for (Map.Entry<String, Object> cambio : cambios.entrySet()) {
+                    if (cambio.getValue() == null) {
+                        valores.remove(cambio.getKey());
+                    } else {
+                        valores.put(cambio.getKey(), cambio.getValue());
+                    }
+                }
+            }
+
+            private Editor poner(String clave, Object valor) {
+                cambios.put(clave, valor);
+                return this;
+            }
+        };
+    }
+
+    @Override
+    public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+    }
+
+    @Override
+    public void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+    }
+}
@@ -0,0 +1,129 @@
+package com.controlmedicamentos.myapplication.adapters;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import com.controlmedicamentos.myapplication.Asignaciones;
+import com.controlmedicamentos.myapplication.models.Medicamento;
+import com.controlmedicamentos.myapplication.models.TomaProgramada;
+import com.controlmedicamentos.myapplication.models.TomaProgramada.EstadoTomaProgramada;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+import org.junit.Test;
+
+public class EstadosFilasTest {
+    private static final int FILAS = 200;
+    private static final int TICKS = 60;
+
+    private final Map<String, List<TomaProgramada>> tomas = new HashMap<>();
+
+    @Test
+    public void calcular_ubicaCadaTomaEnSuHorario() {
+        Medicamento medicamento = medicamento("med-1");
+        tomas.put("med-1", Arrays.asList(
+            toma("med-1", "16:00", EstadoTomaProgramada.ALERTA_ROJA),
+            toma("med-1", "08:00", EstadoTomaProgramada.OMITIDA)));
+
+        EstadosFilas estados = new EstadosFilas();
+        estados.calcular(List.of(medicamento), tomas::get);
+
+        // Horarios en orden cronológico; la toma de las 00:00 ya no está en el tracking: se muestra pendiente
+        assertArrayEquals(new int[] {EstadoTomaProgramada.PENDIENTE.ordinal(),
+            EstadoTomaProgramada.OMITIDA.ordinal(), EstadoTomaProgramada.ALERTA_ROJA.ordinal()},
+            estados.actuales("med-1"));
+        assertEquals(0, estados.actuales("otro").length);
+    }
+
+    @Test
+    public void buscarCambios_soloAvisaLasFilasEnlazadasQueCambiaron() {
+        List<Medicamento> lista = List.of(medicamento("med-0"), medicamento("med-1"), medicamento("med-2"));
+        for (Medicamento medicamento : lista) {
+            tomas.put(medicamento.getId(), List.of(toma(medicamento.getId(), "08:00", EstadoTomaProgramada.PENDIENTE)));
+        }
+        EstadosFilas estados = new EstadosFilas();
+        estados.calcular(lista, tomas::get);
+        estados.mostrados("med-0");
+        estados.mostrados("med-1");
+
+        tomas.get("med-1").get(0).setEstado(EstadoTomaProgramada.ALERTA_AMARILLA);
+        tomas.get("med-2").get(0).setEstado(EstadoTomaProgramada.ALERTA_AMARILLA);
+        estados.calcular(lista, tomas::get);
+
+        List<Integer> cambiadas = new ArrayList<>();
+        assertEquals(1, estados.buscarCambios(lista, cambiadas::add));
+        assertEquals(List.of(1), cambiadas);
+
+        estados.mostrados("med-1");
+        assertEquals(0, estados.buscarCambios(lista, cambiadas::add));
+    }
+
+    @Test
+    public void descartarOtros_olvidaLosMedicamentosQueSalieronDeLaLista() {
+        Medicamento queda = medicamento("med-0");
+        EstadosFilas estados = new EstadosFilas();
+        estados.calcular(List.of(queda, medicamento("med-1")), tomas::get);
+
+        estados.descartarOtros(List.of(queda));
+
+        assertEquals(3, estados.actuales("med-0").length);
+        assertEquals(0, estados.actuales("med-1").length);
+    }
+
+    /**
+     * Ticks de un minuto con 200 filas: los estados se recalculan en los mismos buffers, así que el
+     * tick no reserva memoria por fila (antes cada bind creaba un int[] y re-parseaba los horarios)
+     */
+    @Test
+    public void calcular_elTickReutilizaLosBuffers() throws Exception {
+        List<Medicamento> lista = new ArrayList<>();
+        for (int i = 0; i < FILAS; i++) {
+            Medicamento medicamento = medicamento("med-" + i);
+            lista.add(medicamento);
+            tomas.put(medicamento.getId(), List.of(toma(medicamento.getId(), "08:00", EstadoTomaProgramada.PENDIENTE),
+                toma(medicamento.getId(), "16:00", EstadoTomaProgramada.PENDIENTE)));
+        }
+        EstadosFilas estados = new EstadosFilas();
+        IntConsumer ignorar = posicion -> { };
+        for (int tick = 0; tick < TICKS; tick++) {
+            estados.calcular(lista, tomas::get);
+            for (Medicamento medicamento : lista) {
+                estados.mostrados(medicamento.getId());
+            }
+            estados.buscarCambios(lista, ignorar);
+        }
+        int[] buffer = estados.actuales("med-0");
+
+        Function<String, List<TomaProgramada>> tomasDe = tomas::get;
+        long reservados = Asignaciones.medir(() -> {
+            for (int tick = 0; tick < TICKS; tick++) {
+                estados.calcular(lista, tomasDe);
+                estados.buscarCambios(lista, ignorar);
+            }
+        });
+
+        assertSame(buffer, estados.actuales("med-0"));
+        assertEquals(0, reservados / TICKS / FILAS);
+    }
+
+    private static Medicamento medicamento(String id) {
+        Medicamento medicamento = new Medicamento();
+        medicamento.setId(id);
+        medicamento.setNombre("Medicamento " + id);
+        medicamento.setPresentacion("comprimidos");
+        medicamento.setTomasDiarias(3);
+        medicamento.setHorariosTomas(List.of("08:00", "16:00", "00:00"));
+        return medicamento;
+    }
+
+    private static TomaProgramada toma(String medicamentoId, String horario, EstadoTomaProgramada estado) {
+        TomaProgramada toma = new TomaProgramada(medicamentoId, horario, null);
+        toma.setEstado(estado);
+        return toma;
+    }
+}
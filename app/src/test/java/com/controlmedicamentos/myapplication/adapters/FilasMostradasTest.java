@@ -0,0 +1,113 @@
+package com.controlmedicamentos.myapplication.adapters;
+
+import static org.junit.Assert.assertEquals;
+
+import com.controlmedicamentos.myapplication.models.Medicamento;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+
+public class FilasMostradasTest {
+    private static final int FILAS = 200;
+    private static final int TICKS = 60;
+
+    @Test
+    public void buscarCambios_salteaLasFilasQueNoSeMostraron() {
+        FilasMostradas<int[]> filas = new FilasMostradas<>();
+        List<Medicamento> lista = medicamentos(3);
+        filas.registrar("med-1", new int[] {0, 1});
+
+        List<Integer> cambiadas = new ArrayList<>();
+        int cambios = filas.buscarCambios(lista, m -> new int[] {2, 2}, cambiadas::add);
+
+        assertEquals(1, cambios);
+        assertEquals(List.of(1), cambiadas);
+    }
+
+    @Test
+    public void buscarCambios_comparaElContenidoDeLosArrays() {
+        FilasMostradas<int[]> filas = new FilasMostradas<>();
+        List<Medicamento> lista = medicamentos(2);
+        filas.registrar("med-0", new int[] {0, 1, 1});
+        filas.registrar("med-1", new int[] {0, 1, 1});
+
+        List<Integer> cambiadas = new ArrayList<>();
+        filas.buscarCambios(lista, m -> m.getId().equals("med-1") ? new int[] {0, 1, 2} : new int[] {0, 1, 1},
+            cambiadas::add);
+
+        assertEquals(List.of(1), cambiadas);
+    }
+
+    @Test
+    public void buscarCambios_detectaElStockModificadoEnElLugar() {
+        FilasMostradas<String> filas = new FilasMostradas<>();
+        List<Medicamento> lista = medicamentos(3);
+        for (Medicamento medicamento : lista) {
+            filas.registrar(medicamento.getId(), medicamento.getInfoStock());
+        }
+
+        // El mismo objeto que tiene el adapter: el diff lo compararía consigo mismo
+        lista.get(2).setStockActual(lista.get(2).getStockActual() - 1);
+
+        List<Integer> cambiadas = new ArrayList<>();
+        filas.buscarCambios(lista, Medicamento::getInfoStock, cambiadas::add);
+        assertEquals(List.of(2), cambiadas);
+    }
+
+    /**
+     * Ticks de un minuto con 200 filas en los que solo cambia el estado de una: antes se re-enlazaban
+     * todas (notifyItemRangeChanged), ahora solo la que cambió, y un tick sin cambios no re-enlaza nada.
+     */
+    @Test
+    public void buscarCambios_cadaTickSoloReenlazaLaFilaCambiada() {
+        List<Medicamento> lista = medicamentos(FILAS);
+        Map<String, int[]> estados = new HashMap<>();
+        FilasMostradas<int[]> filas = new FilasMostradas<>();
+        for (Medicamento medicamento : lista) {
+            int[] inicial = new int[] {0, 0, 0};
+            estados.put(medicamento.getId(), inicial);
+            filas.registrar(medicamento.getId(), inicial.clone());
+        }
+
+        int reenlazadas = 0;
+        for (int tick = 0; tick < TICKS; tick++) {
+            int posicionCambiada = (tick * 7) % FILAS;
+            Medicamento cambiado = lista.get(posicionCambiada);
+            int[] nuevos = estados.get(cambiado.getId()).clone();
+            nuevos[tick % nuevos.length]++;
+            estados.put(cambiado.getId(), nuevos);
+
+            List<Integer> cambiadas = new ArrayList<>();
+            int cambios = filas.buscarCambios(lista, m -> estados.get(m.getId()), posicion -> {
+                cambiadas.add(posicion);
+                filas.registrar(lista.get(posicion).getId(), estados.get(lista.get(posicion).getId()));
+            });
+
+            assertEquals(1, cambios);
+            assertEquals(List.of(posicionCambiada), cambiadas);
+            reenlazadas += cambios;
+        }
+        assertEquals(TICKS, reenlazadas);
+
+        // Sin cambios desde el último tick: ninguna fila se re-enlaza
+        List<Integer> cambiadas = new ArrayList<>();
+        assertEquals(0, filas.buscarCambios(lista, m -> estados.get(m.getId()), cambiadas::add));
+        assertEquals(List.of(), cambiadas);
+    }
+
+    private static List<Medicamento> medicamentos(int cantidad) {
+        List<Medicamento> lista = new ArrayList<>();
+        for (int i = 0; i < cantidad; i++) {
+            Medicamento medicamento = new Medicamento();
+            medicamento.setId("med-" + i);
+            medicamento.setNombre("Medicamento " + i);
+            medicamento.setPresentacion("comprimidos");
+            medicamento.setStockInicial(30);
+            medicamento.setStockActual(20);
+            lista.add(medicamento);
+        }
+        return lista;
+    }
+}
@@ -0,0 +1,82 @@
+package com.controlmedicamentos.myapplication.models;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+public class HorarioDiarioTest {
+
+    @Test
+    public void parsear_aceptaHorasDeUnoYDosDigitos() {
+        assertEquals(0, HorarioDiario.parsear("00:00"));
+        assertEquals(8 * 60 + 5, HorarioDiario.parsear("8:05"));
+        assertEquals(23 * 60 + 59, HorarioDiario.parsear("23:59"));
+    }
+
+    @Test
+    public void parsear_rechazaFormatosYRangosInvalidos() {
+        for (String horario : new String[] {null, "", "8", ":30", "123:00", "24:00", "12:60", "12:5", "ab:cd", "12-30"}) {
+            assertEquals(horario, HorarioDiario.INVALIDO, HorarioDiario.parsear(horario));
+        }
+    }
+
+    @Test
+    public void formatear_rellenaConCeros() {
+        assertEquals("07:05", HorarioDiario.formatear(7 * 60 + 5));
+        assertEquals("23:59", HorarioDiario.formatear(HorarioDiario.MINUTOS_DIA - 1));
+    }
+
+    @Test
+    public void desdeTexto_ordenaYDescartaInvalidosYRepetidos() {
+        HorarioDiario horario = HorarioDiario.desdeTexto(Arrays.asList("20:00", "08:00", "x", "08:00", "14:30"));
+        assertEquals(Arrays.asList("08:00", "14:30", "20:00"), horario.aTexto());
+    }
+
+    @Test
+    public void generar_usaIntervalosDeHorasEnterasComoElClienteWeb() {
+        assertEquals(Arrays.asList("00:30", "08:30", "16:30"), HorarioDiario.generar(8 * 60 + 30, 3).aTexto());
+        // 24 / 5 = 4 horas: la última toma queda a medianoche
+        assertEquals(Arrays.asList("00:00", "08:00", "12:00", "16:00", "20:00"), HorarioDiario.generar(8 * 60, 5).aTexto());
+    }
+
+    @Test
+    public void generarTexto_conservaElOrdenDesdeLaPrimeraToma() {
+        List<String> horarios = HorarioDiario.generarTexto(20 * 60, 3);
+        assertEquals(Arrays.asList("20:00", "04:00", "12:00"), horarios);
+        assertEquals(HorarioDiario.generar(20 * 60, 3), HorarioDiario.desdeTexto(horarios));
+    }
+
+    @Test
+    public void generar_conMasDeVeinticuatroTomasReparteEnMinutos() {
+        HorarioDiario horario = HorarioDiario.generar(0, 48);
+        assertEquals(48, horario.cantidad());
+        assertEquals(30, horario.minutosEn(1));
+    }
+
+    @Test
+    public void generar_entradaInvalidaDevuelveVacio() {
+        assertTrue(HorarioDiario.generar(8 * 60, 0).isEmpty());
+        assertTrue(HorarioDiario.generar(-1, 3).isEmpty());
+        assertTrue(HorarioDiario.generar(HorarioDiario.MINUTOS_DIA, 3).isEmpty());
+    }
+
+    @Test
+    public void indiceProxima_pasaAlDiaSiguiente() {
+        HorarioDiario horario = HorarioDiario.desdeTexto(Arrays.asList("08:00", "20:00"));
+        assertEquals(0, horario.indiceProxima(7 * 60));
+        assertEquals(1, horario.indiceProxima(8 * 60 + 1));
+        assertEquals(0, horario.indiceProxima(21 * 60));
+        assertEquals(HorarioDiario.INVALIDO, HorarioDiario.VACIO.indiceProxima(0));
+    }
+
+    @Test
+    public void minutosHastaProxima_cuentaHastaMananaSiYaPasaron() {
+        HorarioDiario horario = HorarioDiario.desdeTexto(Arrays.asList("08:00", "20:00"));
+        assertEquals(0, horario.minutosHastaProxima(8 * 60));
+        assertEquals(60, horario.minutosHastaProxima(19 * 60));
+        assertEquals(11 * 60, horario.minutosHastaProxima(21 * 60));
+    }
+}
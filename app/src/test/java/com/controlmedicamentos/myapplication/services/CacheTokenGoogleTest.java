@@ -0,0 +1,160 @@
+package com.controlmedicamentos.myapplication.services;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class CacheTokenGoogleTest {
+    private static final String USUARIO = "usuario-1";
+    private static final long AHORA = Instant.parse("2026-10-19T12:00:00Z").toEpochMilli();
+
+    private final CacheTokenGoogle cache = new CacheTokenGoogle();
+
+    @Test
+    public void obtener_lasLlamadasConcurrentesCompartenUnaLectura() {
+        Recibidos primero = new Recibidos();
+        Recibidos segundo = new Recibidos();
+        CacheTokenGoogle.Lectura lectura = cache.obtener(USUARIO, AHORA, primero);
+        assertNotNull(lectura);
+        assertNull(cache.obtener(USUARIO, AHORA, segundo));
+        assertTrue(primero.valores.isEmpty());
+
+        Map<String, Object> token = token(60);
+        assertFalse(cache.completar(lectura, token, true, AHORA));
+
+        assertEquals(1, primero.valores.size());
+        assertEquals(token, primero.valores.get(0));
+        assertEquals(token, segundo.valores.get(0));
+        // Ya cacheado: responde sin leer
+        Recibidos tercero = new Recibidos();
+        assertNull(cache.obtener(USUARIO, AHORA, tercero));
+        assertEquals(token, tercero.valores.get(0));
+    }
+
+    @Test
+    public void obtener_recuerdaQueElUsuarioNoTieneToken() {
+        CacheTokenGoogle.Lectura lectura = cache.obtener(USUARIO, AHORA, new Recibidos());
+        cache.completar(lectura, null, true, AHORA);
+
+        Recibidos recibidos = new Recibidos();
+        assertNull(cache.obtener(USUARIO, AHORA, recibidos));
+        assertEquals(1, recibidos.valores.size());
+        assertNull(recibidos.valores.get(0));
+    }
+
+    @Test
+    public void obtener_unaLecturaFallidaNoSeCachea() {
+        Recibidos recibidos = new Recibidos();
+        CacheTokenGoogle.Lectura lectura = cache.obtener(USUARIO, AHORA, recibidos);
+        cache.completar(lectura, null, false, AHORA);
+
+        assertNull(recibidos.valores.get(0));
+        assertNotNull(cache.obtener(USUARIO, AHORA, new Recibidos()));
+    }
+
+    @Test
+    public void obtener_dentroDelMargenDeRefrescoDevuelveElCacheadoYRelee() {
+        cache.guardado(USUARIO, token(8));
+
+        Recibidos recibidos = new Recibidos();
+        CacheTokenGoogle.Lectura lectura = cache.obtener(USUARIO, AHORA, recibidos);
+        assertNotNull(lectura);
+        assertEquals(1, recibidos.valores.size());
+        assertNotNull(recibidos.valores.get(0));
+        // La relectura en curso no se duplica
+        assertNull(cache.obtener(USUARIO, AHORA, new Recibidos()));
+    }
+
+    @Test
+    public void obtener_fueraDelMargenDeRefrescoNoRelee() {
+        cache.guardado(USUARIO, token(20));
+        assertNull(cache.obtener(USUARIO, AHORA, new Recibidos()));
+    }
+
+    @Test
+    public void obtener_unTokenPorExpirarSeConsideraExpirado() {
+        cache.guardado(USUARIO, token(3));
+
+        Recibidos recibidos = new Recibidos();
+        assertNotNull(cache.obtener(USUARIO, AHORA, recibidos));
+        assertTrue(recibidos.valores.isEmpty());
+    }
+
+    @Test
+    public void completar_unTokenLeidoYaExpiradoSePideEliminar() {
+        CacheTokenGoogle.Lectura lectura = cache.obtener(USUARIO, AHORA, new Recibidos());
+        assertTrue(cache.completar(lectura, token(2), true, AHORA));
+
+        Recibidos recibidos = new Recibidos();
+        assertNull(cache.obtener(USUARIO, AHORA, recibidos));
+        assertNull(recibidos.valores.get(0));
+    }
+
+    @Test
+    public void guardado_descartaLaLecturaQueEmpezoAntes() {
+        Recibidos recibidos = new Recibidos();
+        CacheTokenGoogle.Lectura lectura = cache.obtener(USUARIO, AHORA, recibidos);
+        Map<String, Object> nuevo = token(60);
+        cache.guardado(USUARIO, nuevo);
+
+        cache.completar(lectura, token(30), true, AHORA);
+
+        assertEquals(nuevo, recibidos.valores.get(0));
+        Recibidos despues = new Recibidos();
+        assertNull(cache.obtener(USUARIO, AHORA, despues));
+        assertEquals(nuevo, despues.valores.get(0));
+    }
+
+    @Test
+    public void eliminado_descartaLaLecturaQueEmpezoAntes() {
+        CacheTokenGoogle.Lectura lectura = cache.obtener(USUARIO, AHORA, new Recibidos());
+        cache.eliminado(USUARIO);
+
+        cache.completar(lectura, token(60), true, AHORA);
+
+        Recibidos recibidos = new Recibidos();
+        assertNull(cache.obtener(USUARIO, AHORA, recibidos));
+        assertNull(recibidos.valores.get(0));
+    }
+
+    @Test
+    public void obtener_otroUsuarioNoUsaLaCache() {
+        cache.guardado(USUARIO, token(60));
+        assertNotNull(cache.obtener("usuario-2", AHORA, new Recibidos()));
+    }
+
+    /**
+     * Token obtenido ahora que expira en los minutos indicados
+     */
+    private static Map<String, Object> token(long minutosRestantes) {
+        Map<String, Object> token = new HashMap<>();
+        token.put("access_token", "abc");
+        token.put("fechaObtencion", Instant.ofEpochMilli(AHORA).toString());
+        token.put("expires_in", TimeUnit.MINUTES.toSeconds(minutosRestantes));
+        return token;
+    }
+
+    private static class Recibidos implements GoogleCalendarAuthService.FirestoreCallback {
+        final List<Object> valores = new ArrayList<>();
+
+        @Override
+        public void onSuccess(Object result) {
+            valores.add(result);
+        }
+
+        @Override
+        public void onError(Exception exception) {
+            throw new AssertionError(exception);
+        }
+    }
+}
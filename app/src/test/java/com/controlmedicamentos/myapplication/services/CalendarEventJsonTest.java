@@ -0,0 +1,201 @@
+package com.controlmedicamentos.myapplication.services;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.util.JsonWriter;
+import com.controlmedicamentos.myapplication.Asignaciones;
+import com.controlmedicamentos.myapplication.models.Medicamento;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.Map;
+import okio.Buffer;
+import okhttp3.RequestBody;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+/**
+ * El JSON de eventos se escribe con android.util.JsonWriter (Robolectric da la implementación real):
+ * se compara con el que armaba la versión con JSONObject y con la memoria que reserva por evento.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 34)
+public class CalendarEventJsonTest {
+    private static final LocalDateTime INICIO = LocalDateTime.of(2026, 3, 5, 8, 30);
+    private static final String ZONA = "America/Argentina/Buenos_Aires";
+    private static final int ITERACIONES = 5000;
+
+    @Test
+    public void escribirEvento_generaTodosLosCampos() throws Exception {
+        JSONObject evento = new JSONObject(escribir(medicamento(), true));
+
+        assertEquals("💊 Ibuprofeno", evento.getString("summary"));
+        assertTrue(evento.getString("description").contains("Stock: 12/30"));
+        assertEquals("2026-03-05T08:30:00", evento.getJSONObject("start").getString("dateTime"));
+        assertEquals(ZONA, evento.getJSONObject("start").getString("timeZone"));
+        assertEquals("2026-03-05T08:45:00", evento.getJSONObject("end").getString("dateTime"));
+        JSONObject recordatorios = evento.getJSONObject("reminders");
+        assertFalse(recordatorios.getBoolean("useDefault"));
+        JSONArray overrides = recordatorios.getJSONArray("overrides");
+        assertEquals(2, overrides.length());
+        assertEquals(15, overrides.getJSONObject(0).getInt("minutes"));
+        assertEquals(5, overrides.getJSONObject(1).getInt("minutes"));
+        assertEquals(GoogleCalendarService.obtenerColorId(medicamento().getColor()), evento.getString("colorId"));
+        assertEquals("med-1", evento.getJSONObject("extendedProperties").getJSONObject("private").getString("medicamentoId"));
+    }
+
+    @Test
+    public void escribirEvento_alActualizarNoIncluyePropiedadesExtendidas() throws Exception {
+        JSONObject evento = new JSONObject(escribir(medicamento(), false));
+        assertFalse(evento.has("extendedProperties"));
+    }
+
+    @Test
+    public void crearBodyEvento_escribeElMismoJson() throws Exception {
+        RequestBody body = CalendarEventJson.crearBodyEvento(medicamento(), INICIO, ZONA, true);
+        Buffer buffer = new Buffer();
+        body.writeTo(buffer);
+
+        assertEquals(CalendarEventJson.JSON, body.contentType());
+        assertEquals(escribir(medicamento(), true), buffer.readUtf8());
+    }
+
+    @Test
+    public void leerEvento_leeLoEscritoYSalteaLosObjetosAnidados() throws Exception {
+        Map<String, Object> evento = CalendarEventJson.leerEvento(new StringReader(escribir(medicamento(), true)));
+
+        assertEquals("💊 Ibuprofeno", evento.get("summary"));
+        assertEquals(GoogleCalendarService.obtenerColorId(medicamento().getColor()), evento.get("colorId"));
+        assertFalse(evento.containsKey("start"));
+        assertFalse(evento.containsKey("reminders"));
+    }
+
+    @Test
+    public void leerEvento_conservaNumerosYBooleanos() throws Exception {
+        String respuesta = "{\"id\":\"abc\",\"status\":\"confirmed\",\"sequence\":3,\"locked\":false,"
+            + "\"attendees\":[{\"email\":\"x@y.z\"}],\"creator\":{\"self\":true}}";
+        Map<String, Object> evento = CalendarEventJson.leerEvento(new StringReader(respuesta));
+
+        assertEquals("abc", evento.get("id"));
+        assertEquals("confirmed", evento.get("status"));
+        assertEquals("3", evento.get("sequence"));
+        assertEquals(Boolean.FALSE, evento.get("locked"));
+        assertEquals(4, evento.size());
+    }
+
+    @Test
+    public void comparacion_streamingReservaMenosMemoriaPorEventoQueJSONObject() throws Exception {
+        Medicamento medicamento = medicamento();
+        Buffer buffer = new Buffer();
+        assertMismoEvento(new JSONObject(escribir(medicamento, true)), eventoConJSONObject(medicamento));
+
+        // Calentamiento de ambos caminos antes de medir (carga de clases, inicializaciones estáticas)
+        for (int i = 0; i < ITERACIONES; i++) {
+            escribirEnBuffer(medicamento, buffer);
+            eventoConJSONObject(medicamento).toString().getBytes("UTF-8");
+        }
+        long streaming = Asignaciones.medir(() -> {
+            for (int i = 0; i < ITERACIONES; i++) {
+                escribirEnBuffer(medicamento, buffer);
+            }
+        }) / ITERACIONES;
+        long arbol = Asignaciones.medir(() -> {
+            for (int i = 0; i < ITERACIONES; i++) {
+                eventoConJSONObject(medicamento).toString().getBytes("UTF-8");
+            }
+        }) / ITERACIONES;
+
+        assertTrue("JsonWriter " + streaming + " B/evento, JSONObject " + arbol + " B/evento", streaming < arbol);
+    }
+
+    private static Medicamento medicamento() {
+        Medicamento medicamento = new Medicamento();
+        medicamento.setId("med-1");
+        medicamento.setNombre("Ibuprofeno");
+        medicamento.setPresentacion("comprimidos");
+        medicamento.setAfeccion("Dolor");
+        medicamento.setStockActual(12);
+        medicamento.setStockInicial(30);
+        medicamento.setColor(0xFF90EE90);
+        return medicamento;
+    }
+
+    private static String escribir(Medicamento medicamento, boolean incluirPropiedades) throws Exception {
+        StringWriter salida = new StringWriter();
+        JsonWriter writer = new JsonWriter(salida);
+        CalendarEventJson.escribirEvento(writer, medicamento, INICIO, ZONA, incluirPropiedades);
+        writer.flush();
+        return salida.toString();
+    }
+
+    /**
+     * Como el sink de OkHttp, el buffer se reutiliza: al vaciarlo sus segmentos vuelven al pool de okio
+     */
+    private static void escribirEnBuffer(Medicamento medicamento, Buffer buffer) throws Exception {
+        CalendarEventJson.crearBodyEvento(medicamento, INICIO, ZONA, true).writeTo(buffer);
+        buffer.clear();
+    }
+
+    /**
+     * Como armaba el evento GoogleCalendarService antes de escribirlo en streaming
+     */
+    private static JSONObject eventoConJSONObject(Medicamento medicamento) throws Exception {
+        DateTimeFormatter formato = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss", Locale.US);
+        JSONObject evento = new JSONObject();
+        evento.put("summary", "💊 " + medicamento.getNombre());
+        evento.put("description", "Toma de " + medicamento.getNombre() + "\n" +
+            "Presentación: " + medicamento.getPresentacion() + "\n" +
+            "Condición: " + (medicamento.getAfeccion() != null ? medicamento.getAfeccion() : "N/A") + "\n" +
+            "Stock: " + medicamento.getStockActual() + "/" +
+            (medicamento.getDiasTratamiento() > 0 ? medicamento.getDiasTratamiento() : medicamento.getStockInicial()));
+        JSONObject start = new JSONObject();
+        start.put("dateTime", formato.format(INICIO));
+        start.put("timeZone", ZONA);
+        evento.put("start", start);
+        JSONObject end = new JSONObject();
+        end.put("dateTime", formato.format(INICIO.plusMinutes(15)));
+        end.put("timeZone", ZONA);
+        evento.put("end", end);
+        JSONObject reminders = new JSONObject();
+        reminders.put("useDefault", false);
+        JSONArray overrides = new JSONArray();
+        for (int minutos : new int[] {15, 5}) {
+            JSONObject reminder = new JSONObject();
+            reminder.put("method", "popup");
+            reminder.put("minutes", minutos);
+            overrides.put(reminder);
+        }
+        reminders.put("overrides", overrides);
+        evento.put("reminders", reminders);
+        evento.put("colorId", GoogleCalendarService.obtenerColorId(medicamento.getColor()));
+        JSONObject privateProps = new JSONObject();
+        privateProps.put("medicamentoId", medicamento.getId());
+        privateProps.put("tipo", "toma_medicamento");
+        JSONObject extendedProperties = new JSONObject();
+        extendedProperties.put("private", privateProps);
+        evento.put("extendedProperties", extendedProperties);
+        return evento;
+    }
+
+    private static void assertMismoEvento(JSONObject esperado, JSONObject actual) throws Exception {
+        assertEquals(esperado.length(), actual.length());
+        for (String campo : new String[] {"summary", "description", "colorId"}) {
+            assertEquals(esperado.getString(campo), actual.getString(campo));
+        }
+        for (String campo : new String[] {"start", "end"}) {
+            assertEquals(esperado.getJSONObject(campo).getString("dateTime"), actual.getJSONObject(campo).getString("dateTime"));
+            assertEquals(esperado.getJSONObject(campo).getString("timeZone"), actual.getJSONObject(campo).getString("timeZone"));
+        }
+        assertEquals(esperado.getJSONObject("reminders").toString(), actual.getJSONObject("reminders").toString());
+        assertEquals(esperado.getJSONObject("extendedProperties").getJSONObject("private").getString("medicamentoId"),
+            actual.getJSONObject("extendedProperties").getJSONObject("private").getString("medicamentoId"));
+    }
+}
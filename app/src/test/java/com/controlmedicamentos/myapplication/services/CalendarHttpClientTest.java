@@ -0,0 +1,159 @@
+package com.controlmedicamentos.myapplication.services;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import javax.net.ServerSocketFactory;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Cliente compartido contra MockWebServer: reutilización de conexiones, User-Agent con gzip,
+ * cambio de timeouts y conexiones abiertas comparadas con un cliente nuevo por request.
+ */
+public class CalendarHttpClientTest {
+    private static final int REQUESTS = 200;
+
+    private MockWebServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.setServerSocketFactory(new SinDemoraServerSocketFactory());
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.shutdown();
+        CalendarHttpClient.configurarTimeouts(15, 20, 20);
+    }
+
+    @Test
+    public void clienteCompartido_reutilizaLaConexion() throws Exception {
+        OkHttpClient cliente = CalendarHttpClient.getInstance();
+        for (int i = 0; i < 10; i++) {
+            server.enqueue(new MockResponse().setBody("{}"));
+            ejecutar(cliente);
+        }
+        for (int i = 0; i < 10; i++) {
+            // El número de secuencia es la posición del request dentro de su conexión
+            assertEquals(i, server.takeRequest().getSequenceNumber());
+        }
+    }
+
+    @Test
+    public void userAgent_pideRespuestasComprimidas() throws Exception {
+        server.enqueue(new MockResponse().setBody("{}"));
+        ejecutar(CalendarHttpClient.getInstance());
+        RecordedRequest request = server.takeRequest();
+        assertTrue(request.getHeader("User-Agent").contains("gzip"));
+        assertEquals("gzip", request.getHeader("Accept-Encoding"));
+    }
+
+    @Test
+    public void configurarTimeouts_reemplazaElClienteConservandoElPool() {
+        OkHttpClient anterior = CalendarHttpClient.getInstance();
+        CalendarHttpClient.configurarTimeouts(5, 6, 7);
+        OkHttpClient actual = CalendarHttpClient.getInstance();
+
+        assertEquals(5000, actual.connectTimeoutMillis());
+        assertEquals(6000, actual.readTimeoutMillis());
+        assertEquals(7000, actual.writeTimeoutMillis());
+        assertSame(anterior.connectionPool(), actual.connectionPool());
+        assertSame(anterior.dispatcher(), actual.dispatcher());
+    }
+
+    @Test
+    public void clienteCompartido_noAbreConexionesComoUnClienteNuevoPorRequest() throws Exception {
+        OkHttpClient compartido = CalendarHttpClient.getInstance();
+        ejecutarVarias(compartido, 20); // calentamiento: abre la conexión
+        contarConexionesNuevas(20);
+        ejecutarVarias(compartido, REQUESTS);
+        assertEquals(0, contarConexionesNuevas(REQUESTS));
+
+        for (int i = 0; i < REQUESTS; i++) {
+            server.enqueue(new MockResponse().setBody("{}"));
+            OkHttpClient nuevo = new OkHttpClient();
+            ejecutar(nuevo);
+            nuevo.connectionPool().evictAll();
+        }
+        assertEquals(REQUESTS, contarConexionesNuevas(REQUESTS));
+    }
+
+    private void ejecutarVarias(OkHttpClient cliente, int cantidad) throws IOException {
+        for (int i = 0; i < cantidad; i++) {
+            server.enqueue(new MockResponse().setBody("{}"));
+            ejecutar(cliente);
+        }
+    }
+
+    private void ejecutar(OkHttpClient cliente) throws IOException {
+        Request request = new Request.Builder().url(server.url("/events")).build();
+        try (Response response = cliente.newCall(request).execute()) {
+            assertEquals(200, response.code());
+            response.body().string();
+        }
+    }
+
+    /**
+     * Consume los requests grabados y cuenta cuántos abrieron una conexión (secuencia 0)
+     */
+    private int contarConexionesNuevas(int requests) throws InterruptedException {
+        int nuevas = 0;
+        for (int i = 0; i < requests; i++) {
+            if (server.takeRequest().getSequenceNumber() == 0) {
+                nuevas++;
+            }
+        }
+        return nuevas;
+    }
+
+    /**
+     * MockWebServer escribe encabezados y cuerpo por separado; sin TCP_NODELAY, Nagle y el ACK
+     * diferido agregan ~40 ms a cada respuesta en una conexión reutilizada y alargan el test
+     */
+    private static class SinDemoraServerSocketFactory extends ServerSocketFactory {
+        @Override
+        public ServerSocket createServerSocket() throws IOException {
+            return new ServerSocket() {
+                @Override
+                public Socket accept() throws IOException {
+                    Socket socket = super.accept();
+                    socket.setTcpNoDelay(true);
+                    return socket;
+                }
+            };
+        }
+
+        @Override
+        public ServerSocket createServerSocket(int puerto) throws IOException {
+            return createServerSocket(puerto, 50, null);
+        }
+
+        @Override
+        public ServerSocket createServerSocket(int puerto, int cola) throws IOException {
+            return createServerSocket(puerto, cola, null);
+        }
+
+        @Override
+        public ServerSocket createServerSocket(int puerto, int cola, InetAddress direccion) throws IOException {
+            ServerSocket socket = createServerSocket();
+            socket.bind(new InetSocketAddress(direccion, puerto), cola);
+            return socket;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.controlmedicamentos.myapplication.services;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class HistogramaLatenciaTest {
+    private static final long VALOR_MAXIMO = (1L << 36) - 1;
+
+    @Test
+    public void indice_valoresPequenosSonExactos() {
+        for (int valor = 0; valor < 32; valor++) {
+            assertEquals(valor, HistogramaLatencia.indice(valor));
+            assertEquals(valor, HistogramaLatencia.limiteSuperior(valor));
+        }
+    }
+
+    @Test
+    public void limiteSuperior_esElMayorValorDeLaCubeta() {
+        for (long valor = 0; valor < 1 << 16; valor++) {
+            int cubeta = HistogramaLatencia.indice(valor);
+            assertTrue(valor + " excede su cubeta", valor <= HistogramaLatencia.limiteSuperior(cubeta));
+            if (cubeta > 0) {
+                assertTrue(valor + " cabe en la cubeta anterior", valor > HistogramaLatencia.limiteSuperior(cubeta - 1));
+            }
+        }
+    }
+
+    @Test
+    public void indice_cubetasContiguasEnTodoElRango() {
+        for (int cubeta = 1; cubeta < new HistogramaLatencia().getCantidadCubetas(); cubeta++) {
+            long primero = HistogramaLatencia.limiteSuperior(cubeta - 1) + 1;
+            assertEquals(cubeta, HistogramaLatencia.indice(primero));
+            assertEquals(cubeta, HistogramaLatencia.indice(HistogramaLatencia.limiteSuperior(cubeta)));
+        }
+    }
+
+    @Test
+    public void limiteSuperior_errorRelativoMenorAl7PorCiento() {
+        for (long valor = 32; valor <= VALOR_MAXIMO; valor = valor * 3 / 2 + 7) {
+            long limite = HistogramaLatencia.limiteSuperior(HistogramaLatencia.indice(valor));
+            assertTrue(valor + " -> " + limite, (limite - valor) / (double) valor < 0.07);
+        }
+    }
+
+    @Test
+    public void indice_elValorMaximoCaeEnLaUltimaCubeta() {
+        HistogramaLatencia histograma = new HistogramaLatencia();
+        int ultima = histograma.getCantidadCubetas() - 1;
+        assertEquals(ultima, HistogramaLatencia.indice(VALOR_MAXIMO));
+        assertEquals(VALOR_MAXIMO, HistogramaLatencia.limiteSuperior(ultima));
+
+        histograma.registrar(Long.MAX_VALUE);
+        histograma.registrar(-5);
+        assertEquals(1, histograma.getCantidad(ultima));
+        assertEquals(1, histograma.getCantidad(0));
+    }
+
+    @Test
+    public void percentil_devuelveElLimiteDeLaCubetaSinPasarDelMaximo() {
+        HistogramaLatencia histograma = new HistogramaLatencia();
+        for (long valor = 1; valor <= 1000; valor++) {
+            histograma.registrar(valor);
+        }
+        long p50 = histograma.percentil(50);
+        assertTrue(p50 >= 500 && p50 < 500 * 1.07);
+        assertEquals(1000, histograma.percentil(100));
+        assertEquals(1, histograma.getMinimo());
+        assertEquals(500.5, histograma.getPromedio(), 0.001);
+        assertEquals(0, new HistogramaLatencia().percentil(99));
+    }
+}
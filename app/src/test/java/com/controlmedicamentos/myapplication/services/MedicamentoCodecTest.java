@@ -0,0 +1,181 @@
+package com.controlmedicamentos.myapplication.services;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.controlmedicamentos.myapplication.Asignaciones;
+import com.controlmedicamentos.myapplication.models.Medicamento;
+import com.controlmedicamentos.myapplication.models.Toma;
+import com.google.firebase.Timestamp;
+import java.text.SimpleDateFormat;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import org.junit.Test;
+
+public class MedicamentoCodecTest {
+    private static final int DOCUMENTOS = 2_000;
+
+    @Test
+    public void leer_formatoWeb() {
+        Medicamento medicamento = MedicamentoCodec.leer("med-1", documentoWeb());
+
+        assertEquals("med-1", medicamento.getId());
+        assertEquals("Amoxicilina", medicamento.getNombre());
+        assertEquals("08:00", medicamento.getHorarioPrimeraToma());
+        assertEquals(3, medicamento.getTomasDiarias());
+        assertEquals(Arrays.asList("08:00", "16:00", "00:00"), medicamento.getHorariosTomas());
+        assertEquals(0xFF4CAF50, medicamento.getColor());
+        assertEquals(21, medicamento.getStockActual());
+        assertEquals(-1, medicamento.getDiasTratamiento());
+        assertEquals(inicioDelDia(2026, 12, 31), medicamento.getFechaVencimiento());
+        assertTrue(medicamento.isActivo());
+        assertFalse(medicamento.isPausado());
+        assertEquals(1, medicamento.getFechasTomasRealizadas().size());
+    }
+
+    @Test
+    public void leer_formatoDeLaAppAnterior() {
+        Date vencimiento = new Date(1790000000000L);
+        Map<String, Object> datos = new HashMap<>();
+        datos.put("nombre", "Crema");
+        datos.put("presentacion", "crema");
+        datos.put("horarioPrimeraToma", "09:30");
+        datos.put("tomasDiarias", 1L);
+        datos.put("color", "-16711936");
+        datos.put("fechaVencimientoTimestamp", new Timestamp(vencimiento));
+        datos.put("fechaVencimiento", "2020-01-01");
+        datos.put("tipoStock", "TOPICO_DIAS");
+        datos.put("diasEstimadosDuracion", 30L);
+        datos.put("diasRestantesDuracion", 12L);
+
+        Medicamento medicamento = MedicamentoCodec.leer("med-2", datos);
+
+        assertEquals("09:30", medicamento.getHorarioPrimeraToma());
+        assertEquals(-16711936, medicamento.getColor());
+        // El Timestamp de la app tiene prioridad sobre el string de la web
+        assertEquals(vencimiento, medicamento.getFechaVencimiento());
+        assertEquals(Medicamento.TipoStock.TOPICO_DIAS, medicamento.getTipoStock());
+        assertEquals(12, medicamento.getDiasRestantesDuracion());
+    }
+
+    @Test
+    public void leer_valoresInvalidosUsanLosPredeterminados() {
+        Map<String, Object> datos = new HashMap<>();
+        datos.put("tomasDiarias", "dos");
+        datos.put("color", "#zzzzzz");
+        datos.put("tipoStock", "DESCONOCIDO");
+        datos.put("activo", "si");
+        datos.put("fechaVencimiento", "31/12/2026");
+
+        Medicamento medicamento = MedicamentoCodec.leer("med-3", datos);
+
+        assertEquals(0, medicamento.getTomasDiarias());
+        assertEquals("", medicamento.getHorarioPrimeraToma());
+        assertEquals(0xFF2196F3, medicamento.getColor());
+        // Un tipo de stock desconocido conserva el que corresponde a la presentación
+        assertEquals("", medicamento.getPresentacion());
+        assertEquals(Medicamento.TipoStock.UNIDADES_APROXIMADAS, medicamento.getTipoStock());
+        assertTrue(medicamento.isActivo());
+        assertNull(medicamento.getFechaVencimiento());
+    }
+
+    @Test
+    public void leer_elStockNegativoDelServidorSeMuestraEnCero() {
+        Map<String, Object> datos = new HashMap<>();
+        datos.put("stockActual", -2L);
+        datos.put("diasRestantesDuracion", -1L);
+
+        Medicamento medicamento = MedicamentoCodec.leer("med-4", datos);
+        assertEquals(0, medicamento.getStockActual());
+        assertEquals(0, medicamento.getDiasRestantesDuracion());
+    }
+
+    @Test
+    public void tomaRealizada_convierteLasEntradasDeLaWeb() {
+        Map<String, Object> entrada = new HashMap<>();
+        entrada.put("fecha", "2026-03-05");
+        entrada.put("hora", "14:45");
+        Toma toma = MedicamentoCodec.tomaRealizada(entrada, "med-1", "Amoxicilina", "user-1");
+
+        Date esperada = Date.from(LocalDateTime.of(2026, 3, 5, 14, 45).atZone(ZoneId.systemDefault()).toInstant());
+        assertEquals(Toma.EstadoToma.TOMADA, toma.getEstado());
+        assertEquals(esperada, toma.getFechaHoraTomada());
+        assertEquals("med-1", toma.getMedicamentoId());
+
+        entrada.put("tomada", false);
+        Toma perdida = MedicamentoCodec.tomaRealizada(entrada, "med-1", "Amoxicilina", "user-1");
+        assertEquals(Toma.EstadoToma.PERDIDA, perdida.getEstado());
+        assertNull(perdida.getFechaHoraTomada());
+
+        entrada.put("fecha", null);
+        assertNull(MedicamentoCodec.tomaRealizada(entrada, "med-1", "Amoxicilina", "user-1"));
+        assertNull(MedicamentoCodec.tomaRealizada("texto", "med-1", "Amoxicilina", "user-1"));
+    }
+
+    /**
+     * Antes se creaba un SimpleDateFormat por cada fecha del documento (vencimiento y cada toma realizada):
+     * leer el documento entero con el codec debe reservar menos que solo esas fechas con el formato anterior.
+     */
+    @Test
+    public void leer_reservaMenosQueLasFechasConSimpleDateFormat() throws Exception {
+        Map<String, Object> documento = documentoWeb();
+        for (int i = 0; i < DOCUMENTOS; i++) {
+            MedicamentoCodec.leer("med-1", documento);
+            fechasConSimpleDateFormat();
+        }
+
+        long codec = Asignaciones.medir(() -> {
+            for (int i = 0; i < DOCUMENTOS; i++) {
+                MedicamentoCodec.leer("med-1", documento);
+            }
+        }) / DOCUMENTOS;
+        long anterior = Asignaciones.medir(() -> {
+            for (int i = 0; i < DOCUMENTOS; i++) {
+                fechasConSimpleDateFormat();
+            }
+        }) / DOCUMENTOS;
+
+        assertTrue("MedicamentoCodec " + codec + " B/documento, fechas con SimpleDateFormat " + anterior + " B",
+            codec < anterior);
+    }
+
+    private static void fechasConSimpleDateFormat() throws Exception {
+        new SimpleDateFormat("yyyy-MM-dd", Locale.US).parse("2026-12-31");
+        new SimpleDateFormat("yyyy-MM-dd", Locale.US).parse("2026-03-01");
+    }
+
+    private static Map<String, Object> documentoWeb() {
+        Map<String, Object> tomaRealizada = new HashMap<>();
+        tomaRealizada.put("fecha", "2026-03-01");
+        tomaRealizada.put("hora", "08:00");
+
+        Map<String, Object> datos = new HashMap<>();
+        datos.put("nombre", "Amoxicilina");
+        datos.put("presentacion", "comprimidos");
+        datos.put("primeraToma", "08:00");
+        datos.put("tomasDiarias", 3L);
+        datos.put("afeccion", "Infección");
+        datos.put("stockInicial", 30L);
+        datos.put("stockActual", 21L);
+        datos.put("color", "#4CAF50");
+        datos.put("esCronico", true);
+        datos.put("activo", true);
+        datos.put("horariosTomas", Arrays.asList("08:00", "16:00", "00:00"));
+        datos.put("tomasRealizadas", new ArrayList<>(Arrays.asList(tomaRealizada)));
+        datos.put("fechaVencimiento", "2026-12-31");
+        return datos;
+    }
+
+    private static Date inicioDelDia(int anio, int mes, int dia) {
+        return Date.from(LocalDate.of(anio, mes, dia).atStartOfDay(ZoneId.systemDefault()).toInstant());
+    }
+}
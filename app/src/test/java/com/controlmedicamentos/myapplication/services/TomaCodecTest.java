@@ -0,0 +1,65 @@
+package com.controlmedicamentos.myapplication.services;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import com.controlmedicamentos.myapplication.models.Toma;
+import com.google.firebase.Timestamp;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Test;
+
+public class TomaCodecTest {
+
+    @Test
+    public void leer_convierteTodosLosCampos() {
+        Date programada = new Date(1772700000000L);
+        Date tomada = new Date(1772700600000L);
+        Map<String, Object> datos = new HashMap<>();
+        datos.put("medicamentoId", "med-1");
+        datos.put("medicamentoNombre", "Ibuprofeno");
+        datos.put("userId", "user-1");
+        datos.put("observaciones", "Con comida");
+        datos.put("fechaHoraProgramada", new Timestamp(programada));
+        datos.put("fechaHoraTomada", tomada);
+        datos.put("estado", "PERDIDA");
+
+        Toma toma = TomaCodec.leer("toma-1", datos);
+
+        assertEquals("toma-1", toma.getId());
+        assertEquals("med-1", toma.getMedicamentoId());
+        assertEquals("Ibuprofeno", toma.getMedicamentoNombre());
+        assertEquals("user-1", toma.getUserId());
+        assertEquals("Con comida", toma.getObservaciones());
+        assertEquals(programada, toma.getFechaHoraProgramada());
+        assertEquals(tomada, toma.getFechaHoraTomada());
+        assertEquals(Toma.EstadoToma.PERDIDA, toma.getEstado());
+    }
+
+    @Test
+    public void leer_sinEstadoOConUnoDesconocidoLaDaPorTomada() {
+        assertEquals(Toma.EstadoToma.TOMADA, TomaCodec.leer("a", new HashMap<>()).getEstado());
+        Map<String, Object> datos = new HashMap<>();
+        datos.put("estado", "ARCHIVADA");
+        assertEquals(Toma.EstadoToma.TOMADA, TomaCodec.leer("b", datos).getEstado());
+    }
+
+    @Test
+    public void leer_ignoraTiposInesperados() {
+        Map<String, Object> datos = new HashMap<>();
+        datos.put("medicamentoId", 42L);
+        datos.put("fechaHoraTomada", "2026-03-05");
+
+        Toma toma = TomaCodec.leer("c", datos);
+        assertNull(toma.getMedicamentoId());
+        assertNull(toma.getFechaHoraTomada());
+    }
+
+    @Test
+    public void leer_documentoSinDatos() {
+        Toma toma = TomaCodec.leer("d", null);
+        assertEquals("d", toma.getId());
+        assertNull(toma.getMedicamentoId());
+    }
+}
@@ -0,0 +1,146 @@
+package com.controlmedicamentos.myapplication.utils;
+
+import static org.junit.Assert.assertEquals;
+
+import com.controlmedicamentos.myapplication.models.AdherenciaIntervalo;
+import com.controlmedicamentos.myapplication.models.AdherenciaResumen;
+import com.controlmedicamentos.myapplication.models.Medicamento;
+import com.controlmedicamentos.myapplication.models.ResumenMensualTomas;
+import com.controlmedicamentos.myapplication.models.Toma;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import org.junit.Test;
+
+public class AdherenciaCalculatorTest {
+
+    @Test
+    public void resumenGeneral_sumaLosResumenesALasTomasRecientes() {
+        Medicamento medicamento = medicamento(1);
+        // Sin fecha de inicio, el seguimiento empieza en el primer día resumido
+        medicamento.setFechaInicioTratamiento(null);
+        LocalDate archivado = LocalDate.now().minusDays(200);
+        ResumenMensualTomas resumen = resumen(medicamento.getId(), archivado);
+        resumen.setCantidad(archivado.getDayOfMonth(), Toma.EstadoToma.TOMADA, 1);
+        List<Toma> tomas = Collections.singletonList(toma(medicamento.getId(), LocalDate.now().minusDays(1)));
+
+        AdherenciaResumen resultado = AdherenciaCalculator.calcularResumenGeneral(
+            medicamento, tomas, Collections.singletonList(resumen));
+
+        assertEquals(2, resultado.getTomasRealizadas());
+        assertEquals(201, resultado.getTomasEsperadas());
+    }
+
+    @Test
+    public void resumenGeneral_noCuentaLasTomasPerdidasDelResumen() {
+        Medicamento medicamento = medicamento(2);
+        LocalDate archivado = LocalDate.now().minusDays(100);
+        medicamento.setFechaInicioTratamiento(inicioDeDia(archivado));
+        ResumenMensualTomas resumen = resumen(medicamento.getId(), archivado);
+        resumen.setCantidad(archivado.getDayOfMonth(), Toma.EstadoToma.TOMADA, 1);
+        resumen.setCantidad(archivado.getDayOfMonth(), Toma.EstadoToma.PERDIDA, 1);
+
+        AdherenciaResumen resultado = AdherenciaCalculator.calcularResumenGeneral(
+            medicamento, new ArrayList<>(), Collections.singletonList(resumen));
+
+        assertEquals(1, resultado.getTomasRealizadas());
+    }
+
+    @Test
+    public void resumenGeneral_ignoraDiasResumidosAntesDelInicioDelTratamiento() {
+        Medicamento medicamento = medicamento(1);
+        LocalDate inicio = LocalDate.now().minusDays(90);
+        medicamento.setFechaInicioTratamiento(inicioDeDia(inicio));
+        LocalDate anterior = inicio.minusDays(1);
+        ResumenMensualTomas resumen = resumen(medicamento.getId(), anterior);
+        resumen.setCantidad(anterior.getDayOfMonth(), Toma.EstadoToma.TOMADA, 1);
+
+        AdherenciaResumen resultado = AdherenciaCalculator.calcularResumenGeneral(
+            medicamento, new ArrayList<>(), Collections.singletonList(resumen));
+
+        assertEquals(0, resultado.getTomasRealizadas());
+    }
+
+    @Test
+    public void adherenciaSemanal_cuentaCadaDiaResumidoEnSuDia() {
+        Medicamento medicamento = medicamento(1);
+        LocalDate dia = LocalDate.now().minusDays(2);
+        ResumenMensualTomas resumen = resumen(medicamento.getId(), dia);
+        resumen.setCantidad(dia.getDayOfMonth(), Toma.EstadoToma.TOMADA, 1);
+        List<Toma> tomas = Collections.singletonList(toma(medicamento.getId(), dia));
+
+        List<AdherenciaIntervalo> intervalos = AdherenciaCalculator.calcularAdherenciaSemanal(
+            medicamento, tomas, Collections.singletonList(resumen));
+
+        // Los 7 días terminan hoy: hace 2 días es el índice 4
+        for (int i = 0; i < intervalos.size(); i++) {
+            assertEquals(i == 4 ? 2 : 0, intervalos.get(i).getTomasRealizadas());
+        }
+    }
+
+    @Test
+    public void adherenciaMensual_ubicaLosDiasResumidosEnSuSemana() {
+        Medicamento medicamento = medicamento(1);
+        LocalDate dia = LocalDate.now().minusDays(20);
+        ResumenMensualTomas resumen = resumen(medicamento.getId(), dia);
+        resumen.setCantidad(dia.getDayOfMonth(), Toma.EstadoToma.TOMADA, 3);
+
+        List<AdherenciaIntervalo> intervalos = AdherenciaCalculator.calcularAdherenciaMensual(
+            medicamento, new ArrayList<>(), Collections.singletonList(resumen));
+
+        // Las 4 semanas empiezan hace 27 días: hace 20 días cae en la segunda
+        assertEquals(0, intervalos.get(0).getTomasRealizadas());
+        assertEquals(3, intervalos.get(1).getTomasRealizadas());
+        assertEquals(0, intervalos.get(2).getTomasRealizadas());
+        assertEquals(0, intervalos.get(3).getTomasRealizadas());
+    }
+
+    @Test
+    public void filtrarResumenesPorMedicamento_descartaOtrosMedicamentosYNulos() {
+        ResumenMensualTomas propio = resumen("a", LocalDate.now());
+        List<ResumenMensualTomas> resumenes = new ArrayList<>();
+        resumenes.add(propio);
+        resumenes.add(null);
+        resumenes.add(resumen("b", LocalDate.now()));
+
+        assertEquals(Collections.singletonList(propio),
+            AdherenciaCalculator.filtrarResumenesPorMedicamento(resumenes, "a"));
+        assertEquals(0, AdherenciaCalculator.filtrarResumenesPorMedicamento(null, "a").size());
+    }
+
+    private static Medicamento medicamento(int tomasDiarias) {
+        Medicamento medicamento = new Medicamento();
+        medicamento.setId(UUID.randomUUID().toString());
+        medicamento.setNombre("Enalapril");
+        medicamento.setPresentacion("comprimidos");
+        medicamento.setTomasDiarias(tomasDiarias);
+        medicamento.setDiasTratamiento(-1);
+        return medicamento;
+    }
+
+    private static ResumenMensualTomas resumen(String medicamentoId, LocalDate mes) {
+        ResumenMensualTomas resumen = new ResumenMensualTomas();
+        resumen.setMedicamentoId(medicamentoId);
+        resumen.setAnio(mes.getYear());
+        resumen.setMes(mes.getMonthValue());
+        return resumen;
+    }
+
+    private static Toma toma(String medicamentoId, LocalDate dia) {
+        Toma toma = new Toma();
+        toma.setId(UUID.randomUUID().toString());
+        toma.setMedicamentoId(medicamentoId);
+        // Al mediodía, para que no dependa de la hora a la que corre el test
+        toma.setFechaHoraTomada(Date.from(dia.atTime(12, 0).atZone(ZoneId.systemDefault()).toInstant()));
+        toma.setEstado(Toma.EstadoToma.TOMADA);
+        return toma;
+    }
+
+    private static Date inicioDeDia(LocalDate dia) {
+        return Date.from(dia.atStartOfDay(ZoneId.systemDefault()).toInstant());
+    }
+}
@@ -0,0 +1,114 @@
+package com.controlmedicamentos.myapplication.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.controlmedicamentos.myapplication.Asignaciones;
+import java.text.SimpleDateFormat;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+import org.junit.Test;
+
+public class FormatosFechaTest {
+    private static final int ITERACIONES = 2_000;
+
+    @Test
+    public void instanteIso_usaUtcConMilisegundos() {
+        assertEquals("2026-03-05T11:30:15.042Z", FormatosFecha.instanteIso(new Date(1772710215042L)));
+    }
+
+    @Test
+    public void instanteIso_coincideConElFormatoDeLaWeb() throws Exception {
+        SimpleDateFormat web = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US);
+        web.setTimeZone(TimeZone.getTimeZone("UTC"));
+        Date fecha = new Date(1700000000123L);
+        assertEquals(web.format(fecha), FormatosFecha.instanteIso(fecha));
+    }
+
+    @Test
+    public void fechaYHoraLocal_usanLaZonaDelDispositivo() {
+        Date fecha = Date.from(LocalDateTime.of(2026, 1, 2, 7, 5).atZone(ZoneId.systemDefault()).toInstant());
+        assertEquals("2026-01-02", FormatosFecha.fechaLocal(fecha));
+        assertEquals("07:05", FormatosFecha.horaLocal(fecha));
+    }
+
+    @Test
+    public void parsearFechaLocal_devuelveElInicioDelDia() {
+        Date esperado = Date.from(LocalDate.of(2026, 2, 28).atStartOfDay(ZoneId.systemDefault()).toInstant());
+        assertEquals(esperado, FormatosFecha.parsearFechaLocal("2026-02-28"));
+        // Lo que sigue a la fecha (hora ISO de la web) se ignora
+        assertEquals(esperado, FormatosFecha.parsearFechaLocal("2026-02-28T23:59:00.000Z"));
+        assertEquals("2026-02-28", FormatosFecha.fechaLocal(FormatosFecha.parsearFechaLocal("2026-02-28")));
+    }
+
+    @Test
+    public void parsearFechaLocal_rechazaTextosInvalidos() {
+        assertNull(FormatosFecha.parsearFechaLocal(null));
+        assertNull(FormatosFecha.parsearFechaLocal("2026-02"));
+        assertNull(FormatosFecha.parsearFechaLocal("2026-02-30"));
+        assertNull(FormatosFecha.parsearFechaLocal("28/02/2026"));
+    }
+
+    /**
+     * Antes se creaba un SimpleDateFormat por campo y por documento
+     */
+    @Test
+    public void parsearFechaLocal_reservaMenosQueSimpleDateFormat() throws Exception {
+        String[] fechas = new String[365];
+        for (int i = 0; i < fechas.length; i++) {
+            fechas[i] = LocalDate.of(2025, 1, 1).plusDays(i).toString();
+        }
+        for (int i = 0; i < ITERACIONES; i++) {
+            FormatosFecha.parsearFechaLocal(fechas[i % fechas.length]);
+            new SimpleDateFormat("yyyy-MM-dd", Locale.US).parse(fechas[i % fechas.length]);
+        }
+
+        long compartido = Asignaciones.medir(() -> {
+            for (int i = 0; i < ITERACIONES; i++) {
+                FormatosFecha.parsearFechaLocal(fechas[i % fechas.length]);
+            }
+        }) / ITERACIONES;
+        long porLlamada = Asignaciones.medir(() -> {
+            for (int i = 0; i < ITERACIONES; i++) {
+                new SimpleDateFormat("yyyy-MM-dd", Locale.US).parse(fechas[i % fechas.length]);
+            }
+        }) / ITERACIONES;
+
+        assertTrue("parsearFechaLocal " + compartido + " B, SimpleDateFormat " + porLlamada + " B",
+            compartido < porLlamada);
+    }
+
+    @Test
+    public void instanteIso_reservaMenosQueSimpleDateFormat() throws Exception {
+        Date fecha = new Date(1772710215042L);
+        for (int i = 0; i < ITERACIONES; i++) {
+            FormatosFecha.instanteIso(fecha);
+            isoConSimpleDateFormat(fecha);
+        }
+
+        long compartido = Asignaciones.medir(() -> {
+            for (int i = 0; i < ITERACIONES; i++) {
+                FormatosFecha.instanteIso(fecha);
+            }
+        }) / ITERACIONES;
+        long porLlamada = Asignaciones.medir(() -> {
+            for (int i = 0; i < ITERACIONES; i++) {
+                isoConSimpleDateFormat(fecha);
+            }
+        }) / ITERACIONES;
+
+        assertTrue("instanteIso " + compartido + " B, SimpleDateFormat " + porLlamada + " B",
+            compartido < porLlamada);
+    }
+
+    private static String isoConSimpleDateFormat(Date fecha) {
+        SimpleDateFormat formato = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US);
+        formato.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return formato.format(fecha);
+    }
+}
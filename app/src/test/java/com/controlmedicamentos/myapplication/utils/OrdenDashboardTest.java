@@ -0,0 +1,102 @@
+package com.controlmedicamentos.myapplication.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.controlmedicamentos.myapplication.models.Medicamento;
+import com.controlmedicamentos.myapplication.services.TomaTrackingService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.Test;
+
+public class OrdenDashboardTest {
+    private static final int NUEVE = 9 * 60;
+
+    private final Set<String> omitidas = new HashSet<>();
+    private final OrdenDashboard orden = new OrdenDashboard(omitidas::contains);
+
+    @Test
+    public void ordenar_ponePrimeroLaTomaMasProxima() {
+        List<Medicamento> lista = lista(
+            medicamento("a", "20:00"),
+            medicamento("b", "10:00"),
+            medicamento("c", "09:30"));
+
+        assertTrue(orden.ordenar(lista, NUEVE));
+        assertEquals(Arrays.asList("c", "b", "a"), ids(lista));
+    }
+
+    @Test
+    public void ordenar_lasTomasQueYaPasaronCuentanParaManana() {
+        List<Medicamento> lista = lista(
+            medicamento("manana", "08:00"),
+            medicamento("noche", "22:00"));
+
+        assertTrue(orden.ordenar(lista, NUEVE));
+        assertEquals(Arrays.asList("noche", "manana"), ids(lista));
+        // Un minuto después el orden no cambia y la lista no se toca
+        assertFalse(orden.ordenar(lista, NUEVE + 1));
+        // A las 7:00 la de las 8:00 es la más próxima
+        assertTrue(orden.ordenar(lista, 7 * 60));
+        assertEquals(Arrays.asList("manana", "noche"), ids(lista));
+    }
+
+    @Test
+    public void ordenar_losMedicamentosConTomasOmitidasVanAlFinal() {
+        List<Medicamento> lista = lista(
+            medicamento("omitido", "09:05"),
+            medicamento("tarde", "21:00"));
+        omitidas.add("omitido");
+
+        assertTrue(orden.ordenar(lista, NUEVE));
+        assertEquals(Arrays.asList("tarde", "omitido"), ids(lista));
+    }
+
+    @Test
+    public void ordenar_losOcasionalesSinHorarioVanDespuesDeLosProgramados() {
+        Medicamento ocasional = new Medicamento();
+        ocasional.setId("ocasional");
+        List<Medicamento> lista = lista(ocasional, medicamento("programado", "23:00"));
+
+        assertTrue(orden.ordenar(lista, NUEVE));
+        assertEquals(Arrays.asList("programado", "ocasional"), ids(lista));
+    }
+
+    @Test
+    public void ordenar_listaVaciaONulaNoCambia() {
+        assertFalse(orden.ordenar(null, NUEVE));
+        assertFalse(orden.ordenar(new ArrayList<>(), NUEVE));
+    }
+
+    @Test
+    public void ordenar_sinTrackingNoHayOmitidas() {
+        OrdenDashboard sinTracking = new OrdenDashboard((TomaTrackingService) null);
+        List<Medicamento> lista = lista(medicamento("b", "12:00"), medicamento("a", "10:00"));
+
+        assertTrue(sinTracking.ordenar(lista, NUEVE));
+        assertEquals(Arrays.asList("a", "b"), ids(lista));
+    }
+
+    private static Medicamento medicamento(String id, String... horarios) {
+        Medicamento medicamento = new Medicamento();
+        medicamento.setId(id);
+        medicamento.setHorariosTomas(Arrays.asList(horarios));
+        return medicamento;
+    }
+
+    private static List<Medicamento> lista(Medicamento... medicamentos) {
+        return new ArrayList<>(Arrays.asList(medicamentos));
+    }
+
+    private static List<String> ids(List<Medicamento> lista) {
+        List<String> ids = new ArrayList<>();
+        for (Medicamento medicamento : lista) {
+            ids.add(medicamento.getId());
+        }
+        return ids;
+    }
+}
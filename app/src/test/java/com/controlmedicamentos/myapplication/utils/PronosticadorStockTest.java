@@ -0,0 +1,158 @@
+package com.controlmedicamentos.myapplication.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.controlmedicamentos.myapplication.models.Medicamento;
+import com.controlmedicamentos.myapplication.models.PronosticoStock;
+import com.controlmedicamentos.myapplication.models.Toma;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+/**
+ * El pronosticador es un singleton: cada test usa medicamentos con IDs propios
+ */
+public class PronosticadorStockTest {
+    private final PronosticadorStock pronosticador = PronosticadorStock.getInstance();
+
+    @Test
+    public void pronosticar_usaElConsumoObservadoEnLaVentana() {
+        Medicamento medicamento = medicamento(20, 1);
+        // Dos tomas por día durante los últimos 5 días (hoy incluido)
+        pronosticador.cargarTomas(tomasDiarias(medicamento.getId(), 5, 2));
+
+        PronosticoStock pronostico = pronosticador.pronosticar(medicamento);
+        assertTrue(pronostico.isConsumoObservado());
+        assertEquals(2.0, pronostico.getConsumoDiario(), 0.0001);
+        assertEquals(10, pronostico.getDiasHastaAgotarse());
+    }
+
+    @Test
+    public void pronosticar_conPocosDiasObservadosUsaLasTomasDiarias() {
+        Medicamento medicamento = medicamento(12, 3);
+        pronosticador.cargarTomas(tomasDiarias(medicamento.getId(), 2, 5));
+
+        PronosticoStock pronostico = pronosticador.pronosticar(medicamento);
+        assertFalse(pronostico.isConsumoObservado());
+        assertEquals(3.0, pronostico.getConsumoDiario(), 0.0001);
+        assertEquals(4, pronostico.getDiasHastaAgotarse());
+    }
+
+    @Test
+    public void cargarTomas_noCuentaDosVecesLaMismaToma() {
+        Medicamento medicamento = medicamento(30, 1);
+        List<Toma> tomas = tomasDiarias(medicamento.getId(), 5, 1);
+
+        pronosticador.cargarTomas(tomas);
+        pronosticador.cargarTomas(tomas);
+
+        assertEquals(1.0, pronosticador.pronosticar(medicamento).getConsumoDiario(), 0.0001);
+    }
+
+    @Test
+    public void cargarTomas_conservaLasDosisRegistradasQueNoVienenEnLaCarga() {
+        Medicamento medicamento = medicamento(30, 1);
+        List<Toma> tomas = tomasDiarias(medicamento.getId(), 5, 1);
+        pronosticador.cargarTomas(tomas);
+
+        // Dosis en la cola sin confirmar: no viene en la carga siguiente, pero se sigue contando
+        pronosticador.registrarConsumo(medicamento.getId(), "pendiente-1", new Date());
+        pronosticador.cargarTomas(tomas);
+        assertEquals(6 / 5.0, pronosticador.pronosticar(medicamento).getConsumoDiario(), 0.0001);
+
+        // Cuando llega confirmada (mismo ID de documento) no se vuelve a contar
+        Toma confirmada = toma(medicamento.getId(), "pendiente-1", new Date());
+        pronosticador.cargarTomas(Collections.singletonList(confirmada));
+        assertEquals(6 / 5.0, pronosticador.pronosticar(medicamento).getConsumoDiario(), 0.0001);
+    }
+
+    @Test
+    public void cargarTomas_ignoraLasTomasFueraDeLaVentanaYLasNoTomadas() {
+        Medicamento medicamento = medicamento(30, 1);
+        List<Toma> tomas = tomasDiarias(medicamento.getId(), 4, 1);
+        tomas.add(toma(medicamento.getId(), "vieja", haceDias(30)));
+        Toma perdida = toma(medicamento.getId(), "perdida", new Date());
+        perdida.setEstado(Toma.EstadoToma.PERDIDA);
+        tomas.add(perdida);
+
+        pronosticador.cargarTomas(tomas);
+
+        assertEquals(1.0, pronosticador.pronosticar(medicamento).getConsumoDiario(), 0.0001);
+    }
+
+    @Test
+    public void pronosticar_noCuentaDosVecesLasTomasCopiadasDelArrayDeLaWeb() {
+        Medicamento medicamento = medicamento(30, 1);
+        Date hoy = new Date();
+        List<Date> fechas = new ArrayList<>();
+        for (int dia = 0; dia < 5; dia++) {
+            fechas.add(haceDias(dia));
+        }
+        fechas.add(hoy); // Misma fecha y hora que la primera: otra entrada, otra toma
+        fechas.set(0, hoy);
+        medicamento.setFechasTomasRealizadas(fechas);
+        assertEquals(6 / 5.0, pronosticador.pronosticar(medicamento).getConsumoDiario(), 0.0001);
+
+        // Las copias en la colección de tomas tienen el ID que deriva MigracionTomasRealizadas
+        List<Toma> copias = new ArrayList<>();
+        for (int i = 0; i < fechas.size(); i++) {
+            Date fecha = fechas.get(i);
+            String id = Toma.idTomaRealizada(medicamento.getId(), FormatosFecha.fechaLocal(fecha),
+                FormatosFecha.horaLocal(fecha), i == fechas.size() - 1 ? 1 : 0);
+            copias.add(toma(medicamento.getId(), id, fecha));
+        }
+        pronosticador.cargarTomas(copias);
+        assertEquals(6 / 5.0, pronosticador.pronosticar(medicamento).getConsumoDiario(), 0.0001);
+    }
+
+    @Test
+    public void pronosticar_sinStockSeAgotaHoy() {
+        Medicamento medicamento = medicamento(0, 2);
+        assertEquals(0, pronosticador.pronosticar(medicamento).getDiasHastaAgotarse());
+    }
+
+    @Test
+    public void pronosticar_ocasionalSinConsumoNoSeProyecta() {
+        Medicamento medicamento = medicamento(10, 0);
+        assertEquals(PronosticoStock.DESCONOCIDO, pronosticador.pronosticar(medicamento).getDiasHastaAgotarse());
+    }
+
+    private static Medicamento medicamento(int stock, int tomasDiarias) {
+        Medicamento medicamento = new Medicamento();
+        medicamento.setId(UUID.randomUUID().toString());
+        medicamento.setPresentacion("comprimidos");
+        medicamento.setTomasDiarias(tomasDiarias);
+        medicamento.setStockInicial(Math.max(stock, 1));
+        medicamento.setStockActual(stock);
+        return medicamento;
+    }
+
+    private static List<Toma> tomasDiarias(String medicamentoId, int dias, int porDia) {
+        List<Toma> tomas = new ArrayList<>();
+        for (int dia = 0; dia < dias; dia++) {
+            for (int i = 0; i < porDia; i++) {
+                tomas.add(toma(medicamentoId, medicamentoId + "-" + dia + "-" + i, haceDias(dia)));
+            }
+        }
+        return tomas;
+    }
+
+    private static Toma toma(String medicamentoId, String id, Date fecha) {
+        Toma toma = new Toma();
+        toma.setId(id);
+        toma.setMedicamentoId(medicamentoId);
+        toma.setFechaHoraTomada(fecha);
+        toma.setEstado(Toma.EstadoToma.TOMADA);
+        return toma;
+    }
+
+    private static Date haceDias(int dias) {
+        return new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(dias));
+    }
+}
@@ -0,0 +1,126 @@
+package com.controlmedicamentos.myapplication.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.controlmedicamentos.myapplication.PreferenciasEnMemoria;
+import com.controlmedicamentos.myapplication.models.Medicamento;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import org.junit.Test;
+
+public class StockAlertUtilsTest {
+    private static final int DIAS_ALERTA = 7;
+
+    private final PreferenciasEnMemoria preferencias = new PreferenciasEnMemoria();
+    private final List<String> alertas = new ArrayList<>();
+    private final StockAlertUtils.StockAlertListener listener = new StockAlertUtils.StockAlertListener() {
+        @Override
+        public void onStockAgotado(Medicamento medicamento) {
+            alertas.add("agotado");
+        }
+
+        @Override
+        public void onStockBajo(Medicamento medicamento, int diasRestantes, String mensaje) {
+            alertas.add(diasRestantes + " días");
+        }
+    };
+
+    @Test
+    public void calcularNivel_porDiasRestantes() {
+        assertEquals(StockAlertUtils.NivelAlerta.UN_DIA, StockAlertUtils.calcularNivel(1, DIAS_ALERTA));
+        assertEquals(StockAlertUtils.NivelAlerta.DOS_DIAS, StockAlertUtils.calcularNivel(2, DIAS_ALERTA));
+        assertEquals(StockAlertUtils.NivelAlerta.TRES_DIAS, StockAlertUtils.calcularNivel(3, DIAS_ALERTA));
+        assertEquals(StockAlertUtils.NivelAlerta.SIETE_DIAS, StockAlertUtils.calcularNivel(4, DIAS_ALERTA));
+        assertEquals(StockAlertUtils.NivelAlerta.SIETE_DIAS, StockAlertUtils.calcularNivel(7, DIAS_ALERTA));
+        assertEquals(StockAlertUtils.NivelAlerta.NINGUNO, StockAlertUtils.calcularNivel(8, DIAS_ALERTA));
+        assertEquals(StockAlertUtils.NivelAlerta.NINGUNO, StockAlertUtils.calcularNivel(0, DIAS_ALERTA));
+    }
+
+    @Test
+    public void calcularNivel_respetaLosDiasDeAntelacionConfigurados() {
+        assertEquals(StockAlertUtils.NivelAlerta.SIETE_DIAS, StockAlertUtils.calcularNivel(10, 14));
+        assertEquals(StockAlertUtils.NivelAlerta.NINGUNO, StockAlertUtils.calcularNivel(5, 4));
+    }
+
+    @Test
+    public void desdeCodigo_esLaInversaDelCodigoPersistido() {
+        for (StockAlertUtils.NivelAlerta nivel : StockAlertUtils.NivelAlerta.values()) {
+            assertEquals(nivel, StockAlertUtils.NivelAlerta.desdeCodigo(nivel.codigo));
+        }
+        assertEquals(StockAlertUtils.NivelAlerta.NINGUNO, StockAlertUtils.NivelAlerta.desdeCodigo(99));
+    }
+
+    @Test
+    public void verificarStock_soloAlertaAlCambiarDeNivel() {
+        // Una toma diaria y 30 días de tratamiento: el stock alcanza para tantos días como unidades
+        Medicamento medicamento = medicamento(6);
+
+        verificar(medicamento);
+        verificar(medicamento);
+        assertEquals(Collections.singletonList("6 días"), alertas);
+
+        medicamento.setStockActual(3);
+        verificar(medicamento);
+        medicamento.setStockActual(2);
+        verificar(medicamento);
+        medicamento.setStockActual(1);
+        verificar(medicamento);
+        medicamento.setStockActual(0);
+        verificar(medicamento);
+        verificar(medicamento);
+        assertEquals(List.of("6 días", "3 días", "2 días", "1 días", "agotado"), alertas);
+    }
+
+    @Test
+    public void verificarStock_alReponerVuelveANingunoYSePuedeAlertarDeNuevo() {
+        Medicamento medicamento = medicamento(0);
+        verificar(medicamento);
+        assertTrue(preferencias.contains("alerta_stock_" + medicamento.getId()));
+
+        medicamento.setStockActual(30);
+        verificar(medicamento);
+        assertFalse(preferencias.contains("alerta_stock_" + medicamento.getId()));
+
+        medicamento.setStockActual(0);
+        verificar(medicamento);
+        assertEquals(List.of("agotado", "agotado"), alertas);
+    }
+
+    @Test
+    public void verificarStock_persisteElNivelNotificado() {
+        Medicamento medicamento = medicamento(2);
+        verificar(medicamento);
+
+        assertEquals(StockAlertUtils.NivelAlerta.DOS_DIAS.codigo,
+            preferencias.getInt("alerta_stock_" + medicamento.getId(), -1));
+    }
+
+    @Test
+    public void verificarStock_olvidaLosMedicamentosEliminados() {
+        Medicamento eliminado = medicamento(0);
+        verificar(eliminado);
+
+        StockAlertUtils.verificarStock(preferencias, Collections.singletonList(medicamento(30)), listener, DIAS_ALERTA);
+        assertFalse(preferencias.contains("alerta_stock_" + eliminado.getId()));
+    }
+
+    private void verificar(Medicamento medicamento) {
+        StockAlertUtils.verificarStock(preferencias, Collections.singletonList(medicamento), listener, DIAS_ALERTA);
+    }
+
+    private static Medicamento medicamento(int stock) {
+        Medicamento medicamento = new Medicamento();
+        medicamento.setId(UUID.randomUUID().toString());
+        medicamento.setNombre("Amoxicilina");
+        medicamento.setPresentacion("comprimidos");
+        medicamento.setTomasDiarias(1);
+        medicamento.setDiasTratamiento(30);
+        medicamento.setStockInicial(30);
+        medicamento.setStockActual(stock);
+        return medicamento;
+    }
+}